@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Renames many HTML and JS files against a single rename map. The rename map is shared read-only
+ * between the workers of a work-stealing pool, and a failure in one file does not stop the batch.
+ */
+final class BatchRenamer {
+
+  private final RenameMap renameMap;
+  private final ImmutableSet<JsRenamer.OutputFormat> outputFormat;
+  private final ImmutableSet<HtmlRenamer.OutputFormat> htmlOutputFormat;
+  private final Path inputDir;
+  private final Path outputDir;
+  private final ResultCache resultCache;
+  private final IncrementalIndex incrementalIndex;
+  private final RenameMetrics metrics;
+  private final Diagnostics diagnostics;
+
+  /**
+   * Constructs a BatchRenamer.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param outputFormat The JavaScript output format options.
+   * @param htmlOutputFormat The HTML output format options.
+   * @param inputDir The directory input files are relative to.
+   * @param outputDir The directory to write renamed files to. Input files keep their path relative
+   *     to {@code inputDir} under this directory.
+   * @param resultCache Where renamed files are looked up before renaming them. Can be null.
+   * @param incrementalIndex Which outputs of the previous batch are current and can be kept as
+   *     they are. Can be null.
+   * @param metrics The measurements of the run each file is added to. Can be null.
+   * @param diagnostics The warnings and errors of the run each file is added to. Can be null.
+   */
+  BatchRenamer(
+      RenameMap renameMap,
+      ImmutableSet<JsRenamer.OutputFormat> outputFormat,
+      ImmutableSet<HtmlRenamer.OutputFormat> htmlOutputFormat,
+      Path inputDir,
+      Path outputDir,
+      ResultCache resultCache,
+      IncrementalIndex incrementalIndex,
+      RenameMetrics metrics,
+      Diagnostics diagnostics) {
+    this.renameMap = Preconditions.checkNotNull(renameMap);
+    this.outputFormat = Preconditions.checkNotNull(outputFormat);
+    this.htmlOutputFormat = Preconditions.checkNotNull(htmlOutputFormat);
+    this.inputDir = Preconditions.checkNotNull(inputDir);
+    this.outputDir = Preconditions.checkNotNull(outputDir);
+    this.resultCache = resultCache;
+    this.incrementalIndex = incrementalIndex;
+    this.metrics = metrics;
+    this.diagnostics = diagnostics;
+  }
+
+  /**
+   * Lists the renameable files under a directory.
+   *
+   * @param inputDir The directory to search.
+   * @param glob A glob relative to {@code inputDir} files must match. Can be null.
+   * @return The renameable files in a stable order.
+   */
+  static List<Path> findInputFiles(Path inputDir, String glob) throws IOException {
+    final PathMatcher matcher = newInputFileMatcher(inputDir, glob);
+    final List<Path> inputFiles = new ArrayList<>();
+    Files.walkFileTree(
+        inputDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (matcher.matches(file)) {
+              inputFiles.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    Collections.sort(inputFiles);
+    return inputFiles;
+  }
+
+  /**
+   * Returns a matcher of the files under a directory that {@link #findInputFiles} lists.
+   *
+   * @param inputDir The directory files are found in.
+   * @param glob A glob relative to {@code inputDir} files must match. Can be null.
+   */
+  static PathMatcher newInputFileMatcher(final Path inputDir, String glob) {
+    final PathMatcher globMatcher =
+        glob == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    return new PathMatcher() {
+      @Override
+      public boolean matches(Path file) {
+        return PolymerRenamer.isRenameableFile(file.toString())
+            && (globMatcher == null || globMatcher.matches(inputDir.relativize(file)));
+      }
+    };
+  }
+
+  /**
+   * Reads a manifest of input files, one per line. Blank lines are ignored.
+   *
+   * @param inputDir The directory relative entries are resolved against.
+   * @param manifest The manifest file.
+   * @return The input files in manifest order.
+   */
+  static List<Path> readManifest(Path inputDir, Path manifest) throws IOException {
+    List<Path> inputFiles = new ArrayList<>();
+    for (String line : Files.readAllLines(manifest, UTF_8)) {
+      line = line.trim();
+      if (!line.isEmpty()) {
+        inputFiles.add(inputDir.resolve(line));
+      }
+    }
+    return inputFiles;
+  }
+
+  /**
+   * Renames all of the input files, writing the results under the output directory.
+   *
+   * @param inputFiles The files to rename.
+   * @param parallelism The number of files to rename concurrently.
+   * @return The number of files that failed to rename.
+   */
+  int renameAll(List<Path> inputFiles, int parallelism) {
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+    try {
+      return renameAll(inputFiles, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Renames all of the input files on a pool that outlives the batch, so that its threads are
+   * reused between batches.
+   *
+   * @param inputFiles The files to rename.
+   * @param pool The pool the files are renamed on.
+   * @return The number of files that failed to rename.
+   */
+  int renameAll(List<Path> inputFiles, ForkJoinPool pool) {
+    List<Callable<Boolean>> tasks = new ArrayList<>();
+    for (final Path inputFile : inputFiles) {
+      tasks.add(
+          new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+              return renameFile(inputFile);
+            }
+          });
+    }
+    int failures = 0;
+    List<Future<Boolean>> results = pool.invokeAll(tasks);
+    for (int i = 0; i < results.size(); i++) {
+      try {
+        if (!results.get(i).get()) {
+          failures++;
+        }
+      } catch (ExecutionException e) {
+        // Only errors escape renameFile, which reports everything else while its file is collected.
+        String inputFilename = inputFiles.get(i).toString();
+        Diagnostics.Scope fileDiagnostics = Diagnostics.startFile(diagnostics, inputFilename);
+        try {
+          Diagnostics.report(
+              Diagnostics.Severity.ERROR,
+              Diagnostics.Category.RENAME_FAILURE,
+              "Unable to rename " + inputFilename + ": " + e.getCause());
+        } finally {
+          fileDiagnostics.close();
+        }
+        failures++;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return failures + 1;
+      }
+    }
+    return failures;
+  }
+
+  /** Returns where the renamed output of {@code inputFile} is written. */
+  Path getOutputFile(Path inputFile) {
+    Path relativePath =
+        inputFile.isAbsolute() && !inputFile.startsWith(inputDir.toAbsolutePath())
+            ? inputFile.getFileName()
+            : inputDir.toAbsolutePath().relativize(inputFile.toAbsolutePath());
+    return outputDir.resolve(relativePath);
+  }
+
+  /**
+   * Renames a single file of the batch, reporting any failure as a diagnostic of the file.
+   *
+   * @return true if the file was renamed successfully.
+   */
+  private boolean renameFile(Path inputFile) {
+    String inputFilename = inputFile.toString();
+    RenameMetrics.Scope file = RenameMetrics.startFile(metrics, inputFilename);
+    Diagnostics.Scope fileDiagnostics = Diagnostics.startFile(diagnostics, inputFilename);
+    try {
+      String inputFileContent;
+      RenameMetrics.Scope readPhase = RenameMetrics.phase(RenameMetrics.Phase.READ);
+      try {
+        inputFileContent = PolymerRenamer.getFileContent(inputFilename);
+      } finally {
+        readPhase.close();
+      }
+      RenameMetrics.recordInput(inputFileContent);
+      Path outputFile = getOutputFile(inputFile);
+      Path outputFileParent = outputFile.getParent();
+      if (outputFileParent != null) {
+        Files.createDirectories(outputFileParent);
+      }
+      String inputDigest = null;
+      if (incrementalIndex != null) {
+        inputDigest = IncrementalIndex.getInputDigest(inputFileContent);
+        if (incrementalIndex.isCurrent(outputFile, inputDigest, renameMap)) {
+          return true;
+        }
+      }
+      String cacheKey = null;
+      if (resultCache != null && PolymerRenamer.isRenameableFile(inputFilename)) {
+        cacheKey =
+            resultCache.getKey(
+                inputFilename, inputFileContent, outputFormat, htmlOutputFormat, null);
+        if (incrementalIndex == null) {
+          if (resultCache.restore(cacheKey, outputFile, null, null)) {
+            return true;
+          }
+        } else {
+          // Entries stored without their looked-up symbols can't be indexed and are renamed again.
+          List<String> lookedUpSymbols = resultCache.getSymbols(cacheKey);
+          if (lookedUpSymbols != null && resultCache.restore(cacheKey, outputFile, null, null)) {
+            RecordingRenameMap recordingRenameMap = new RecordingRenameMap(renameMap);
+            recordingRenameMap.record(lookedUpSymbols);
+            incrementalIndex.record(outputFile, inputDigest, recordingRenameMap);
+            return true;
+          }
+        }
+      }
+
+      RecordingRenameMap recordingRenameMap =
+          incrementalIndex == null ? null : new RecordingRenameMap(renameMap);
+      RenameMap fileRenameMap = recordingRenameMap == null ? renameMap : recordingRenameMap;
+      PolymerRenamer.ParsedInput parsedInput =
+          PolymerRenamer.prepareFileContent(
+              fileRenameMap,
+              inputFilename,
+              inputFileContent,
+              outputFormat,
+              htmlOutputFormat,
+              null,
+              null);
+      if (parsedInput == null) {
+        Diagnostics.report(
+            Diagnostics.Severity.ERROR,
+            Diagnostics.Category.UNSUPPORTED_FILE,
+            "Unable to rename unsupported file: " + inputFilename);
+        return false;
+      }
+      RenameMetrics.Scope writePhase = RenameMetrics.phase(RenameMetrics.Phase.WRITE);
+      try (OutputWriter output = OutputWriter.create(outputFile)) {
+        parsedInput.rename(fileRenameMap, output);
+        output.commit();
+        RenameMetrics.recordOutput(output.size());
+      } finally {
+        writePhase.close();
+      }
+      if (cacheKey != null) {
+        if (recordingRenameMap != null) {
+          resultCache.putSymbols(cacheKey, recordingRenameMap.getLookedUpSymbols());
+        }
+        resultCache.putFile(cacheKey, outputFile, null);
+      }
+      if (recordingRenameMap != null) {
+        incrementalIndex.record(outputFile, inputDigest, recordingRenameMap);
+      }
+      return true;
+    } catch (JavaScriptParsingException e) {
+      Diagnostics.report(
+          Diagnostics.Severity.ERROR,
+          Diagnostics.Category.FILE_PARSE_ERROR,
+          String.format("Error encountered parsing %s.%n%s", inputFilename, e));
+    } catch (IOException e) {
+      Diagnostics.report(
+          Diagnostics.Severity.ERROR,
+          Diagnostics.Category.FILE_IO_ERROR,
+          "Unable to rename " + inputFilename + ": " + e);
+    } catch (RuntimeException e) {
+      Diagnostics.report(
+          Diagnostics.Severity.ERROR,
+          Diagnostics.Category.RENAME_FAILURE,
+          "Unable to rename " + inputFilename + ": " + e);
+    } finally {
+      fileDiagnostics.close();
+      file.close();
+    }
+    return false;
+  }
+}
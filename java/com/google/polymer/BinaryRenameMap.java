@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A rename map stored in a memory-mapped file. Opening the file is O(1) in the size of the map and
+ * processes renaming against the same file share its pages. Lookups encode the symbol as UTF-8
+ * into a buffer kept per thread, then hash the bytes and compare them in place, so only the renamed
+ * symbol of a hit is decoded.
+ *
+ * <p>The index is a minimal perfect hash built with the hash, displace and compress algorithm.
+ * Every symbol hashes to a bucket. Buckets holding several symbols store the seed that hashes all
+ * of them to distinct slots, and buckets holding a single symbol store its slot directly. The file
+ * is laid out as follows, with all integers big endian:
+ *
+ * <pre>
+ * magic          8 bytes
+ * version        int
+ * entry count    int
+ * bucket count   int
+ * buckets        int[bucket count]   seed, or -(slot + 1) for single symbol buckets
+ * slots          int[entry count]    file offset of the entry in each slot
+ * entries        key length (unsigned short), key, value length (unsigned short), value
+ * </pre>
+ */
+final class BinaryRenameMap extends RenameMap {
+
+  // Identifies binary property maps. The leading non-ASCII byte keeps text maps from matching.
+  private static final long MAGIC = 0x8950524D41500D0AL;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 20;
+
+  // The longest symbol in bytes that can be stored.
+  private static final int MAX_SYMBOL_LENGTH = 0xFFFF;
+
+  // The number of seeds to try for a bucket before giving up on building the index.
+  private static final int MAX_SEED = 1 << 24;
+
+  // Buffers that looked up symbols are encoded into, grown to the longest symbol looked up.
+  private static final ThreadLocal<byte[]> utf8Buffers =
+      new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+          return new byte[256];
+        }
+      };
+
+  private final ByteBuffer buffer;
+  private final int entryCount;
+  private final int bucketCount;
+  private final int slotsOffset;
+
+  // Hashed from the mapped file on first use, since only cached renames need it.
+  private volatile byte[] contentDigest;
+
+  private BinaryRenameMap(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.capacity() < HEADER_SIZE
+        || buffer.getLong(0) != MAGIC
+        || buffer.getInt(8) != VERSION) {
+      throw new IOException("Not a binary property map");
+    }
+    this.entryCount = buffer.getInt(12);
+    this.bucketCount = buffer.getInt(16);
+    if (entryCount < 0
+        || bucketCount < 1
+        || HEADER_SIZE + 4L * bucketCount + 4L * entryCount > buffer.capacity()) {
+      throw new IOException("Corrupt binary property map");
+    }
+    this.slotsOffset = HEADER_SIZE + 4 * bucketCount;
+  }
+
+  /**
+   * Returns true if the file starts like a binary property map.
+   *
+   * @param path The property map file.
+   */
+  static boolean isBinaryRenameMap(Path path) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      byte[] magic = new byte[8];
+      int read = 0;
+      while (read < magic.length) {
+        int count = in.read(magic, read, magic.length - read);
+        if (count < 0) {
+          return false;
+        }
+        read += count;
+      }
+      return ByteBuffer.wrap(magic).getLong() == MAGIC;
+    }
+  }
+
+  /**
+   * Maps a binary property map into memory.
+   *
+   * @param path The binary property map file.
+   * @return The rename map stored in the file.
+   */
+  static BinaryRenameMap open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Binary property map is too large: " + path);
+      }
+      // The mapping stays valid after the channel is closed.
+      return new BinaryRenameMap(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  /**
+   * Writes a rename map as a binary property map.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param path The file to write.
+   */
+  static void write(Map<String, String> renameMap, Path path) throws IOException {
+    int entryCount = renameMap.size();
+    byte[][] keys = new byte[entryCount][];
+    byte[][] values = new byte[entryCount][];
+    int entry = 0;
+    for (Map.Entry<String, String> mapEntry : renameMap.entrySet()) {
+      keys[entry] = encodeSymbol(mapEntry.getKey());
+      values[entry] = encodeSymbol(mapEntry.getValue());
+      entry++;
+    }
+
+    int bucketCount = Math.max(1, entryCount);
+    int[] buckets = buildIndex(keys, bucketCount);
+    int[] slots = new int[entryCount];
+    for (entry = 0; entry < entryCount; entry++) {
+      slots[getSlot(buckets, bucketCount, entryCount, keys[entry])] = entry;
+    }
+
+    // Processes may have the existing file mapped, so it is replaced rather than overwritten.
+    Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+      out.writeLong(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entryCount);
+      out.writeInt(bucketCount);
+      for (int bucket : buckets) {
+        out.writeInt(bucket);
+      }
+      long offset = HEADER_SIZE + 4L * bucketCount + 4L * entryCount;
+      for (int slot = 0; slot < entryCount; slot++) {
+        int slotEntry = slots[slot];
+        if (offset > Integer.MAX_VALUE) {
+          throw new IOException("Rename map is too large for a binary property map");
+        }
+        out.writeInt((int) offset);
+        offset += 4 + keys[slotEntry].length + values[slotEntry].length;
+      }
+      for (int slot = 0; slot < entryCount; slot++) {
+        int slotEntry = slots[slot];
+        out.writeShort(keys[slotEntry].length);
+        out.write(keys[slotEntry]);
+        out.writeShort(values[slotEntry].length);
+        out.write(values[slotEntry]);
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(temporaryPath);
+      throw e;
+    }
+    Files.move(
+        temporaryPath,
+        path,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public String get(String symbol) {
+    return get(symbol, 0, symbol.length());
+  }
+
+  @Override
+  String get(CharSequence text, int start, int end) {
+    if (entryCount == 0 || end - start > MAX_SYMBOL_LENGTH) {
+      return null;
+    }
+    byte[] key = utf8Buffers.get();
+    if (key.length < 3 * (end - start)) {
+      key = new byte[3 * (end - start)];
+      utf8Buffers.set(key);
+    }
+    int keyLength = encode(text, start, end, key);
+    int bucket =
+        buffer.getInt(HEADER_SIZE + 4 * index(hash(key, keyLength, 0), bucketCount));
+    int slot = bucket < 0 ? -bucket - 1 : index(hash(key, keyLength, bucket), entryCount);
+    int position = buffer.getInt(slotsOffset + 4 * slot);
+
+    if ((buffer.getShort(position) & 0xFFFF) != keyLength) {
+      return null;
+    }
+    position += 2;
+    for (int i = 0; i < keyLength; i++) {
+      if (buffer.get(position + i) != key[i]) {
+        return null;
+      }
+    }
+    position += keyLength;
+
+    byte[] value = new byte[buffer.getShort(position) & 0xFFFF];
+    position += 2;
+    for (int i = 0; i < value.length; i++) {
+      value[i] = buffer.get(position + i);
+    }
+    return new String(value, UTF_8);
+  }
+
+  /**
+   * Encodes a slice of text as UTF-8 like String.getBytes, replacing unpaired surrogates with '?'.
+   *
+   * @param key The buffer to encode into, which holds three bytes for every char of the slice.
+   * @return The number of bytes encoded.
+   */
+  private static int encode(CharSequence text, int start, int end, byte[] key) {
+    int length = 0;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        key[length++] = (byte) c;
+      } else if (c < 0x800) {
+        key[length++] = (byte) (0xC0 | (c >> 6));
+        key[length++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < end
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        key[length++] = (byte) (0xF0 | (codePoint >> 18));
+        key[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        key[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        key[length++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        key[length++] = '?';
+      } else {
+        key[length++] = (byte) (0xE0 | (c >> 12));
+        key[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        key[length++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return length;
+  }
+
+  @Override
+  public int size() {
+    return entryCount;
+  }
+
+  @Override
+  byte[] getContentDigest() {
+    byte[] digest = contentDigest;
+    if (digest == null) {
+      Hasher hasher = Hashing.sha256().newHasher();
+      ByteBuffer content = buffer.duplicate();
+      content.clear();
+      byte[] chunk = new byte[1 << 16];
+      while (content.hasRemaining()) {
+        int length = Math.min(chunk.length, content.remaining());
+        content.get(chunk, 0, length);
+        hasher.putBytes(chunk, 0, length);
+      }
+      digest = hasher.hash().asBytes();
+      contentDigest = digest;
+    }
+    return digest;
+  }
+
+  @Override
+  Iterable<String> symbols() {
+    return new Iterable<String>() {
+      @Override
+      public Iterator<String> iterator() {
+        return new UnmodifiableIterator<String>() {
+          private int remaining = entryCount;
+          private int position = slotsOffset + 4 * entryCount;
+
+          @Override
+          public boolean hasNext() {
+            return remaining > 0;
+          }
+
+          @Override
+          public String next() {
+            if (remaining == 0) {
+              throw new NoSuchElementException();
+            }
+            remaining--;
+            byte[] key = new byte[buffer.getShort(position) & 0xFFFF];
+            position += 2;
+            for (int i = 0; i < key.length; i++) {
+              key[i] = buffer.get(position + i);
+            }
+            position += key.length;
+            position += 2 + (buffer.getShort(position) & 0xFFFF);
+            return new String(key, UTF_8);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Finds the seed of every bucket, placing the largest buckets first while the most slots are
+   * free.
+   *
+   * @return The bucket table.
+   */
+  private static int[] buildIndex(final byte[][] keys, int bucketCount) {
+    int entryCount = keys.length;
+    final int[] bucketSizes = new int[bucketCount];
+    int[] keyBuckets = new int[entryCount];
+    for (int entry = 0; entry < entryCount; entry++) {
+      keyBuckets[entry] = index(hash(keys[entry], 0), bucketCount);
+      bucketSizes[keyBuckets[entry]]++;
+    }
+    // Group the keys of each bucket together.
+    int[] bucketStarts = new int[bucketCount + 1];
+    for (int bucket = 0; bucket < bucketCount; bucket++) {
+      bucketStarts[bucket + 1] = bucketStarts[bucket] + bucketSizes[bucket];
+    }
+    int[] bucketKeys = new int[entryCount];
+    int[] bucketFill = Arrays.copyOf(bucketStarts, bucketCount);
+    for (int entry = 0; entry < entryCount; entry++) {
+      bucketKeys[bucketFill[keyBuckets[entry]]++] = entry;
+    }
+
+    Integer[] order = new Integer[bucketCount];
+    for (int bucket = 0; bucket < bucketCount; bucket++) {
+      order[bucket] = bucket;
+    }
+    Arrays.sort(
+        order,
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer a, Integer b) {
+            return Integer.compare(bucketSizes[b], bucketSizes[a]);
+          }
+        });
+
+    int[] buckets = new int[bucketCount];
+    boolean[] usedSlots = new boolean[entryCount];
+    int[] candidateSlots = new int[entryCount == 0 ? 0 : bucketSizes[order[0]]];
+    int nextFreeSlot = 0;
+    for (int bucket : order) {
+      int size = bucketSizes[bucket];
+      if (size == 0) {
+        break;
+      } else if (size == 1) {
+        while (usedSlots[nextFreeSlot]) {
+          nextFreeSlot++;
+        }
+        usedSlots[nextFreeSlot] = true;
+        buckets[bucket] = -nextFreeSlot - 1;
+        continue;
+      }
+
+      int start = bucketStarts[bucket];
+      int seed = 1;
+      while (!placeBucket(keys, bucketKeys, start, size, seed, usedSlots, candidateSlots)) {
+        if (++seed == MAX_SEED) {
+          throw new IllegalStateException("Unable to build a perfect hash for the rename map");
+        }
+      }
+      buckets[bucket] = seed;
+    }
+    return buckets;
+  }
+
+  /** Claims distinct free slots for every key of a bucket, or returns false if the seed can't. */
+  private static boolean placeBucket(
+      byte[][] keys,
+      int[] bucketKeys,
+      int start,
+      int size,
+      int seed,
+      boolean[] usedSlots,
+      int[] candidateSlots) {
+    int entryCount = keys.length;
+    for (int i = 0; i < size; i++) {
+      int slot = index(hash(keys[bucketKeys[start + i]], seed), entryCount);
+      if (usedSlots[slot]) {
+        return false;
+      }
+      for (int j = 0; j < i; j++) {
+        if (candidateSlots[j] == slot) {
+          return false;
+        }
+      }
+      candidateSlots[i] = slot;
+    }
+    for (int i = 0; i < size; i++) {
+      usedSlots[candidateSlots[i]] = true;
+    }
+    return true;
+  }
+
+  private static int getSlot(int[] buckets, int bucketCount, int entryCount, byte[] key) {
+    int bucket = buckets[index(hash(key, 0), bucketCount)];
+    return bucket < 0 ? -bucket - 1 : index(hash(key, bucket), entryCount);
+  }
+
+  private static byte[] encodeSymbol(String symbol) {
+    byte[] encoded = symbol.getBytes(UTF_8);
+    if (encoded.length > MAX_SYMBOL_LENGTH) {
+      throw new IllegalArgumentException("Symbol is too long for a binary property map: " + symbol);
+    }
+    return encoded;
+  }
+
+  /** Hashes bytes with seeded FNV-1a followed by the MurmurHash3 finalizer. */
+  private static int hash(byte[] key, int seed) {
+    return hash(key, key.length, seed);
+  }
+
+  /** Hashes the first bytes of a buffer like {@link #hash(byte[], int)}. */
+  private static int hash(byte[] key, int length, int seed) {
+    int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+    for (int i = 0; i < length; i++) {
+      h = (h ^ (key[i] & 0xFF)) * 0x01000193;
+    }
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static int index(int hash, int size) {
+    return (hash & 0x7FFFFFFF) % size;
+  }
+}
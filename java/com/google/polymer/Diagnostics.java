@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.CaseFormat;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Collects the warnings and errors of a run. The diagnostics of a file are buffered, without
+ * locking, by the threads renaming it and handed to a {@link Sink} once the file is done, so
+ * concurrent renames neither contend on System.err nor interleave their output, and every
+ * diagnostic is tied to its file.
+ *
+ * <p>Like {@link RenameMetrics}, a file is collected on the thread renaming it. Diagnostics
+ * reported by a thread that isn't collecting a file, e.g. when the renamers are used as a library,
+ * are printed to System.err right away.
+ */
+final class Diagnostics {
+
+  /** How severe a diagnostic is. Neither stops the file from being renamed. */
+  enum Severity {
+    WARNING,
+    ERROR,
+  }
+
+  /** What a diagnostic is about. Diagnostics beyond the limit of a category are suppressed. */
+  enum Category {
+    /** Inline scripts the Closure parser rejected, which are left as they are. */
+    SCRIPT_PARSE_ERROR,
+    /** Databinding and descriptor expressions that could neither be parsed nor renamed. */
+    EXPRESSION_PARSE_ERROR,
+    /** Polymer descriptors of an unexpected type, which are not renamed. */
+    UNEXPECTED_DESCRIPTOR,
+    /** Output sourcemaps that couldn't be written. */
+    SOURCEMAP_WRITE_ERROR,
+    /** Incremental indexes that couldn't be read, which are ignored. */
+    UNREADABLE_INCREMENTAL_INDEX,
+    /** Input files the Closure parser rejected, which are not renamed. */
+    FILE_PARSE_ERROR,
+    /** Input files that couldn't be read or whose output couldn't be written. */
+    FILE_IO_ERROR,
+    /** Input files that are neither HTML nor JavaScript, which are not renamed. */
+    UNSUPPORTED_FILE,
+    /** Renames that failed unexpectedly, which leave their output unwritten. */
+    RENAME_FAILURE,
+  }
+
+  /** A warning or error of a file. */
+  static final class Diagnostic {
+    final Severity severity;
+    final String file;
+    final int line;
+    final int column;
+    final Category category;
+    final String message;
+
+    /**
+     * Constructs a Diagnostic.
+     *
+     * @param severity How severe the diagnostic is.
+     * @param file The path of the file, or null if not known.
+     * @param line The line the diagnostic is about, starting at 1, or -1 if not known.
+     * @param column The column the diagnostic is about, starting at 0, or -1 if not known.
+     * @param category What the diagnostic is about.
+     * @param message The message, as printed to System.err.
+     */
+    Diagnostic(
+        Severity severity, String file, int line, int column, Category category, String message) {
+      this.severity = Preconditions.checkNotNull(severity);
+      this.file = file;
+      this.line = line;
+      this.column = column;
+      this.category = Preconditions.checkNotNull(category);
+      this.message = Preconditions.checkNotNull(message);
+    }
+  }
+
+  /** Receives the diagnostics of a run. */
+  interface Sink {
+    /**
+     * Receives the diagnostics of a file once the file is done, in the order they were reported.
+     * Called concurrently for files renamed concurrently.
+     */
+    void accept(List<Diagnostic> diagnostics) throws IOException;
+
+    /**
+     * Called once the run is done.
+     *
+     * @param suppressed The number of diagnostics suppressed, indexed by category ordinal.
+     */
+    void finish(int[] suppressed) throws IOException;
+  }
+
+  /** A collected span, ended by closing it. */
+  interface Scope extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  // The file each thread is collecting diagnostics of.
+  private static final ThreadLocal<FileDiagnostics> threadFiles = new ThreadLocal<>();
+
+  private static final Scope NOT_COLLECTED =
+      new Scope() {
+        @Override
+        public void close() {}
+      };
+
+  private final Sink sink;
+  private final int maxPerCategory;
+  private final AtomicIntegerArray reported = new AtomicIntegerArray(Category.values().length);
+  private final AtomicIntegerArray suppressed = new AtomicIntegerArray(Category.values().length);
+  private volatile IOException sinkFailure;
+
+  private Diagnostics(Sink sink, int maxPerCategory) {
+    this.sink = Preconditions.checkNotNull(sink);
+    this.maxPerCategory = maxPerCategory;
+  }
+
+  /**
+   * Starts collecting the diagnostics of a run.
+   *
+   * @param sink Receives the diagnostics.
+   * @param maxPerCategory The number of diagnostics of each category passed to the sink, after
+   *     which the rest are only counted. Zero or less passes all diagnostics.
+   */
+  static Diagnostics start(Sink sink, int maxPerCategory) {
+    return new Diagnostics(sink, maxPerCategory);
+  }
+
+  /**
+   * Returns a sink that prints the diagnostics to System.err once the run is done, ordered by
+   * file, so the output of a run doesn't depend on the order its files were renamed in.
+   */
+  static Sink newTextSink() {
+    return new TextSink();
+  }
+
+  /**
+   * Returns a sink that streams each diagnostic to a file as a line of JSON as soon as its file is
+   * done. The number of suppressed diagnostics of each category is written last.
+   *
+   * @param outputFile The JSON lines file, which is replaced.
+   */
+  static Sink newJsonLinesSink(Path outputFile) throws IOException {
+    Path parent = outputFile.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    return new JsonLinesSink(Files.newBufferedWriter(outputFile, UTF_8));
+  }
+
+  /**
+   * Starts collecting the diagnostics of a file renamed on the calling thread until the returned
+   * scope is closed, which hands them to the sink.
+   *
+   * @param diagnostics The run's diagnostics. Can be null.
+   * @param path The path of the file.
+   */
+  static Scope startFile(Diagnostics diagnostics, String path) {
+    if (diagnostics == null) {
+      return NOT_COLLECTED;
+    }
+    final FileDiagnostics file = new FileDiagnostics(diagnostics, path);
+    final Scope attached = attach(file);
+    return new Scope() {
+      @Override
+      public void close() {
+        attached.close();
+        file.end();
+      }
+    };
+  }
+
+  /**
+   * Collects the diagnostics reported by the calling thread for a file collected by another
+   * thread until the returned scope is closed, for work handed over to other threads.
+   *
+   * @param file The file returned by {@link #currentFile}. Can be null.
+   */
+  static Scope attach(FileDiagnostics file) {
+    if (file == null) {
+      return NOT_COLLECTED;
+    }
+    final FileDiagnostics previous = threadFiles.get();
+    threadFiles.set(file);
+    return new Scope() {
+      @Override
+      public void close() {
+        threadFiles.set(previous);
+      }
+    };
+  }
+
+  /** Returns the file collected by the calling thread, or null. */
+  static FileDiagnostics currentFile() {
+    return threadFiles.get();
+  }
+
+  /**
+   * Reports a diagnostic of the file collected by the calling thread.
+   *
+   * @param severity How severe the diagnostic is.
+   * @param category What the diagnostic is about.
+   * @param line The line the diagnostic is about, starting at 1, or -1 if not known.
+   * @param column The column the diagnostic is about, starting at 0, or -1 if not known.
+   * @param message The message, as printed to System.err.
+   */
+  static void report(Severity severity, Category category, int line, int column, String message) {
+    FileDiagnostics file = threadFiles.get();
+    if (file == null) {
+      System.err.println(message);
+      return;
+    }
+    Diagnostics run = file.run;
+    if (run.maxPerCategory > 0
+        && run.reported.incrementAndGet(category.ordinal()) > run.maxPerCategory) {
+      run.suppressed.incrementAndGet(category.ordinal());
+      return;
+    }
+    file.diagnostics.add(new Diagnostic(severity, file.path, line, column, category, message));
+  }
+
+  /** Reports a diagnostic without a position of the file collected by the calling thread. */
+  static void report(Severity severity, Category category, String message) {
+    report(severity, category, -1, -1, message);
+  }
+
+  /**
+   * Ends the run, letting the sink write what it buffered.
+   *
+   * @throws IOException if the sink failed to write any diagnostics of the run.
+   */
+  void finish() throws IOException {
+    int[] suppressedCounts = new int[suppressed.length()];
+    for (int i = 0; i < suppressedCounts.length; i++) {
+      suppressedCounts[i] = suppressed.get(i);
+    }
+    try {
+      sink.finish(suppressedCounts);
+    } catch (IOException e) {
+      if (sinkFailure == null) {
+        sinkFailure = e;
+      }
+    }
+    if (sinkFailure != null) {
+      throw sinkFailure;
+    }
+  }
+
+  /** Returns the lower camel case name of an enum constant, as written to JSON. */
+  private static String getJsonName(Enum<?> value) {
+    return CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, value.name());
+  }
+
+  /** The diagnostics of a file, reported by any thread renaming it. */
+  static final class FileDiagnostics {
+    private final Diagnostics run;
+    private final String path;
+    private final Queue<Diagnostic> diagnostics = new ConcurrentLinkedQueue<>();
+
+    private FileDiagnostics(Diagnostics run, String path) {
+      this.run = run;
+      this.path = path;
+    }
+
+    private void end() {
+      if (diagnostics.isEmpty()) {
+        return;
+      }
+      try {
+        run.sink.accept(ImmutableList.copyOf(diagnostics));
+      } catch (IOException e) {
+        run.sinkFailure = e;
+      }
+    }
+  }
+
+  /** Merges the diagnostics of all files and prints them once the run is done. */
+  private static final class TextSink implements Sink {
+    private final Queue<List<Diagnostic>> files = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public void accept(List<Diagnostic> diagnostics) {
+      files.add(diagnostics);
+    }
+
+    @Override
+    public void finish(int[] suppressed) {
+      List<List<Diagnostic>> sortedFiles = new ArrayList<>(files);
+      Collections.sort(
+          sortedFiles,
+          new Comparator<List<Diagnostic>>() {
+            @Override
+            public int compare(List<Diagnostic> a, List<Diagnostic> b) {
+              return String.valueOf(a.get(0).file).compareTo(String.valueOf(b.get(0).file));
+            }
+          });
+      for (List<Diagnostic> diagnostics : sortedFiles) {
+        for (Diagnostic diagnostic : diagnostics) {
+          System.err.println(diagnostic.message);
+        }
+      }
+      for (Category category : Category.values()) {
+        if (suppressed[category.ordinal()] > 0) {
+          System.err.printf(
+              "%d more %s diagnostics suppressed.%n",
+              suppressed[category.ordinal()],
+              getJsonName(category));
+        }
+      }
+    }
+  }
+
+  /** Streams diagnostics to a file as JSON lines. */
+  private static final class JsonLinesSink implements Sink {
+    private final Writer writer;
+
+    private JsonLinesSink(Writer writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void accept(List<Diagnostic> diagnostics) throws IOException {
+      StringWriter lines = new StringWriter();
+      for (Diagnostic diagnostic : diagnostics) {
+        JsonWriter json = new JsonWriter(lines);
+        json.beginObject();
+        json.name("severity").value(getJsonName(diagnostic.severity));
+        json.name("category").value(getJsonName(diagnostic.category));
+        if (diagnostic.file != null) {
+          json.name("file").value(diagnostic.file);
+        }
+        if (diagnostic.line >= 0) {
+          json.name("line").value(diagnostic.line);
+          json.name("column").value(diagnostic.column);
+        }
+        json.name("message").value(diagnostic.message);
+        json.endObject();
+        json.flush();
+        lines.write('\n');
+      }
+      // One write per file, so lines of concurrently renamed files don't interleave.
+      synchronized (writer) {
+        writer.write(lines.toString());
+      }
+    }
+
+    @Override
+    public void finish(int[] suppressed) throws IOException {
+      try {
+        for (Category category : Category.values()) {
+          if (suppressed[category.ordinal()] > 0) {
+            StringWriter line = new StringWriter();
+            JsonWriter json = new JsonWriter(line);
+            json.beginObject();
+            json.name("category").value(getJsonName(category));
+            json.name("suppressed").value(suppressed[category.ordinal()]);
+            json.endObject();
+            json.flush();
+            writer.write(line.toString());
+            writer.write('\n');
+          }
+        }
+      } finally {
+        writer.close();
+      }
+    }
+  }
+}
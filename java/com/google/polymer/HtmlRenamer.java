@@ -9,14 +9,18 @@
 
 package com.google.polymer;
 
-import com.google.common.base.CaseFormat;
-import com.google.common.base.Joiner;
+import com.google.common.base.Ascii;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
-import com.google.polymer.PolymerDatabindingLexer.Token;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.jsoup.nodes.Attribute;
 import org.jsoup.nodes.Attributes;
 import org.jsoup.nodes.DataNode;
@@ -27,7 +31,6 @@ import org.jsoup.nodes.Entities.EscapeMode;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.jsoup.parser.Parser;
-import org.jsoup.select.Elements;
 import org.jsoup.select.NodeTraversor;
 import org.jsoup.select.NodeVisitor;
 
@@ -36,6 +39,17 @@ import org.jsoup.select.NodeVisitor;
  */
 public final class HtmlRenamer {
 
+  /**
+   * Options for the HTML output.
+   */
+  public enum OutputFormat {
+    /**
+     * Output the original document with only the renamed ranges replaced. If unspecified, the
+     * parsed document is serialized, which normalizes tags, attributes and entity references.
+     */
+    PRESERVE_SOURCE,
+  }
+
   /**
    * HTML tags of interest to the HtmlRenamer.
    */
@@ -55,41 +69,90 @@ public final class HtmlRenamer {
     }
   }
 
-  // Joiner for HTML attribute lists.
-  private static final Joiner ATTRIBUTE_LIST_JOINER = Joiner.on(" ");
+  private HtmlRenamer() {}
 
-  // Splitter for HTML attribute lists.
-  private static final Splitter ATTRIBUTE_LIST_SPLITTER = Splitter.on(" ");
+  /** The Polymer version of an HTML document, which determines the databinding syntax. */
+  static enum RenameMode {
+    POLYMER_0_5,
+    POLYMER_0_8,
+  }
 
-  // Joiner for Polymer style event expressions.
-  private static final Joiner EVENT_EXPRESSION_JOINER = Joiner.on("::");
+  /**
+   * Finds the Polymer DOM elements of a document and the elements that may be instances of the
+   * custom elements they declare, in a single traversal. Custom element names contain a hyphen, so
+   * only elements whose tag names do are collected.
+   */
+  private static final class PolymerElementCollector implements NodeVisitor {
+    private final List<Element> domModules = new ArrayList<>();
+    private final List<Element> polymerElements = new ArrayList<>();
+    private final List<Element> customElements = new ArrayList<>();
 
-  // Splitter for Polymer style event expressions.
-  private static final Splitter EVENT_EXPRESSION_SPLITTER = Splitter.on("::");
+    @Override
+    public void head(Node node, int depth) {
+      if (node instanceof Element) {
+        Element element = (Element) node;
+        String tagName = element.tagName();
+        if (tagName.equals(HtmlTags.DOM_MODULE.getName())) {
+          domModules.add(element);
+        } else if (tagName.equals(HtmlTags.POLYMER_ELEMENT.getName())) {
+          polymerElements.add(element);
+        }
+        if (tagName.indexOf('-') >= 0) {
+          customElements.add(element);
+        }
+      }
+    }
 
-  private HtmlRenamer() {}
+    @Override
+    public void tail(Node node, int depth) {}
+  }
 
-  private static enum RenameMode {
-    POLYMER_0_5,
-    POLYMER_0_8,
+  /**
+   * A text, attribute value or inline script to rename. Renaming these parses and prints
+   * JavaScript, so they may be collected during the traversal and renamed concurrently.
+   */
+  private abstract static class InlineValue {
+    private final String value;
+    private final boolean isScript;
+
+    private InlineValue(String value, boolean isScript) {
+      this.value = value;
+      this.isScript = isScript;
+    }
+
+    /** Renames the value. Safe to call from any thread. */
+    private String rename(HtmlValueRenamer valueRenamer) {
+      return isScript
+          ? valueRenamer.renameScript(value)
+          : valueRenamer.renameDatabindingDirectives(value);
+    }
+
+    /**
+     * Writes the renamed value back to the document.
+     * @param renamedValue The result of {@link #rename}, which is the same instance as the value
+     *     if nothing was renamed.
+     */
+    abstract void apply(String renamedValue);
   }
 
   private static class DatabindingRenamer implements NodeVisitor {
 
-    private final ImmutableMap<String, String> renameMap;
-    private final HtmlRenamer.RenameMode renameMode;
+    private final HtmlValueRenamer valueRenamer;
+
+    /** The values to rename after the traversal, or null to rename them as they are visited. */
+    private final List<InlineValue> deferredValues;
 
     /** true if we are inside a script element. */
     private boolean insideScriptElement = false;
 
     /**
-     * Constructs the DatabindingRenamer to rename according to {@code renameMap}.
-     * @param renameMap A mapping from symbol to renamed symbol.
+     * Constructs the DatabindingRenamer to rename with {@code valueRenamer}.
+     * @param valueRenamer Renames the values found in the document.
+     * @param deferredValues Collects the values to rename after the traversal. Can be null.
      */
-    public DatabindingRenamer(
-        ImmutableMap<String, String> renameMap, HtmlRenamer.RenameMode renameMode) {
-      this.renameMap = Preconditions.checkNotNull(renameMap);
-      this.renameMode = renameMode;
+    public DatabindingRenamer(HtmlValueRenamer valueRenamer, List<InlineValue> deferredValues) {
+      this.valueRenamer = valueRenamer;
+      this.deferredValues = deferredValues;
     }
 
     @Override
@@ -99,24 +162,35 @@ public final class HtmlRenamer {
         String tagName = element.tag().getName();
         if (tagName.equals(HtmlTags.POLYMER_ELEMENT.getName())) {
           renameAttributesAttributeValue(element);
-        } else if (tagName.equals("script")) {
+        } else if (tagName.equals(HtmlTags.SCRIPT.getName())) {
           insideScriptElement = true;
         } else {
           renameAllAnnotatedEventAttributes(element);
           renameAllAttributeValues(element);
         }
       } else if (node instanceof TextNode) {
-        TextNode textNode = (TextNode) node;
-        textNode.text(renameStringWithDatabindingDirectives(textNode.getWholeText()));
-      } else if (insideScriptElement && node instanceof DataNode) {
-        DataNode dataNode = (DataNode) node;
-        String js = dataNode.getWholeData();
-        try {
-          js = JsRenamer.renameProperties(renameMap, js);
-        } catch (JavaScriptParsingException e) {
-          System.err.println(e);
+        final TextNode textNode = (TextNode) node;
+        final String text = textNode.getWholeText();
+        if (PolymerDatabindingLexer.containsDelimiter(text)) {
+          renameValue(
+              new InlineValue(text, false) {
+                @Override
+                void apply(String renamedText) {
+                  if (renamedText != text) {
+                    textNode.text(renamedText);
+                  }
+                }
+              });
         }
-        dataNode.setWholeData(js);
+      } else if (insideScriptElement && node instanceof DataNode) {
+        final DataNode dataNode = (DataNode) node;
+        renameValue(
+            new InlineValue(dataNode.getWholeData(), true) {
+              @Override
+              void apply(String renamedJs) {
+                dataNode.setWholeData(renamedJs);
+              }
+            });
       }
     }
 
@@ -132,147 +206,260 @@ public final class HtmlRenamer {
 
     private void renameAttributesAttributeValue(Element element) {
       String attributesValue = element.attr("attributes");
-      boolean modified = false;
-      String properties[] =
-          ATTRIBUTE_LIST_SPLITTER.splitToList(attributesValue).toArray(new String[0]);
-      for (int i = 0; i < properties.length; i++) {
-        String property = properties[i];
-        if (renameMap.containsKey(property)) {
-          properties[i] = renameMap.get(property);
-          modified = true;
-        }
-      }
-      if (modified) {
-        element.attr("attributes", ATTRIBUTE_LIST_JOINER.join(properties));
+      String renamedAttributesValue = valueRenamer.renameAttributesAttributeValue(attributesValue);
+      if (renamedAttributesValue != attributesValue) {
+        element.attr("attributes", renamedAttributesValue);
       }
     }
 
     private void renameAllAttributeValues(Element element) {
       Attributes attributes = element.attributes();
       if (attributes != null) {
-        for (Attribute attribute : attributes) {
-          attribute.setValue(renameStringWithDatabindingDirectives(attribute.getValue()));
+        for (final Attribute attribute : attributes) {
+          final String value = attribute.getValue();
+          if (PolymerDatabindingLexer.containsDelimiter(value)) {
+            renameValue(
+                new InlineValue(value, false) {
+                  @Override
+                  void apply(String renamedValue) {
+                    if (renamedValue != value) {
+                      attribute.setValue(renamedValue);
+                    }
+                  }
+                });
+          }
         }
       }
     }
 
+    private void renameValue(InlineValue inlineValue) {
+      if (deferredValues == null) {
+        inlineValue.apply(inlineValue.rename(valueRenamer));
+      } else {
+        deferredValues.add(inlineValue);
+      }
+    }
+
     private void renameAllAnnotatedEventAttributes(Element element) {
       Attributes attributes = element.attributes();
       if (attributes != null) {
         for (Attribute attribute : attributes) {
-          String key = attribute.getKey();
-          if (key.startsWith("on-")) {
-            String renamedEventHandler = renameMap.get(attribute.getValue());
-            if (renamedEventHandler != null) {
-              attribute.setValue(renamedEventHandler);
+          if (HtmlValueRenamer.isEventAttribute(attribute.getKey())) {
+            String value = attribute.getValue();
+            String renamedValue = valueRenamer.renameEventHandler(value);
+            if (renamedValue != value) {
+              attribute.setValue(renamedValue);
             }
           }
         }
       }
     }
+  }
 
-    private String renameStringWithDatabindingDirectives(String input) {
-      Token tokens[] = PolymerDatabindingLexer.lex(input);
-      StringBuilder sb = new StringBuilder();
-      boolean insideBraces = false;
-      for (Token t : tokens) {
-        switch (t.type) {
-          case STRING:
-            if (insideBraces) {
-              sb.append(renameDatabindingExpression(t.value));
-            } else {
-              sb.append(t.value);
-            }
-            break;
-          case OPENCURLYBRACES:
-            insideBraces = true;
-            sb.append(t.value);
-            break;
-          case CLOSECURLYBRACES:
-            insideBraces = false;
-            sb.append(t.value);
-            break;
-          case OPENSQUAREBRACES:
-            if (renameMode == HtmlRenamer.RenameMode.POLYMER_0_8) {
-              insideBraces = true;
-            }
-            sb.append(t.value);
-            break;
-          case CLOSESQUAREBRACES:
-            if (renameMode == HtmlRenamer.RenameMode.POLYMER_0_8) {
-              insideBraces = false;
-            }
-            sb.append(t.value);
-            break;
-        }
-      }
-      return sb.toString();
-    }
+  public static String rename(ImmutableMap<String, String> renameMap, String htmlString) {
+    return rename(RenameMap.of(renameMap), htmlString);
+  }
 
-    private String renameDatabindingExpression(String expression) {
-      // Polymer 1.0 has two-way native element binding syntax which isn't legal Javascript.
-      // See https://www.polymer-project.org/1.0/docs/devguide/data-binding.html#two-way-native.
-      // Expression Format: {{expression::eventName}}
-      // We'll treat this as {{expression::notRenamed}}
-      String[] components =
-          EVENT_EXPRESSION_SPLITTER.splitToList(expression).toArray(new String[0]);
-      try {
-        components[0] = JsRenamer.renamePolymerJsExpression(renameMap, components[0]);
-      } catch (JavaScriptParsingException e) {
-        System.err.println(e);
-      }
-      return EVENT_EXPRESSION_JOINER.join(components);
+  public static String rename(RenameMap renameMap, String htmlString) {
+    return rename(renameMap, htmlString, ImmutableSet.<OutputFormat>of());
+  }
+
+  /**
+   * Renames properties and databinding expressions of a Polymer HTML document.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param htmlString The HTML document.
+   * @param outputFormat The output format options.
+   * @return The HTML document with renames applied.
+   */
+  public static String rename(
+      RenameMap renameMap,
+      String htmlString,
+      ImmutableSet<OutputFormat> outputFormat) {
+    Preconditions.checkNotNull(renameMap);
+    if (outputFormat.contains(OutputFormat.PRESERVE_SOURCE)) {
+      return HtmlSourceRenamer.rename(renameMap, htmlString);
     }
+    return renameDocument(renameMap, parseDocument(htmlString));
   }
 
-  public static String rename(ImmutableMap<String, String> renameMap, String htmlString) {
+  /**
+   * Renames properties and databinding expressions of a Polymer HTML document, appending it to an
+   * output. Source preserving renames are appended range by range as they are spliced, while parsed
+   * documents are printed first since jsoup only prints to a String.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param htmlString The HTML document.
+   * @param outputFormat The output format options.
+   * @param output Where the HTML document with renames applied is appended.
+   * @throws IOException if the output fails to append.
+   */
+  public static void rename(
+      RenameMap renameMap,
+      String htmlString,
+      ImmutableSet<OutputFormat> outputFormat,
+      Appendable output)
+      throws IOException {
     Preconditions.checkNotNull(renameMap);
-    Document document = Parser.parse(htmlString, "");
+    if (outputFormat.contains(OutputFormat.PRESERVE_SOURCE)) {
+      HtmlSourceRenamer.rename(renameMap, htmlString, output);
+      return;
+    }
+    output.append(renameDocument(renameMap, parseDocument(htmlString)));
+  }
+
+  /**
+   * Parses an HTML document ahead of renaming it with {@link #renameDocument}, which lets callers
+   * parse while the rename map is still loading.
+   *
+   * @param htmlString The HTML document.
+   * @return The parsed document.
+   */
+  static Document parseDocument(String htmlString) {
+    Document document;
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.HTML_PARSE);
+    try {
+      document = Parser.parse(htmlString, "");
+    } finally {
+      phase.close();
+    }
     OutputSettings outputSettings = document.outputSettings();
     outputSettings.prettyPrint(false);
     outputSettings.escapeMode(EscapeMode.extended);
+    return document;
+  }
+
+  /**
+   * Renames properties and databinding expressions of a document parsed by {@link
+   * #parseDocument}.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param document The parsed document, which is renamed in place.
+   * @return The HTML document with renames applied.
+   */
+  static String renameDocument(RenameMap renameMap, Document document) {
+    return renameDocument(renameMap, document, 1);
+  }
+
+  /**
+   * Renames properties and databinding expressions of a document parsed by {@link
+   * #parseDocument}, renaming its inline scripts and databinding expressions concurrently. They are
+   * collected in a first traversal of the document and written back in document order, so the
+   * output doesn't depend on the parallelism.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param document The parsed document, which is renamed in place.
+   * @param parallelism The number of inline scripts and databinding expressions to rename
+   *     concurrently.
+   * @return The HTML document with renames applied.
+   */
+  static String renameDocument(RenameMap renameMap, Document document, int parallelism) {
+    Preconditions.checkNotNull(renameMap);
+    RenameMetrics.Scope renamePhase = RenameMetrics.phase(RenameMetrics.Phase.RENAME);
+    try {
+      renameDocumentInPlace(renameMap, document, parallelism);
+    } finally {
+      renamePhase.close();
+    }
+    RenameMetrics.Scope printPhase = RenameMetrics.phase(RenameMetrics.Phase.PRINT);
+    try {
+      return document.toString();
+    } finally {
+      printPhase.close();
+    }
+  }
+
+  private static void renameDocumentInPlace(
+      RenameMap renameMap, Document document, int parallelism) {
+    PolymerElementCollector collector = new PolymerElementCollector();
+    new NodeTraversor(collector).traverse(document);
     RenameMode renameMode = RenameMode.POLYMER_0_8;
-    Elements polymerDomElements = document.getElementsByTag(HtmlTags.DOM_MODULE.getName());
+    List<Element> polymerDomElements = collector.domModules;
     if (polymerDomElements.isEmpty()) {
       renameMode = HtmlRenamer.RenameMode.POLYMER_0_5;
-      polymerDomElements = document.getElementsByTag(HtmlTags.POLYMER_ELEMENT.getName());
+      polymerDomElements = collector.polymerElements;
     }
-    List<String> polymerCustomElements = new ArrayList<String>();
+    HtmlValueRenamer valueRenamer = new HtmlValueRenamer(renameMap, renameMode);
+    List<InlineValue> deferredValues = parallelism > 1 ? new ArrayList<InlineValue>() : null;
+    Set<String> polymerCustomElements = new HashSet<>();
     NodeTraversor polymerDomElementTraversor =
-        new NodeTraversor(new DatabindingRenamer(renameMap, renameMode));
+        new NodeTraversor(new DatabindingRenamer(valueRenamer, deferredValues));
     for (Element polymerDomElement : polymerDomElements) {
       if (renameMode == RenameMode.POLYMER_0_8) {
         String polymerElementTagName = polymerDomElement.attr("name");
         if (!polymerElementTagName.isEmpty()) {
-          polymerCustomElements.add(polymerElementTagName);
+          // Tag names are normalized like jsoup normalizes them when parsing.
+          polymerCustomElements.add(Ascii.toLowerCase(polymerElementTagName).trim());
         }
       }
       polymerDomElementTraversor.traverse(polymerDomElement);
     }
+    if (deferredValues != null) {
+      renameConcurrently(valueRenamer, deferredValues, parallelism);
+    }
 
-    for (String polymerElementTagName : polymerCustomElements) {
-      Elements customElements = document.getElementsByTag(polymerElementTagName);
-      for (Element customElement : customElements) {
+    // Custom elements may be used ahead of the dom-module declaring them, so their attribute keys
+    // are renamed once every name is known.
+    for (Element customElement : collector.customElements) {
+      if (polymerCustomElements.contains(customElement.tagName())) {
         renameAllAttributeKeys(renameMap, customElement);
       }
     }
+  }
 
-    return document.toString();
+  /**
+   * Renames values on a shared pool of threads, then writes them back to the document in order.
+   *
+   * @param valueRenamer Renames the values.
+   * @param inlineValues The values in document order.
+   * @param parallelism The number of values to rename concurrently.
+   */
+  private static void renameConcurrently(
+      final HtmlValueRenamer valueRenamer, List<InlineValue> inlineValues, int parallelism) {
+    final RenameMetrics.FileMetrics file = RenameMetrics.currentFile();
+    final Diagnostics.FileDiagnostics fileDiagnostics = Diagnostics.currentFile();
+    List<Callable<String>> tasks = new ArrayList<>(inlineValues.size());
+    for (final InlineValue inlineValue : inlineValues) {
+      tasks.add(
+          new Callable<String>() {
+            @Override
+            public String call() {
+              RenameMetrics.Scope attached = RenameMetrics.attach(file);
+              Diagnostics.Scope attachedDiagnostics = Diagnostics.attach(fileDiagnostics);
+              try {
+                return inlineValue.rename(valueRenamer);
+              } finally {
+                attachedDiagnostics.close();
+                attached.close();
+              }
+            }
+          });
+    }
+    try {
+      List<Future<String>> results = WorkerPools.get(parallelism).invokeAll(tasks);
+      for (int i = 0; i < inlineValues.size(); i++) {
+        inlineValues.get(i).apply(results.get(i).get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while renaming the document", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
   }
 
   private static void renameAllAttributeKeys(
-      ImmutableMap<String, String> renameMap, Element element) {
+      RenameMap renameMap, Element element) {
     Attributes attributes = element.attributes();
     for (Attribute attribute : attributes) {
-      String key = attribute.getKey();
-      // Polymer events are referenced as strings. As a result they do not participate in renaming.
-      // Additionally, it is not valid to have a Polymer property start with "on".
-      if (!key.startsWith("on-")) {
-        String renamedProperty = renameMap.get(
-            CaseFormat.LOWER_HYPHEN.to(CaseFormat.LOWER_CAMEL, key));
-        if (renamedProperty != null) {
-          attribute.setKey(CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_HYPHEN, renamedProperty));
-        }
+      String renamedKey = HtmlValueRenamer.renameAttributeKey(renameMap, attribute.getKey());
+      if (renamedKey != null) {
+        attribute.setKey(renamedKey);
       }
     }
   }
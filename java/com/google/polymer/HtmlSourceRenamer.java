@@ -0,0 +1,647 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.jsoup.parser.Parser;
+
+/**
+ * Renames an HTML document by splicing renamed values into the original source instead of
+ * re-serializing a parsed DOM. The document is tokenized once while recording the source range of
+ * every attribute key, attribute value, text run and inline script. The same rename rules as
+ * {@link HtmlRenamer} are applied to those values, and the output is the input with only the
+ * changed ranges replaced. Everything else, including whitespace, quoting, entity references and
+ * tag case, is copied through byte for byte.
+ *
+ * <p>Element nesting is tracked with a simple open element stack rather than the full HTML tree
+ * construction algorithm, which is sufficient for the well formed templates Polymer requires.
+ */
+final class HtmlSourceRenamer {
+
+  // Elements that never have content or an end tag.
+  private static final ImmutableSet<String> VOID_ELEMENTS =
+      ImmutableSet.of(
+          "area", "base", "br", "col", "embed", "hr", "img", "input", "keygen", "link", "meta",
+          "param", "source", "track", "wbr");
+
+  // Elements whose content is not parsed for tags or entity references.
+  private static final ImmutableSet<String> RAW_TEXT_ELEMENTS = ImmutableSet.of("script", "style");
+
+  // Elements whose content is not parsed for tags but may contain entity references.
+  private static final ImmutableSet<String> ESCAPABLE_RAW_TEXT_ELEMENTS =
+      ImmutableSet.of("textarea", "title");
+
+  private static final String DOM_MODULE = "dom-module";
+  private static final String POLYMER_ELEMENT = "polymer-element";
+  private static final String SCRIPT = "script";
+
+  /** The kinds of source ranges the tokenizer reports. */
+  private enum SourceNodeType {
+    START_TAG,
+    END_TAG,
+    TEXT,
+    DATA,
+  }
+
+  /** An attribute of a start tag and the source ranges of its key and value. */
+  private static final class SourceAttribute {
+    /** The lower case attribute key. */
+    private final String key;
+    private final int keyEnd;
+    private final int keyStart;
+    /** The start of the value, or -1 if the attribute has no value. */
+    private final int valueStart;
+    private final int valueEnd;
+    /** The quote character surrounding the value, or 0 if the value is unquoted. */
+    private final char quote;
+
+    private SourceAttribute(
+        String key, int keyStart, int keyEnd, int valueStart, int valueEnd, char quote) {
+      this.key = key;
+      this.keyStart = keyStart;
+      this.keyEnd = keyEnd;
+      this.valueStart = valueStart;
+      this.valueEnd = valueEnd;
+      this.quote = quote;
+    }
+  }
+
+  /** A tag, text run or raw text range of the source. */
+  private static final class SourceNode {
+    private final SourceNodeType type;
+    private final int start;
+    private final int end;
+    /** The lower case tag name of START_TAG and END_TAG nodes. */
+    private final String tagName;
+    private final List<SourceAttribute> attributes;
+    private final boolean selfClosing;
+
+    private SourceNode(
+        SourceNodeType type,
+        int start,
+        int end,
+        String tagName,
+        List<SourceAttribute> attributes,
+        boolean selfClosing) {
+      this.type = type;
+      this.start = start;
+      this.end = end;
+      this.tagName = tagName;
+      this.attributes = attributes;
+      this.selfClosing = selfClosing;
+    }
+
+    private static SourceNode content(SourceNodeType type, int start, int end) {
+      return new SourceNode(type, start, end, null, null, false);
+    }
+  }
+
+  /** A replacement of a source range. */
+  private static final class Edit {
+    private final int start;
+    private final int end;
+    private final String replacement;
+
+    private Edit(int start, int end, String replacement) {
+      this.start = start;
+      this.end = end;
+      this.replacement = replacement;
+    }
+  }
+
+  private final RenameMap renameMap;
+  private final String html;
+  private final List<SourceNode> nodes;
+  private final List<Edit> edits = new ArrayList<>();
+
+  private HtmlSourceRenamer(RenameMap renameMap, String html) {
+    this.renameMap = renameMap;
+    this.html = html;
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.HTML_PARSE);
+    try {
+      this.nodes = new Tokenizer(html).tokenize();
+    } finally {
+      phase.close();
+    }
+  }
+
+  /**
+   * Renames an HTML document, replacing only the renamed ranges of the source.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param html The HTML document.
+   * @return The HTML document with renames applied.
+   */
+  static String rename(RenameMap renameMap, String html) {
+    HtmlSourceRenamer sourceRenamer = collectEdits(renameMap, html);
+    if (sourceRenamer.edits.isEmpty()) {
+      return html;
+    }
+    StringBuilder output = new StringBuilder(html.length() + html.length() / 16);
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.PRINT);
+    try {
+      sourceRenamer.appendTo(output);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    } finally {
+      phase.close();
+    }
+    return output.toString();
+  }
+
+  /**
+   * Renames an HTML document, appending it to an output with only the renamed ranges of the source
+   * replaced.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param html The HTML document.
+   * @param output Where the HTML document with renames applied is appended.
+   * @throws IOException if the output fails to append.
+   */
+  static void rename(RenameMap renameMap, String html, Appendable output) throws IOException {
+    HtmlSourceRenamer sourceRenamer = collectEdits(renameMap, html);
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.PRINT);
+    try {
+      sourceRenamer.appendTo(output);
+    } finally {
+      phase.close();
+    }
+  }
+
+  private static HtmlSourceRenamer collectEdits(RenameMap renameMap, String html) {
+    Preconditions.checkNotNull(renameMap);
+    HtmlSourceRenamer sourceRenamer = new HtmlSourceRenamer(renameMap, html);
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.RENAME);
+    try {
+      sourceRenamer.collectEdits();
+    } finally {
+      phase.close();
+    }
+    return sourceRenamer;
+  }
+
+  private void collectEdits() {
+    HtmlRenamer.RenameMode renameMode = HtmlRenamer.RenameMode.POLYMER_0_5;
+    for (SourceNode node : nodes) {
+      if (node.type == SourceNodeType.START_TAG && node.tagName.equals(DOM_MODULE)) {
+        renameMode = HtmlRenamer.RenameMode.POLYMER_0_8;
+        break;
+      }
+    }
+    String polymerDomElementTagName =
+        renameMode == HtmlRenamer.RenameMode.POLYMER_0_8 ? DOM_MODULE : POLYMER_ELEMENT;
+    HtmlValueRenamer valueRenamer = new HtmlValueRenamer(renameMap, renameMode);
+
+    Set<String> polymerCustomElements = new HashSet<>();
+    List<String> openElements = new ArrayList<>();
+    int polymerDomElementDepth = 0;
+    boolean insideScriptElement = false;
+    for (SourceNode node : nodes) {
+      switch (node.type) {
+        case START_TAG:
+          boolean isPolymerDomElement = node.tagName.equals(polymerDomElementTagName);
+          if (polymerDomElementDepth > 0 || isPolymerDomElement) {
+            if (isPolymerDomElement && renameMode == HtmlRenamer.RenameMode.POLYMER_0_8) {
+              SourceAttribute name = getAttribute(node, "name");
+              String polymerElementTagName = name == null ? "" : getAttributeValue(name);
+              if (!polymerElementTagName.isEmpty()) {
+                polymerCustomElements.add(Ascii.toLowerCase(polymerElementTagName));
+              }
+            }
+            renameElement(valueRenamer, node);
+            insideScriptElement = node.tagName.equals(SCRIPT);
+          }
+          if (opensElement(node)) {
+            openElements.add(node.tagName);
+            if (isPolymerDomElement) {
+              polymerDomElementDepth++;
+            }
+          }
+          break;
+        case END_TAG:
+          int openIndex = openElements.lastIndexOf(node.tagName);
+          if (openIndex >= 0) {
+            while (openElements.size() > openIndex) {
+              String closed = openElements.remove(openElements.size() - 1);
+              if (closed.equals(polymerDomElementTagName)) {
+                polymerDomElementDepth--;
+              }
+            }
+          }
+          insideScriptElement = false;
+          break;
+        case TEXT:
+          if (polymerDomElementDepth > 0) {
+            renameText(valueRenamer, node);
+          }
+          break;
+        case DATA:
+          if (polymerDomElementDepth > 0 && insideScriptElement) {
+            String js = html.substring(node.start, node.end);
+            String renamedJs = valueRenamer.renameScript(js);
+            if (!renamedJs.equals(js)) {
+              edits.add(new Edit(node.start, node.end, renamedJs));
+            }
+          }
+          break;
+      }
+    }
+
+    for (SourceNode node : nodes) {
+      if (node.type == SourceNodeType.START_TAG && polymerCustomElements.contains(node.tagName)) {
+        for (SourceAttribute attribute : node.attributes) {
+          String renamedKey = HtmlValueRenamer.renameAttributeKey(renameMap, attribute.key);
+          if (renamedKey != null) {
+            edits.add(new Edit(attribute.keyStart, attribute.keyEnd, renamedKey));
+          }
+        }
+      }
+    }
+  }
+
+  private static boolean opensElement(SourceNode node) {
+    return !VOID_ELEMENTS.contains(node.tagName)
+        && (!node.selfClosing
+            || RAW_TEXT_ELEMENTS.contains(node.tagName)
+            || ESCAPABLE_RAW_TEXT_ELEMENTS.contains(node.tagName));
+  }
+
+  private void renameElement(HtmlValueRenamer valueRenamer, SourceNode node) {
+    if (node.tagName.equals(POLYMER_ELEMENT)) {
+      SourceAttribute attributes = getAttribute(node, "attributes");
+      if (attributes != null) {
+        String value = getAttributeValue(attributes);
+        String renamedValue = valueRenamer.renameAttributesAttributeValue(value);
+        if (renamedValue != value) {
+          replaceAttributeValue(attributes, renamedValue);
+        }
+      }
+    } else if (!node.tagName.equals(SCRIPT)) {
+      for (SourceAttribute attribute : node.attributes) {
+        renameAttributeValue(valueRenamer, attribute);
+      }
+    }
+  }
+
+  private void renameAttributeValue(
+      HtmlValueRenamer valueRenamer, final SourceAttribute attribute) {
+    String value = getAttributeValue(attribute);
+    String renamedValue = value;
+    if (HtmlValueRenamer.isEventAttribute(attribute.key)) {
+      renamedValue = valueRenamer.renameEventHandler(renamedValue);
+    }
+
+    if (renamedValue == value && attribute.quote != 0 && !containsCharacterReference(value)) {
+      // The source is the value itself, so only the renamed expressions need replacing.
+      valueRenamer.renameDatabindingDirectives(
+          value,
+          new HtmlValueRenamer.ReplacementHandler() {
+            @Override
+            public void replace(int start, int end, String replacement) {
+              edits.add(
+                  new Edit(
+                      attribute.valueStart + start,
+                      attribute.valueStart + end,
+                      escapeAttributeValue(replacement, attribute.quote)));
+            }
+          });
+      return;
+    }
+
+    renamedValue = valueRenamer.renameDatabindingDirectives(renamedValue);
+    if (!renamedValue.equals(value)) {
+      replaceAttributeValue(attribute, renamedValue);
+    }
+  }
+
+  private void renameText(HtmlValueRenamer valueRenamer, final SourceNode node) {
+    String source = html.substring(node.start, node.end);
+    if (!containsCharacterReference(source)) {
+      valueRenamer.renameDatabindingDirectives(
+          source,
+          new HtmlValueRenamer.ReplacementHandler() {
+            @Override
+            public void replace(int start, int end, String replacement) {
+              edits.add(new Edit(node.start + start, node.start + end, escapeText(replacement)));
+            }
+          });
+      return;
+    }
+
+    String text = Parser.unescapeEntities(source, false);
+    String renamedText = valueRenamer.renameDatabindingDirectives(text);
+    if (renamedText != text) {
+      edits.add(new Edit(node.start, node.end, escapeText(renamedText)));
+    }
+  }
+
+  private void replaceAttributeValue(SourceAttribute attribute, String value) {
+    if (attribute.valueStart < 0) {
+      edits.add(
+          new Edit(
+              attribute.keyEnd, attribute.keyEnd, "=\"" + escapeAttributeValue(value, '"') + "\""));
+    } else if (attribute.quote == 0 && needsQuotes(value)) {
+      edits.add(
+          new Edit(
+              attribute.valueStart,
+              attribute.valueEnd,
+              "\"" + escapeAttributeValue(value, '"') + "\""));
+    } else {
+      edits.add(
+          new Edit(
+              attribute.valueStart,
+              attribute.valueEnd,
+              escapeAttributeValue(value, attribute.quote)));
+    }
+  }
+
+  private void appendTo(Appendable output) throws IOException {
+    Collections.sort(
+        edits,
+        new Comparator<Edit>() {
+          @Override
+          public int compare(Edit a, Edit b) {
+            return Integer.compare(a.start, b.start);
+          }
+        });
+    int copied = 0;
+    for (Edit edit : edits) {
+      output.append(html, copied, edit.start).append(edit.replacement);
+      copied = edit.end;
+    }
+    output.append(html, copied, html.length());
+  }
+
+  private static SourceAttribute getAttribute(SourceNode node, String key) {
+    for (SourceAttribute attribute : node.attributes) {
+      if (attribute.key.equals(key)) {
+        return attribute;
+      }
+    }
+    return null;
+  }
+
+  private String getAttributeValue(SourceAttribute attribute) {
+    if (attribute.valueStart < 0) {
+      return "";
+    }
+    String value = html.substring(attribute.valueStart, attribute.valueEnd);
+    return containsCharacterReference(value) ? Parser.unescapeEntities(value, true) : value;
+  }
+
+  private static boolean containsCharacterReference(String source) {
+    return source.indexOf('&') >= 0;
+  }
+
+  private static boolean needsQuotes(String value) {
+    if (value.isEmpty()) {
+      return true;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (isWhitespace(c) || c == '"' || c == '\'' || c == '=' || c == '<' || c == '>'
+          || c == '`') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String escapeAttributeValue(String value, char quote) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '&') {
+        sb.append("&amp;");
+      } else if (c == '\u00A0') {
+        sb.append("&nbsp;");
+      } else if (c == '"' && quote == '"') {
+        sb.append("&quot;");
+      } else if (c == '\'' && quote == '\'') {
+        sb.append("&#39;");
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String escapeText(String text) {
+    StringBuilder sb = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '&') {
+        sb.append("&amp;");
+      } else if (c == '<') {
+        sb.append("&lt;");
+      } else if (c == '>') {
+        sb.append("&gt;");
+      } else if (c == '\u00A0') {
+        sb.append("&nbsp;");
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+
+  private static boolean isAsciiLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /** Splits an HTML document into tags, text runs and raw text while recording source ranges. */
+  private static final class Tokenizer {
+    private final String html;
+    private final int length;
+    private final List<SourceNode> nodes = new ArrayList<>();
+    private int pos = 0;
+
+    private Tokenizer(String html) {
+      this.html = html;
+      this.length = html.length();
+    }
+
+    private List<SourceNode> tokenize() {
+      int textStart = 0;
+      while (pos < length) {
+        if (html.charAt(pos) != '<' || pos + 1 >= length) {
+          pos++;
+          continue;
+        }
+        char next = html.charAt(pos + 1);
+        if (!isAsciiLetter(next) && next != '/' && next != '!' && next != '?') {
+          pos++;
+          continue;
+        }
+
+        addContent(SourceNodeType.TEXT, textStart, pos);
+        if (isAsciiLetter(next)) {
+          SourceNode startTag = readStartTag();
+          if (startTag == null) {
+            // The document ended inside of a tag. Leave the rest of it untouched.
+            return nodes;
+          }
+          nodes.add(startTag);
+          if (RAW_TEXT_ELEMENTS.contains(startTag.tagName)) {
+            readRawText(startTag.tagName, SourceNodeType.DATA);
+          } else if (ESCAPABLE_RAW_TEXT_ELEMENTS.contains(startTag.tagName)) {
+            readRawText(startTag.tagName, SourceNodeType.TEXT);
+          }
+        } else if (next == '/' && pos + 2 < length && isAsciiLetter(html.charAt(pos + 2))) {
+          int start = pos;
+          pos += 2;
+          String tagName = readName();
+          skipPast('>');
+          nodes.add(new SourceNode(SourceNodeType.END_TAG, start, pos, tagName, null, false));
+        } else if (html.startsWith("<!--", pos)) {
+          int commentEnd = html.indexOf("-->", pos + 4);
+          pos = commentEnd < 0 ? length : commentEnd + 3;
+        } else {
+          // Doctypes, processing instructions, CDATA sections and bogus comments.
+          skipPast('>');
+        }
+        textStart = pos;
+      }
+      addContent(SourceNodeType.TEXT, textStart, length);
+      return nodes;
+    }
+
+    private void addContent(SourceNodeType type, int start, int end) {
+      if (start < end) {
+        nodes.add(SourceNode.content(type, start, end));
+      }
+    }
+
+    /** Reads a start tag at pos, or returns null if the document ends before the tag does. */
+    private SourceNode readStartTag() {
+      int start = pos;
+      pos++;
+      String tagName = readName();
+      List<SourceAttribute> attributes = new ArrayList<>();
+      boolean selfClosing = false;
+      while (true) {
+        skipWhitespace();
+        if (pos >= length) {
+          return null;
+        }
+        char c = html.charAt(pos);
+        if (c == '>') {
+          pos++;
+          break;
+        } else if (c == '/') {
+          pos++;
+          if (pos < length && html.charAt(pos) == '>') {
+            selfClosing = true;
+            pos++;
+            break;
+          }
+          continue;
+        }
+
+        int keyStart = pos;
+        pos++;
+        while (pos < length) {
+          c = html.charAt(pos);
+          if (isWhitespace(c) || c == '/' || c == '>' || c == '=') {
+            break;
+          }
+          pos++;
+        }
+        int keyEnd = pos;
+        String key = Ascii.toLowerCase(html.substring(keyStart, keyEnd));
+
+        int afterKey = pos;
+        skipWhitespace();
+        if (pos >= length || html.charAt(pos) != '=') {
+          pos = afterKey;
+          attributes.add(new SourceAttribute(key, keyStart, keyEnd, -1, -1, (char) 0));
+          continue;
+        }
+        pos++;
+        skipWhitespace();
+        if (pos >= length) {
+          return null;
+        }
+        c = html.charAt(pos);
+        if (c == '"' || c == '\'') {
+          int valueEnd = html.indexOf(c, pos + 1);
+          if (valueEnd < 0) {
+            return null;
+          }
+          attributes.add(new SourceAttribute(key, keyStart, keyEnd, pos + 1, valueEnd, c));
+          pos = valueEnd + 1;
+        } else {
+          int valueStart = pos;
+          while (pos < length && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '>') {
+            pos++;
+          }
+          attributes.add(new SourceAttribute(key, keyStart, keyEnd, valueStart, pos, (char) 0));
+        }
+      }
+      return new SourceNode(
+          SourceNodeType.START_TAG, start, pos, tagName, attributes, selfClosing);
+    }
+
+    /** Reads the content of a raw text element up to its end tag. */
+    private void readRawText(String tagName, SourceNodeType type) {
+      int start = pos;
+      String endTag = "</" + tagName;
+      while (pos < length) {
+        if (html.regionMatches(true, pos, endTag, 0, endTag.length())) {
+          int afterName = pos + endTag.length();
+          if (afterName >= length
+              || isWhitespace(html.charAt(afterName))
+              || html.charAt(afterName) == '/'
+              || html.charAt(afterName) == '>') {
+            break;
+          }
+        }
+        pos++;
+      }
+      addContent(type, start, pos);
+    }
+
+    private String readName() {
+      int start = pos;
+      while (pos < length) {
+        char c = html.charAt(pos);
+        if (isWhitespace(c) || c == '/' || c == '>') {
+          break;
+        }
+        pos++;
+      }
+      return Ascii.toLowerCase(html.substring(start, pos));
+    }
+
+    private void skipWhitespace() {
+      while (pos < length && isWhitespace(html.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private void skipPast(char c) {
+      int index = html.indexOf(c, pos);
+      pos = index < 0 ? length : index + 1;
+    }
+  }
+}
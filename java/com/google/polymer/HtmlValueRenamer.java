@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.polymer.PolymerDatabindingLexer.TokenHandler;
+import com.google.polymer.PolymerDatabindingLexer.TokenType;
+
+/**
+ * Renames the individual values found in a Polymer HTML document: attribute values, text, inline
+ * scripts and custom element attribute keys. Methods return the same String instance when
+ * nothing was renamed so callers can skip writing the value back.
+ */
+final class HtmlValueRenamer {
+
+  /** Receives the replacements made to an input string as ranges of the original input. */
+  interface ReplacementHandler {
+    /**
+     * Called for each replaced range in input order.
+     * @param start The index of the first replaced character.
+     * @param end The index after the last replaced character.
+     * @param replacement The replacement for the range.
+     */
+    void replace(int start, int end, String replacement);
+  }
+
+  // Joiner for HTML attribute lists.
+  private static final Joiner ATTRIBUTE_LIST_JOINER = Joiner.on(" ");
+
+  // Splitter for HTML attribute lists.
+  private static final Splitter ATTRIBUTE_LIST_SPLITTER = Splitter.on(" ");
+
+  // Joiner for Polymer style event expressions.
+  private static final Joiner EVENT_EXPRESSION_JOINER = Joiner.on("::");
+
+  // Splitter for Polymer style event expressions.
+  private static final Splitter EVENT_EXPRESSION_SPLITTER = Splitter.on("::");
+
+  // Prefix of Polymer annotated event listener attributes.
+  private static final String EVENT_ATTRIBUTE_PREFIX = "on-";
+
+  private final RenameMap renameMap;
+  private final HtmlRenamer.RenameMode renameMode;
+
+  /**
+   * Constructs the HtmlValueRenamer to rename according to {@code renameMap}.
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param renameMode The Polymer version of the document.
+   */
+  HtmlValueRenamer(RenameMap renameMap, HtmlRenamer.RenameMode renameMode) {
+    this.renameMap = Preconditions.checkNotNull(renameMap);
+    this.renameMode = Preconditions.checkNotNull(renameMode);
+  }
+
+  /** Returns true if the attribute is a Polymer annotated event listener. */
+  static boolean isEventAttribute(String key) {
+    return key.startsWith(EVENT_ATTRIBUTE_PREFIX);
+  }
+
+  /**
+   * Renames the property list in the 'attributes' attribute of a Polymer 0.5 polymer-element.
+   * @param attributesValue The space separated list of published properties.
+   */
+  String renameAttributesAttributeValue(String attributesValue) {
+    boolean modified = false;
+    String properties[] =
+        ATTRIBUTE_LIST_SPLITTER.splitToList(attributesValue).toArray(new String[0]);
+    for (int i = 0; i < properties.length; i++) {
+      String renamedProperty = renameMap.get(properties[i]);
+      if (renamedProperty != null) {
+        properties[i] = renamedProperty;
+        modified = true;
+        RenameMetrics.count(RenameMetrics.Counter.DESCRIPTOR_RENAMES);
+      }
+    }
+    return modified ? ATTRIBUTE_LIST_JOINER.join(properties) : attributesValue;
+  }
+
+  /**
+   * Renames the method name of a Polymer annotated event listener (on-* attributes).
+   * @param eventHandler The method name.
+   */
+  String renameEventHandler(String eventHandler) {
+    String renamedEventHandler = renameMap.get(eventHandler);
+    if (renamedEventHandler == null) {
+      return eventHandler;
+    }
+    RenameMetrics.count(RenameMetrics.Counter.BINDING_RENAMES);
+    return renamedEventHandler;
+  }
+
+  /**
+   * Renames the expressions in the databinding directives of a string.
+   * @param input Text or an attribute value.
+   */
+  String renameDatabindingDirectives(String input) {
+    if (!PolymerDatabindingLexer.containsDelimiter(input)) {
+      return input;
+    }
+    ReplacementApplier replacementApplier = new ReplacementApplier(input);
+    renameDatabindingDirectives(input, replacementApplier);
+    return replacementApplier.getOutput();
+  }
+
+  /**
+   * Renames the expressions in the databinding directives of a string, reporting each changed
+   * expression to {@code handler} instead of building the renamed string.
+   * @param input Text or an attribute value.
+   * @param handler Receives the ranges of {@code input} to replace.
+   */
+  void renameDatabindingDirectives(String input, ReplacementHandler handler) {
+    if (PolymerDatabindingLexer.containsDelimiter(input)) {
+      PolymerDatabindingLexer.lex(input, new DatabindingDirectiveRenamer(input, handler));
+    }
+  }
+
+  /**
+   * Renames properties of an inline script. Scripts that fail to parse are returned untouched.
+   * @param js The content of the script element.
+   */
+  String renameScript(String js) {
+    if (!renameMap.mayReferenceSymbol(js)) {
+      return js;
+    }
+    try {
+      return JsRenamer.renameProperties(renameMap, js);
+    } catch (JavaScriptParsingException e) {
+      Diagnostics.report(
+          Diagnostics.Severity.ERROR, Diagnostics.Category.SCRIPT_PARSE_ERROR, e.toString());
+      return js;
+    }
+  }
+
+  /**
+   * Renames a hyphenated attribute key of a Polymer custom element, which binds to the camel case
+   * property of the same name.
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param key The lower case attribute key.
+   * @return The renamed attribute key, or null if the key is not renamed.
+   */
+  static String renameAttributeKey(RenameMap renameMap, String key) {
+    // Polymer events are referenced as strings. As a result they do not participate in renaming.
+    // Additionally, it is not valid to have a Polymer property start with "on".
+    if (isEventAttribute(key)) {
+      return null;
+    }
+    String renamedKey = renameMap.getAttributeKey(key);
+    if (renamedKey != null) {
+      RenameMetrics.count(RenameMetrics.Counter.ATTRIBUTE_KEY_RENAMES);
+    }
+    return renamedKey;
+  }
+
+  private String renameDatabindingExpression(String expression) {
+    // Polymer 1.0 has two-way native element binding syntax which isn't legal Javascript.
+    // See https://www.polymer-project.org/1.0/docs/devguide/data-binding.html#two-way-native.
+    // Expression Format: {{expression::eventName}}
+    // We'll treat this as {{expression::notRenamed}}
+    String[] components =
+        EVENT_EXPRESSION_SPLITTER.splitToList(expression).toArray(new String[0]);
+    if (!renameMap.mayReferenceSymbol(components[0])) {
+      return expression;
+    }
+    try {
+      components[0] = JsRenamer.renamePolymerJsExpression(renameMap, components[0]);
+    } catch (JavaScriptParsingException e) {
+      Diagnostics.report(
+          Diagnostics.Severity.ERROR, Diagnostics.Category.EXPRESSION_PARSE_ERROR, e.toString());
+    }
+    return EVENT_EXPRESSION_JOINER.join(components);
+  }
+
+  /** Builds the replaced string from the replacements reported for an input string. */
+  private static final class ReplacementApplier implements ReplacementHandler {
+    private final String input;
+    private final StringBuilder output;
+    private int copied = 0;
+    private boolean replaced = false;
+
+    private ReplacementApplier(String input) {
+      this.input = input;
+      this.output = new StringBuilder(input.length());
+    }
+
+    @Override
+    public void replace(int start, int end, String replacement) {
+      output.append(input, copied, start).append(replacement);
+      copied = end;
+      replaced = true;
+    }
+
+    /** Returns the replaced string, or the input itself if nothing was replaced. */
+    private String getOutput() {
+      if (!replaced) {
+        return input;
+      }
+      return output.append(input, copied, input.length()).toString();
+    }
+  }
+
+  /** Renames the expressions between databinding delimiters as they are lexed. */
+  private class DatabindingDirectiveRenamer implements TokenHandler {
+    private final String input;
+    private final ReplacementHandler handler;
+    private boolean insideBraces = false;
+
+    private DatabindingDirectiveRenamer(String input, ReplacementHandler handler) {
+      this.input = input;
+      this.handler = handler;
+    }
+
+    @Override
+    public void token(TokenType type, int start, int end) {
+      switch (type) {
+        case STRING:
+          if (insideBraces) {
+            String expression = input.substring(start, end);
+            String renamedExpression = renameDatabindingExpression(expression);
+            if (!renamedExpression.equals(expression)) {
+              RenameMetrics.count(RenameMetrics.Counter.BINDING_RENAMES);
+              handler.replace(start, end, renamedExpression);
+            }
+          }
+          break;
+        case OPENCURLYBRACES:
+          insideBraces = true;
+          break;
+        case CLOSECURLYBRACES:
+          insideBraces = false;
+          break;
+        case OPENSQUAREBRACES:
+          if (renameMode == HtmlRenamer.RenameMode.POLYMER_0_8) {
+            insideBraces = true;
+          }
+          break;
+        case CLOSESQUAREBRACES:
+          if (renameMode == HtmlRenamer.RenameMode.POLYMER_0_8) {
+            insideBraces = false;
+          }
+          break;
+      }
+    }
+  }
+}
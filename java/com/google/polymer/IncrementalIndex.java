@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent index of the property map entries each output of a batch rename depends on. An
+ * output stays current while its input is unchanged and every symbol looked up while renaming it
+ * is still renamed the same way, so a change to the property map only reprocesses the files that
+ * reference the symbols whose renames changed.
+ *
+ * <p>The index is stored as JSON. The previous index is read when the batch starts and a new index
+ * holding the entries of the files renamed or reused by the batch replaces it when the batch ends.
+ */
+final class IncrementalIndex {
+
+  // Changes whenever the renamed output for the same input may change, invalidating every entry.
+  private static final int VERSION = 1;
+
+  /** The stored form of the index. */
+  private static final class State {
+    int version;
+
+    /** The output format options the outputs were renamed with. */
+    String outputFormat;
+
+    /** Index entries keyed by output file. */
+    Map<String, Entry> outputs = new LinkedHashMap<>();
+  }
+
+  /** What a single output depends on. */
+  private static final class Entry {
+    /** The SHA-256 digest of the input content. */
+    String inputDigest;
+
+    /** The symbols looked up while renaming that were renamed, and what they were renamed to. */
+    Map<String, String> renamed = new TreeMap<>();
+
+    /** The symbols looked up while renaming that weren't renamed. */
+    List<String> unrenamed = new ArrayList<>();
+  }
+
+  private final Gson gson = new Gson();
+  private final Path indexFile;
+  private final String outputFormat;
+  private final Map<String, Entry> previousOutputs;
+  private final Map<String, Entry> outputs = new ConcurrentHashMap<>();
+
+  private IncrementalIndex(
+      Path indexFile, String outputFormat, Map<String, Entry> previousOutputs) {
+    this.indexFile = indexFile;
+    this.outputFormat = outputFormat;
+    this.previousOutputs = previousOutputs;
+  }
+
+  /**
+   * Reads the index left by the previous batch. A missing index, or one written by a different
+   * version of the renamer or with different output format options, is treated as empty.
+   *
+   * @param indexFile The index file.
+   * @param outputFormat A description of the output format options of the batch.
+   */
+  static IncrementalIndex load(Path indexFile, String outputFormat) throws IOException {
+    Gson gson = new Gson();
+    State state = null;
+    try (Reader reader = Files.newBufferedReader(indexFile, UTF_8)) {
+      state = gson.fromJson(reader, State.class);
+    } catch (NoSuchFileException e) {
+      // The first incremental batch.
+    } catch (JsonParseException e) {
+      Diagnostics.report(
+          Diagnostics.Severity.WARNING,
+          Diagnostics.Category.UNREADABLE_INCREMENTAL_INDEX,
+          "Ignoring unreadable incremental index: " + indexFile);
+    }
+    Map<String, Entry> previousOutputs = new LinkedHashMap<>();
+    if (state != null
+        && state.version == VERSION
+        && outputFormat.equals(state.outputFormat)
+        && state.outputs != null) {
+      previousOutputs = state.outputs;
+    }
+    return new IncrementalIndex(indexFile, outputFormat, previousOutputs);
+  }
+
+  /** Returns the SHA-256 digest of input content, as stored in the index. */
+  static String getInputDigest(String inputFileContent) {
+    return Hashing.sha256().hashString(inputFileContent, UTF_8).toString();
+  }
+
+  /**
+   * Returns true if an output renamed by the previous batch is still current, carrying its entry
+   * over to the new index.
+   *
+   * @param outputFile The output file.
+   * @param inputDigest The digest of the current input content.
+   * @param renameMap The rename map of this batch.
+   */
+  boolean isCurrent(Path outputFile, String inputDigest, RenameMap renameMap) {
+    String key = outputFile.toString();
+    Entry entry = previousOutputs.get(key);
+    if (entry == null
+        || !inputDigest.equals(entry.inputDigest)
+        || entry.renamed == null
+        || entry.unrenamed == null
+        || !Files.isRegularFile(outputFile)) {
+      return false;
+    }
+    for (Map.Entry<String, String> renamed : entry.renamed.entrySet()) {
+      if (!Objects.equal(renamed.getValue(), renameMap.get(renamed.getKey()))) {
+        return false;
+      }
+    }
+    for (String symbol : entry.unrenamed) {
+      if (renameMap.containsKey(symbol)) {
+        return false;
+      }
+    }
+    outputs.put(key, entry);
+    return true;
+  }
+
+  /**
+   * Records what a newly renamed output depends on.
+   *
+   * @param outputFile The output file.
+   * @param inputDigest The digest of the input content.
+   * @param renameMap The recording rename map the input was renamed against.
+   */
+  void record(Path outputFile, String inputDigest, RecordingRenameMap renameMap) {
+    Entry entry = new Entry();
+    entry.inputDigest = Preconditions.checkNotNull(inputDigest);
+    for (String symbol : renameMap.getLookedUpSymbols()) {
+      String renamed = renameMap.get(symbol);
+      if (renamed != null) {
+        entry.renamed.put(symbol, renamed);
+      } else {
+        entry.unrenamed.add(symbol);
+      }
+    }
+    Collections.sort(entry.unrenamed);
+    outputs.put(outputFile.toString(), entry);
+  }
+
+  /**
+   * Carries the entries of the previous batch over to the new index for the outputs this batch
+   * didn't rename or reuse, for batches that only rename the inputs that changed.
+   */
+  void keepPreviousOutputs() {
+    for (Map.Entry<String, Entry> entry : previousOutputs.entrySet()) {
+      if (!outputs.containsKey(entry.getKey())) {
+        outputs.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /** Replaces the stored index with the entries recorded or carried over by this batch. */
+  void save() throws IOException {
+    State state = new State();
+    state.version = VERSION;
+    state.outputFormat = outputFormat;
+    state.outputs.putAll(new TreeMap<>(outputs));
+
+    Path parent = indexFile.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path temporaryFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temporaryFile, UTF_8)) {
+      gson.toJson(state, writer);
+    }
+    Files.move(
+        temporaryFile,
+        indexFile,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+}
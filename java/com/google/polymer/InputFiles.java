@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads HTML, JS and sourcemap inputs. Files are read into a heap buffer and decoded as UTF-8 in a
+ * single pass over their bytes, unless a byte order mark says they are UTF-16. Malformed input is
+ * replaced rather than rejected.
+ */
+final class InputFiles {
+
+  private InputFiles() {}
+
+  /**
+   * Reads and decodes a file, dropping its byte order mark, if any.
+   *
+   * @param file The file to read.
+   * @return The content of the file.
+   */
+  static String read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Input file too large: " + file);
+      }
+      ByteBuffer bytes = ByteBuffer.allocate((int) size);
+      while (bytes.hasRemaining() && channel.read(bytes) >= 0) {}
+      bytes.flip();
+      return decode(bytes);
+    }
+  }
+
+  /**
+   * Decodes the content of a file, picking the charset from its byte order mark.
+   *
+   * @param bytes The content, backed by an array.
+   */
+  private static String decode(ByteBuffer bytes) {
+    Charset charset = UTF_8;
+    int remaining = bytes.remaining();
+    int position = bytes.position();
+    if (remaining >= 3
+        && bytes.get(position) == (byte) 0xEF
+        && bytes.get(position + 1) == (byte) 0xBB
+        && bytes.get(position + 2) == (byte) 0xBF) {
+      position += 3;
+    } else if (remaining >= 2
+        && bytes.get(position) == (byte) 0xFE
+        && bytes.get(position + 1) == (byte) 0xFF) {
+      charset = UTF_16BE;
+      position += 2;
+    } else if (remaining >= 2
+        && bytes.get(position) == (byte) 0xFF
+        && bytes.get(position + 1) == (byte) 0xFE) {
+      charset = UTF_16LE;
+      position += 2;
+    }
+    // The String constructor decodes without an intermediate char array, replacing malformed input.
+    return new String(
+        bytes.array(), bytes.arrayOffset() + position, bytes.limit() - position, charset);
+  }
+}
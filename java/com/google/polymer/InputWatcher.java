@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import com.google.common.base.Preconditions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches input directories and files for changes with a {@link WatchService}. Changes arrive in
+ * bursts, as editors and builds write several files, or the same file several times, so they are
+ * collected until none have been seen for a while and then returned together.
+ *
+ * <p>Directories are watched recursively, including directories created while they are watched.
+ * Single files are watched through their parent directory, ignoring the other files in it.
+ */
+final class InputWatcher implements Closeable {
+
+  private final WatchService watchService;
+  private final long delayMillis;
+
+  /** The directory each registered key watches. */
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+
+  /** The directories watched recursively. */
+  private final Set<Path> trees = new HashSet<>();
+
+  /** The files watched outside of the watched trees. */
+  private final Set<Path> files = new HashSet<>();
+
+  /** The directories whose changes are ignored, such as the output directory. */
+  private final Set<Path> ignoredDirectories = new HashSet<>();
+
+  /**
+   * Constructs an InputWatcher.
+   *
+   * @param delayMillis The number of milliseconds without further changes after which changes are
+   *     returned.
+   */
+  InputWatcher(long delayMillis) throws IOException {
+    Preconditions.checkArgument(delayMillis >= 0);
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.delayMillis = delayMillis;
+  }
+
+  /**
+   * Watches a directory and every directory under it.
+   *
+   * @param directory The directory to watch.
+   */
+  void watchTree(Path directory) throws IOException {
+    directory = normalize(directory);
+    trees.add(directory);
+    registerTree(directory, null);
+  }
+
+  /**
+   * Watches a single file, which needn't exist yet.
+   *
+   * @param file The file to watch.
+   */
+  void watchFile(Path file) throws IOException {
+    file = normalize(file);
+    files.add(file);
+    Path parent = file.getParent();
+    if (parent != null) {
+      register(parent);
+    }
+  }
+
+  /**
+   * Ignores the changes of a directory and everything under it, even within a watched tree.
+   *
+   * @param directory The directory to ignore.
+   */
+  void ignore(Path directory) {
+    ignoredDirectories.add(normalize(directory));
+  }
+
+  /**
+   * Waits for changes to the watched files, and then for them to settle.
+   *
+   * @return The created, modified and deleted files, sorted. Files created along with a new
+   *     directory are included. If changes were lost because too many happened at once, the
+   *     watched trees and files themselves are returned. Returns null once the watcher is closed.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  Set<Path> awaitChanges() throws InterruptedException {
+    Set<Path> changes = new TreeSet<>();
+    try {
+      WatchKey key = watchService.take();
+      do {
+        collectChanges(key, changes);
+        if (changes.isEmpty()) {
+          // Nothing watched changed, so there is nothing to settle.
+          key = watchService.take();
+        } else {
+          key = watchService.poll(delayMillis, TimeUnit.MILLISECONDS);
+        }
+      } while (key != null);
+    } catch (ClosedWatchServiceException e) {
+      return null;
+    }
+    return changes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void collectChanges(WatchKey key, Set<Path> changes) {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        changes.addAll(trees);
+        changes.addAll(files);
+        continue;
+      }
+      if (directory == null) {
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (!isWatched(path)) {
+        continue;
+      }
+      if (event.kind() == ENTRY_CREATE && Files.isDirectory(path) && isInTree(path)) {
+        try {
+          // Files may have been created in the new directory before it was registered.
+          registerTree(path, changes);
+        } catch (IOException e) {
+          System.err.println("Unable to watch " + path + ": " + e);
+        }
+      } else {
+        changes.add(path);
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  private boolean isWatched(Path path) {
+    for (Path ignoredDirectory : ignoredDirectories) {
+      if (path.startsWith(ignoredDirectory)) {
+        return false;
+      }
+    }
+    return files.contains(path) || isInTree(path);
+  }
+
+  private boolean isInTree(Path path) {
+    for (Path tree : trees) {
+      if (path.startsWith(tree)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Registers a directory and every directory under it.
+   *
+   * @param directory The root of the directories to register.
+   * @param createdFiles Where the files found in the directories are added. Can be null.
+   */
+  private void registerTree(Path directory, final Set<Path> createdFiles) throws IOException {
+    Files.walkFileTree(
+        directory,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            if (ignoredDirectories.contains(dir)) {
+              return FileVisitResult.SKIP_SUBTREE;
+            }
+            register(dir);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (createdFiles != null) {
+              createdFiles.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private void register(Path directory) throws IOException {
+    directories.put(
+        directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), directory);
+  }
+
+  private static Path normalize(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+}
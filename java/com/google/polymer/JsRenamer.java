@@ -14,25 +14,42 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.debugging.sourcemap.SourceMapGeneratorV3;
+import com.google.debugging.sourcemap.SourceMapParseException;
 import com.google.javascript.jscomp.Compiler;
 import com.google.javascript.jscomp.CompilerOptions;
 import com.google.javascript.jscomp.SourceFile;
 import com.google.javascript.jscomp.SourceMapInput;
 import com.google.javascript.jscomp.parsing.Config;
+import com.google.javascript.jscomp.parsing.Config.JsDocParsing;
 import com.google.javascript.jscomp.parsing.Config.LanguageMode;
+import com.google.javascript.jscomp.parsing.Config.RunMode;
 import com.google.javascript.jscomp.parsing.Config.StrictMode;
 import com.google.javascript.jscomp.parsing.ParserRunner;
 import com.google.javascript.rhino.ErrorReporter;
 import com.google.javascript.rhino.Node;
 import com.google.javascript.rhino.SimpleSourceFile;
 import com.google.javascript.rhino.StaticSourceFile;
-import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,6 +66,14 @@ public final class JsRenamer {
      * for strings.
      */
     SINGLE_QUOTE_STRINGS,
+
+    /**
+     * Output the input source with only the renamed names and strings replaced, keeping its
+     * formatting and comments. Other formats are ignored. If a renamed node can't be placed in the
+     * source or the input sourcemap can't be shifted, the script is printed as if this wasn't
+     * specified.
+     */
+    PRESERVE_SOURCE,
   }
 
   private enum RenameMode {
@@ -71,24 +96,57 @@ public final class JsRenamer {
   // Splitter for JavaScript function argument strings.
   private static final Splitter ARGUMENT_SPLITTER = Splitter.on(",").trimResults();
 
-  // Polymer property change name string suffix.
-  private static final String CHANGED_SUFFIX = "Changed";
-
   // Pattern that identifies JavaScript methods consistent with Polymer.Base._parseMethod.
   // See https://github.com/Polymer/polymer/blob/master/src/standard/effectBuilder.html
   private static final Pattern METHOD_PATTERN = Pattern.compile("([^\\s]+)\\((.*)\\)");
 
-  // Joiner for JavaScript property expressions.
-  private static final Joiner PROPERTY_EXPRESSION_JOINER = Joiner.on(".");
-
-  // Splitter for JavaScript property expressions.
-  private static final Splitter PROPERTY_EXPRESSION_SPLITTER = Splitter.on(".");
-
   // A placeholder file name when we don't have a real file backing the JS.
   private static final String PLACEHOLDER_FILE_NAME = "input";
 
+  // The source file of JS without a real file backing it.
+  private static final StaticSourceFile PLACEHOLDER_SOURCE_FILE =
+      new SimpleSourceFile(PLACEHOLDER_FILE_NAME, false);
+
+  // The parser configuration for whole scripts.
+  private static final Config SCRIPT_PARSER_CONFIG =
+      ParserRunner.createConfig(LanguageMode.ECMASCRIPT6, null, StrictMode.SLOPPY);
+
+  // The parser configuration for expression sized inputs. JSDoc is limited to type annotations,
+  // the least the parser supports, and inline sourcemap comments are not looked for.
+  private static final Config EXPRESSION_PARSER_CONFIG =
+      ParserRunner.createConfig(
+          LanguageMode.ECMASCRIPT6,
+          JsDocParsing.TYPES_ONLY,
+          RunMode.STOP_AFTER_ERROR,
+          null,
+          false,
+          StrictMode.SLOPPY);
+
+  // The most idle printing Compilers kept for each set of printer options.
+  private static final int MAX_IDLE_PRINTERS = Runtime.getRuntime().availableProcessors();
+
+  // Compilers initialized for printing without a sourcemap and not in use, shared by all threads.
+  // A Compiler is not thread safe, so each is borrowed by one thread at a time. Initializing a
+  // Compiler costs far more than printing an expression.
+  private static final ConcurrentHashMap<PrinterKey, BlockingQueue<Compiler>> idlePrinters =
+      new ConcurrentHashMap<>();
+
   // Common format-string for all js related warnings.
-  private static final String WARNING_MSG_FORMAT = "WARNING: (%d:%d) %s%n";
+  private static final String WARNING_MSG_FORMAT = "WARNING: (%d:%d) %s";
+
+  // Line separator of warning and error output.
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  // The default number of renamed Polymer JavaScript-like expressions to remember. Templates
+  // repeat the same databinding expressions many times, and each one costs a parse and a print.
+  private static final long DEFAULT_EXPRESSION_CACHE_SIZE = 10000;
+
+  // Remembers renamed Polymer JavaScript-like expressions, including parse failures.
+  private static volatile Cache<ExpressionCacheKey, ExpressionCacheValue> expressionCache =
+      newExpressionCache(DEFAULT_EXPRESSION_CACHE_SIZE);
+
+  // The number of expressions expressionCache remembers.
+  private static volatile long expressionCacheSize = DEFAULT_EXPRESSION_CACHE_SIZE;
 
   private JsRenamer() {}
 
@@ -105,7 +163,7 @@ public final class JsRenamer {
    * @throws JavaScriptParsingException if parse errors were encountered.
    */
   public static String rename(
-      ImmutableMap<String, String> renameMap,
+      RenameMap renameMap,
       String js,
       ImmutableSet<OutputFormat> outputFormat,
       String inputFileName,
@@ -113,20 +171,493 @@ public final class JsRenamer {
       String sourceMapOutputFileName)
       throws JavaScriptParsingException {
     Preconditions.checkNotNull(renameMap);
-    Node jsAst = parse(js, inputFileName);
-    ImmutableSet<RenameMode> renameMode =
-        isPolymer05Javascript(jsAst)
-            ? ImmutableSet.<RenameMode>of(RenameMode.RENAME_PROPERTIES)
-            : ImmutableSet.<RenameMode>of();
-
-    return outputSource(
-        renameNode(renameMap, jsAst, renameMode),
+    return renameScript(
+        renameMap,
+        js,
+        parseScript(js, inputFileName),
+        outputFormat,
+        inputFileName,
+        inputSourceMap,
+        sourceMapOutputFileName);
+  }
+
+  /**
+   * Performs renames on JavaScript as an entire string typically supplied from a file.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param js The JavaScript code.
+   * @param outputFormat The source output format options.
+   * @param inputFileName The name of the input source file being renamed.
+   * @param inputSourceMap The content of the input sourcemap.
+   * @param sourceMapOutputFileName The name of the output sourcemap.
+   * @return JavaScript code with renames applied.
+   * @throws JavaScriptParsingException if parse errors were encountered.
+   */
+  public static String rename(
+      ImmutableMap<String, String> renameMap,
+      String js,
+      ImmutableSet<OutputFormat> outputFormat,
+      String inputFileName,
+      String inputSourceMap,
+      String sourceMapOutputFileName)
+      throws JavaScriptParsingException {
+    return rename(
+        RenameMap.of(renameMap),
+        js,
         outputFormat,
         inputFileName,
         inputSourceMap,
         sourceMapOutputFileName);
   }
 
+  /**
+   * Parses JavaScript ahead of renaming it with {@link #renameScript}, which lets callers parse
+   * while the rename map is still loading.
+   *
+   * @param js The JavaScript code.
+   * @param inputFileName The name of the input source file being renamed.
+   * @return An abstract syntax tree.
+   * @throws JavaScriptParsingException if parse errors were encountered.
+   */
+  static Node parseScript(String js, String inputFileName) throws JavaScriptParsingException {
+    return parse(js, new SimpleSourceFile(inputFileName, false), SCRIPT_PARSER_CONFIG);
+  }
+
+  /**
+   * Performs renames on JavaScript parsed by {@link #parseScript}.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param js The JavaScript code jsAst was parsed from.
+   * @param jsAst The abstract syntax tree returned by parseScript, which is renamed in place.
+   * @param outputFormat The source output format options.
+   * @param inputFileName The name of the input source file being renamed.
+   * @param inputSourceMap The content of the input sourcemap.
+   * @param sourceMapOutputFileName The name of the output sourcemap.
+   * @return JavaScript code with renames applied.
+   */
+  static String renameScript(
+      RenameMap renameMap,
+      String js,
+      Node jsAst,
+      ImmutableSet<OutputFormat> outputFormat,
+      String inputFileName,
+      String inputSourceMap,
+      String sourceMapOutputFileName) {
+    StringBuilder output = new StringBuilder(js.length());
+    try {
+      renameScript(
+          renameMap,
+          js,
+          jsAst,
+          outputFormat,
+          inputFileName,
+          inputSourceMap,
+          sourceMapOutputFileName,
+          output);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return output.toString();
+  }
+
+  /**
+   * Performs renames on JavaScript parsed by {@link #parseScript}, appending the renamed code to an
+   * output. Source preserving renames are appended range by range as they are spliced, while
+   * printed trees are appended once printed since the Closure Compiler only prints to a String.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param js The JavaScript code jsAst was parsed from.
+   * @param jsAst The abstract syntax tree returned by parseScript, which is renamed in place.
+   * @param outputFormat The source output format options.
+   * @param inputFileName The name of the input source file being renamed.
+   * @param inputSourceMap The content of the input sourcemap.
+   * @param sourceMapOutputFileName The name of the output sourcemap.
+   * @param output Where the JavaScript code with renames applied is appended.
+   * @throws IOException if the output fails to append.
+   */
+  static void renameScript(
+      RenameMap renameMap,
+      String js,
+      Node jsAst,
+      ImmutableSet<OutputFormat> outputFormat,
+      String inputFileName,
+      String inputSourceMap,
+      String sourceMapOutputFileName,
+      Appendable output)
+      throws IOException {
+    Preconditions.checkNotNull(renameMap);
+    JsSourceRenamer sourceRenamer =
+        outputFormat.contains(OutputFormat.PRESERVE_SOURCE) ? new JsSourceRenamer(js, jsAst) : null;
+    // Properties are only renamed in Polymer 0.5 style JavaScript, which isn't known until the
+    // Polymer call is found.
+    new NodeRenamer(renameMap, ImmutableSet.<RenameMode>of(), true).rename(jsAst);
+
+    if (sourceRenamer != null) {
+      boolean placed;
+      RenameMetrics.Scope placePhase = RenameMetrics.phase(RenameMetrics.Phase.PRINT);
+      try {
+        placed = sourceRenamer.placeEdits();
+      } finally {
+        placePhase.close();
+      }
+      // The sourcemap is shifted before anything is appended, so that the tree can still be
+      // printed instead if it can't be.
+      if (placed
+          && (inputFileName == null
+              || inputSourceMap == null
+              || sourceMapOutputFileName == null
+              || writeShiftedSourceMap(sourceRenamer, inputSourceMap, sourceMapOutputFileName))) {
+        RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.PRINT);
+        try {
+          sourceRenamer.appendTo(output);
+        } finally {
+          phase.close();
+        }
+        return;
+      }
+    }
+
+    output.append(
+        outputSource(
+            jsAst,
+            outputFormat,
+            inputFileName,
+            inputSourceMap,
+            sourceMapOutputFileName));
+  }
+
+  /**
+   * Writes the input sourcemap shifted to the output of a {@link JsSourceRenamer}.
+   *
+   * @return Whether the sourcemap could be shifted. If it couldn't, nothing is written.
+   */
+  private static boolean writeShiftedSourceMap(
+      JsSourceRenamer sourceRenamer, String inputSourceMap, String sourceMapOutputFileName) {
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.SOURCEMAP);
+    try {
+      String sourceMap;
+      try {
+        sourceMap = sourceRenamer.shiftSourceMap(inputSourceMap, "renamed.js");
+      } catch (SourceMapParseException e) {
+        return false;
+      }
+      try (OutputStreamWriter out =
+          new OutputStreamWriter(new FileOutputStream(sourceMapOutputFileName), UTF_8)) {
+        out.write(sourceMap);
+      } catch (Exception e) {
+        Diagnostics.report(
+            Diagnostics.Severity.ERROR,
+            Diagnostics.Category.SOURCEMAP_WRITE_ERROR,
+            e + "Error writing output sourcemap.");
+      }
+      return true;
+    } finally {
+      phase.close();
+    }
+  }
+
+  /**
+   * Parses the segments of a script split by {@link JsSegmenter} on a pool of threads, ahead of
+   * renaming them with {@link #renameScriptSegments}. The nodes of each segment are positioned
+   * where the segment starts in the script, so that warnings and sourcemaps refer to the script.
+   *
+   * @param js The JavaScript code.
+   * @param inputFileName The name of the input source file being renamed.
+   * @param segmentStarts The offsets the segments start at, the first of which is 0.
+   * @param parallelism The number of segments to parse concurrently.
+   * @return The abstract syntax trees of the segments, in order.
+   * @throws JavaScriptParsingException if a segment failed to parse, which a misplaced boundary
+   *     causes as well as an error in the script. Callers parse the whole script instead.
+   */
+  static List<Node> parseScriptSegments(
+      final String js, String inputFileName, List<Integer> segmentStarts, int parallelism)
+      throws JavaScriptParsingException {
+    final StaticSourceFile sourceFile = new SimpleSourceFile(inputFileName, false);
+    List<Callable<Node>> tasks = new ArrayList<>(segmentStarts.size());
+    int line = 1;
+    int lineStart = 0;
+    int offset = 0;
+    for (int i = 0; i < segmentStarts.size(); i++) {
+      final int start = segmentStarts.get(i);
+      final int end = i + 1 < segmentStarts.size() ? segmentStarts.get(i + 1) : js.length();
+      // Lines are counted as the parser counts them.
+      while (offset < start) {
+        char c = js.charAt(offset++);
+        if (c == '\n'
+            || c == '\u2028'
+            || c == '\u2029'
+            || (c == '\r' && (offset == js.length() || js.charAt(offset) != '\n'))) {
+          line++;
+          lineStart = offset;
+        }
+      }
+      final int lineOffset = line - 1;
+      final int columnOffset = start - lineStart;
+      tasks.add(
+          new Callable<Node>() {
+            @Override
+            public Node call() {
+              Node script = parseSegment(js.substring(start, end), sourceFile);
+              if (script != null) {
+                shiftPositions(script, lineOffset, columnOffset);
+              }
+              return script;
+            }
+          });
+    }
+    List<Node> segments = invokeAll(WorkerPools.get(parallelism), tasks);
+    for (int i = 0; i < segments.size(); i++) {
+      if (segments.get(i) == null) {
+        throw new JavaScriptParsingException(
+            "ERROR: Unable to parse the segment starting at offset " + segmentStarts.get(i));
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * Parses a segment of a script, returning null instead of counting a parse failure if it fails.
+   */
+  private static Node parseSegment(String js, StaticSourceFile file) {
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.JS_PARSE);
+    try {
+      return ParserRunner.parse(file, js, SCRIPT_PARSER_CONFIG, new JavaScriptErrorReporter(js))
+          .ast;
+    } finally {
+      phase.close();
+    }
+  }
+
+  /**
+   * Moves the nodes of a segment to where the segment starts in its script.
+   *
+   * @param root The abstract syntax tree of the segment.
+   * @param lineOffset The number of lines of the script before the segment.
+   * @param columnOffset The column the segment starts at, by which its first line is shifted.
+   */
+  private static void shiftPositions(Node root, int lineOffset, int columnOffset) {
+    Node current = root;
+    while (true) {
+      int lineno = current.getLineno();
+      if (lineno > 0) {
+        if (lineno == 1 && current.getCharno() >= 0) {
+          current.setCharno(current.getCharno() + columnOffset);
+        }
+        current.setLineno(lineno + lineOffset);
+      }
+      Node firstChild = current.getFirstChild();
+      if (firstChild != null) {
+        current = firstChild;
+        continue;
+      }
+      while (current != root && current.getNext() == null) {
+        current = current.getParent();
+      }
+      if (current == root) {
+        return;
+      }
+      current = current.getNext();
+    }
+  }
+
+  /**
+   * Performs renames on the segments of a script parsed by {@link #parseScriptSegments}, renaming
+   * and printing the segments on a pool of threads and appending them to an output in order. The
+   * output matches that of {@link #renameScript}, except where the minified output of the whole
+   * script would have been broken into lines at other statements.
+   *
+   * <p>Properties are renamed in every segment once any segment is found to be Polymer 0.5 style
+   * JavaScript, as they are in a whole script. Segments are printed in the language mode of the
+   * whole script, which its first segment declares, and sourcemaps of the segments are merged into
+   * a sourcemap of the whole output.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param segments The abstract syntax trees returned by parseScriptSegments, which are renamed in
+   *     place.
+   * @param outputFormat The source output format options. Source preserving renames aren't
+   *     supported.
+   * @param inputFileName The name of the input source file being renamed.
+   * @param inputSourceMap The content of the input sourcemap.
+   * @param sourceMapOutputFileName The name of the output sourcemap.
+   * @param parallelism The number of segments to rename concurrently.
+   * @param output Where the JavaScript code with renames applied is appended.
+   * @throws IOException if the output fails to append.
+   */
+  static void renameScriptSegments(
+      final RenameMap renameMap,
+      final List<Node> segments,
+      final ImmutableSet<OutputFormat> outputFormat,
+      final String inputFileName,
+      String inputSourceMap,
+      String sourceMapOutputFileName,
+      int parallelism,
+      Appendable output)
+      throws IOException {
+    Preconditions.checkNotNull(renameMap);
+    Preconditions.checkArgument(!outputFormat.contains(OutputFormat.PRESERVE_SOURCE));
+    final SourceMapInput sourceMapInput =
+        inputSourceMap == null
+            ? null
+            : new SourceMapInput(SourceFile.fromCode("input.sourcemap", inputSourceMap));
+    List<PrintedSegment> printedSegments;
+    ForkJoinPool pool = WorkerPools.get(parallelism);
+    List<Callable<NodeRenamer>> renames = new ArrayList<>(segments.size());
+    for (final Node segment : segments) {
+      renames.add(
+          new Callable<NodeRenamer>() {
+            @Override
+            public NodeRenamer call() {
+              NodeRenamer nodeRenamer =
+                  new NodeRenamer(renameMap, ImmutableSet.<RenameMode>of(), true);
+              nodeRenamer.rename(segment);
+              return nodeRenamer;
+            }
+          });
+    }
+    final List<NodeRenamer> nodeRenamers = invokeAll(pool, renames);
+    boolean polymer05 = false;
+    for (NodeRenamer nodeRenamer : nodeRenamers) {
+      polymer05 |= nodeRenamer.foundPolymer05Call();
+    }
+    final boolean renameDeferredProperties = polymer05;
+    final boolean useStrict = isUseStrict(segments.get(0));
+    if (sourceMapInput != null) {
+      // Parse the input sourcemap once, rather than on every thread at the same time.
+      RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.SOURCEMAP);
+      try {
+        sourceMapInput.getSourceMap();
+      } finally {
+        phase.close();
+      }
+    }
+
+    List<Callable<PrintedSegment>> prints = new ArrayList<>(segments.size());
+    for (int i = 0; i < segments.size(); i++) {
+      final int index = i;
+      prints.add(
+          new Callable<PrintedSegment>() {
+            @Override
+            public PrintedSegment call() throws IOException {
+              if (renameDeferredProperties) {
+                RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.RENAME);
+                try {
+                  nodeRenamers.get(index).renameDeferredProperties();
+                } finally {
+                  phase.close();
+                }
+              }
+              boolean emitUseStrict = useStrict && index == 0;
+              if (sourceMapInput == null) {
+                return new PrintedSegment(
+                    print(outputFormat, useStrict, emitUseStrict, segments.get(index)), null);
+              }
+              Compiler compiler =
+                  newSourceMapPrinter(
+                      outputFormat, useStrict, emitUseStrict, sourceMapInput, inputFileName);
+              String code = print(compiler, segments.get(index));
+              StringBuilder sourceMap = new StringBuilder();
+              RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.SOURCEMAP);
+              try {
+                compiler.getSourceMap().appendTo(sourceMap, "renamed.js");
+              } finally {
+                phase.close();
+              }
+              return new PrintedSegment(code, sourceMap.toString());
+            }
+          });
+    }
+    printedSegments = invokeAll(pool, prints);
+
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.PRINT);
+    try {
+      for (PrintedSegment printedSegment : printedSegments) {
+        output.append(printedSegment.code);
+      }
+    } finally {
+      phase.close();
+    }
+    if (inputFileName != null && inputSourceMap != null && sourceMapOutputFileName != null) {
+      writeMergedSourceMap(printedSegments, sourceMapOutputFileName);
+    }
+  }
+
+  /** Merges the sourcemaps of printed segments, offsetting each to where its code is output. */
+  private static void writeMergedSourceMap(
+      List<PrintedSegment> printedSegments, String sourceMapOutputFileName) {
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.SOURCEMAP);
+    try {
+      SourceMapGeneratorV3 generator = new SourceMapGeneratorV3();
+      int line = 0;
+      int column = 0;
+      for (PrintedSegment printedSegment : printedSegments) {
+        generator.mergeMapSection(line, column, printedSegment.sourceMap);
+        String code = printedSegment.code;
+        int lastLineStart = code.lastIndexOf('\n') + 1;
+        for (int i = 0; i < lastLineStart; i++) {
+          if (code.charAt(i) == '\n') {
+            line++;
+            column = 0;
+          }
+        }
+        column += code.length() - lastLineStart;
+      }
+      try (OutputStreamWriter out =
+          new OutputStreamWriter(new FileOutputStream(sourceMapOutputFileName), UTF_8)) {
+        generator.appendTo(out, "renamed.js");
+      }
+    } catch (Exception e) {
+      Diagnostics.report(
+          Diagnostics.Severity.ERROR,
+          Diagnostics.Category.SOURCEMAP_WRITE_ERROR,
+          e + "Error writing output sourcemap.");
+    } finally {
+      phase.close();
+    }
+  }
+
+  /**
+   * Runs tasks on a pool, attached to the measurements and diagnostics of the calling thread's
+   * file, and returns their results in order.
+   */
+  private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) {
+    final RenameMetrics.FileMetrics file = RenameMetrics.currentFile();
+    final Diagnostics.FileDiagnostics fileDiagnostics = Diagnostics.currentFile();
+    List<Callable<T>> attachedTasks = new ArrayList<>(tasks.size());
+    for (final Callable<T> task : tasks) {
+      attachedTasks.add(
+          new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+              RenameMetrics.Scope attached = RenameMetrics.attach(file);
+              Diagnostics.Scope attachedDiagnostics = Diagnostics.attach(fileDiagnostics);
+              try {
+                return task.call();
+              } finally {
+                attachedDiagnostics.close();
+                attached.close();
+              }
+            }
+          });
+    }
+    try {
+      List<T> results = new ArrayList<>(tasks.size());
+      for (Future<T> result : pool.invokeAll(attachedTasks)) {
+        results.add(result.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while renaming the script", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
   /**
    * Renames JavaScript with Property Renaming. This is primarily used for code that predated the
    * Closure Polymer Pass.
@@ -138,9 +669,26 @@ public final class JsRenamer {
    */
   public static String renameProperties(ImmutableMap<String, String> renameMap, String js)
       throws JavaScriptParsingException {
+    return renameProperties(RenameMap.of(renameMap), js);
+  }
+
+  /**
+   * Renames JavaScript with Property Renaming. This is primarily used for code that predated the
+   * Closure Polymer Pass.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param js The JavaScript code.
+   * @return JavaScript code with renames applied.
+   * @throws JavaScriptParsingException if parse errors were encountered.
+   */
+  public static String renameProperties(RenameMap renameMap, String js)
+      throws JavaScriptParsingException {
     Preconditions.checkNotNull(renameMap);
     return toSource(
-        renameNode(renameMap, parse(js), ImmutableSet.<RenameMode>of(RenameMode.RENAME_PROPERTIES)),
+        renameNode(
+            renameMap,
+            parse(js, PLACEHOLDER_SOURCE_FILE, SCRIPT_PARSER_CONFIG),
+            ImmutableSet.<RenameMode>of(RenameMode.RENAME_PROPERTIES)),
         ImmutableSet.<OutputFormat>of());
   }
 
@@ -154,14 +702,142 @@ public final class JsRenamer {
    */
   public static String renamePolymerJsExpression(ImmutableMap<String, String> renameMap, String js)
       throws JavaScriptParsingException {
+    return renamePolymerJsExpression(RenameMap.of(renameMap), js);
+  }
+
+  /**
+   * Renames properties, renames variables, and reformats Polymer JavaScript-like expressions.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param js The JavaScript code.
+   * @return The JavaScript-like expression with renames applied.
+   * @throws JavaScriptParsingException if parse errors were encountered.
+   */
+  public static String renamePolymerJsExpression(
+      final RenameMap renameMap, final String js)
+      throws JavaScriptParsingException {
     Preconditions.checkNotNull(renameMap);
+    // Recording rename maps share cached expressions with the rename map they record, and record
+    // the symbols a cached expression looked up when it was renamed.
+    final RecordingRenameMap recordingRenameMap =
+        renameMap instanceof RecordingRenameMap ? (RecordingRenameMap) renameMap : null;
+    ExpressionCacheKey key = new ExpressionCacheKey(renameMap.getCacheId(), js);
+    ExpressionCacheValue value;
+    try {
+      value =
+          expressionCache.get(
+              key,
+              new Callable<ExpressionCacheValue>() {
+                @Override
+                public ExpressionCacheValue call() {
+                  return recordingRenameMap == null
+                      ? renameExpression(renameMap, false, js)
+                      : renameExpression(recordingRenameMap.getRenameMap(), true, js);
+                }
+              });
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    if (recordingRenameMap != null) {
+      if (value.lookedUpSymbols == null) {
+        // Renamed against a rename map that doesn't record, so rename it again recording.
+        value = renameExpression(recordingRenameMap.getRenameMap(), true, js);
+        expressionCache.put(key, value);
+      }
+      recordingRenameMap.record(value.lookedUpSymbols);
+    }
+    if (value.renamed == null) {
+      throw new JavaScriptParsingException(value.warningAndErrorOutput);
+    }
+    return value.renamed;
+  }
+
+  /**
+   * Renames a Polymer JavaScript-like expression for the expression cache.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param recordSymbols Whether to keep the symbols looked up in the result.
+   * @param js The JavaScript code.
+   */
+  private static ExpressionCacheValue renameExpression(
+      RenameMap renameMap, boolean recordSymbols, String js) {
+    RecordingRenameMap recordingRenameMap =
+        recordSymbols ? new RecordingRenameMap(renameMap) : null;
+    RenameMetrics.Expression expression = RenameMetrics.beginExpression(js);
+    try {
+      String renamed =
+          renamePolymerJsExpressionUncached(
+              recordingRenameMap == null ? renameMap : recordingRenameMap, js, expression);
+      return new ExpressionCacheValue(renamed, null, getLookedUpSymbols(recordingRenameMap));
+    } catch (JavaScriptParsingException e) {
+      RenameMetrics.setOutcome(expression, RenameMetrics.ExpressionOutcome.FAILED);
+      return new ExpressionCacheValue(null, e.toString(), getLookedUpSymbols(recordingRenameMap));
+    } finally {
+      RenameMetrics.endExpression(expression);
+    }
+  }
+
+  private static ImmutableSet<String> getLookedUpSymbols(RecordingRenameMap recordingRenameMap) {
+    return recordingRenameMap == null ? null : recordingRenameMap.getLookedUpSymbols();
+  }
+
+  /**
+   * Sets the number of renamed Polymer JavaScript-like expressions remembered by {@link
+   * #renamePolymerJsExpression}. Discards all remembered expressions and statistics.
+   *
+   * @param maximumSize The number of expressions to remember. Zero disables remembering.
+   */
+  public static void setExpressionCacheSize(long maximumSize) {
+    expressionCache = newExpressionCache(maximumSize);
+    expressionCacheSize = maximumSize;
+  }
+
+  /** Returns the number of renamed Polymer JavaScript-like expressions remembered. */
+  static long getExpressionCacheSize() {
+    return expressionCacheSize;
+  }
+
+  /** Returns hit and miss statistics of the {@link #renamePolymerJsExpression} cache. */
+  public static CacheStats getExpressionCacheStats() {
+    return expressionCache.stats();
+  }
+
+  private static Cache<ExpressionCacheKey, ExpressionCacheValue> newExpressionCache(
+      long maximumSize) {
+    return CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * Renames a Polymer JavaScript-like expression without consulting the expression cache.
+   * Expressions of the Polymer effect grammar are renamed by {@link PolymerExpressionRenamer}, and
+   * only the rest are parsed by the Closure Compiler.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param js The JavaScript code.
+   * @param expression The measurements of the expression, which record fallbacks. Can be null.
+   * @return The JavaScript-like expression with renames applied.
+   * @throws JavaScriptParsingException if parse errors were encountered.
+   */
+  private static String renamePolymerJsExpressionUncached(
+      RenameMap renameMap, String js, RenameMetrics.Expression expression)
+      throws JavaScriptParsingException {
+    switch (PolymerExpressionRenamer.classify(js)) {
+      case JAVASCRIPT:
+        RenameMetrics.setOutcome(expression, RenameMetrics.ExpressionOutcome.RECOGNIZED);
+        return PolymerExpressionRenamer.rename(renameMap, js);
+      case POLYMER_PATH:
+        // The Closure Compiler rejects wildcard and array index paths, so don't try parsing them.
+        return renamePolymerExpressionWithoutParser(renameMap, js, expression);
+      case UNRECOGNIZED:
+        break;
+    }
     try {
       // Add parenthesis to convince the parser that the input is a value expression.
       String renamed =
           toSource(
               renameNode(
                   renameMap,
-                  parse("(" + js + ")"),
+                  parse("(" + js + ")", PLACEHOLDER_SOURCE_FILE, EXPRESSION_PARSER_CONFIG),
                   ImmutableSet.of(RenameMode.RENAME_PROPERTIES, RenameMode.RENAME_VARIABLES)),
               ImmutableSet.<OutputFormat>of(OutputFormat.SINGLE_QUOTE_STRINGS));
       // Trim trailing semicolon since Polymer JavaScript-like expressions don't have this.
@@ -169,22 +845,42 @@ public final class JsRenamer {
     } catch (JavaScriptParsingException javaScriptParsingException) {
       // If we're here, the Closure Compiler couldn't quite figure it out. Fallback to Polymer
       // style expression parsing to see if we can fix it up manually. If not, forward the error.
-      Matcher methodMatcher = METHOD_PATTERN.matcher(js);
-      if (methodMatcher.matches()) {
-        String methodName = renamePolymerPathExpression(renameMap, methodMatcher.group(1));
-        String[] arguments =
-            ARGUMENT_SPLITTER.splitToList(methodMatcher.group(2)).toArray(new String[0]);
-        for (int i = 0; i < arguments.length; i++) {
-          arguments[i] = renamePolymerPathExpression(renameMap, arguments[i]);
-        }
-        return String.format("%s(%s)", methodName, ARGUMENT_JOINER.join(arguments));
-      } else if (js.contains(".")) {
-        return renamePolymerPathExpression(renameMap, js);
+      String renamed = renamePolymerExpressionWithoutParser(renameMap, js, expression);
+      if (renamed == null) {
+        throw javaScriptParsingException;
       }
-      throw javaScriptParsingException;
+      return renamed;
     }
   }
 
+  /**
+   * Renames Polymer style method and path expressions without using the Closure Compiler.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param js The Polymer JavaScript-like expression.
+   * @param expression The measurements of the expression, which record fallbacks. Can be null.
+   * @return The renamed expression, or null if it is neither a method call nor a path.
+   */
+  private static String renamePolymerExpressionWithoutParser(
+      RenameMap renameMap, String js, RenameMetrics.Expression expression) {
+    Matcher methodMatcher = METHOD_PATTERN.matcher(js);
+    if (methodMatcher.matches()) {
+      RenameMetrics.setOutcome(
+          expression, RenameMetrics.ExpressionOutcome.METHOD_PATTERN_FALLBACK);
+      String methodName = renamePolymerPathExpression(renameMap, methodMatcher.group(1));
+      String[] arguments =
+          ARGUMENT_SPLITTER.splitToList(methodMatcher.group(2)).toArray(new String[0]);
+      for (int i = 0; i < arguments.length; i++) {
+        arguments[i] = renamePolymerPathExpression(renameMap, arguments[i]);
+      }
+      return String.format("%s(%s)", methodName, ARGUMENT_JOINER.join(arguments));
+    } else if (js.contains(".")) {
+      RenameMetrics.setOutcome(expression, RenameMetrics.ExpressionOutcome.PATH_FALLBACK);
+      return renamePolymerPathExpression(renameMap, js);
+    }
+    return null;
+  }
+
   /**
    * Renames path expressions without using the Closure Compiler for parsing.
    *
@@ -193,69 +889,90 @@ public final class JsRenamer {
    * @return The renamed path expression.
    */
   private static String renamePolymerPathExpression(
-      ImmutableMap<String, String> renameMap, String pathExpression) {
-    if (renameMap.containsKey(pathExpression)) {
-      return renameMap.get(pathExpression);
-    } else if (pathExpression.contains(".")) {
-      String[] components =
-          PROPERTY_EXPRESSION_SPLITTER.splitToList(pathExpression).toArray(new String[0]);
-      for (int i = 0; i < components.length; i++) {
-        components[i] = renamePolymerPathExpression(renameMap, components[i]);
+      RenameMap renameMap, String pathExpression) {
+    String renamed = renameMap.get(pathExpression);
+    if (renamed != null) {
+      return renamed;
+    }
+    int dot = pathExpression.indexOf('.');
+    if (dot < 0) {
+      return pathExpression;
+    }
+    // Components are looked up in place, and only copied if a component is renamed.
+    StringBuilder renamedPath = null;
+    int start = 0;
+    while (true) {
+      int end = dot < 0 ? pathExpression.length() : dot;
+      String renamedComponent = renameMap.get(pathExpression, start, end);
+      if (renamedComponent != null && renamedPath == null) {
+        renamedPath = new StringBuilder(pathExpression.length()).append(pathExpression, 0, start);
       }
-      return PROPERTY_EXPRESSION_JOINER.join(components);
+      if (renamedPath != null) {
+        if (renamedComponent != null) {
+          renamedPath.append(renamedComponent);
+        } else {
+          renamedPath.append(pathExpression, start, end);
+        }
+        if (dot >= 0) {
+          renamedPath.append('.');
+        }
+      }
+      if (dot < 0) {
+        return renamedPath == null ? pathExpression : renamedPath.toString();
+      }
+      start = dot + 1;
+      dot = pathExpression.indexOf('.', start);
     }
-    return pathExpression;
-  }
-
-  private static Node parse(String js) throws JavaScriptParsingException {
-    return parse(js, PLACEHOLDER_FILE_NAME);
   }
 
   /**
    * Parses the given JavaScript string into an abstract syntax tree.
    *
    * @param js The JavaScript code.
-   * @param inputFileName The source filename to associate with the input JS.
+   * @param file The source file to associate with the input JS.
+   * @param config The parser configuration.
    * @return An abstract syntax tree.
    * @throws JavaScriptParsingException if parse errors were encountered.
    */
-  private static Node parse(String js, String inputFileName) throws JavaScriptParsingException {
-    StaticSourceFile file = new SimpleSourceFile(inputFileName, false);
-    Config config = ParserRunner.createConfig(LanguageMode.ECMASCRIPT6, null, StrictMode.SLOPPY);
+  private static Node parse(String js, StaticSourceFile file, Config config)
+      throws JavaScriptParsingException {
     JavaScriptErrorReporter errorReporter = new JavaScriptErrorReporter(js);
-    Node script = ParserRunner.parse(file, js, config, errorReporter).ast;
+    Node script;
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.JS_PARSE);
+    try {
+      script = ParserRunner.parse(file, js, config, errorReporter).ast;
+    } finally {
+      phase.close();
+    }
     if (script == null) {
+      RenameMetrics.count(RenameMetrics.Counter.PARSE_FAILURES);
       throw new JavaScriptParsingException(errorReporter.getWarningAndErrorOutput());
     }
     return script;
   }
 
   /**
-   * Returns true if the supplied node is Polymer 0.5 style JavaScript.
+   * Returns true if the supplied Polymer call declares an element with a name or prototype.
    *
-   * @param node The JavaScript abstract syntax tree to check.
+   * @param polymerCall The Polymer call node to check.
    */
-  private static boolean isPolymer05Javascript(Node node) {
-    if (isPolymerCall(node) && node.hasMoreThanOneChild()) {
-      Node firstArgument = node.getSecondChild();
-      if (firstArgument.isString()) {
-        return true;
-      } else if (firstArgument.isObjectLit()) {
-        for (Node stringKey = firstArgument.getFirstChild();
-            stringKey != null;
-            stringKey = stringKey.getNext()) {
-          if (stringKey.isStringKey() && stringKey.getString().equals("is")) {
-            return false;
-          }
-        }
-        return true;
-      }
-    }
+  private static boolean isPolymerDeclaration(Node polymerCall) {
+    Node firstArgument = polymerCall.getSecondChild();
+    return firstArgument.isString() || firstArgument.isObjectLit();
+  }
 
-    for (Node current = node.getFirstChild(); current != null; current = current.getNext()) {
-      if (isPolymer05Javascript(current)) {
-        return true;
-      }
+  /**
+   * Returns true if the supplied Polymer call declares a Polymer 0.5 style element, which either
+   * passes the element name as a string or omits 'is' from the prototype.
+   *
+   * @param polymerCall The Polymer call node to check.
+   */
+  private static boolean isPolymer05Call(Node polymerCall) {
+    Node firstArgument = polymerCall.getSecondChild();
+    if (firstArgument.isString()) {
+      return true;
+    } else if (firstArgument.isObjectLit()) {
+      return getObjectLitValue(firstArgument, "is") == null;
     }
     return false;
   }
@@ -288,52 +1005,149 @@ public final class JsRenamer {
       String inputFileName,
       String inputSourceMap,
       String sourceMapOutputFileName) {
-    CompilerOptions options = new CompilerOptions();
-    options.setPrettyPrint(outputFormat.contains(OutputFormat.PRETTY));
-    options.setPreferSingleQuotes(outputFormat.contains(OutputFormat.SINGLE_QUOTE_STRINGS));
-    // The Closure Compiler treats the 'use strict' directive as a property of a node. CodeBuilder
-    // doesn't consider directives during its code generation. Instead, it inserts the 'use strict'
-    // directive if it is in a strict language mode.
-    Set<String> directives = node.getDirectives();
-    if ((directives != null) && directives.contains("use strict")) {
-      options.setLanguage(CompilerOptions.LanguageMode.ECMASCRIPT_2015);
-      options.setEmitUseStrict(true);
+    boolean useStrict = isUseStrict(node);
+    if (inputSourceMap == null) {
+      return print(outputFormat, useStrict, useStrict, node);
     }
-    options.skipAllCompilerPasses();
-
-    if (inputSourceMap != null) {
-      SourceFile sourceMapSourceFile = SourceFile.fromCode("input.sourcemap", inputSourceMap);
-      ImmutableMap<String, SourceMapInput> inputSourceMaps =
-          ImmutableMap.of(inputFileName, new SourceMapInput(sourceMapSourceFile));
-      options.setInputSourceMaps(inputSourceMaps);
-      options.setApplyInputSourceMaps(true);
-      // Simply setting the path to any non-null value will trigger source map generation.
-      // Since sourceMapOutputPath is handled by AbstractCommandLineRunner and not the Compiler
-      // itself, we manually output the final sourcemap below.
-      options.setSourceMapOutputPath("/dev/null");
-    }
-
-    Compiler compiler = new Compiler();
-    compiler.disableThreads();
-    compiler.initOptions(options);
-    compiler.initBasedOnOptions();
-    Compiler.CodeBuilder cb = new Compiler.CodeBuilder();
-    compiler.toSource(cb, 0, node);
-
-    if (inputFileName != null && inputSourceMap != null && sourceMapOutputFileName != null) {
+    Compiler compiler =
+        newSourceMapPrinter(
+            outputFormat,
+            useStrict,
+            useStrict,
+            new SourceMapInput(SourceFile.fromCode("input.sourcemap", inputSourceMap)),
+            inputFileName);
+    String source = print(compiler, node);
+
+    if (inputFileName != null && sourceMapOutputFileName != null) {
+      RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.SOURCEMAP);
       try {
         FileOutputStream fileOut = new FileOutputStream(sourceMapOutputFileName);
         OutputStreamWriter out = new OutputStreamWriter(fileOut, UTF_8);
         compiler.getSourceMap().appendTo(out, "renamed.js");
         out.close();
       } catch (Exception e) {
-        System.err.println(e + "Error writing output sourcemap.");
+        Diagnostics.report(
+            Diagnostics.Severity.ERROR,
+            Diagnostics.Category.SOURCEMAP_WRITE_ERROR,
+            e + "Error writing output sourcemap.");
+      } finally {
+        phase.close();
       }
     }
 
+    return source;
+  }
+
+  /**
+   * Returns true if a script declares the 'use strict' directive. The Closure Compiler treats the
+   * directive as a property of a node. CodeBuilder doesn't consider directives during its code
+   * generation. Instead, it inserts the 'use strict' directive if it is in a strict language mode.
+   */
+  private static boolean isUseStrict(Node script) {
+    Set<String> directives = script.getDirectives();
+    return (directives != null) && directives.contains("use strict");
+  }
+
+  /**
+   * Prints an abstract syntax tree without a sourcemap, with an idle Compiler if there is one.
+   *
+   * @param outputFormat The source output format options.
+   * @param useStrict Whether to print in a strict language mode.
+   * @param emitUseStrict Whether to emit the 'use strict' directive, if printing in a strict mode.
+   * @param node The JavaScript abstract syntax tree.
+   */
+  private static String print(
+      ImmutableSet<OutputFormat> outputFormat,
+      boolean useStrict,
+      boolean emitUseStrict,
+      Node node) {
+    PrinterKey printerKey = new PrinterKey(outputFormat, useStrict, emitUseStrict);
+    BlockingQueue<Compiler> printers = idlePrinters.get(printerKey);
+    if (printers == null) {
+      BlockingQueue<Compiler> newPrinters = new ArrayBlockingQueue<>(MAX_IDLE_PRINTERS);
+      printers = idlePrinters.putIfAbsent(printerKey, newPrinters);
+      if (printers == null) {
+        printers = newPrinters;
+      }
+    }
+    Compiler compiler = printers.poll();
+    if (compiler == null) {
+      compiler = newCompiler(newPrinterOptions(outputFormat, useStrict, emitUseStrict));
+    }
+    try {
+      return print(compiler, node);
+    } finally {
+      // Dropped if enough Compilers are already idle.
+      printers.offer(compiler);
+    }
+  }
+
+  /**
+   * Returns a Compiler for printing an abstract syntax tree along with a sourcemap.
+   *
+   * @param outputFormat The source output format options.
+   * @param useStrict Whether to print in a strict language mode.
+   * @param emitUseStrict Whether to emit the 'use strict' directive, if printing in a strict mode.
+   * @param inputSourceMap The input sourcemap to generate a sourcemap from.
+   * @param inputFileName The source file name the input sourcemap applies to.
+   */
+  private static Compiler newSourceMapPrinter(
+      ImmutableSet<OutputFormat> outputFormat,
+      boolean useStrict,
+      boolean emitUseStrict,
+      SourceMapInput inputSourceMap,
+      String inputFileName) {
+    CompilerOptions options = newPrinterOptions(outputFormat, useStrict, emitUseStrict);
+    options.setInputSourceMaps(ImmutableMap.of(inputFileName, inputSourceMap));
+    options.setApplyInputSourceMaps(true);
+    // Simply setting the path to any non-null value will trigger source map generation.
+    // Since sourceMapOutputPath is handled by AbstractCommandLineRunner and not the Compiler
+    // itself, we manually output the final sourcemap.
+    options.setSourceMapOutputPath("/dev/null");
+    // The sourcemap accumulates state, so this Compiler is only used once.
+    return newCompiler(options);
+  }
+
+  /** Prints an abstract syntax tree with a Compiler initialized for printing. */
+  private static String print(Compiler compiler, Node node) {
+    Compiler.CodeBuilder cb = new Compiler.CodeBuilder();
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.PRINT);
+    try {
+      compiler.toSource(cb, 0, node);
+    } finally {
+      phase.close();
+    }
     return cb.toString();
   }
 
+  /**
+   * Creates the compiler options for printing an abstract syntax tree.
+   *
+   * @param outputFormat The source output format options.
+   * @param useStrict Whether to print in a strict language mode.
+   * @param emitUseStrict Whether to emit the 'use strict' directive, if printing in a strict mode.
+   */
+  private static CompilerOptions newPrinterOptions(
+      ImmutableSet<OutputFormat> outputFormat, boolean useStrict, boolean emitUseStrict) {
+    CompilerOptions options = new CompilerOptions();
+    options.setPrettyPrint(outputFormat.contains(OutputFormat.PRETTY));
+    options.setPreferSingleQuotes(outputFormat.contains(OutputFormat.SINGLE_QUOTE_STRINGS));
+    if (useStrict) {
+      options.setLanguage(CompilerOptions.LanguageMode.ECMASCRIPT_2015);
+      options.setEmitUseStrict(emitUseStrict);
+    }
+    options.skipAllCompilerPasses();
+    return options;
+  }
+
+  private static Compiler newCompiler(CompilerOptions options) {
+    Compiler compiler = new Compiler();
+    compiler.disableThreads();
+    compiler.initOptions(options);
+    compiler.initBasedOnOptions();
+    return compiler;
+  }
+
   /**
    * Applies the rename map to the provided JavaScript abstract syntax tree.
    *
@@ -344,42 +1158,8 @@ public final class JsRenamer {
    * @return The renamed abstract syntax tree.
    */
   private static Node renameNode(
-      ImmutableMap<String, String> renameMap, Node current, ImmutableSet<RenameMode> renameMode) {
-    switch (current.getToken()) {
-      case CALL:
-        if (isInObjectLit(current)) {
-          renameCall(renameMap, current);
-        }
-        break;
-      case GETPROP:
-        if (renameMode.contains(RenameMode.RENAME_PROPERTIES)) {
-          if (current.hasMoreThanOneChild()) {
-            Node secondChild = current.getSecondChild();
-            if (secondChild.isString()) {
-              renamePolymerPropertyStringNode(renameMap, secondChild);
-            }
-          }
-        }
-        break;
-      case NAME:
-        if (renameMode.contains(RenameMode.RENAME_VARIABLES)) {
-          renamePolymerPropertyStringNode(renameMap, current);
-        }
-        break;
-      case OBJECTLIT:
-        renameObjectLiteral(renameMap, current);
-        break;
-      case STRING_KEY:
-        if (renameMode.contains(RenameMode.RENAME_PROPERTIES)) {
-          renamePolymerPropertyStringNode(renameMap, current);
-        }
-        break;
-      default:
-        // Ignore the other node types.
-    }
-    for (Node child : current.children()) {
-      renameNode(renameMap, child, renameMode);
-    }
+      RenameMap renameMap, Node current, ImmutableSet<RenameMode> renameMode) {
+    new NodeRenamer(renameMap, renameMode, false).rename(current);
     return current;
   }
 
@@ -388,38 +1168,20 @@ public final class JsRenamer {
    *
    * @param renameMap A mapping from symbol to renamed symbol.
    * @param node The string node containing the property changed identifier.
+   * @return Whether the node was renamed.
    */
-  private static void renamePolymerPropertyStringNode(
-      ImmutableMap<String, String> renameMap, Node node) {
+  private static boolean renamePolymerPropertyStringNode(
+      RenameMap renameMap, Node node) {
     String name = node.getString();
-    if (renameMap.containsKey(name)) {
-      node.setString(renameMap.get(name));
-    } else if (name.endsWith(CHANGED_SUFFIX)) {
-      String basename = name.substring(0, name.length() - CHANGED_SUFFIX.length());
-      if (renameMap.containsKey(basename)) {
-        node.setString(renameMap.get(basename) + CHANGED_SUFFIX);
-      }
-    }
-  }
-
-  private static boolean isInPolymerCall(Node node) {
-    while (node != null) {
-      if (isPolymerCall(node)) {
-        return true;
-      }
-      node = node.getParent();
-    }
-    return false;
-  }
-
-  private static boolean isInObjectLit(Node node) {
-    while (node != null) {
-      if (node.isObjectLit()) {
-        return true;
+    String renamed = renameMap.get(name);
+    if (renamed == null) {
+      renamed = renameMap.getChanged(name, 0, name.length());
+      if (renamed == null) {
+        return false;
       }
-      node = node.getParent();
     }
-    return false;
+    node.setString(renamed);
+    return true;
   }
 
   private static boolean isPolymerCall(Node node) {
@@ -436,7 +1198,7 @@ public final class JsRenamer {
    * @param renameMap A mapping from symbol to renamed symbol.
    * @param call The call node to rename.
    */
-  private static void renameCall(ImmutableMap<String, String> renameMap, Node call) {
+  private static void renameCall(RenameMap renameMap, Node call) {
     if (call.getChildCount() == 3) {
       /* Rename Polymer.IronA11yKeysBehavior.addOwnKeyBinding(eventString, methodName). */
       if (isThisCallWithMethodName(renameMap, call, "addOwnKeyBinding")) {
@@ -454,7 +1216,7 @@ public final class JsRenamer {
   }
 
   private static boolean isThisCallWithMethodName(
-      ImmutableMap<String, String> renameMap, Node call, String methodName) {
+      RenameMap renameMap, Node call, String methodName) {
     Node maybeMethodNameGetProp = call.getFirstChild();
     if (maybeMethodNameGetProp.isGetProp()
         && maybeMethodNameGetProp.hasMoreThanOneChild()
@@ -471,45 +1233,76 @@ public final class JsRenamer {
   }
 
   /**
-   * Renames all object literals that are standalone or contained in a Polymer v0.8 style call. This
-   * allows behaviors coverage, which are indistinguishable from regular JavaScript objects.
+   * Forwards renames to Polymer-relevant properties of an object literal. Object literals that are
+   * standalone or contained in a Polymer v0.8 style call are renamed. This allows behaviors
+   * coverage, which are indistinguishable from regular JavaScript objects.
    *
    * @param renameMap A mapping from symbol to renamed symbol.
    * @param objectLit Object literal node.
+   * @param inPolymerCall Whether the object literal is contained in a Polymer call.
    */
-  private static void renameObjectLiteral(ImmutableMap<String, String> renameMap, Node objectLit) {
-    ImmutableMap<String, Node> objectMap = convertObjectLitNodeToMap(objectLit);
-    if (isInPolymerCall(objectLit) && !objectMap.containsKey("is")) {
+  private static void renameObjectLiteral(
+      RenameMap renameMap, Node objectLit, boolean inPolymerCall) {
+    String renamedKeyBindingsKey = renameMap.get("keyBindings");
+    boolean hasIs = false;
+    Node propertiesNode = null;
+    Node observersNode = null;
+    Node listenersNode = null;
+    Node keyBindingsNode = null;
+    Node renamedKeyBindingsNode = null;
+    for (Node keyNode = objectLit.getFirstChild(); keyNode != null; keyNode = keyNode.getNext()) {
+      if (!keyNode.isStringKey() || !keyNode.hasOneChild()) {
+        continue;
+      }
+      String key = keyNode.getString();
+      Node value = keyNode.getFirstChild();
+      switch (key) {
+        case "is":
+          hasIs = true;
+          break;
+        case "properties":
+          propertiesNode = value;
+          break;
+        case "observers":
+          observersNode = value;
+          break;
+        case "listeners":
+          listenersNode = value;
+          break;
+        case "keyBindings":
+          keyBindingsNode = value;
+          break;
+        default:
+          // Ignore the other keys.
+      }
+      if (key.equals(renamedKeyBindingsKey)) {
+        renamedKeyBindingsNode = value;
+      }
+    }
+
+    if (inPolymerCall && !hasIs) {
       // This object map is not in a non-Polymer v0.8 or newer call.
       return;
     }
-    renameObjectMap(renameMap, objectMap);
-  }
 
-  /**
-   * Forwards renames to Polymer-relevant properties in the specified object map.
-   *
-   * @param renameMap A mapping from symbol to renamed symbol.
-   * @param objectMap A map of keys as property string names to values as nodes.
-   */
-  private static void renameObjectMap(
-      ImmutableMap<String, String> renameMap, ImmutableMap<String, Node> objectMap) {
     // Rename 'computed' and 'observer' property description references.
-    Node propertiesNode = objectMap.get("properties");
     if ((propertiesNode != null) && propertiesNode.isObjectLit()) {
-      ImmutableMap<String, Node> propertiesMap = convertObjectLitNodeToMap(propertiesNode);
-      for (Node propertyDescriptorNode : propertiesMap.values()) {
-        if (propertyDescriptorNode.isObjectLit()) {
-          ImmutableMap<String, Node> propertyDescriptorMap =
-              convertObjectLitNodeToMap(propertyDescriptorNode);
-          renamePolymerJsStringNode(renameMap, propertyDescriptorMap.get("computed"));
-          renamePolymerJsStringNode(renameMap, propertyDescriptorMap.get("observer"));
+      for (Node propertyNode = propertiesNode.getFirstChild();
+          propertyNode != null;
+          propertyNode = propertyNode.getNext()) {
+        if (propertyNode.isStringKey() && propertyNode.hasOneChild()) {
+          Node propertyDescriptorNode = propertyNode.getFirstChild();
+          if (propertyDescriptorNode.isObjectLit()) {
+            renamePolymerJsStringNode(
+                renameMap, getObjectLitValue(propertyDescriptorNode, "computed"));
+            renamePolymerJsStringNode(
+                renameMap, getObjectLitValue(propertyDescriptorNode, "observer"));
+          }
         }
       }
     }
 
     // Rename all JavaScript-like expressions in the 'observers' array.
-    Node observersNode = objectMap.get("observers");
     if (observersNode != null) {
       if (observersNode.isArrayLit()) {
         for (Node observerItem : observersNode.children()) {
@@ -523,29 +1316,23 @@ public final class JsRenamer {
     }
 
     // Rename all JavaScript-like expressions in the listeners descriptor.
-    Node listenersNode = objectMap.get("listeners");
     if ((listenersNode != null) && listenersNode.isObjectLit()) {
-      if (listenersNode.isObjectLit()) {
-        ImmutableMap<String, Node> listenersMap = convertObjectLitNodeToMap(listenersNode);
-        for (Node listenerDescriptorNode : listenersMap.values()) {
-          renamePolymerJsStringNode(renameMap, listenerDescriptorNode);
+      for (Node listenerNode = listenersNode.getFirstChild();
+          listenerNode != null;
+          listenerNode = listenerNode.getNext()) {
+        if (listenerNode.isStringKey() && listenerNode.hasOneChild()) {
+          renamePolymerJsStringNode(renameMap, listenerNode.getFirstChild());
         }
-      } else {
-        warning("Unable to perform 'listeners' renaming: unexpected type.", listenersNode);
       }
     }
 
     // Rename the keyBindings string to method string map using in Polymer.IronA11yKeysBehavior.
-    Node keyBindingsNode = objectMap.get("keyBindings");
     if (keyBindingsNode != null) {
       renameKeyBindingsNode(renameMap, keyBindingsNode);
     }
 
-    if (renameMap.containsKey("keyBindings")) {
-      Node renamedKeyBindingsNode = objectMap.get(renameMap.get("keyBindings"));
-      if (renamedKeyBindingsNode != null) {
-        renameKeyBindingsNode(renameMap, renamedKeyBindingsNode);
-      }
+    if (renamedKeyBindingsNode != null) {
+      renameKeyBindingsNode(renameMap, renamedKeyBindingsNode);
     }
   }
 
@@ -595,7 +1382,7 @@ public final class JsRenamer {
    * @return true if the attempt was successful.
    */
   private static boolean renameOptimizedArray(
-      ImmutableMap<String, String> renameMap, Node node) {
+      RenameMap renameMap, Node node) {
     Node getProp = node.getChildAtIndex(0);
 
     Node obj = getProp.getChildAtIndex(0);
@@ -615,21 +1402,29 @@ public final class JsRenamer {
   }
 
   private static void warning(String msg, Node node) {
-    System.err.printf(
-        WARNING_MSG_FORMAT,
+    Diagnostics.report(
+        Diagnostics.Severity.WARNING,
+        Diagnostics.Category.UNEXPECTED_DESCRIPTOR,
         node.getLineno(),
         node.getCharno(),
-        msg + ' ' + node.getSourceFileName());
+        String.format(
+            WARNING_MSG_FORMAT,
+            node.getLineno(),
+            node.getCharno(),
+            msg + ' ' + node.getSourceFileName()));
   }
 
-  private static void renameKeyBindingsNode(ImmutableMap<String, String> renameMap, Node node) {
+  private static void renameKeyBindingsNode(RenameMap renameMap, Node node) {
     if (!node.isObjectLit()) {
       warning("Unable to perform 'keyBindings' renaming: unexpected type.", node);
       return;
     }
 
-    ImmutableMap<String, Node> keyBindingsMap = convertObjectLitNodeToMap(node);
-    for (Node keyBindingMethodStringNode : keyBindingsMap.values()) {
+    for (Node keyNode = node.getFirstChild(); keyNode != null; keyNode = keyNode.getNext()) {
+      if (!keyNode.isStringKey() || !keyNode.hasOneChild()) {
+        continue;
+      }
+      Node keyBindingMethodStringNode = keyNode.getFirstChild();
       if (!keyBindingMethodStringNode.isString()) {
         // A non-string means it's a map we don't expect.
         break;
@@ -645,7 +1440,7 @@ public final class JsRenamer {
    * @param node String node to rename under variable renaming rules. Can be null. Will not attempt
    *     a rename if the node is not a string node.
    */
-  private static void renamePolymerJsStringNode(ImmutableMap<String, String> renameMap, Node node) {
+  private static void renamePolymerJsStringNode(RenameMap renameMap, Node node) {
     if (node == null) {
       return;
     }
@@ -658,7 +1453,15 @@ public final class JsRenamer {
     try {
       js = renamePolymerJsExpression(renameMap, node.getString());
     } catch (JavaScriptParsingException e) {
-      System.err.println(e);
+      Diagnostics.report(
+          Diagnostics.Severity.ERROR,
+          Diagnostics.Category.EXPRESSION_PARSE_ERROR,
+          node.getLineno(),
+          node.getCharno(),
+          e.toString());
+    }
+    if (!js.equals(node.getString())) {
+      RenameMetrics.count(RenameMetrics.Counter.DESCRIPTOR_RENAMES);
     }
     node.setString(js);
   }
@@ -670,7 +1473,7 @@ public final class JsRenamer {
    * @param node String node to rename in entirety. Can be null. Will not attempt a rename if the
    *     node is not a string node.
    */
-  private static void renameStringNode(ImmutableMap<String, String> renameMap, Node node) {
+  private static void renameStringNode(RenameMap renameMap, Node node) {
     if (node == null || !node.isString()) {
       return;
     }
@@ -678,69 +1481,429 @@ public final class JsRenamer {
     String symbolName = node.getString();
     if (renameMap.containsKey(symbolName)) {
       node.setString(renameMap.get(symbolName));
+      RenameMetrics.count(RenameMetrics.Counter.DESCRIPTOR_RENAMES);
     }
   }
 
-  private static ImmutableMap<String, Node> convertObjectLitNodeToMap(Node objectLiteralNode) {
-    ImmutableMap.Builder<String, Node> builder = ImmutableMap.builder();
-    for (Node keyNode : objectLiteralNode.children()) {
-      if (keyNode.isStringKey() && keyNode.hasOneChild()) {
-        builder.put(keyNode.getString(), keyNode.getFirstChild());
+  /**
+   * Returns the value of a key in an object literal, or null if the key isn't present. The last
+   * occurrence of a repeated key wins, as it does when the literal is evaluated.
+   *
+   * @param objectLiteralNode Object literal node.
+   * @param key The key to look up.
+   */
+  private static Node getObjectLitValue(Node objectLiteralNode, String key) {
+    Node value = null;
+    for (Node keyNode = objectLiteralNode.getFirstChild();
+        keyNode != null;
+        keyNode = keyNode.getNext()) {
+      if (keyNode.isStringKey() && keyNode.hasOneChild() && keyNode.getString().equals(key)) {
+        value = keyNode.getFirstChild();
       }
     }
-    return builder.build();
+    return value;
+  }
+
+  /**
+   * Renames an abstract syntax tree in a single iterative traversal. Instead of searching the
+   * ancestors of each node, the traversal tracks the object literals and Polymer calls it is
+   * inside of.
+   */
+  private static final class NodeRenamer {
+    private final RenameMap renameMap;
+    private final boolean renameVariables;
+    private boolean renameProperties;
+
+    /**
+     * Whether properties are renamed once the tree is found to be Polymer 0.5 style JavaScript,
+     * rather than according to the rename mode alone.
+     */
+    private final boolean detectPolymer05;
+
+    /** The root of the tree traversed, while it has property nodes left to rename. */
+    private Node unrenamedRoot;
+
+    /**
+     * The first Polymer 0.5 style call traversed, or null. Property nodes before it in the
+     * traversal were skipped, rather than kept, so trees that turn out not to be Polymer 0.5 style
+     * JavaScript cost nothing extra.
+     */
+    private Node polymer05Call;
+
+    /** The Polymer calls being traversed, innermost last. */
+    private final ArrayDeque<Node> polymerCalls = new ArrayDeque<>();
+
+    private int objectLitDepth = 0;
+
+    /**
+     * The number of Polymer calls being traversed that declare an element. Polymer calls nested in
+     * a declaration don't decide whether the tree is Polymer 0.5 style JavaScript.
+     */
+    private int polymerDeclarationDepth = 0;
+
+    /**
+     * Constructs a NodeRenamer.
+     *
+     * @param renameMap A mapping from symbol to renamed symbol.
+     * @param renameMode Variable renaming mode to use.
+     * @param renamePolymer05Properties Whether to also rename properties if the tree contains a
+     *     Polymer 0.5 style Polymer call.
+     */
+    private NodeRenamer(
+        RenameMap renameMap,
+        ImmutableSet<RenameMode> renameMode,
+        boolean renamePolymer05Properties) {
+      this.renameMap = renameMap;
+      this.renameVariables = renameMode.contains(RenameMode.RENAME_VARIABLES);
+      this.renameProperties = renameMode.contains(RenameMode.RENAME_PROPERTIES);
+      this.detectPolymer05 = renamePolymer05Properties && !renameProperties;
+    }
+
+    /**
+     * Renames the tree rooted at {@code root} in place. Nodes are visited in the same pre-order as
+     * a recursive traversal, so each node is visited before any of its descendants are renamed.
+     */
+    private void rename(Node root) {
+      RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.RENAME);
+      try {
+        if (detectPolymer05) {
+          unrenamedRoot = root;
+        }
+        traverse(root);
+      } finally {
+        phase.close();
+      }
+    }
+
+    private void traverse(Node root) {
+      Node current = root;
+      while (true) {
+        enter(current);
+        Node firstChild = current.getFirstChild();
+        if (firstChild != null) {
+          current = firstChild;
+          continue;
+        }
+        while (true) {
+          exit(current);
+          if (current == root) {
+            if (foundPolymer05Call()) {
+              renameDeferredProperties();
+            }
+            return;
+          }
+          Node next = current.getNext();
+          if (next != null) {
+            current = next;
+            break;
+          }
+          current = current.getParent();
+        }
+      }
+    }
+
+    /**
+     * Returns true if the tree was found to be Polymer 0.5 style JavaScript, in which case all of
+     * its property nodes have been renamed.
+     */
+    private boolean foundPolymer05Call() {
+      return polymer05Call != null;
+    }
+
+    /**
+     * Renames the property nodes skipped so far, such as those of a segment of a script another
+     * segment of which was found to be Polymer 0.5 style JavaScript. The skipped nodes are those
+     * the traversal visited before the first Polymer 0.5 style call, or all of them if there was
+     * none.
+     */
+    private void renameDeferredProperties() {
+      if (unrenamedRoot == null) {
+        return;
+      }
+      Node root = unrenamedRoot;
+      unrenamedRoot = null;
+      Node current = root;
+      while (current != polymer05Call) {
+        if (current.isStringKey()) {
+          renamePropertyNode(current);
+        } else if (current.isGetProp() && current.hasMoreThanOneChild()) {
+          Node secondChild = current.getSecondChild();
+          if (secondChild.isString()) {
+            renamePropertyNode(secondChild);
+          }
+        }
+        Node next = current.getFirstChild();
+        while (next == null && current != root) {
+          next = current.getNext();
+          current = current.getParent();
+        }
+        if (next == null) {
+          return;
+        }
+        current = next;
+      }
+    }
+
+    private void enter(Node current) {
+      switch (current.getToken()) {
+        case CALL:
+          if (objectLitDepth > 0) {
+            renameCall(renameMap, current);
+          }
+          if (isPolymerCall(current)) {
+            polymerCalls.addLast(current);
+            if (polymerDeclarationDepth == 0
+                && detectPolymer05
+                && polymer05Call == null
+                && isPolymer05Call(current)) {
+              polymer05Call = current;
+              renameProperties = true;
+            }
+            if (isPolymerDeclaration(current)) {
+              polymerDeclarationDepth++;
+            }
+          }
+          break;
+        case GETPROP:
+          if (current.hasMoreThanOneChild()) {
+            Node secondChild = current.getSecondChild();
+            if (secondChild.isString()) {
+              renameProperty(secondChild);
+            }
+          }
+          break;
+        case NAME:
+          if (renameVariables) {
+            renamePolymerPropertyStringNode(renameMap, current);
+          }
+          break;
+        case OBJECTLIT:
+          renameObjectLiteral(renameMap, current, !polymerCalls.isEmpty());
+          objectLitDepth++;
+          break;
+        case STRING_KEY:
+          renameProperty(current);
+          break;
+        default:
+          // Ignore the other node types.
+      }
+    }
+
+    private void exit(Node current) {
+      if (current.isObjectLit()) {
+        objectLitDepth--;
+      } else if (current == polymerCalls.peekLast()) {
+        // Compared by identity since renaming may have changed the callee name.
+        polymerCalls.removeLast();
+        if (isPolymerDeclaration(current)) {
+          polymerDeclarationDepth--;
+        }
+      }
+    }
+
+    private void renameProperty(Node node) {
+      if (renameProperties) {
+        renamePropertyNode(node);
+      }
+    }
+
+    /**
+     * Renames a property name or object literal key. Renames in expressions aren't counted, since
+     * the expression is counted as the binding or descriptor it belongs to.
+     */
+    private void renamePropertyNode(Node node) {
+      if (renamePolymerPropertyStringNode(renameMap, node) && !renameVariables) {
+        RenameMetrics.count(
+            node.isStringKey()
+                ? RenameMetrics.Counter.OBJECT_KEY_RENAMES
+                : RenameMetrics.Counter.GETPROP_RENAMES);
+      }
+    }
+  }
+
+  /** Identifies the printing configuration of a cached Compiler. */
+  private static final class PrinterKey {
+    private final ImmutableSet<OutputFormat> outputFormat;
+    private final boolean useStrict;
+    private final boolean emitUseStrict;
+
+    private PrinterKey(
+        ImmutableSet<OutputFormat> outputFormat, boolean useStrict, boolean emitUseStrict) {
+      this.outputFormat = outputFormat;
+      this.useStrict = useStrict;
+      this.emitUseStrict = emitUseStrict;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof PrinterKey)) {
+        return false;
+      }
+      PrinterKey other = (PrinterKey) o;
+      return outputFormat.equals(other.outputFormat)
+          && useStrict == other.useStrict
+          && emitUseStrict == other.emitUseStrict;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * outputFormat.hashCode() + (useStrict ? 2 : 0) + (emitUseStrict ? 1 : 0);
+    }
+  }
+
+  /** The printed code of a segment, and its sourcemap if one is generated. */
+  private static final class PrintedSegment {
+    private final String code;
+    private final String sourceMap;
+
+    private PrintedSegment(String code, String sourceMap) {
+      this.code = code;
+      this.sourceMap = sourceMap;
+    }
+  }
+
+  /**
+   * Identifies a renamed expression by the expression text and the identity of the rename map it
+   * was renamed with.
+   */
+  private static final class ExpressionCacheKey {
+    // The cache id rather than the rename map, so that replaced rename maps can be collected.
+    private final long renameMapId;
+    private final String js;
+
+    private ExpressionCacheKey(long renameMapId, String js) {
+      this.renameMapId = renameMapId;
+      this.js = js;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ExpressionCacheKey)) {
+        return false;
+      }
+      ExpressionCacheKey other = (ExpressionCacheKey) o;
+      return renameMapId == other.renameMapId && js.equals(other.js);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (int) (renameMapId ^ (renameMapId >>> 32)) + js.hashCode();
+    }
+  }
+
+  /** The outcome of renaming an expression: either the renamed expression or the parse errors. */
+  private static final class ExpressionCacheValue {
+    private final String renamed;
+    private final String warningAndErrorOutput;
+
+    // The symbols looked up while renaming, or null if they weren't recorded.
+    private final ImmutableSet<String> lookedUpSymbols;
+
+    private ExpressionCacheValue(
+        String renamed, String warningAndErrorOutput, ImmutableSet<String> lookedUpSymbols) {
+      this.renamed = renamed;
+      this.warningAndErrorOutput = warningAndErrorOutput;
+      this.lookedUpSymbols = lookedUpSymbols;
+    }
   }
 
   /**
    * While most of the JavaScript will pass through the Closure Compiler with syntax checking, the
-   * Polymer HTML databinding expressions will not. This outputs errors directly from the Closure
-   * Compiler to System.err.
+   * Polymer HTML databinding expressions will not. This collects errors from the Closure Compiler
+   * for the JavaScriptParsingException of a failed parse.
    */
   private static class JavaScriptErrorReporter implements ErrorReporter {
-    private final String[] jsLines;
-    private final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-    private final PrintStream outputStream = new PrintStream(byteArrayOutputStream);
+    private final String js;
+    // The index of the first character of each line, built on the first warning or error.
+    private int[] lineStarts;
+    // The number of lines printed as context. Like String.split, trailing empty lines are not.
+    private int lineCount;
+    private StringBuilder output;
 
     /**
      * Constructs a JavaScriptErrorReporter that outputs warnings and errors using |js| as context.
+     * Nothing is allocated for the context until a warning or error is reported.
      *
      * @param js JavaScript source for line context.
      */
     public JavaScriptErrorReporter(String js) {
-      this.jsLines = js.split("\\r\\n|\\r|\\n");
+      this.js = js;
     }
 
     /** Returns the stream output of warnings and errors as a string. */
     public String getWarningAndErrorOutput() {
-      return byteArrayOutputStream.toString();
+      return output == null ? "" : output.toString();
     }
 
     @Override
     public void warning(String message, String sourceName, int line, int lineOffset) {
-      outputStream.printf(WARNING_MSG_FORMAT, line, lineOffset, message);
+      getOutput().append(String.format(WARNING_MSG_FORMAT + "%n", line, lineOffset, message));
       printSource(9, line, lineOffset);
     }
 
     @Override
     public void error(String message, String sourceName, int line, int lineOffset) {
-      outputStream.printf("ERROR: (%d:%d) %s%n", line, lineOffset, message);
+      getOutput().append(String.format("ERROR: (%d:%d) %s%n", line, lineOffset, message));
       printSource(7, line, lineOffset);
     }
 
+    private StringBuilder getOutput() {
+      if (output == null) {
+        output = new StringBuilder();
+      }
+      return output;
+    }
+
     private void printSource(int columnPadding, int line, int lineOffset) {
-      if (line <= jsLines.length) {
+      if (lineStarts == null) {
+        indexLines();
+      }
+      if (line <= lineCount) {
         printSpaces(columnPadding);
-        outputStream.printf("%s%n", jsLines[line - 1]);
+        output.append(js, lineStarts[line - 1], getLineEnd(line - 1)).append(LINE_SEPARATOR);
 
         printSpaces(columnPadding + lineOffset - 1);
-        outputStream.println("^");
+        output.append('^').append(LINE_SEPARATOR);
       }
     }
 
+    private void indexLines() {
+      int[] starts = new int[16];
+      int count = 1;
+      for (int i = 0; i < js.length(); i++) {
+        char c = js.charAt(i);
+        if (c == '\r' || c == '\n') {
+          if (c == '\r' && i + 1 < js.length() && js.charAt(i + 1) == '\n') {
+            i++;
+          }
+          if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+          }
+          starts[count++] = i + 1;
+        }
+      }
+      lineStarts = starts;
+      lineCount = count;
+      if (count > 1) {
+        while (lineCount > 0 && lineStarts[lineCount - 1] == getLineEnd(lineCount - 1)) {
+          lineCount--;
+        }
+      }
+    }
+
+    private int getLineEnd(int lineIndex) {
+      int end = lineStarts[lineIndex];
+      while (end < js.length() && js.charAt(end) != '\r' && js.charAt(end) != '\n') {
+        end++;
+      }
+      return end;
+    }
+
     private void printSpaces(int numberOfSpaces) {
       for (int i = 0; i < numberOfSpaces; i++) {
-        outputStream.print(" ");
+        output.append(' ');
       }
     }
   }
+
 }
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a large script into segments of top-level statements that can be parsed, renamed and
+ * printed independently. A segment ends after a semicolon outside of any brackets, comments,
+ * strings, template literals and regular expressions, which ends a statement regardless of what
+ * follows, unless the next statement is the else branch of an if statement or the condition of a
+ * do-while loop. Minified bundles on a single line are split as well.
+ *
+ * <p>The scan only tracks as much of the JavaScript grammar as it takes to find those boundaries,
+ * and tells regular expressions from divisions by the preceding token, so it can be misled. A
+ * boundary it misplaces leaves a segment that fails to parse, which callers detect.
+ */
+final class JsSegmenter {
+
+  // Keywords after which a slash starts a regular expression rather than a division.
+  private static final ImmutableSet<String> KEYWORDS_BEFORE_EXPRESSION =
+      ImmutableSet.of(
+          "await", "case", "delete", "do", "else", "in", "instanceof", "new", "of", "return",
+          "throw", "typeof", "void", "yield");
+
+  // Marks an open template literal substitution on the stack of open brackets.
+  private static final char SUBSTITUTION = '$';
+
+  private final String js;
+  private final int length;
+  private int pos = 0;
+
+  /** The open brackets and template literal substitutions, innermost last. */
+  private final StringBuilder open = new StringBuilder();
+
+  /** Whether a slash at the current position would start a regular expression. */
+  private boolean expressionExpected = true;
+
+  private JsSegmenter(String js) {
+    this.js = js;
+    this.length = js.length();
+  }
+
+  /**
+   * Returns the offsets the segments of a script start at, the first of which is 0.
+   *
+   * @param js The script.
+   * @param segmentSize The number of characters after which a segment ends at the next boundary.
+   * @return The start offsets of the segments, which is just 0 if the script isn't split.
+   */
+  static List<Integer> split(String js, int segmentSize) {
+    Preconditions.checkArgument(segmentSize > 0);
+    List<Integer> segmentStarts = new ArrayList<>();
+    segmentStarts.add(0);
+    if (js.length() <= segmentSize) {
+      return segmentStarts;
+    }
+    JsSegmenter segmenter = new JsSegmenter(js);
+    int segmentStart = 0;
+    while (segmenter.pos < segmenter.length) {
+      int boundary = segmenter.nextBoundary();
+      if (boundary < 0) {
+        break;
+      }
+      if (boundary - segmentStart >= segmentSize && boundary < js.length()) {
+        segmentStarts.add(boundary);
+        segmentStart = boundary;
+      }
+    }
+    return segmentStarts;
+  }
+
+  /**
+   * Scans to the next boundary and returns its offset, or -1 if the end of the script was reached
+   * first.
+   */
+  private int nextBoundary() {
+    while (pos < length) {
+      char c = js.charAt(pos);
+      if (Character.isWhitespace(c)) {
+        pos++;
+      } else if (c == '/' && pos + 1 < length && js.charAt(pos + 1) == '/') {
+        int end = js.indexOf('\n', pos);
+        pos = end < 0 ? length : end;
+      } else if (c == '/' && pos + 1 < length && js.charAt(pos + 1) == '*') {
+        int end = js.indexOf("*/", pos + 2);
+        pos = end < 0 ? length : end + 2;
+      } else if (c == ';' && open.length() == 0) {
+        pos++;
+        expressionExpected = true;
+        if (!continuesStatement()) {
+          return pos;
+        }
+      } else {
+        scanToken(c);
+      }
+    }
+    return -1;
+  }
+
+  private void scanToken(char c) {
+    switch (c) {
+      case '\'':
+      case '"':
+        skipString(c);
+        expressionExpected = false;
+        break;
+      case '`':
+        pos++;
+        skipTemplate();
+        expressionExpected = false;
+        break;
+      case '/':
+        if (expressionExpected) {
+          skipRegularExpression();
+          expressionExpected = false;
+        } else {
+          pos++;
+          expressionExpected = true;
+        }
+        break;
+      case '(':
+      case '[':
+      case '{':
+        open.append(c);
+        pos++;
+        expressionExpected = true;
+        break;
+      case ')':
+      case ']':
+        closeBracket();
+        pos++;
+        expressionExpected = false;
+        break;
+      case '}':
+        if (closeBracket() == SUBSTITUTION) {
+          pos++;
+          skipTemplate();
+          expressionExpected = false;
+        } else {
+          pos++;
+          // Blocks are usually followed by statements, which may start with a regular expression,
+          // while object literals are usually followed by operators.
+          expressionExpected = open.length() == 0;
+        }
+        break;
+      default:
+        if (isIdentifierPart(c)) {
+          int start = pos;
+          do {
+            pos++;
+          } while (pos < length && isIdentifierPart(js.charAt(pos)));
+          // Member accesses are scanned as part of the identifier, so they never match a keyword.
+          expressionExpected = KEYWORDS_BEFORE_EXPRESSION.contains(js.substring(start, pos));
+        } else {
+          // Operators and other punctuators.
+          pos++;
+          expressionExpected = true;
+        }
+    }
+  }
+
+  /** Pops the innermost open bracket, returning it, or 0 if none is open. */
+  private char closeBracket() {
+    int last = open.length() - 1;
+    if (last < 0) {
+      return 0;
+    }
+    char bracket = open.charAt(last);
+    open.setLength(last);
+    return bracket;
+  }
+
+  private void skipString(char quote) {
+    pos++;
+    while (pos < length) {
+      char c = js.charAt(pos++);
+      if (c == '\\') {
+        pos++;
+      } else if (c == quote || c == '\n') {
+        return;
+      }
+    }
+  }
+
+  /** Skips the rest of a template literal, or up to the start of its next substitution. */
+  private void skipTemplate() {
+    while (pos < length) {
+      char c = js.charAt(pos++);
+      if (c == '\\') {
+        pos++;
+      } else if (c == '`') {
+        return;
+      } else if (c == '$' && pos < length && js.charAt(pos) == '{') {
+        pos++;
+        open.append(SUBSTITUTION);
+        return;
+      }
+    }
+  }
+
+  private void skipRegularExpression() {
+    pos++;
+    boolean inClass = false;
+    while (pos < length) {
+      char c = js.charAt(pos++);
+      if (c == '\\') {
+        pos++;
+      } else if (c == '\n') {
+        return;
+      } else if (c == '[') {
+        inClass = true;
+      } else if (c == ']') {
+        inClass = false;
+      } else if (c == '/' && !inClass) {
+        while (pos < length && isIdentifierPart(js.charAt(pos))) {
+          // Flags.
+          pos++;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns true if the token at the current position continues the statement before it, being
+   * either the else of an if statement or the while of a do-while loop.
+   */
+  private boolean continuesStatement() {
+    int i = pos;
+    while (i < length) {
+      char c = js.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (js.startsWith("//", i)) {
+        int end = js.indexOf('\n', i);
+        i = end < 0 ? length : end;
+      } else if (js.startsWith("/*", i)) {
+        int end = js.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else {
+        break;
+      }
+    }
+    return startsWithKeyword(i, "else") || startsWithKeyword(i, "while");
+  }
+
+  private boolean startsWithKeyword(int offset, String keyword) {
+    int end = offset + keyword.length();
+    return js.startsWith(keyword, offset) && (end == length || !isIdentifierPart(js.charAt(end)));
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return (c >= 'a' && c <= 'z')
+        || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9')
+        || c == '_'
+        || c == '$'
+        || c == '.'
+        || c > 0x7f;
+  }
+}
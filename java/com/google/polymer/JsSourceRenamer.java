@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.base.Preconditions;
+import com.google.debugging.sourcemap.SourceMapParseException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.Gson;
+import com.google.javascript.rhino.Node;
+import com.google.javascript.rhino.TokenStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splices the names and strings renamed in a JavaScript abstract syntax tree back into the source
+ * it was parsed from instead of printing the whole tree. The strings of the tree are recorded
+ * before it is renamed, and each node that ends up with a different string replaces its own
+ * source range. Everything else, including comments and whitespace, is copied through as it is.
+ *
+ * <p>Since edits never span lines, an input sourcemap stays valid once the generated columns
+ * following an edit are shifted by the change in length.
+ */
+final class JsSourceRenamer {
+
+  // The digits of the base64 VLQs in sourcemap mappings.
+  private static final String BASE64_DIGITS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+  // Each base64 VLQ digit holds five bits of the value, and a bit set while more digits follow.
+  private static final int VLQ_SHIFT = 5;
+  private static final int VLQ_MASK = (1 << VLQ_SHIFT) - 1;
+  private static final int VLQ_CONTINUATION = 1 << VLQ_SHIFT;
+
+  /** A replaced source range. */
+  private static final class Edit {
+    private final int start;
+    private final int end;
+    private final String replacement;
+    /** The zero based line and column of the start of the range. */
+    private final int line;
+    private final int column;
+
+    private Edit(int start, int end, String replacement, int line, int column) {
+      this.start = start;
+      this.end = end;
+      this.replacement = replacement;
+      this.line = line;
+      this.column = column;
+    }
+
+    private int getEndColumn() {
+      return column + end - start;
+    }
+
+    private int getDelta() {
+      return replacement.length() - (end - start);
+    }
+  }
+
+  private final String js;
+  private final Map<Node, String> originalStrings = new IdentityHashMap<>();
+  private List<Edit> edits;
+
+  /**
+   * Constructs a JsSourceRenamer, recording the strings of the tree before it is renamed.
+   *
+   * @param js The JavaScript source.
+   * @param jsAst The abstract syntax tree parsed from {@code js}.
+   */
+  JsSourceRenamer(String js, Node jsAst) {
+    this.js = js;
+    ArrayDeque<Node> pending = new ArrayDeque<>();
+    pending.push(jsAst);
+    while (!pending.isEmpty()) {
+      Node node = pending.pop();
+      if (hasString(node)) {
+        originalStrings.put(node, node.getString());
+      }
+      for (Node child = node.getFirstChild(); child != null; child = child.getNext()) {
+        pending.push(child);
+      }
+    }
+  }
+
+  private static boolean hasString(Node node) {
+    return node.isName()
+        || node.isString()
+        || node.isStringKey()
+        || node.isMemberFunctionDef()
+        || node.isGetterDef()
+        || node.isSetterDef();
+  }
+
+  /**
+   * Places the renamed nodes in the source. Returns false if a renamed node can't be placed, in
+   * which case callers need to print the tree instead.
+   */
+  boolean placeEdits() {
+    edits = computeEdits();
+    return edits != null;
+  }
+
+  /**
+   * Appends the source with the renamed nodes placed by {@link #placeEdits} replaced.
+   *
+   * @param output Where the renamed source is appended.
+   * @throws IOException if the output fails to append.
+   */
+  void appendTo(Appendable output) throws IOException {
+    Preconditions.checkState(edits != null, "Edits not placed");
+    int copied = 0;
+    for (Edit edit : edits) {
+      output.append(js, copied, edit.start).append(edit.replacement);
+      copied = edit.end;
+    }
+    output.append(js, copied, js.length());
+  }
+
+  /**
+   * Returns the input sourcemap with its generated columns shifted by the edits placed by {@link
+   * #placeEdits}. Only the mappings change, so sources, names and source content carry over as
+   * they are.
+   *
+   * @param inputSourceMap The sourcemap of the source.
+   * @param outputFileName The file name the output sourcemap describes.
+   * @throws SourceMapParseException if the sourcemap isn't a version 3 sourcemap with mappings.
+   */
+  String shiftSourceMap(String inputSourceMap, String outputFileName)
+      throws SourceMapParseException {
+    JsonObject sourceMap;
+    try {
+      sourceMap = new Gson().fromJson(inputSourceMap, JsonObject.class);
+    } catch (RuntimeException e) {
+      throw new SourceMapParseException("Unable to parse sourcemap: " + e.getMessage());
+    }
+    if (sourceMap == null) {
+      throw new SourceMapParseException("Empty sourcemap");
+    }
+    JsonElement mappings = sourceMap.get("mappings");
+    if (mappings == null || !mappings.isJsonPrimitive()) {
+      throw new SourceMapParseException("Sourcemap has no mappings");
+    }
+    sourceMap.addProperty("file", outputFileName);
+    sourceMap.addProperty("mappings", shiftMappings(mappings.getAsString()));
+    return sourceMap.toString();
+  }
+
+  /**
+   * Shifts the generated column, the first field of each segment, in encoded sourcemap mappings.
+   * The other fields are relative to the previous segment regardless of line and are copied.
+   */
+  private String shiftMappings(String mappings) throws SourceMapParseException {
+    StringBuilder shifted = new StringBuilder(mappings.length() + 16);
+    int line = 0;
+    int editIndex = 0;
+    int column = 0;
+    int previousShiftedColumn = 0;
+    boolean segmentStart = true;
+    int i = 0;
+    while (i < mappings.length()) {
+      char c = mappings.charAt(i);
+      if (c == ';' || c == ',') {
+        if (c == ';') {
+          line++;
+          column = 0;
+          previousShiftedColumn = 0;
+          while (editIndex < edits.size() && edits.get(editIndex).line < line) {
+            editIndex++;
+          }
+        }
+        shifted.append(c);
+        segmentStart = true;
+        i++;
+        continue;
+      }
+      if (!segmentStart) {
+        // A later field of the segment, copied as it is.
+        shifted.append(c);
+        i++;
+        continue;
+      }
+      // Base64 VLQ digits hold five bits each from least significant, and the least
+      // significant bit of the value is its sign.
+      int value = 0;
+      int digit;
+      int shift = 0;
+      do {
+        if (i == mappings.length()) {
+          throw new SourceMapParseException("Truncated sourcemap mappings");
+        }
+        digit = decodeBase64(mappings.charAt(i++));
+        value |= (digit & VLQ_MASK) << shift;
+        shift += VLQ_SHIFT;
+      } while ((digit & VLQ_CONTINUATION) != 0);
+      column += (value & 1) == 0 ? value >>> 1 : -(value >>> 1);
+      int shiftedColumn = shiftColumn(line, column, editIndex);
+      encodeVlq(shifted, shiftedColumn - previousShiftedColumn);
+      previousShiftedColumn = shiftedColumn;
+      segmentStart = false;
+    }
+    return shifted.toString();
+  }
+
+  /**
+   * Returns the column in the output of a column in the source.
+   *
+   * @param line The zero based line.
+   * @param column The zero based column in the source.
+   * @param editIndex The index of the first edit on or after the line.
+   */
+  private int shiftColumn(int line, int column, int editIndex) {
+    int shiftedColumn = column;
+    for (int i = editIndex; i < edits.size(); i++) {
+      Edit edit = edits.get(i);
+      if (edit.line > line || edit.column >= column) {
+        break;
+      }
+      // Positions inside an edit move to its start.
+      shiftedColumn += column < edit.getEndColumn() ? edit.column - column : edit.getDelta();
+    }
+    return shiftedColumn;
+  }
+
+  private static int decodeBase64(char c) throws SourceMapParseException {
+    int value = BASE64_DIGITS.indexOf(c);
+    if (value < 0) {
+      throw new SourceMapParseException("Invalid character in sourcemap mappings: " + c);
+    }
+    return value;
+  }
+
+  private static void encodeVlq(StringBuilder out, int value) {
+    value = value < 0 ? ((-value) << 1) | 1 : value << 1;
+    do {
+      int digit = value & VLQ_MASK;
+      value >>>= VLQ_SHIFT;
+      if (value != 0) {
+        digit |= VLQ_CONTINUATION;
+      }
+      out.append(BASE64_DIGITS.charAt(digit));
+    } while (value != 0);
+  }
+
+  /** Returns the edits in source order, or null if one of them can't be placed. */
+  private List<Edit> computeEdits() {
+    List<Integer> lineStarts = new ArrayList<>();
+    lineStarts.add(0);
+    for (int i = 0; i < js.length(); i++) {
+      if (js.charAt(i) == '\n') {
+        lineStarts.add(i + 1);
+      }
+    }
+
+    List<Edit> edits = new ArrayList<>();
+    for (Map.Entry<Node, String> entry : originalStrings.entrySet()) {
+      Node node = entry.getKey();
+      String original = entry.getValue();
+      if (node.getString().equals(original)) {
+        continue;
+      }
+      int line = node.getLineno() - 1;
+      int column = node.getCharno();
+      if (line < 0 || line >= lineStarts.size() || column < 0) {
+        return null;
+      }
+      int start = lineStarts.get(line) + column;
+      if (start >= js.length()) {
+        return null;
+      }
+      char quote = js.charAt(start);
+      int end;
+      String replacement;
+      if ((node.isString() || node.isStringKey()) && (quote == '\'' || quote == '"')) {
+        end = start + node.getLength();
+        if (end <= start + 1 || end > js.length() || js.charAt(end - 1) != quote) {
+          return null;
+        }
+        replacement = quote(node.getString(), quote);
+      } else {
+        end = start + original.length();
+        if (!js.startsWith(original, start)) {
+          return null;
+        }
+        replacement = getUnquotedReplacement(node, original);
+        if (replacement == null) {
+          return null;
+        }
+      }
+      String replaced = js.substring(start, end);
+      if (replaced.indexOf('\n') >= 0 || replaced.indexOf('\r') >= 0) {
+        return null;
+      }
+      edits.add(new Edit(start, end, replacement, line, column));
+    }
+
+    Collections.sort(
+        edits,
+        new Comparator<Edit>() {
+          @Override
+          public int compare(Edit a, Edit b) {
+            return Integer.compare(a.start, b.start);
+          }
+        });
+    for (int i = 1; i < edits.size(); i++) {
+      if (edits.get(i).start < edits.get(i - 1).end) {
+        return null;
+      }
+    }
+    return edits;
+  }
+
+  /** Returns the replacement of an unquoted name, or null if it can't be written unquoted. */
+  private String getUnquotedReplacement(Node node, String original) {
+    String renamed = node.getString();
+    boolean isIdentifier = TokenStream.isJSIdentifier(renamed);
+    if (node.isStringKey()) {
+      String key = isIdentifier ? renamed : quote(renamed, '"');
+      if (!node.hasChildren()) {
+        // A shorthand property, whose key is also the name of its value.
+        return key + ": " + original;
+      }
+      return key;
+    }
+    return isIdentifier && !(node.isName() && TokenStream.isKeyword(renamed)) ? renamed : null;
+  }
+
+  /** Returns a JavaScript string literal of a value. */
+  private static String quote(String value, char quote) {
+    StringBuilder literal = new StringBuilder(value.length() + 2).append(quote);
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          literal.append("\\\\");
+          break;
+        case '\n':
+          literal.append("\\n");
+          break;
+        case '\r':
+          literal.append("\\r");
+          break;
+        case '\u2028':
+          literal.append("\\u2028");
+          break;
+        case '\u2029':
+          literal.append("\\u2029");
+          break;
+        default:
+          if (c == quote) {
+            literal.append('\\').append(c);
+          } else if (c < 0x20) {
+            literal.append(String.format("\\x%02x", (int) c));
+          } else {
+            literal.append(c);
+          }
+      }
+    }
+    return literal.append(quote).toString();
+  }
+}
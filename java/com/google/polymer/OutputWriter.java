@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Encodes renamed output as UTF-8 straight into a large buffer that is written to a file or
+ * stream whenever it fills up, so the encoded output is never held in memory as a whole.
+ *
+ * <p>Files are written to a temporary file next to them, which replaces the file once {@link
+ * #commit} is called. Readers never see a partially written file, and a rename that fails leaves
+ * the previous output in place.
+ */
+final class OutputWriter extends Writer {
+
+  // The number of encoded bytes buffered between writes to the channel.
+  private static final int BYTE_BUFFER_SIZE = 256 * 1024;
+
+  // The number of characters buffered between runs of the encoder.
+  private static final int CHAR_BUFFER_SIZE = 16 * 1024;
+
+  // The suffix of temporary files, which never matches the HTML and JS files of an input directory.
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private final WritableByteChannel channel;
+  private final OutputStream stream;
+  private final Path file;
+  private final Path temporaryFile;
+  private final CharsetEncoder encoder =
+      UTF_8
+          .newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+  private final ByteBuffer bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+  private long size = 0;
+  private boolean finished = false;
+  private boolean closed = false;
+
+  private OutputWriter(
+      WritableByteChannel channel, OutputStream stream, Path file, Path temporaryFile) {
+    this.channel = channel;
+    this.stream = stream;
+    this.file = file;
+    this.temporaryFile = temporaryFile;
+  }
+
+  /**
+   * Opens a writer replacing a file once committed. Closing the writer without committing it
+   * deletes what was written.
+   *
+   * @param file The file to replace, whose directory has to exist.
+   */
+  static OutputWriter create(Path file) throws IOException {
+    Path temporaryFile =
+        file.resolveSibling(
+            file.getFileName()
+                + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                + TEMPORARY_SUFFIX);
+    // Unlike Files.createTempFile, this creates the file with the default permissions, which the
+    // output keeps once it is moved.
+    WritableByteChannel channel =
+        Files.newByteChannel(
+            temporaryFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    return new OutputWriter(channel, null, file, temporaryFile);
+  }
+
+  /**
+   * Returns a writer to a stream, such as stdout. Closing the writer flushes the stream without
+   * closing it.
+   *
+   * @param out The stream the UTF-8 output is written to.
+   */
+  static OutputWriter wrap(OutputStream out) {
+    return new OutputWriter(null, Preconditions.checkNotNull(out), null, null);
+  }
+
+  /** Returns the number of bytes written so far, including those still buffered. */
+  long size() {
+    return size + bytes.position();
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    ensureOpen();
+    if (!chars.hasRemaining()) {
+      encode(false);
+    }
+    chars.put((char) c);
+  }
+
+  @Override
+  public void write(char[] buffer, int offset, int length) throws IOException {
+    ensureOpen();
+    int end = offset + length;
+    while (offset < end) {
+      if (!chars.hasRemaining()) {
+        encode(false);
+      }
+      int count = Math.min(chars.remaining(), end - offset);
+      chars.put(buffer, offset, count);
+      offset += count;
+    }
+  }
+
+  @Override
+  public void write(String s, int offset, int length) throws IOException {
+    ensureOpen();
+    int end = offset + length;
+    while (offset < end) {
+      if (!chars.hasRemaining()) {
+        encode(false);
+      }
+      int count = Math.min(chars.remaining(), end - offset);
+      chars.put(s, offset, offset + count);
+      offset += count;
+    }
+  }
+
+  @Override
+  public Writer append(CharSequence csq) throws IOException {
+    return append(csq, 0, csq == null ? 4 : csq.length());
+  }
+
+  @Override
+  public Writer append(CharSequence csq, int start, int end) throws IOException {
+    if (csq == null) {
+      csq = "null";
+    }
+    if (csq instanceof String) {
+      write((String) csq, start, end - start);
+      return this;
+    }
+    // Other character sequences, such as StringBuilders, are copied without a String.
+    ensureOpen();
+    for (int i = start; i < end; i++) {
+      if (!chars.hasRemaining()) {
+        encode(false);
+      }
+      chars.put(csq.charAt(i));
+    }
+    return this;
+  }
+
+  /**
+   * Writes what is buffered, except for a trailing high surrogate that is only encoded once its
+   * low surrogate follows.
+   */
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    encode(false);
+    writeBytes();
+    if (stream != null) {
+      stream.flush();
+    }
+  }
+
+  /**
+   * Writes the rest of the output and replaces the file with it.
+   *
+   * @throws IOException if the output couldn't be written or moved, in which case the file is left
+   *     as it was.
+   */
+  void commit() throws IOException {
+    Preconditions.checkState(file != null, "Only files are committed");
+    try {
+      finish();
+      channel.close();
+      try {
+        Files.move(
+            temporaryFile,
+            file,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      closed = true;
+      channel.close();
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /**
+   * Closes the writer. A stream is flushed, and a file that wasn't committed is left as it was.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    if (stream != null) {
+      try {
+        finish();
+        stream.flush();
+      } finally {
+        closed = true;
+      }
+      return;
+    }
+    closed = true;
+    try {
+      channel.close();
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /** Encodes and writes everything written, including a trailing unpaired surrogate. */
+  private void finish() throws IOException {
+    ensureOpen();
+    encode(true);
+    while (encoder.flush(bytes).isOverflow()) {
+      writeBytes();
+    }
+    writeBytes();
+    finished = true;
+  }
+
+  /** Encodes the buffered characters, writing out the byte buffer whenever it fills up. */
+  private void encode(boolean endOfInput) throws IOException {
+    chars.flip();
+    while (true) {
+      CoderResult result = encoder.encode(chars, bytes, endOfInput);
+      if (!result.isOverflow()) {
+        break;
+      }
+      writeBytes();
+    }
+    chars.compact();
+  }
+
+  private void writeBytes() throws IOException {
+    bytes.flip();
+    size += bytes.remaining();
+    if (stream != null) {
+      stream.write(bytes.array(), bytes.position(), bytes.remaining());
+    } else {
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    }
+    bytes.clear();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed || finished) {
+      throw new IOException("Output writer closed");
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+
+/**
+ * Runs the PolymerRenamer as a long lived process following the JSON flavor of the Bazel
+ * persistent worker protocol. Work requests are read from stdin and work responses are written to
+ * stdout, one JSON object per line. Each request carries the same arguments as the command line,
+ * and parsed property maps are kept in memory between requests.
+ *
+ * @href https://docs.bazel.build/versions/master/persistent-workers.html
+ */
+final class PersistentWorker {
+
+  // The number of parsed property maps kept in memory.
+  private static final int RENAME_MAP_CACHE_SIZE = 8;
+
+  /** A work request read from stdin. */
+  static final class WorkRequest {
+    /** The PolymerRenamer command line arguments. Arguments of the form @file are expanded. */
+    List<String> arguments = ImmutableList.of();
+
+    /** Identifies the response to this request. */
+    int requestId;
+
+    /** Set by the build system to cancel an earlier request. */
+    boolean cancel;
+
+    /**
+     * The content to rename in place of reading --inputFilename. --inputFilename is still used to
+     * pick the renamer.
+     */
+    String inputContent;
+  }
+
+  /** A work response written to stdout. */
+  static final class WorkResponse {
+    int exitCode;
+
+    /** Warnings and errors encountered while renaming. */
+    String output;
+
+    int requestId;
+
+    /** The renamed content when the request doesn't specify --outputFilename. */
+    String renamedContent;
+  }
+
+  private final Gson gson = new Gson();
+  private final RenameMapCache renameMapCache = new RenameMapCache(RENAME_MAP_CACHE_SIZE);
+
+  PersistentWorker() {}
+
+  /** Serves work requests on stdin until it is closed. */
+  static void main() {
+    PrintStream stdout = System.out;
+    // Anything printed outside of a work response would corrupt the protocol stream.
+    System.setOut(System.err);
+    try {
+      new PersistentWorker().serve(System.in, stdout);
+    } catch (IOException | JsonParseException e) {
+      System.err.println("Persistent worker stopped: " + e);
+    } finally {
+      System.setOut(stdout);
+    }
+  }
+
+  /**
+   * Serves work requests until the end of {@code in} is reached.
+   *
+   * @param in The stream of JSON work requests.
+   * @param out The stream JSON work responses are written to.
+   */
+  void serve(InputStream in, PrintStream out) throws IOException {
+    JsonReader reader = new JsonReader(new InputStreamReader(in, UTF_8));
+    reader.setLenient(true);
+    Writer writer = new OutputStreamWriter(out, UTF_8);
+    while (reader.peek() != JsonToken.END_DOCUMENT) {
+      WorkRequest request = gson.fromJson(reader, WorkRequest.class);
+      if (request.cancel) {
+        // Requests are processed in order, so there is never anything in flight to cancel.
+        continue;
+      }
+      writer.write(gson.toJson(handle(request)));
+      writer.write('\n');
+      writer.flush();
+    }
+  }
+
+  /** Performs the rename described by a single work request. */
+  WorkResponse handle(WorkRequest request) {
+    WorkResponse response = new WorkResponse();
+    response.requestId = request.requestId;
+
+    ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+    ByteArrayOutputStream renamedContent = new ByteArrayOutputStream();
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    try (PrintStream diagnosticsStream = newUtf8PrintStream(diagnostics);
+        PrintStream renamedContentStream = newUtf8PrintStream(renamedContent)) {
+      System.setOut(diagnosticsStream);
+      System.setErr(diagnosticsStream);
+      response.exitCode = rename(request, renamedContentStream);
+      diagnosticsStream.flush();
+      renamedContentStream.flush();
+    } finally {
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+    }
+
+    response.output = new String(diagnostics.toByteArray(), UTF_8);
+    if (renamedContent.size() > 0) {
+      response.renamedContent = new String(renamedContent.toByteArray(), UTF_8);
+    }
+    return response;
+  }
+
+  private int rename(WorkRequest request, PrintStream renamedContentStream) {
+    PolymerRenamer.Args renamerArgs = new PolymerRenamer.Args();
+    CmdLineParser parser = new CmdLineParser(renamerArgs);
+    try {
+      parser.parseArgument(expandArguments(request.arguments));
+    } catch (CmdLineException e) {
+      PolymerRenamer.printUsage(parser, e.getLocalizedMessage());
+      return 1;
+    } catch (IOException e) {
+      System.err.println("Unable to read arguments file: " + e);
+      return 1;
+    }
+
+    String validationError = renamerArgs.validate();
+    if (validationError != null) {
+      PolymerRenamer.printUsage(parser, validationError);
+      return 1;
+    }
+
+    if (renamerArgs.isCompilePropertyMap()) {
+      return PolymerRenamer.compilePropertyMap(renamerArgs);
+    }
+
+    RenameMap renameMap;
+    try {
+      renameMap = renameMapCache.get(renamerArgs.getPropertyMapFilename());
+    } catch (IOException e) {
+      System.err.println(
+          "Unable to read property map file: " + renamerArgs.getPropertyMapFilename());
+      return 1;
+    }
+
+    return PolymerRenamer.run(
+        renamerArgs,
+        Futures.immediateFuture(renameMap),
+        request.inputContent,
+        renamedContentStream);
+  }
+
+  /** Expands arguments of the form @file into the lines of that file. */
+  private static List<String> expandArguments(List<String> arguments) throws IOException {
+    ImmutableList.Builder<String> expanded = ImmutableList.builder();
+    for (String argument : arguments) {
+      if (argument.startsWith("@") && !argument.startsWith("@@")) {
+        for (String line : Files.readAllLines(Paths.get(argument.substring(1)), UTF_8)) {
+          if (!line.isEmpty()) {
+            expanded.add(line);
+          }
+        }
+      } else {
+        expanded.add(argument);
+      }
+    }
+    return expanded.build();
+  }
+
+  private static PrintStream newUtf8PrintStream(ByteArrayOutputStream stream) {
+    try {
+      return new PrintStream(stream, false, UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
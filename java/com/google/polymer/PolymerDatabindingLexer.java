@@ -11,8 +11,6 @@ package com.google.polymer;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Lexes an input string according to the Polymer Databinding syntax.
@@ -20,18 +18,6 @@ import java.util.regex.Pattern;
  */
 public class PolymerDatabindingLexer {
 
-  private static final Pattern lexingPattern;
-
-  static {
-    StringBuilder sb = new StringBuilder();
-    for (NamedPattern p : NamedPattern.values()) {
-      sb.append(String.format("(?<%s>%s)|", p.name(), p.getRegex()));
-    }
-    // Remove Last "|"
-    sb.setLength(sb.length() - 1);
-    lexingPattern = Pattern.compile(sb.toString(), Pattern.DOTALL);
-  }
-
   /**
    * The available tokens emitted from this lexer.
    */
@@ -39,27 +25,6 @@ public class PolymerDatabindingLexer {
     OPENCURLYBRACES, CLOSECURLYBRACES, OPENSQUAREBRACES, CLOSESQUAREBRACES, STRING;
   }
 
-  /**
-   * The patterns of interest in the string.
-   */
-  private static enum NamedPattern {
-    OPENCURLYBRACES("\\{\\{"),
-    CLOSECURLYBRACES("\\}\\}"),
-    OPENSQUAREBRACES("\\[\\["),
-    CLOSESQUAREBRACES("\\]\\]"),
-    CHARACTER(".");
-
-    private String regex;
-
-    private NamedPattern(String regex) {
-      this.regex = regex;
-    }
-
-    public String getRegex() {
-      return regex;
-    }
-  }
-
   /**
    * A lexical token output from PolymerDatabindingLexer.lex.
    */
@@ -73,53 +38,97 @@ public class PolymerDatabindingLexer {
     }
   }
 
+  /**
+   * Receives the tokens of a lexed string as ranges of the input, avoiding a copy of each token.
+   */
+  public interface TokenHandler {
+    /**
+     * Called for each token in input order.
+     * @param type The type of the token.
+     * @param start The index of the first character of the token in the input.
+     * @param end The index after the last character of the token in the input.
+     */
+    void token(TokenType type, int start, int end);
+  }
+
   private PolymerDatabindingLexer() {}
 
+  /**
+   * Returns true if the input contains a databinding delimiter. Strings without delimiters lex to
+   * a single STRING token and can be passed through untouched.
+   * @param input Input string to check.
+   */
+  public static boolean containsDelimiter(CharSequence input) {
+    int length = input.length();
+    for (int i = 0; i < length - 1; i++) {
+      char c = input.charAt(i);
+      if (isDelimiterCharacter(c) && input.charAt(i + 1) == c) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Lexes a string into tokens based off of Polymer's databinding syntax.
    * @param input Input string to lex.
    * @return Array of tokens.
    */
-  public static Token[] lex(String input) {
-    List<Token> tokens = new ArrayList<>();
-    Matcher matcher = lexingPattern.matcher(input);
-    StringBuilder currentString = new StringBuilder();
-    while (matcher.find()) {
-      if (matcher.group(NamedPattern.CHARACTER.name()) != null) {
-        currentString.append(matcher.group(NamedPattern.CHARACTER.name()));
-      } else {
-        if (currentString.length() > 0) {
-          tokens.add(new Token(TokenType.STRING, currentString.toString()));
-          currentString.setLength(0);
-        }
+  public static Token[] lex(final String input) {
+    final List<Token> tokens = new ArrayList<>();
+    lex(
+        input,
+        new TokenHandler() {
+          @Override
+          public void token(TokenType type, int start, int end) {
+            tokens.add(new Token(type, input.substring(start, end)));
+          }
+        });
+    return tokens.toArray(new Token[tokens.size()]);
+  }
 
-        if (matcher.group(NamedPattern.OPENCURLYBRACES.name()) != null) {
-          tokens.add(
-              new Token(
-                  TokenType.OPENCURLYBRACES,
-                  matcher.group(NamedPattern.OPENCURLYBRACES.name())));
-        } else if (matcher.group(NamedPattern.CLOSECURLYBRACES.name()) != null) {
-          tokens.add(
-              new Token(
-                  TokenType.CLOSECURLYBRACES,
-                  matcher.group(NamedPattern.CLOSECURLYBRACES.name())));
-        } else if (matcher.group(NamedPattern.OPENSQUAREBRACES.name()) != null) {
-          tokens.add(
-              new Token(
-                  TokenType.OPENSQUAREBRACES,
-                  matcher.group(NamedPattern.OPENSQUAREBRACES.name())));
-        } else if (matcher.group(NamedPattern.CLOSESQUAREBRACES.name()) != null) {
-          tokens.add(
-              new Token(
-                  TokenType.CLOSESQUAREBRACES,
-                  matcher.group(NamedPattern.CLOSESQUAREBRACES.name())));
+  /**
+   * Lexes a string into token ranges based off of Polymer's databinding syntax. Delimiters are
+   * matched left to right, so "{{{" is an OPENCURLYBRACES token followed by a "{" STRING token.
+   * @param input Input string to lex.
+   * @param handler Receives each token.
+   */
+  public static void lex(CharSequence input, TokenHandler handler) {
+    int length = input.length();
+    int stringStart = 0;
+    int i = 0;
+    while (i < length - 1) {
+      char c = input.charAt(i);
+      if (isDelimiterCharacter(c) && input.charAt(i + 1) == c) {
+        if (stringStart < i) {
+          handler.token(TokenType.STRING, stringStart, i);
         }
+        handler.token(getDelimiterTokenType(c), i, i + 2);
+        i += 2;
+        stringStart = i;
+      } else {
+        i++;
       }
     }
-    if (currentString.length() > 0) {
-      tokens.add(new Token(TokenType.STRING, currentString.toString()));
-      currentString.setLength(0);
+    if (stringStart < length) {
+      handler.token(TokenType.STRING, stringStart, length);
+    }
+  }
+
+  private static boolean isDelimiterCharacter(char c) {
+    return c == '{' || c == '}' || c == '[' || c == ']';
+  }
+
+  private static TokenType getDelimiterTokenType(char c) {
+    switch (c) {
+      case '{':
+        return TokenType.OPENCURLYBRACES;
+      case '}':
+        return TokenType.CLOSECURLYBRACES;
+      case '[':
+        return TokenType.OPENSQUAREBRACES;
+      default:
+        return TokenType.CLOSESQUAREBRACES;
     }
-    return tokens.toArray(new Token[] {});
   }
 }
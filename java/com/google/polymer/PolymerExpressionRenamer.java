@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.javascript.rhino.TokenStream;
+
+/**
+ * Recognizes and renames Polymer effect expressions without the Closure Compiler. Most
+ * databinding, observer and computed property expressions are paths, negated paths or method calls
+ * with path and literal arguments:
+ *
+ * <pre>
+ * expression := '!'* path
+ *             | '!'* path '(' [argument (',' argument)*] ')'
+ * argument   := path | string | integer
+ * path       := identifier ('.' (identifier | digits))* ['.*']
+ * </pre>
+ *
+ * <p>Expressions of this grammar are classified in a single pass. Those that are JavaScript are
+ * renamed in a second pass and printed exactly the way the Closure Compiler prints them, so the
+ * output doesn't depend on which of the two renamed an expression. Literals the Closure Compiler
+ * would print differently, such as escaped strings, 1000 (printed as 1E3) or integers of more
+ * than 12 digits (possibly printed in hexadecimal), are left to it.
+ */
+final class PolymerExpressionRenamer {
+
+  /** The kinds of expressions told apart by {@link #classify}. */
+  enum Kind {
+    /** An expression outside the grammar, which has to be parsed by the Closure Compiler. */
+    UNRECOGNIZED,
+
+    /** A JavaScript expression of the grammar, which can be renamed by {@link #rename}. */
+    JAVASCRIPT,
+
+    /**
+     * An expression of the grammar with a wildcard or array index path, such as {@code a(b.*)} or
+     * {@code items.0.name}, which the Closure Compiler can't parse.
+     */
+    POLYMER_PATH,
+  }
+
+  // The longest integer literal printed as it is written. The Closure Compiler prints longer ones
+  // in hexadecimal when that is shorter, and they lose precision as doubles from 16 digits on.
+  private static final int MAX_INTEGER_DIGITS = 12;
+
+  // Identifiers the Closure Compiler's parser treats as keywords in some contexts.
+  private static final ImmutableSet<String> CONTEXTUAL_KEYWORDS =
+      ImmutableSet.of("async", "await", "let", "yield");
+
+  private final String js;
+  private final int length;
+  private int pos = 0;
+  private boolean javascript = true;
+  private boolean wildcard = false;
+
+  private PolymerExpressionRenamer(String js) {
+    this.js = js;
+    this.length = js.length();
+  }
+
+  /**
+   * Classifies an expression without allocating, apart from checking identifiers that could be
+   * keywords.
+   *
+   * @param js The Polymer JavaScript-like expression.
+   * @return The kind of the expression.
+   */
+  static Kind classify(String js) {
+    PolymerExpressionRenamer scanner = new PolymerExpressionRenamer(js);
+    if (!scanner.scanExpression()) {
+      return Kind.UNRECOGNIZED;
+    }
+    return scanner.javascript ? Kind.JAVASCRIPT : Kind.POLYMER_PATH;
+  }
+
+  /**
+   * Renames the identifiers of an expression classified as {@link Kind#JAVASCRIPT}, the way {@link
+   * JsRenamer#renamePolymerJsExpression} renames names and properties, and prints it without
+   * whitespace and with single quoted strings.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param js The Polymer JavaScript-like expression.
+   * @return The renamed expression.
+   */
+  static String rename(RenameMap renameMap, String js) {
+    int length = js.length();
+    StringBuilder renamed = new StringBuilder(length);
+    int pos = 0;
+    while (pos < length) {
+      char c = js.charAt(pos);
+      if (isIdentifierStart(c)) {
+        int start = pos;
+        do {
+          pos++;
+        } while (pos < length && isIdentifierPart(js.charAt(pos)));
+        appendRenamedIdentifier(renameMap, js, start, pos, renamed);
+      } else if (c == '\'' || c == '"') {
+        int end = js.indexOf(c, pos + 1);
+        renamed.append('\'').append(js, pos + 1, end).append('\'');
+        pos = end + 1;
+      } else {
+        if (!isWhitespace(c)) {
+          renamed.append(c);
+        }
+        pos++;
+      }
+    }
+    return renamed.toString();
+  }
+
+  /**
+   * Appends a renamed name or property, including *Changed properties of renamed properties.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param js The expression containing the name or property.
+   * @param start The offset the name or property starts at.
+   * @param end The offset the name or property ends at.
+   * @param renamed The renamed expression to append to.
+   */
+  private static void appendRenamedIdentifier(
+      RenameMap renameMap, String js, int start, int end, StringBuilder renamed) {
+    String renamedName = renameMap.get(js, start, end);
+    if (renamedName == null) {
+      renamedName = renameMap.getChanged(js, start, end);
+    }
+    if (renamedName != null) {
+      renamed.append(renamedName);
+    } else {
+      renamed.append(js, start, end);
+    }
+  }
+
+  private boolean scanExpression() {
+    skipWhitespace();
+    while (consume('!')) {
+      skipWhitespace();
+    }
+    if (!scanPath()) {
+      return false;
+    }
+    skipWhitespace();
+    if (consume('(')) {
+      if (wildcard) {
+        return false;
+      }
+      skipWhitespace();
+      if (!consume(')')) {
+        do {
+          skipWhitespace();
+          if (!scanArgument()) {
+            return false;
+          }
+          skipWhitespace();
+        } while (consume(','));
+        if (!consume(')')) {
+          return false;
+        }
+      }
+      skipWhitespace();
+    }
+    return pos == length;
+  }
+
+  private boolean scanArgument() {
+    if (pos == length) {
+      return false;
+    }
+    char c = js.charAt(pos);
+    if (c == '\'' || c == '"') {
+      return scanString(c);
+    } else if (isDigit(c)) {
+      return scanInteger();
+    }
+    return scanPath();
+  }
+
+  private boolean scanPath() {
+    wildcard = false;
+    if (!scanIdentifier()) {
+      return false;
+    }
+    while (consume('.')) {
+      if (consume('*')) {
+        // Wildcards end a path.
+        javascript = false;
+        wildcard = true;
+        return true;
+      } else if (pos < length && isDigit(js.charAt(pos))) {
+        javascript = false;
+        while (pos < length && isDigit(js.charAt(pos))) {
+          pos++;
+        }
+      } else if (!scanIdentifier()) {
+        return false;
+      }
+    }
+    return pos == length || !isIdentifierPart(js.charAt(pos));
+  }
+
+  private boolean scanIdentifier() {
+    if (pos == length || !isIdentifierStart(js.charAt(pos))) {
+      return false;
+    }
+    int start = pos;
+    boolean lowerCase = true;
+    do {
+      char c = js.charAt(pos);
+      lowerCase &= c >= 'a' && c <= 'z';
+      pos++;
+    } while (pos < length && isIdentifierPart(js.charAt(pos)));
+    if (lowerCase) {
+      // Keywords are all lower case, so other identifiers are checked without a substring.
+      String word = js.substring(start, pos);
+      return !TokenStream.isKeyword(word) && !CONTEXTUAL_KEYWORDS.contains(word);
+    }
+    return true;
+  }
+
+  private boolean scanString(char quote) {
+    pos++;
+    while (pos < length) {
+      char c = js.charAt(pos++);
+      if (c == quote) {
+        return true;
+      } else if (!isPrintedUnescaped(c)) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private boolean scanInteger() {
+    int start = pos;
+    while (pos < length && isDigit(js.charAt(pos))) {
+      pos++;
+    }
+    int digits = pos - start;
+    if ((digits > 1 && js.charAt(start) == '0')
+        || digits > MAX_INTEGER_DIGITS
+        || (digits > 3 && js.startsWith("000", pos - 3))) {
+      // Octal literals, imprecise doubles and powers of ten are printed differently.
+      return false;
+    }
+    return pos == length || (js.charAt(pos) != '.' && !isIdentifierPart(js.charAt(pos)));
+  }
+
+  private boolean consume(char c) {
+    if (pos < length && js.charAt(pos) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void skipWhitespace() {
+    while (pos < length && isWhitespace(js.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isIdentifierStart(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return isIdentifierStart(c) || isDigit(c);
+  }
+
+  /**
+   * Returns true if the Closure Compiler prints the string character as it is within single
+   * quotes. Quotes, backslashes, control and non-ASCII characters are escaped, and so are angle
+   * brackets that could close a script element.
+   */
+  private static boolean isPrintedUnescaped(char c) {
+    return c >= 0x20 && c < 0x7f && c != '\'' && c != '"' && c != '\\' && c != '<' && c != '>';
+  }
+}
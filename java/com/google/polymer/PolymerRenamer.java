@@ -9,11 +9,29 @@
 
 package com.google.polymer;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.javascript.rhino.Node;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.jsoup.nodes.Document;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -21,21 +39,78 @@ import org.kohsuke.args4j.Option;
 /** The Polymer Property and Databinding Renamer. */
 public final class PolymerRenamer {
   /** The command line arguments accepted by the PolymerRenamer. */
-  private static class Args {
-    @Option(name = "--inputFilename", usage = "The input file to rename", required = true)
+  static class Args {
+    @Option(
+      name = "--inputFilename",
+      usage = "The input file to rename",
+      forbids = {"--inputDir", "--inputManifest"}
+    )
     private String inputFilename;
 
     @Option(
-      name = "--propertyMapFilename",
-      usage = "The property map to use for renaming",
-      required = true
+      name = "--inputDir",
+      usage = "A directory of HTML and JS files to rename in batch mode",
+      depends = {"--outputDir"},
+      forbids = {"--inputFilename"}
+    )
+    private String inputDir;
+
+    @Option(
+      name = "--inputGlob",
+      usage = "A glob, relative to --inputDir, restricting which files are renamed in batch mode",
+      depends = {"--inputDir"}
+    )
+    private String inputGlob;
+
+    @Option(
+      name = "--inputManifest",
+      usage =
+          "A file listing one input file per line to rename in batch mode. Relative entries are "
+              + "resolved against --inputDir when specified",
+      depends = {"--outputDir"},
+      forbids = {"--inputFilename"}
+    )
+    private String inputManifest;
+
+    @Option(name = "--outputDir", usage = "The directory to write renamed files to in batch mode")
+    private String outputDir;
+
+    @Option(name = "--threads", usage = "The number of files to rename concurrently in batch mode")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(
+      name = "--htmlThreads",
+      usage =
+          "The number of inline scripts and databinding expressions of the input HTML file to"
+              + " rename concurrently",
+      forbids = {"--inputDir", "--inputManifest"}
+    )
+    private int htmlThreads = 1;
+
+    @Option(
+      name = "--jsSegmentSize",
+      usage =
+          "The number of characters after which the input JS file is split at the next top-level"
+              + " statement, so that its segments can be renamed concurrently. 0 doesn't split it",
+      forbids = {"--inputDir", "--inputManifest"}
     )
+    private int jsSegmentSize = 0;
+
+    @Option(
+      name = "--jsThreads",
+      usage = "The number of segments of the input JS file to rename concurrently",
+      depends = {"--jsSegmentSize"}
+    )
+    private int jsThreads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "--propertyMapFilename", usage = "The property map to use for renaming")
     private String propertyMapFilename;
 
     @Option(
       name = "--inputSourceMapFilename",
       usage = "The input source map",
-      depends = {"--outputSourceMapFilename"}
+      depends = {"--outputSourceMapFilename"},
+      forbids = {"--inputDir", "--inputManifest"}
     )
     private String inputSourceMapFilename;
 
@@ -46,31 +121,471 @@ public final class PolymerRenamer {
     )
     private String outputSourceMapFilename;
 
+    @Option(
+      name = "--outputFilename",
+      usage = "The file to write the renamed output to instead of stdout",
+      forbids = {"--inputDir", "--inputManifest"}
+    )
+    private String outputFilename;
+
     @Option(name = "--jsPrettyPrint", usage = "Whether to pretty print the output JS")
     private boolean prettyPrint = false;
+
+    @Option(
+      name = "--htmlPreserveSource",
+      usage = "Whether to keep the output HTML identical to the input outside of renamed values"
+    )
+    private boolean htmlPreserveSource = false;
+
+    @Option(
+      name = "--jsPreserveSource",
+      usage = "Whether to keep the output JS identical to the input outside of renamed names",
+      forbids = {"--jsPrettyPrint"}
+    )
+    private boolean jsPreserveSource = false;
+
+    @Option(
+      name = "--prefilter",
+      usage =
+          "Whether to scan files, inline scripts and databinding expressions for renamed symbols "
+              + "before parsing them. Those without any are passed through as they are instead of "
+              + "being reformatted"
+    )
+    private boolean prefilter = false;
+
+    @Option(
+      name = "--expressionCacheSize",
+      usage = "The number of renamed databinding expressions to remember"
+    )
+    private long expressionCacheSize = -1;
+
+    @Option(
+      name = "--cacheDir",
+      usage =
+          "A directory, which may be shared between processes, caching renamed output so that "
+              + "unchanged inputs aren't renamed again"
+    )
+    private String cacheDir;
+
+    @Option(
+      name = "--cacheSize",
+      usage = "The number of bytes --cacheDir may hold before the least recently used are evicted",
+      depends = {"--cacheDir"}
+    )
+    private long cacheSize = 256L << 20;
+
+    @Option(
+      name = "--incrementalIndex",
+      usage =
+          "An index of the property map entries each output of batch mode depends on. Outputs "
+              + "whose input and property map entries are unchanged since the previous batch are "
+              + "kept as they are",
+      depends = {"--outputDir"}
+    )
+    private String incrementalIndex;
+
+    @Option(
+      name = "--metricsOutput",
+      usage =
+          "A file to write a JSON report to of the time and allocations of each phase of each "
+              + "file, the sizes of the files, the renames made and the slowest expressions"
+    )
+    private String metricsOutput;
+
+    @Option(
+      name = "--diagnosticsOutput",
+      usage =
+          "A file to stream warnings and errors to as JSON lines, with their severity, category, "
+              + "file and position, instead of printing them"
+    )
+    private String diagnosticsOutput;
+
+    @Option(
+      name = "--maxDiagnosticsPerCategory",
+      usage =
+          "The number of warnings and errors of each category reported in a run, after which the "
+              + "rest are only counted. 0 reports all of them"
+    )
+    private int maxDiagnosticsPerCategory = 0;
+
+    @Option(
+      name = "--compilePropertyMap",
+      usage =
+          "Compile --propertyMapFilename into a binary property map written to this file. Binary "
+              + "property maps are memory-mapped instead of parsed when passed as "
+              + "--propertyMapFilename",
+      forbids = {"--inputFilename", "--inputDir", "--inputManifest"}
+    )
+    private String compilePropertyMap;
+
+    @Option(
+      name = "--persistent_worker",
+      usage = "Run as a persistent worker reading JSON work requests from stdin"
+    )
+    private boolean persistentWorker = false;
+
+    @Option(
+      name = "--watch",
+      usage =
+          "Keep running after renaming, and rename inputs again whenever they or the property map "
+              + "change",
+      forbids = {"--persistent_worker", "--compilePropertyMap"}
+    )
+    private boolean watch = false;
+
+    @Option(
+      name = "--watchDelay",
+      usage =
+          "The number of milliseconds without further changes to wait for before renaming "
+              + "changed inputs in --watch mode",
+      depends = {"--watch"}
+    )
+    private long watchDelay = 100;
+
+    /** Returns the property map filename. */
+    String getPropertyMapFilename() {
+      return propertyMapFilename;
+    }
+
+    /** Returns true if the arguments ask to compile a binary property map. */
+    boolean isCompilePropertyMap() {
+      return compilePropertyMap != null;
+    }
+
+    /**
+     * Returns a description of what is missing from the arguments, or null if they describe a
+     * rename.
+     */
+    String validate() {
+      if (propertyMapFilename == null) {
+        return "Option \"--propertyMapFilename\" is required";
+      }
+      if (compilePropertyMap == null
+          && inputFilename == null
+          && inputDir == null
+          && inputManifest == null) {
+        return "One of --inputFilename, --inputDir or --inputManifest is required";
+      }
+      if (watch && inputFilename != null && outputFilename == null) {
+        return "Option \"--watch\" requires --outputFilename with --inputFilename";
+      }
+      if (watchDelay < 0) {
+        return "Option \"--watchDelay\" can't be negative";
+      }
+      return null;
+    }
+  }
+
+  /** The content of an input file parsed ahead of the rename map being available. */
+  interface ParsedInput {
+    /**
+     * Renames the parsed content, appending it to an output. May only be called once.
+     *
+     * @param renameMap A mapping from symbol to renamed symbol.
+     * @param output Where the renamed content is appended.
+     * @throws IOException if the output fails to append.
+     */
+    void rename(RenameMap renameMap, Appendable output) throws IOException;
   }
 
   private PolymerRenamer() {}
 
-  private static String getFileContent(String inputFilename) throws FileNotFoundException {
-    try (Scanner s = new Scanner(new File(inputFilename))) {
-      return s.useDelimiter("\\Z").next();
+  /**
+   * Reads an HTML, JS or sourcemap input. The line terminator ending its last line, if any, is
+   * dropped, as inputs have always been renamed without it.
+   *
+   * @param inputFilename The file to read.
+   * @return The content of the file.
+   */
+  static String getFileContent(String inputFilename) throws IOException {
+    String content = InputFiles.read(Paths.get(inputFilename));
+    int end = content.length();
+    if (end > 0) {
+      char last = content.charAt(end - 1);
+      if (last == '\n') {
+        end -= end > 1 && content.charAt(end - 2) == '\r' ? 2 : 1;
+      } else if (last == '\r' || last == '\u0085' || last == '\u2028' || last == '\u2029') {
+        end--;
+      }
+    }
+    return content.substring(0, end);
+  }
+
+  /**
+   * Loads a property map, memory-mapping binary property maps and parsing text property maps. The
+   * rename map carries the digest of the content it was loaded from.
+   *
+   * @param inputFilename The property map file.
+   * @return A mapping from symbol to renamed symbol.
+   */
+  static RenameMap getRenameMap(String inputFilename) throws IOException {
+    Path path = Paths.get(inputFilename);
+    if (BinaryRenameMap.isBinaryRenameMap(path)) {
+      return BinaryRenameMap.open(path);
+    }
+    // The digest is taken from the bytes parsed, so that it can't describe a later version of the
+    // file.
+    byte[] content = Files.readAllBytes(path);
+    return RenameMap.ofUnmodifiable(
+        RenameMapParser.parse(content, Runtime.getRuntime().availableProcessors()),
+        Hashing.sha256().hashBytes(content).asBytes());
+  }
+
+  /**
+   * Starts loading a property map on a background thread.
+   *
+   * @param inputFilename The property map file.
+   * @return The rename map once it is loaded.
+   */
+  static Future<RenameMap> getRenameMapAsync(final String inputFilename) {
+    FutureTask<RenameMap> renameMap =
+        new FutureTask<>(
+            new Callable<RenameMap>() {
+              @Override
+              public RenameMap call() throws IOException {
+                return getRenameMap(inputFilename);
+              }
+            });
+    Thread loader = new Thread(renameMap, "PolymerRenamer property map loader");
+    loader.setDaemon(true);
+    loader.start();
+    return renameMap;
+  }
+
+  /**
+   * Parses a text property map of symbol:renamed lines.
+   *
+   * @param inputFilename The property map file.
+   * @return An unmodifiable mapping from symbol to renamed symbol.
+   * @throws IOException if the file can't be read or repeats a symbol.
+   */
+  static Map<String, String> parseRenameMap(String inputFilename) throws IOException {
+    return RenameMapParser.parse(
+        Paths.get(inputFilename), Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Returns true if the renamer knows how to rename the file based off of its name. */
+  static boolean isRenameableFile(String inputFilename) {
+    return inputFilename.endsWith("html") || inputFilename.endsWith("js");
+  }
+
+  /**
+   * Prepares the content of an HTML or JS file for renaming, picking the renamer from the file
+   * name. Files that can't reference a symbol of a prefiltered rename map aren't parsed.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param inputFilename The name of the file being renamed.
+   * @param inputFileContent The content of the file being renamed.
+   * @param outputFormat The JavaScript output format options.
+   * @param htmlOutputFormat The HTML output format options.
+   * @param inputSourceMapContent The content of the input sourcemap. Can be null.
+   * @param outputSourceMapFilename The name of the output sourcemap. Can be null.
+   * @return The content to rename with renameMap, or null if the file is neither HTML nor JS.
+   * @throws JavaScriptParsingException if parse errors were encountered.
+   */
+  static ParsedInput prepareFileContent(
+      RenameMap renameMap,
+      String inputFilename,
+      String inputFileContent,
+      ImmutableSet<JsRenamer.OutputFormat> outputFormat,
+      ImmutableSet<HtmlRenamer.OutputFormat> htmlOutputFormat,
+      String inputSourceMapContent,
+      String outputSourceMapFilename)
+      throws JavaScriptParsingException {
+    if (isUnaffectedFile(renameMap, inputFilename, inputFileContent, inputSourceMapContent)) {
+      return unchanged(inputFileContent);
+    }
+    return parseFileContent(
+        inputFilename,
+        inputFileContent,
+        outputFormat,
+        htmlOutputFormat,
+        inputSourceMapContent,
+        outputSourceMapFilename,
+        1,
+        0,
+        1);
+  }
+
+  /** Returns content that is passed through as it is. */
+  private static ParsedInput unchanged(final String inputFileContent) {
+    return new ParsedInput() {
+      @Override
+      public void rename(RenameMap renameMap, Appendable output) throws IOException {
+        output.append(inputFileContent);
+      }
+    };
+  }
+
+  /**
+   * Returns true if a renameable file can't reference any symbol of a prefiltered rename map, so
+   * that it can be passed through without being parsed.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param inputFilename The name of the file being renamed.
+   * @param inputFileContent The content of the file being renamed.
+   * @param inputSourceMapContent The content of the input sourcemap. Can be null.
+   */
+  private static boolean isUnaffectedFile(
+      RenameMap renameMap,
+      String inputFilename,
+      String inputFileContent,
+      String inputSourceMapContent) {
+    if (!isRenameableFile(inputFilename) || inputSourceMapContent != null) {
+      // Renaming with sourcemaps always writes an output sourcemap.
+      return false;
+    }
+    if (inputFilename.endsWith("html") && inputFileContent.indexOf('&') >= 0) {
+      // Character references can spell out symbols. Their decoded text is prefiltered instead.
+      return false;
     }
+    return !renameMap.mayReferenceSymbol(inputFileContent);
   }
 
-  private static ImmutableMap<String, String> getRenameMap(String inputFilename)
-      throws FileNotFoundException {
-    try (Scanner s = new Scanner(new File(inputFilename))) {
-      ImmutableMap.Builder<String, String> renameMapBuilder = ImmutableMap.builder();
-      while (s.hasNextLine()) {
-        String line = s.nextLine();
-        String[] components = line.split(":");
-        if (components.length == 2) {
-          renameMapBuilder.put(components[0], components[1]);
+  /**
+   * Parses the content of an HTML or JS file so that it can be renamed once the rename map is
+   * available.
+   *
+   * @param inputFilename The name of the file being renamed.
+   * @param inputFileContent The content of the file being renamed.
+   * @param outputFormat The JavaScript output format options.
+   * @param htmlOutputFormat The HTML output format options.
+   * @param inputSourceMapContent The content of the input sourcemap. Can be null.
+   * @param outputSourceMapFilename The name of the output sourcemap. Can be null.
+   * @param htmlParallelism The number of inline scripts and databinding expressions of a parsed
+   *     HTML document to rename concurrently.
+   * @param jsSegmentSize The number of characters after which a JS file is split into segments
+   *     that are parsed and renamed concurrently, or 0 to parse it as a whole.
+   * @param jsParallelism The number of segments of a JS file to parse and rename concurrently.
+   * @return The parsed content, or null if the file is neither HTML nor JS.
+   * @throws JavaScriptParsingException if parse errors were encountered.
+   */
+  static ParsedInput parseFileContent(
+      final String inputFilename,
+      final String inputFileContent,
+      final ImmutableSet<JsRenamer.OutputFormat> outputFormat,
+      ImmutableSet<HtmlRenamer.OutputFormat> htmlOutputFormat,
+      final String inputSourceMapContent,
+      final String outputSourceMapFilename,
+      final int htmlParallelism,
+      int jsSegmentSize,
+      final int jsParallelism)
+      throws JavaScriptParsingException {
+    if (inputFilename.endsWith("html")) {
+      if (htmlOutputFormat.contains(HtmlRenamer.OutputFormat.PRESERVE_SOURCE)) {
+        // Source preserving renames scan the document as they rename it.
+        final ImmutableSet<HtmlRenamer.OutputFormat> preserveSource = htmlOutputFormat;
+        return new ParsedInput() {
+          @Override
+          public void rename(RenameMap renameMap, Appendable output) throws IOException {
+            HtmlRenamer.rename(renameMap, inputFileContent, preserveSource, output);
+          }
+        };
+      }
+      final Document document = HtmlRenamer.parseDocument(inputFileContent);
+      return new ParsedInput() {
+        @Override
+        public void rename(RenameMap renameMap, Appendable output) throws IOException {
+          // jsoup only prints documents to a String.
+          output.append(HtmlRenamer.renameDocument(renameMap, document, htmlParallelism));
         }
+      };
+    } else if (inputFilename.endsWith("js")) {
+      final List<Node> segments =
+          parseSegments(
+              inputFilename, inputFileContent, outputFormat, jsSegmentSize, jsParallelism);
+      if (segments != null) {
+        return new ParsedInput() {
+          @Override
+          public void rename(RenameMap renameMap, Appendable output) throws IOException {
+            JsRenamer.renameScriptSegments(
+                renameMap,
+                segments,
+                outputFormat,
+                inputFilename,
+                inputSourceMapContent,
+                outputSourceMapFilename,
+                jsParallelism,
+                output);
+          }
+        };
+      }
+      final Node jsAst = JsRenamer.parseScript(inputFileContent, inputFilename);
+      return new ParsedInput() {
+        @Override
+        public void rename(RenameMap renameMap, Appendable output) throws IOException {
+          JsRenamer.renameScript(
+              renameMap,
+              inputFileContent,
+              jsAst,
+              outputFormat,
+              inputFilename,
+              inputSourceMapContent,
+              outputSourceMapFilename,
+              output);
+        }
+      };
+    }
+    return null;
+  }
+
+  /**
+   * Splits a JS file into segments and parses them concurrently.
+   *
+   * @return The parsed segments, or null if the file is to be parsed as a whole, which it is when
+   *     it isn't split or a segment fails to parse.
+   */
+  private static List<Node> parseSegments(
+      String inputFilename,
+      String inputFileContent,
+      ImmutableSet<JsRenamer.OutputFormat> outputFormat,
+      int jsSegmentSize,
+      int jsParallelism) {
+    if (jsSegmentSize <= 0 || outputFormat.contains(JsRenamer.OutputFormat.PRESERVE_SOURCE)) {
+      return null;
+    }
+    List<Integer> segmentStarts = JsSegmenter.split(inputFileContent, jsSegmentSize);
+    if (segmentStarts.size() < 2) {
+      return null;
+    }
+    try {
+      return JsRenamer.parseScriptSegments(
+          inputFileContent, inputFilename, segmentStarts, jsParallelism);
+    } catch (JavaScriptParsingException e) {
+      // Parsing the whole file reports the error, if the file has one rather than a misplaced
+      // segment boundary.
+      return null;
+    }
+  }
+
+  /**
+   * Waits for a property map loaded by {@link #getRenameMapAsync}, reporting failures to stderr.
+   *
+   * @param renameMap The rename map being loaded.
+   * @param propertyMapFilename The property map file, for error messages.
+   * @return The rename map, or null if it couldn't be loaded.
+   */
+  private static RenameMap awaitRenameMap(Future<RenameMap> renameMap, String propertyMapFilename) {
+    try {
+      return renameMap.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      if (!(e.getCause() instanceof IOException)) {
+        throw new IllegalStateException(e.getCause());
       }
-      return renameMapBuilder.build();
+      System.err.println("Unable to read property map file: " + propertyMapFilename);
+      System.err.println(e.getCause().getMessage());
     }
+    return null;
+  }
+
+  static void printUsage(CmdLineParser parser, String message) {
+    System.out.println(message);
+    System.out.println();
+    System.out.println("The Polymer Renamer");
+    System.out.println("Arguments:");
+    parser.printUsage(System.out);
   }
 
   /** Invokes the Polymer Property Renamer. */
@@ -81,62 +596,625 @@ public final class PolymerRenamer {
     try {
       parser.parseArgument(args);
     } catch (CmdLineException e) {
-      System.out.println(e.getLocalizedMessage());
-      System.out.println();
-      System.out.println("The Polymer Renamer");
-      System.out.println("Arguments:");
-      parser.printUsage(System.out);
+      printUsage(parser, e.getLocalizedMessage());
+      return;
+    }
+
+    if (renamerArgs.persistentWorker) {
+      PersistentWorker.main();
+      return;
+    }
+
+    String validationError = renamerArgs.validate();
+    if (validationError != null) {
+      printUsage(parser, validationError);
       return;
     }
 
-    ImmutableMap<String, String> renameMap;
+    if (renamerArgs.compilePropertyMap != null) {
+      int exitCode = compilePropertyMap(renamerArgs);
+      if (exitCode != 0) {
+        System.exit(exitCode);
+      }
+      return;
+    }
+
+    if (renamerArgs.watch) {
+      int exitCode = watch(renamerArgs);
+      if (exitCode != 0) {
+        System.exit(exitCode);
+      }
+      return;
+    }
+
+    // The property map loads while the input is read and parsed.
+    Future<RenameMap> renameMap = getRenameMapAsync(renamerArgs.propertyMapFilename);
+    int exitCode = run(renamerArgs, renameMap, null, System.out);
+    if (exitCode != 0) {
+      System.exit(exitCode);
+    }
+  }
+
+  /**
+   * Compiles the text property map of validated arguments into a binary property map.
+   *
+   * @param renamerArgs The validated arguments, which specify --compilePropertyMap.
+   * @return The process exit code.
+   */
+  static int compilePropertyMap(Args renamerArgs) {
+    Map<String, String> renameMap;
     try {
-      renameMap = getRenameMap(renamerArgs.propertyMapFilename);
-    } catch (FileNotFoundException e) {
+      renameMap = parseRenameMap(renamerArgs.propertyMapFilename);
+    } catch (IOException e) {
       System.err.println("Unable to read property map file: " + renamerArgs.propertyMapFilename);
-      return;
+      System.err.println(e.getMessage());
+      return 1;
+    }
+    try {
+      BinaryRenameMap.write(renameMap, Paths.get(renamerArgs.compilePropertyMap));
+    } catch (IOException | IllegalArgumentException e) {
+      System.err.println("Unable to write binary property map: " + e.getMessage());
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * Performs the rename described by validated arguments.
+   *
+   * @param renamerArgs The validated arguments.
+   * @param renameMapFuture The rename map being loaded from the arguments' property map. It is
+   *     only waited for once the input has been read, and then parsed unless renames are cached
+   *     or prefiltered.
+   * @param inputFileContent The content of the input file, or null to read it from disk.
+   * @param out Where the renamed output is printed when no output file is specified.
+   * @return The process exit code.
+   */
+  static int run(
+      Args renamerArgs,
+      Future<RenameMap> renameMapFuture,
+      String inputFileContent,
+      PrintStream out) {
+    return run(renamerArgs, renameMapFuture, inputFileContent, out, null, null);
+  }
+
+  /**
+   * Performs the rename described by validated arguments.
+   *
+   * @param renamerArgs The validated arguments.
+   * @param renameMapFuture The rename map being loaded from the arguments' property map. It is
+   *     only waited for once the input has been read, and then parsed unless renames are cached
+   *     or prefiltered.
+   * @param inputFileContent The content of the input file, or null to read it from disk.
+   * @param out Where the renamed output is printed when no output file is specified.
+   * @param inputFiles The input files to rename in batch mode, or null to rename every input file
+   *     of the arguments.
+   * @param pool The pool batch mode renames files on, or null to create one for the batch.
+   * @return The process exit code.
+   */
+  static int run(
+      Args renamerArgs,
+      Future<RenameMap> renameMapFuture,
+      String inputFileContent,
+      PrintStream out,
+      List<Path> inputFiles,
+      ForkJoinPool pool) {
+    // The expression cache is kept when it already has the requested size, such as when renaming
+    // again in --watch mode.
+    if (renamerArgs.expressionCacheSize >= 0
+        && renamerArgs.expressionCacheSize != JsRenamer.getExpressionCacheSize()) {
+      JsRenamer.setExpressionCacheSize(renamerArgs.expressionCacheSize);
+    }
+
+    ImmutableSet.Builder<JsRenamer.OutputFormat> outputFormatBuilder = ImmutableSet.builder();
+    if (renamerArgs.prettyPrint) {
+      outputFormatBuilder.add(JsRenamer.OutputFormat.PRETTY);
+    }
+    if (renamerArgs.jsPreserveSource) {
+      outputFormatBuilder.add(JsRenamer.OutputFormat.PRESERVE_SOURCE);
+    }
+    ImmutableSet<JsRenamer.OutputFormat> outputFormat = outputFormatBuilder.build();
+    ImmutableSet<HtmlRenamer.OutputFormat> htmlOutputFormat =
+        renamerArgs.htmlPreserveSource
+            ? ImmutableSet.<HtmlRenamer.OutputFormat>of(HtmlRenamer.OutputFormat.PRESERVE_SOURCE)
+            : ImmutableSet.<HtmlRenamer.OutputFormat>of();
+
+    Diagnostics.Sink diagnosticsSink;
+    try {
+      diagnosticsSink =
+          renamerArgs.diagnosticsOutput == null
+              ? Diagnostics.newTextSink()
+              : Diagnostics.newJsonLinesSink(Paths.get(renamerArgs.diagnosticsOutput));
+    } catch (IOException e) {
+      System.err.println("Unable to write diagnostics: " + e);
+      return 1;
+    }
+    Diagnostics diagnostics =
+        Diagnostics.start(diagnosticsSink, renamerArgs.maxDiagnosticsPerCategory);
+    RenameMetrics metrics = RenameMetrics.start(renamerArgs.metricsOutput != null);
+    int exitCode;
+    if (renamerArgs.inputFilename == null) {
+      exitCode =
+          renameBatch(
+              renamerArgs,
+              renameMapFuture,
+              inputFiles,
+              pool,
+              outputFormat,
+              htmlOutputFormat,
+              metrics,
+              diagnostics);
+    } else {
+      RenameMetrics.Scope file = RenameMetrics.startFile(metrics, renamerArgs.inputFilename);
+      Diagnostics.Scope fileDiagnostics =
+          Diagnostics.startFile(diagnostics, renamerArgs.inputFilename);
+      try {
+        exitCode =
+            renameInputFile(
+                renamerArgs,
+                renameMapFuture,
+                inputFileContent,
+                out,
+                outputFormat,
+                htmlOutputFormat);
+      } finally {
+        fileDiagnostics.close();
+        file.close();
+      }
+    }
+
+    try {
+      diagnostics.finish();
+    } catch (IOException e) {
+      System.err.println("Unable to write diagnostics: " + e);
+      exitCode = 1;
+    }
+    if (renamerArgs.metricsOutput != null) {
+      try {
+        metrics.writeReport(Paths.get(renamerArgs.metricsOutput));
+      } catch (IOException e) {
+        System.err.println("Unable to write metrics: " + e);
+        return 1;
+      }
+    }
+    return exitCode;
+  }
+
+  /**
+   * Renames the input files of validated arguments in batch mode.
+   *
+   * @param renamerArgs The validated arguments, which specify --inputDir or --inputManifest.
+   * @param renameMapFuture The rename map being loaded from the arguments' property map.
+   * @param inputFiles The input files to rename, or null to rename every input file of the
+   *     arguments. The incremental index keeps the entries of the other input files.
+   * @param pool The pool files are renamed on, or null to create one for the batch.
+   * @param outputFormat The JavaScript output format options.
+   * @param htmlOutputFormat The HTML output format options.
+   * @param metrics The measurements of the run. Can be null.
+   * @param diagnostics The warnings and errors of the run.
+   * @return The process exit code.
+   */
+  private static int renameBatch(
+      Args renamerArgs,
+      Future<RenameMap> renameMapFuture,
+      List<Path> inputFiles,
+      ForkJoinPool pool,
+      ImmutableSet<JsRenamer.OutputFormat> outputFormat,
+      ImmutableSet<HtmlRenamer.OutputFormat> htmlOutputFormat,
+      RenameMetrics metrics,
+      Diagnostics diagnostics) {
+    Path inputDir = getInputDir(renamerArgs);
+    boolean allInputFiles = inputFiles == null;
+    if (allInputFiles) {
+      try {
+        inputFiles = listInputFiles(renamerArgs);
+      } catch (IOException e) {
+        System.err.println("Unable to list input files: " + e);
+        return 1;
+      }
+    }
+    IncrementalIndex incrementalIndex = null;
+    if (renamerArgs.incrementalIndex != null) {
+      // Prefiltered outputs of inputs without renamed symbols keep their formatting.
+      String options =
+          outputFormat + " " + htmlOutputFormat + (renamerArgs.prefilter ? " prefilter" : "");
+      Diagnostics.Scope indexDiagnostics =
+          Diagnostics.startFile(diagnostics, renamerArgs.incrementalIndex);
+      try {
+        incrementalIndex = IncrementalIndex.load(Paths.get(renamerArgs.incrementalIndex), options);
+      } catch (IOException e) {
+        System.err.println("Unable to read incremental index: " + e);
+        return 1;
+      } finally {
+        indexDiagnostics.close();
+      }
+    }
+    RenameMap renameMap = awaitRenameMap(renameMapFuture, renamerArgs.propertyMapFilename);
+    if (renameMap == null) {
+      return 1;
+    }
+    ResultCache resultCache = openResultCache(renamerArgs, renameMap);
+    if (renamerArgs.prefilter) {
+      renameMap = renameMap.withPrefilter();
+    }
+    BatchRenamer batchRenamer =
+        new BatchRenamer(
+            renameMap,
+            outputFormat,
+            htmlOutputFormat,
+            inputDir,
+            Paths.get(renamerArgs.outputDir),
+            resultCache,
+            incrementalIndex,
+            metrics,
+            diagnostics);
+    int failures =
+        pool == null
+            ? batchRenamer.renameAll(inputFiles, renamerArgs.threads)
+            : batchRenamer.renameAll(inputFiles, pool);
+    trimResultCache(resultCache);
+    if (incrementalIndex != null) {
+      if (!allInputFiles) {
+        incrementalIndex.keepPreviousOutputs();
+      }
+      try {
+        incrementalIndex.save();
+      } catch (IOException e) {
+        System.err.println("Unable to write incremental index: " + e);
+        failures++;
+      }
+    }
+    return failures > 0 ? 1 : 0;
+  }
+
+  private static Path getInputDir(Args renamerArgs) {
+    return Paths.get(renamerArgs.inputDir == null ? "" : renamerArgs.inputDir);
+  }
+
+  /** Lists the input files of validated arguments that specify batch mode. */
+  private static List<Path> listInputFiles(Args renamerArgs) throws IOException {
+    Path inputDir = getInputDir(renamerArgs);
+    return renamerArgs.inputManifest != null
+        ? BatchRenamer.readManifest(inputDir, Paths.get(renamerArgs.inputManifest))
+        : BatchRenamer.findInputFiles(inputDir, renamerArgs.inputGlob);
+  }
+
+  /**
+   * Renames the inputs of validated arguments, and then renames them again whenever they change
+   * until interrupted. Only the changed files of batch mode are renamed again, unless the property
+   * map or the manifest changed. The property map is only loaded again once it changes, and the
+   * threads renaming files are reused between renames.
+   *
+   * @param renamerArgs The validated arguments, which specify --watch.
+   * @return The process exit code.
+   */
+  static int watch(Args renamerArgs) {
+    Path propertyMapFile = normalize(Paths.get(renamerArgs.propertyMapFilename));
+    Path inputDir = getInputDir(renamerArgs);
+    Path absoluteInputDir = normalize(inputDir);
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, renamerArgs.threads));
+    try (InputWatcher watcher = new InputWatcher(renamerArgs.watchDelay)) {
+      // Changes to these files rename every input again.
+      Set<Path> renameAllFiles = new HashSet<>();
+      renameAllFiles.add(propertyMapFile);
+      if (renamerArgs.inputFilename != null) {
+        renameAllFiles.add(normalize(Paths.get(renamerArgs.inputFilename)));
+        if (renamerArgs.inputSourceMapFilename != null) {
+          renameAllFiles.add(normalize(Paths.get(renamerArgs.inputSourceMapFilename)));
+        }
+      } else if (renamerArgs.inputManifest != null) {
+        renameAllFiles.add(normalize(Paths.get(renamerArgs.inputManifest)));
+      } else {
+        watcher.ignore(Paths.get(renamerArgs.outputDir));
+        watcher.watchTree(absoluteInputDir);
+        // Changes lost by the watcher are reported as the input directory itself.
+        renameAllFiles.add(absoluteInputDir);
+      }
+      for (Path file : renameAllFiles) {
+        if (!file.equals(absoluteInputDir)) {
+          watcher.watchFile(file);
+        }
+      }
+      PathMatcher inputFileMatcher =
+          BatchRenamer.newInputFileMatcher(absoluteInputDir, renamerArgs.inputGlob);
+      // The input files of the manifest, keyed by their normalized path.
+      Map<Path, Path> manifestInputFiles = new HashMap<>();
+
+      RenameMap renameMap = null;
+      boolean renameMapChanged = true;
+      List<Path> changedInputFiles = null;
+      while (true) {
+        if (renameMapChanged) {
+          try {
+            renameMap = getRenameMap(renamerArgs.propertyMapFilename);
+          } catch (IOException e) {
+            // Renaming resumes once the property map changes again.
+            System.err.println(
+                "Unable to read property map file: " + renamerArgs.propertyMapFilename);
+            renameMap = null;
+          }
+        }
+        if (renamerArgs.inputManifest != null && changedInputFiles == null) {
+          watchManifest(renamerArgs, watcher, manifestInputFiles);
+        }
+        if (renameMap != null && (changedInputFiles == null || !changedInputFiles.isEmpty())) {
+          run(
+              renamerArgs,
+              Futures.immediateFuture(renameMap),
+              null,
+              System.out,
+              changedInputFiles,
+              renamerArgs.inputFilename == null ? pool : null);
+        }
+
+        Set<Path> changes = watcher.awaitChanges();
+        if (changes == null) {
+          return 0;
+        }
+        renameMapChanged = changes.contains(propertyMapFile);
+        if (!Collections.disjoint(changes, renameAllFiles)) {
+          changedInputFiles = null;
+        } else {
+          changedInputFiles = new ArrayList<>();
+          for (Path change : changes) {
+            if (renamerArgs.inputManifest != null) {
+              if (manifestInputFiles.containsKey(change) && Files.isRegularFile(change)) {
+                changedInputFiles.add(manifestInputFiles.get(change));
+              }
+            } else if (Files.isRegularFile(change) && inputFileMatcher.matches(change)) {
+              // Keeps the input files relative to the input directory as given.
+              changedInputFiles.add(inputDir.resolve(absoluteInputDir.relativize(change)));
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("Unable to watch input files: " + e);
+      return 1;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 0;
+    } finally {
+      pool.shutdown();
     }
+  }
 
-    String inputFileContent;
+  /**
+   * Watches the input files listed by the manifest of validated arguments.
+   *
+   * @param manifestInputFiles Replaced with the input files of the manifest, keyed by their
+   *     normalized path.
+   */
+  private static void watchManifest(
+      Args renamerArgs, InputWatcher watcher, Map<Path, Path> manifestInputFiles) {
+    List<Path> inputFiles;
     try {
-      inputFileContent = getFileContent(renamerArgs.inputFilename);
-    } catch (FileNotFoundException e) {
-      System.err.println("Unable to read input file: " + renamerArgs.inputFilename);
+      inputFiles = listInputFiles(renamerArgs);
+    } catch (IOException e) {
+      // The rename reports the manifest can't be read.
       return;
     }
+    // Files dropped from the manifest are still watched, but their changes are ignored.
+    manifestInputFiles.clear();
+    for (Path inputFile : inputFiles) {
+      try {
+        watcher.watchFile(inputFile);
+        manifestInputFiles.put(normalize(inputFile), inputFile);
+      } catch (IOException e) {
+        System.err.println("Unable to watch " + inputFile + ": " + e);
+      }
+    }
+  }
+
+  private static Path normalize(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+
+  /**
+   * Renames the input file of validated arguments.
+   *
+   * @param renamerArgs The validated arguments, which specify --inputFilename.
+   * @param renameMapFuture The rename map being loaded from the arguments' property map.
+   * @param inputFileContent The content of the input file, or null to read it from disk.
+   * @param out Where the renamed output is printed when no output file is specified.
+   * @param outputFormat The JavaScript output format options.
+   * @param htmlOutputFormat The HTML output format options.
+   * @return The process exit code.
+   */
+  private static int renameInputFile(
+      Args renamerArgs,
+      Future<RenameMap> renameMapFuture,
+      String inputFileContent,
+      PrintStream out,
+      ImmutableSet<JsRenamer.OutputFormat> outputFormat,
+      ImmutableSet<HtmlRenamer.OutputFormat> htmlOutputFormat) {
+    if (inputFileContent == null) {
+      RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.READ);
+      try {
+        inputFileContent = getFileContent(renamerArgs.inputFilename);
+      } catch (IOException e) {
+        Diagnostics.report(
+            Diagnostics.Severity.ERROR,
+            Diagnostics.Category.FILE_IO_ERROR,
+            "Unable to read input file: " + renamerArgs.inputFilename);
+        return 1;
+      } finally {
+        phase.close();
+      }
+    }
+    RenameMetrics.recordInput(inputFileContent);
 
-    if (renamerArgs.inputFilename.endsWith("html")) {
-      System.out.print(HtmlRenamer.rename(renameMap, inputFileContent));
-    } else if (renamerArgs.inputFilename.endsWith("js")) {
-      String inputSourceMapContent = null;
-      if (renamerArgs.inputSourceMapFilename != null) {
-        try {
-          inputSourceMapContent = getFileContent(renamerArgs.inputSourceMapFilename);
-        } catch (FileNotFoundException e) {
-          System.err.println(
-              "Unable to read input sourcemap: " + renamerArgs.inputSourceMapFilename);
-          return;
+    String inputSourceMapContent = null;
+    if (renamerArgs.inputSourceMapFilename != null) {
+      RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.READ);
+      try {
+        inputSourceMapContent = getFileContent(renamerArgs.inputSourceMapFilename);
+      } catch (IOException e) {
+        Diagnostics.report(
+            Diagnostics.Severity.ERROR,
+            Diagnostics.Category.FILE_IO_ERROR,
+            "Unable to read input sourcemap: " + renamerArgs.inputSourceMapFilename);
+        return 1;
+      } finally {
+        phase.close();
+      }
+    }
+
+    Path outputFile =
+        renamerArgs.outputFilename == null ? null : Paths.get(renamerArgs.outputFilename);
+    Path outputSourceMapFile =
+        renamerArgs.inputSourceMapFilename == null
+            ? null
+            : Paths.get(renamerArgs.outputSourceMapFilename);
+    RenameMap renameMap = null;
+    if (renamerArgs.cacheDir != null || renamerArgs.prefilter) {
+      // Cached results are keyed by the content of the loaded rename map, and whether the input
+      // needs to be parsed at all is only known once the rename map is loaded.
+      renameMap = awaitRenameMap(renameMapFuture, renamerArgs.propertyMapFilename);
+      if (renameMap == null) {
+        return 1;
+      }
+    }
+    ResultCache resultCache = renameMap == null ? null : openResultCache(renamerArgs, renameMap);
+    String cacheKey = null;
+    if (resultCache != null) {
+      cacheKey =
+          resultCache.getKey(
+              renamerArgs.inputFilename,
+              inputFileContent,
+              outputFormat,
+              htmlOutputFormat,
+              inputSourceMapContent);
+      try {
+        if (resultCache.restore(cacheKey, outputFile, out, outputSourceMapFile)) {
+          return 0;
         }
+      } catch (IOException e) {
+        System.err.println("Unable to read result cache: " + e);
       }
+    }
+
+    if (renamerArgs.prefilter) {
+      renameMap = renameMap.withPrefilter();
+    }
 
+    ParsedInput parsedInput;
+    if (renamerArgs.prefilter
+        && isUnaffectedFile(
+            renameMap, renamerArgs.inputFilename, inputFileContent, inputSourceMapContent)) {
+      parsedInput = unchanged(inputFileContent);
+    } else {
       try {
-        ImmutableSet<JsRenamer.OutputFormat> outputFormat =
-            renamerArgs.prettyPrint
-                ? ImmutableSet.<JsRenamer.OutputFormat>of(JsRenamer.OutputFormat.PRETTY)
-                : ImmutableSet.<JsRenamer.OutputFormat>of();
-        System.out.print(
-            JsRenamer.rename(
-                renameMap,
+        parsedInput =
+            parseFileContent(
+                renamerArgs.inputFilename,
                 inputFileContent,
                 outputFormat,
-                renamerArgs.inputFilename,
+                htmlOutputFormat,
                 inputSourceMapContent,
-                renamerArgs.outputSourceMapFilename));
+                renamerArgs.outputSourceMapFilename,
+                renamerArgs.htmlThreads,
+                renamerArgs.jsSegmentSize,
+                renamerArgs.jsThreads);
       } catch (JavaScriptParsingException e) {
-        System.err.printf("Error encountered parsing %s.%n", renamerArgs.inputFilename);
-        System.err.println(e);
-        System.exit(1);
+        Diagnostics.report(
+            Diagnostics.Severity.ERROR,
+            Diagnostics.Category.FILE_PARSE_ERROR,
+            String.format("Error encountered parsing %s.%n%s", renamerArgs.inputFilename, e));
+        return 1;
+      }
+
+      if (renameMap == null) {
+        renameMap = awaitRenameMap(renameMapFuture, renamerArgs.propertyMapFilename);
+        if (renameMap == null) {
+          return 1;
+        }
+      }
+      if (parsedInput == null) {
+        return 0;
+      }
+    }
+
+    // The output is renamed straight into the output file or stdout. Only output printed to stdout
+    // is kept for the result cache, which otherwise copies the output file.
+    String renamed = null;
+    RenameMetrics.Scope phase = RenameMetrics.phase(RenameMetrics.Phase.WRITE);
+    try {
+      OutputWriter output =
+          outputFile != null ? OutputWriter.create(outputFile) : OutputWriter.wrap(out);
+      try {
+        if (outputFile == null && cacheKey != null) {
+          StringBuilder renamedOutput = new StringBuilder(inputFileContent.length());
+          parsedInput.rename(renameMap, renamedOutput);
+          renamed = renamedOutput.toString();
+          output.write(renamed);
+        } else {
+          parsedInput.rename(renameMap, output);
+        }
+        if (outputFile != null) {
+          output.commit();
+        }
+      } finally {
+        output.close();
+      }
+      RenameMetrics.recordOutput(output.size());
+    } catch (IOException e) {
+      Diagnostics.report(
+          Diagnostics.Severity.ERROR,
+          Diagnostics.Category.FILE_IO_ERROR,
+          "Unable to write output file: " + renamerArgs.outputFilename);
+      return 1;
+    } finally {
+      phase.close();
+    }
+
+    if (cacheKey != null) {
+      try {
+        if (renamed != null) {
+          resultCache.put(cacheKey, renamed, outputSourceMapFile);
+        } else {
+          resultCache.putFile(cacheKey, outputFile, outputSourceMapFile);
+        }
+      } catch (IOException e) {
+        System.err.println("Unable to update result cache: " + e);
       }
+      trimResultCache(resultCache);
+    }
+    return 0;
+  }
+
+  /**
+   * Opens the result cache requested by validated arguments, reporting failures to stderr.
+   *
+   * @param renamerArgs The validated arguments.
+   * @param renameMap The rename map loaded from the arguments' property map, whose content the
+   *     cached results are keyed by.
+   * @return The result cache, or null if renames aren't cached.
+   */
+  private static ResultCache openResultCache(Args renamerArgs, RenameMap renameMap) {
+    if (renamerArgs.cacheDir == null) {
+      return null;
+    }
+    try {
+      return ResultCache.open(
+          Paths.get(renamerArgs.cacheDir),
+          renamerArgs.cacheSize,
+          renameMap.getContentDigest(),
+          renamerArgs.prefilter);
+    } catch (IOException | IllegalArgumentException e) {
+      System.err.println("Unable to open result cache, renaming without it: " + e);
+      return null;
+    }
+  }
+
+  private static void trimResultCache(ResultCache resultCache) {
+    if (resultCache == null) {
+      return;
+    }
+    try {
+      resultCache.trim();
+    } catch (IOException e) {
+      System.err.println("Unable to trim result cache: " + e);
     }
   }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A rename map that remembers every symbol looked up in it, whether or not the symbol is renamed.
+ * Renaming a file against a recording map yields the symbols whose entries in the property map the
+ * output depends on. Recording maps never prefilter, since text passed through unparsed would
+ * leave the symbols it looks up unrecorded.
+ */
+final class RecordingRenameMap extends RenameMap {
+  private final RenameMap renameMap;
+  private final Set<String> symbols =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * Constructs a RecordingRenameMap.
+   *
+   * @param renameMap The rename map lookups are delegated to.
+   */
+  RecordingRenameMap(RenameMap renameMap) {
+    this.renameMap = Preconditions.checkNotNull(renameMap);
+  }
+
+  @Override
+  public String get(String symbol) {
+    symbols.add(symbol);
+    return renameMap.get(symbol);
+  }
+
+  @Override
+  long getCacheId() {
+    // Results cached against the recorded rename map are shared by every recording of it.
+    return renameMap.getCacheId();
+  }
+
+  @Override
+  byte[] getContentDigest() {
+    return renameMap.getContentDigest();
+  }
+
+  @Override
+  public int size() {
+    return renameMap.size();
+  }
+
+  @Override
+  Iterable<String> symbols() {
+    return renameMap.symbols();
+  }
+
+  @Override
+  RenameMap withPrefilter() {
+    return this;
+  }
+
+  /** Returns the rename map lookups are delegated to. */
+  RenameMap getRenameMap() {
+    return renameMap;
+  }
+
+  /**
+   * Records symbols looked up while computing a result cached against the recorded rename map.
+   *
+   * @param lookedUpSymbols The symbols looked up while computing the result.
+   */
+  void record(Iterable<String> lookedUpSymbols) {
+    for (String symbol : lookedUpSymbols) {
+      symbols.add(symbol);
+    }
+  }
+
+  /** Returns the symbols looked up so far. */
+  ImmutableSet<String> getLookedUpSymbols() {
+    return ImmutableSet.copyOf(symbols);
+  }
+}
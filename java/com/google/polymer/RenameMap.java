@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.base.CaseFormat;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-only mapping from symbol to renamed symbol. Rename maps are compared by identity, so
+ * results computed against one rename map are never reused for another.
+ *
+ * <p>Besides symbols, rename maps look up slices of text without copying them into a String,
+ * Polymer property changed names, and the hyphen-case attribute keys of properties. Renamed
+ * symbols are returned as the same String instances every time.
+ */
+public abstract class RenameMap {
+
+  // Polymer property change name string suffix.
+  static final String CHANGED_SUFFIX = "Changed";
+
+  // The number of attribute keys whose renamed key is remembered. Documents repeat the same few
+  // attribute keys, so this only bounds the memory of a long running worker.
+  private static final int MAX_ATTRIBUTE_KEYS = 10000;
+
+  // Remembered for attribute keys that aren't renamed. Compared by identity.
+  private static final String NOT_RENAMED = new String();
+
+  // The rename maps of the immutable maps passed to of(), so that callers passing the same map for
+  // every rename share one rename map and the results cached against it. Keyed by identity.
+  private static final LoadingCache<ImmutableMap<String, String>, RenameMap> adaptedMaps =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(
+              new CacheLoader<ImmutableMap<String, String>, RenameMap>() {
+                @Override
+                public RenameMap load(ImmutableMap<String, String> renameMap) {
+                  return new MapRenameMap(renameMap, null);
+                }
+              });
+
+  // The cache id of the next rename map.
+  private static final AtomicLong nextCacheId = new AtomicLong();
+
+  // Identifies the rename map in caches without keeping it reachable.
+  private final long cacheId = nextCacheId.getAndIncrement();
+
+  // Built on first use, so that cached rename maps keep their prefilter between renames.
+  private volatile RenameMap prefiltered;
+
+  // The renamed key of each attribute key looked up so far, or NOT_RENAMED.
+  private final ConcurrentHashMap<String, String> attributeKeys = new ConcurrentHashMap<>();
+
+  RenameMap() {}
+
+  /**
+   * Returns a rename map backed by an in-memory map. The same map always returns the same rename
+   * map.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   */
+  public static RenameMap of(ImmutableMap<String, String> renameMap) {
+    return adaptedMaps.getUnchecked(Preconditions.checkNotNull(renameMap));
+  }
+
+  /**
+   * Returns a rename map backed by a map that is never modified again.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   */
+  static RenameMap ofUnmodifiable(Map<String, String> renameMap) {
+    return new MapRenameMap(renameMap, null);
+  }
+
+  /**
+   * Returns a rename map backed by a map that is never modified again, parsed from a property map.
+   *
+   * @param renameMap A mapping from symbol to renamed symbol.
+   * @param contentDigest The SHA-256 digest of the property map content the map was parsed from.
+   */
+  static RenameMap ofUnmodifiable(Map<String, String> renameMap, byte[] contentDigest) {
+    return new MapRenameMap(renameMap, Preconditions.checkNotNull(contentDigest));
+  }
+
+  /**
+   * Returns the renamed symbol, or null if the symbol isn't renamed.
+   *
+   * @param symbol The symbol to look up.
+   */
+  public abstract String get(String symbol);
+
+  /**
+   * Returns true if the symbol is renamed.
+   *
+   * @param symbol The symbol to look up.
+   */
+  public boolean containsKey(String symbol) {
+    return get(symbol) != null;
+  }
+
+  /**
+   * Returns the renamed symbol of a slice of text, or null if the slice isn't a renamed symbol.
+   *
+   * @param text The text containing the symbol.
+   * @param start The offset the symbol starts at.
+   * @param end The offset the symbol ends at.
+   */
+  String get(CharSequence text, int start, int end) {
+    return get(text.subSequence(start, end).toString());
+  }
+
+  /**
+   * Returns the renamed name of a Polymer property changed name, which is the name of a renamed
+   * property followed by "Changed", or null if the slice isn't one.
+   *
+   * @param text The text containing the name.
+   * @param start The offset the name starts at.
+   * @param end The offset the name ends at.
+   */
+  String getChanged(CharSequence text, int start, int end) {
+    int basenameEnd = end - CHANGED_SUFFIX.length();
+    if (basenameEnd < start || !regionMatches(text, basenameEnd, CHANGED_SUFFIX)) {
+      return null;
+    }
+    String renamedBasename = get(text, start, basenameEnd);
+    return renamedBasename == null ? null : renamedBasename + CHANGED_SUFFIX;
+  }
+
+  /**
+   * Returns the renamed key of a hyphen-case attribute key whose camel-case property is renamed,
+   * or null if the property isn't renamed. The case conversions are made once per attribute key.
+   *
+   * @param key The lower case attribute key.
+   */
+  String getAttributeKey(String key) {
+    String renamedKey = attributeKeys.get(key);
+    if (renamedKey == null) {
+      String renamedProperty = get(CaseFormat.LOWER_HYPHEN.to(CaseFormat.LOWER_CAMEL, key));
+      renamedKey =
+          renamedProperty == null
+              ? NOT_RENAMED
+              : CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_HYPHEN, renamedProperty);
+      if (attributeKeys.size() < MAX_ATTRIBUTE_KEYS) {
+        attributeKeys.put(key, renamedKey);
+      }
+    }
+    return renamedKey == NOT_RENAMED ? null : renamedKey;
+  }
+
+  /**
+   * Returns the id results computed against this rename map are cached under. Unlike the rename
+   * map itself, the id doesn't keep the rename map in memory while results are cached. Rename maps
+   * that rename everything the way another rename map does may share its id.
+   */
+  long getCacheId() {
+    return cacheId;
+  }
+
+  /**
+   * Returns the SHA-256 digest of the property map content this rename map was loaded from, or
+   * null if it wasn't loaded from a property map. Results cached on disk are keyed by it, since it
+   * describes the renames actually in use even if the property map file has changed since.
+   */
+  byte[] getContentDigest() {
+    return null;
+  }
+
+  /** Returns the number of renamed symbols. */
+  public abstract int size();
+
+  /** Returns the renamed symbols. */
+  abstract Iterable<String> symbols();
+
+  /**
+   * Returns false if renaming the text against this rename map can't change it, letting renamers
+   * pass the text through without parsing it. Only prefiltered rename maps ever return false.
+   *
+   * @param text An HTML or JavaScript fragment.
+   */
+  boolean mayReferenceSymbol(CharSequence text) {
+    return true;
+  }
+
+  /**
+   * Returns a rename map with the same renames that checks text against a {@link SymbolPrefilter}
+   * of its symbols. Text without a match is passed through by renamers as it is instead of being
+   * parsed and printed again.
+   */
+  RenameMap withPrefilter() {
+    RenameMap result = prefiltered;
+    if (result == null) {
+      synchronized (this) {
+        result = prefiltered;
+        if (result == null) {
+          result = new PrefilteredRenameMap(this);
+          prefiltered = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Returns true if text contains a string at an offset. */
+  private static boolean regionMatches(CharSequence text, int offset, String string) {
+    if (offset < 0 || offset + string.length() > text.length()) {
+      return false;
+    }
+    for (int i = 0; i < string.length(); i++) {
+      if (text.charAt(offset + i) != string.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A rename map backed by an in-memory map, whose entries are copied into an open addressing hash
+   * table. Symbols are hashed like String.hashCode, so that slices of text are hashed without
+   * copying them and whole symbols reuse the hash their String has cached.
+   */
+  private static final class MapRenameMap extends RenameMap {
+    private final String[] keys;
+    private final String[] values;
+    // The renamed property changed name of each slot, filled in as they are looked up.
+    private final String[] changedValues;
+    private final int mask;
+    private final int size;
+    private final byte[] contentDigest;
+
+    private MapRenameMap(Map<String, String> renameMap, byte[] contentDigest) {
+      Preconditions.checkNotNull(renameMap);
+      this.contentDigest = contentDigest;
+      this.size = renameMap.size();
+      int capacity = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+      this.keys = new String[capacity];
+      this.values = new String[capacity];
+      this.changedValues = new String[capacity];
+      this.mask = capacity - 1;
+      for (Map.Entry<String, String> entry : renameMap.entrySet()) {
+        String key = entry.getKey();
+        int slot = key.hashCode() & mask;
+        while (keys[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = Preconditions.checkNotNull(entry.getValue());
+      }
+    }
+
+    @Override
+    public String get(String symbol) {
+      int slot = symbol.hashCode() & mask;
+      for (String key = keys[slot]; key != null; key = keys[slot]) {
+        if (key.equals(symbol)) {
+          return values[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      return null;
+    }
+
+    @Override
+    String get(CharSequence text, int start, int end) {
+      int slot = find(text, start, end);
+      return slot < 0 ? null : values[slot];
+    }
+
+    @Override
+    String getChanged(CharSequence text, int start, int end) {
+      int basenameEnd = end - CHANGED_SUFFIX.length();
+      if (basenameEnd < start || !regionMatches(text, basenameEnd, CHANGED_SUFFIX)) {
+        return null;
+      }
+      int slot = find(text, start, basenameEnd);
+      if (slot < 0) {
+        return null;
+      }
+      String changedValue = changedValues[slot];
+      if (changedValue == null) {
+        // Strings are safely published, so racing threads at worst build the name twice.
+        changedValue = values[slot] + CHANGED_SUFFIX;
+        changedValues[slot] = changedValue;
+      }
+      return changedValue;
+    }
+
+    /** Returns the slot of a slice of text, or -1 if it isn't a symbol. */
+    private int find(CharSequence text, int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + text.charAt(i);
+      }
+      int length = end - start;
+      int slot = hash & mask;
+      for (String key = keys[slot]; key != null; key = keys[slot]) {
+        if (key.length() == length && regionMatches(text, start, key)) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    Iterable<String> symbols() {
+      return Iterables.filter(Arrays.asList(keys), Predicates.notNull());
+    }
+
+    @Override
+    byte[] getContentDigest() {
+      return contentDigest;
+    }
+  }
+
+  /** A rename map that prefilters text with an automaton over the symbols of another. */
+  private static final class PrefilteredRenameMap extends RenameMap {
+    private final RenameMap renameMap;
+    private final SymbolPrefilter prefilter;
+
+    private PrefilteredRenameMap(RenameMap renameMap) {
+      this.renameMap = renameMap;
+      this.prefilter = SymbolPrefilter.build(renameMap.symbols());
+    }
+
+    @Override
+    public String get(String symbol) {
+      return renameMap.get(symbol);
+    }
+
+    @Override
+    String get(CharSequence text, int start, int end) {
+      return renameMap.get(text, start, end);
+    }
+
+    @Override
+    String getChanged(CharSequence text, int start, int end) {
+      return renameMap.getChanged(text, start, end);
+    }
+
+    @Override
+    String getAttributeKey(String key) {
+      return renameMap.getAttributeKey(key);
+    }
+
+    @Override
+    public int size() {
+      return renameMap.size();
+    }
+
+    @Override
+    Iterable<String> symbols() {
+      return renameMap.symbols();
+    }
+
+    @Override
+    byte[] getContentDigest() {
+      return renameMap.getContentDigest();
+    }
+
+    @Override
+    boolean mayReferenceSymbol(CharSequence text) {
+      return prefilter.matches(text);
+    }
+
+    @Override
+    RenameMap withPrefilter() {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps parsed property maps in memory so that long running processes only parse a property map
+ * again once the file changes. Entries are keyed by path and validated against the file's
+ * modification time and size.
+ */
+final class RenameMapCache {
+
+  /** A parsed property map along with the file attributes it was parsed from. */
+  private static final class CachedRenameMap {
+    private final FileTime lastModifiedTime;
+    private final long size;
+    private final RenameMap renameMap;
+
+    private CachedRenameMap(
+        FileTime lastModifiedTime, long size, RenameMap renameMap) {
+      this.lastModifiedTime = lastModifiedTime;
+      this.size = size;
+      this.renameMap = renameMap;
+    }
+  }
+
+  private final Map<Path, CachedRenameMap> entries;
+
+  /**
+   * Constructs a RenameMapCache.
+   *
+   * @param maximumSize The number of property maps to keep. The least recently used map is
+   *     dropped first.
+   */
+  RenameMapCache(final int maximumSize) {
+    this.entries =
+        new LinkedHashMap<Path, CachedRenameMap>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Path, CachedRenameMap> eldest) {
+            return size() > maximumSize;
+          }
+        };
+  }
+
+  /**
+   * Returns the rename map stored in {@code propertyMapFilename}, parsing it only if it isn't
+   * cached or the file changed since it was cached.
+   *
+   * @param propertyMapFilename The property map file.
+   * @return A mapping from symbol to renamed symbol.
+   */
+  synchronized RenameMap get(String propertyMapFilename) throws IOException {
+    Path path = Paths.get(propertyMapFilename).toAbsolutePath().normalize();
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      entries.remove(path);
+      throw new FileNotFoundException(propertyMapFilename);
+    }
+
+    CachedRenameMap cachedRenameMap = entries.get(path);
+    if (cachedRenameMap == null
+        || !cachedRenameMap.lastModifiedTime.equals(attributes.lastModifiedTime())
+        || cachedRenameMap.size != attributes.size()) {
+      cachedRenameMap =
+          new CachedRenameMap(
+              attributes.lastModifiedTime(),
+              attributes.size(),
+              PolymerRenamer.getRenameMap(propertyMapFilename));
+      entries.put(path, cachedRenameMap);
+    }
+    return cachedRenameMap.renameMap;
+  }
+}
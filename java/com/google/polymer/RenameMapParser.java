@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses text property maps of symbol:renamed lines. The file is read in a single bulk read and
+ * split on bytes without regular expressions or intermediate line strings, and the table is sized
+ * from a count of the lines up front. Large maps are parsed as parallel partitions that insert into
+ * a shared concurrent table.
+ *
+ * <p>Lines are accepted exactly as {@code line.split(":")} would: trailing empty fields are
+ * dropped and the line must then have exactly two fields.
+ */
+final class RenameMapParser {
+
+  // Property maps smaller than this are parsed on the calling thread.
+  private static final int PARALLEL_THRESHOLD = 1 << 22;
+
+  // The smallest partition worth handing to another thread.
+  private static final int MIN_PARTITION_SIZE = 1 << 20;
+
+  private RenameMapParser() {}
+
+  /**
+   * Parses a text property map.
+   *
+   * @param path The property map file.
+   * @param parallelism The number of threads to parse large property maps with.
+   * @return An unmodifiable mapping from symbol to renamed symbol.
+   * @throws IOException if the file can't be read or repeats a symbol.
+   */
+  static Map<String, String> parse(Path path, int parallelism) throws IOException {
+    return parse(Files.readAllBytes(path), parallelism);
+  }
+
+  /**
+   * Parses the content of a text property map.
+   *
+   * @param content The content of the property map file.
+   * @param parallelism The number of threads to parse large property maps with.
+   * @return An unmodifiable mapping from symbol to renamed symbol.
+   * @throws IOException if the content repeats a symbol.
+   */
+  static Map<String, String> parse(byte[] content, int parallelism) throws IOException {
+    int expectedSize = countLines(content);
+    int partitionCount =
+        content.length < PARALLEL_THRESHOLD
+            ? 1
+            : Math.min(Math.max(1, parallelism), content.length / MIN_PARTITION_SIZE);
+    if (partitionCount <= 1) {
+      Map<String, String> renameMap = new HashMap<>(capacityFor(expectedSize));
+      parsePartition(content, 0, content.length, renameMap);
+      return Collections.unmodifiableMap(renameMap);
+    }
+
+    final Map<String, String> renameMap =
+        new ConcurrentHashMap<>(capacityFor(expectedSize), 0.75f, partitionCount);
+    List<Callable<Void>> partitions = new ArrayList<>();
+    int start = 0;
+    for (int i = 1; i <= partitionCount; i++) {
+      int end =
+          i == partitionCount
+              ? content.length
+              : nextLineStart(content, (int) ((long) content.length * i / partitionCount));
+      partitions.add(newPartitionTask(content, start, end, renameMap));
+      start = end;
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(partitionCount);
+    try {
+      for (Future<Void> partition : pool.invokeAll(partitions)) {
+        partition.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing property map", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    return Collections.unmodifiableMap(renameMap);
+  }
+
+  private static Callable<Void> newPartitionTask(
+      final byte[] content, final int start, final int end, final Map<String, String> renameMap) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        parsePartition(content, start, end, renameMap);
+        return null;
+      }
+    };
+  }
+
+  /** Parses the lines in {@code content[start, end)}, which must start at a line start. */
+  private static void parsePartition(
+      byte[] content, int start, int end, Map<String, String> renameMap) throws IOException {
+    int lineStart = start;
+    while (lineStart < end) {
+      int lineEnd = lineStart;
+      while (lineEnd < end && content[lineEnd] != '\n' && content[lineEnd] != '\r') {
+        lineEnd++;
+      }
+      parseLine(content, lineStart, lineEnd, renameMap);
+      lineStart = lineEnd + 1;
+      if (lineEnd + 1 < end && content[lineEnd] == '\r' && content[lineEnd + 1] == '\n') {
+        lineStart++;
+      }
+    }
+  }
+
+  private static void parseLine(
+      byte[] content, int lineStart, int lineEnd, Map<String, String> renameMap)
+      throws IOException {
+    // Trailing colons only produce trailing empty fields, which split drops.
+    while (lineEnd > lineStart && content[lineEnd - 1] == ':') {
+      lineEnd--;
+    }
+    int separator = -1;
+    for (int i = lineStart; i < lineEnd; i++) {
+      if (content[i] == ':') {
+        if (separator >= 0) {
+          // More than two fields.
+          return;
+        }
+        separator = i;
+      }
+    }
+    if (separator < 0) {
+      return;
+    }
+    String symbol = new String(content, lineStart, separator - lineStart, UTF_8);
+    String renamed = new String(content, separator + 1, lineEnd - separator - 1, UTF_8);
+    if (renameMap.put(symbol, renamed) != null) {
+      throw new IOException("Property map repeats the symbol " + symbol);
+    }
+  }
+
+  /** Returns the index after the line terminator following {@code index}. */
+  private static int nextLineStart(byte[] content, int index) {
+    while (index < content.length && content[index] != '\n' && content[index] != '\r') {
+      index++;
+    }
+    if (index < content.length && content[index] == '\r') {
+      index++;
+    }
+    if (index < content.length && content[index] == '\n') {
+      index++;
+    }
+    return index;
+  }
+
+  private static int countLines(byte[] content) {
+    int lines = 1;
+    for (byte b : content) {
+      if (b == '\n') {
+        lines++;
+      }
+    }
+    return lines;
+  }
+
+  private static int capacityFor(int expectedSize) {
+    return (int) Math.min(Integer.MAX_VALUE, (long) (expectedSize / 0.75f) + 1);
+  }
+}
@@ -0,0 +1,631 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.CaseFormat;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures where the time and allocations of a run go. Each file is timed from being read to
+ * being written, split into phases. Phases nest, e.g. a databinding expression is parsed while
+ * its document is renamed, and a phase is only charged for the time spent in it outside of the
+ * phases it contains. Renames, parse failures and parse fallbacks are counted per file, and the
+ * slowest expressions renamed without the expression cache are remembered.
+ *
+ * <p>A file is measured on the thread renaming it. The static methods called by the renamers do
+ * nothing unless the calling thread is measuring a file, so runs without metrics only pay a thread
+ * local lookup per phase. Measurements are also forwarded to the {@link Listener} found on the
+ * class path, which records them as Java Flight Recorder events.
+ */
+final class RenameMetrics {
+
+  /** The phases the time spent on a file is split into. */
+  enum Phase {
+    READ,
+    HTML_PARSE,
+    JS_PARSE,
+    RENAME,
+    PRINT,
+    SOURCEMAP,
+    WRITE,
+  }
+
+  /** The events counted per file. */
+  enum Counter {
+    /** Hyphenated attribute keys of custom elements renamed. */
+    ATTRIBUTE_KEY_RENAMES,
+    /** Databinding expressions and event handlers renamed in HTML. */
+    BINDING_RENAMES,
+    /** Observer, computed, listener and key binding strings and published attributes renamed. */
+    DESCRIPTOR_RENAMES,
+    /** Property names of property accesses renamed in scripts. */
+    GETPROP_RENAMES,
+    /** Object literal keys renamed in scripts. */
+    OBJECT_KEY_RENAMES,
+    /** Scripts and expressions rejected by the Closure parser, including those renamed anyway. */
+    PARSE_FAILURES,
+    /** Expressions renamed by PolymerExpressionRenamer without the Closure parser. */
+    RECOGNIZED_EXPRESSIONS,
+    /** Polymer paths and rejected expressions renamed as a method call by METHOD_PATTERN. */
+    METHOD_PATTERN_FALLBACKS,
+    /** Polymer paths and rejected expressions renamed as a property path. */
+    PATH_FALLBACKS,
+  }
+
+  /** How an expression was renamed. */
+  enum ExpressionOutcome {
+    RECOGNIZED,
+    PARSED,
+    METHOD_PATTERN_FALLBACK,
+    PATH_FALLBACK,
+    FAILED,
+  }
+
+  /** Receives the files, phases and expressions of runs as they are measured. */
+  interface Listener {
+    /** Returns true if measurements are wanted. Checked once at the start of each run. */
+    boolean isEnabled();
+
+    /** Returns a handle passed to {@link #endFile}, or null if files aren't wanted. */
+    Object beginFile();
+
+    void endFile(Object file, String path, String type, long bytesIn, long bytesOut);
+
+    /** Returns a handle passed to {@link #endPhase}, or null if the phase isn't wanted. */
+    Object beginPhase(Phase phase);
+
+    void endPhase(Object phase);
+
+    /** Returns a handle passed to {@link #endExpression}, or null if expressions aren't wanted. */
+    Object beginExpression();
+
+    void endExpression(Object expression, String js, ExpressionOutcome outcome);
+  }
+
+  /** A measured span, ended by closing it. */
+  interface Scope extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  // The number of slowest files and expressions listed in a report.
+  private static final int SLOWEST_COUNT = 20;
+
+  // The Listener recording Flight Recorder events. It is built separately, for Java 11 and newer.
+  private static final String FLIGHT_RECORDER_LISTENER = "com.google.polymer.JfrRenameEvents";
+
+  // Counts the bytes allocated by each thread, or null if the JVM doesn't.
+  private static final com.sun.management.ThreadMXBean allocationCounter = getAllocationCounter();
+
+  // The file each thread is measuring.
+  private static final ThreadLocal<ThreadState> threadStates = new ThreadLocal<>();
+
+  private static final Scope NOT_MEASURED =
+      new Scope() {
+        @Override
+        public void close() {}
+      };
+
+  /** Loads the Listener the first time a run is measured rather than whenever renaming. */
+  private static final class ListenerHolder {
+    private static final Listener LISTENER = loadListener();
+  }
+
+  private final boolean reported;
+  private final Listener listener;
+  private final long startNanos = System.nanoTime();
+  private final Queue<FileMetrics> files = new ConcurrentLinkedQueue<>();
+  private final PriorityQueue<ExpressionReport> slowestExpressions =
+      new PriorityQueue<>(SLOWEST_COUNT + 1, new ExpressionReportComparator());
+
+  private RenameMetrics(boolean reported, Listener listener) {
+    this.reported = reported;
+    this.listener = listener;
+  }
+
+  /**
+   * Starts measuring a run.
+   *
+   * @param report Whether the measurements are written by {@link #writeReport}. Otherwise they
+   *     are only forwarded to the Listener.
+   * @return The run's metrics, or null if neither a report nor the Listener wants them.
+   */
+  static RenameMetrics start(boolean report) {
+    Listener listener = ListenerHolder.LISTENER;
+    if (listener != null && !listener.isEnabled()) {
+      listener = null;
+    }
+    if (!report && listener == null) {
+      return null;
+    }
+    return new RenameMetrics(report, listener);
+  }
+
+  /**
+   * Starts measuring a file renamed on the calling thread, which phases and counts are charged to
+   * until the returned scope is closed.
+   *
+   * @param metrics The run's metrics. Can be null.
+   * @param path The path of the file.
+   */
+  static Scope startFile(RenameMetrics metrics, String path) {
+    if (metrics == null) {
+      return NOT_MEASURED;
+    }
+    FileMetrics file = new FileMetrics(metrics, path);
+    return bind(file, file);
+  }
+
+  /**
+   * Charges the phases and counts of the calling thread to the file measured by another thread
+   * until the returned scope is closed, for work handed over to other threads.
+   *
+   * @param file The file returned by {@link #currentFile}. Can be null.
+   */
+  static Scope attach(FileMetrics file) {
+    return file == null ? NOT_MEASURED : bind(file, null);
+  }
+
+  private static Scope bind(FileMetrics file, final FileMetrics ended) {
+    final ThreadState previous = threadStates.get();
+    threadStates.set(new ThreadState(file));
+    return new Scope() {
+      @Override
+      public void close() {
+        threadStates.set(previous);
+        if (ended != null) {
+          ended.end();
+        }
+      }
+    };
+  }
+
+  /** Returns the file measured by the calling thread, or null. */
+  static FileMetrics currentFile() {
+    ThreadState state = threadStates.get();
+    return state == null ? null : state.file;
+  }
+
+  /**
+   * Starts a phase of the file measured by the calling thread, which lasts until the returned
+   * scope is closed.
+   */
+  static Scope phase(Phase phase) {
+    ThreadState state = threadStates.get();
+    return state == null ? NOT_MEASURED : state.enter(phase);
+  }
+
+  /** Counts an event of the file measured by the calling thread. */
+  static void count(Counter counter) {
+    ThreadState state = threadStates.get();
+    if (state != null) {
+      state.file.counters.incrementAndGet(counter.ordinal());
+    }
+  }
+
+  /** Records the content read for the file measured by the calling thread. */
+  static void recordInput(String content) {
+    ThreadState state = threadStates.get();
+    if (state != null) {
+      state.file.bytesIn += getUtf8Length(content);
+    }
+  }
+
+  /** Records the number of bytes written for the file measured by the calling thread. */
+  static void recordOutput(long size) {
+    ThreadState state = threadStates.get();
+    if (state != null) {
+      state.file.bytesOut += size;
+    }
+  }
+
+  /**
+   * Starts measuring an expression renamed for the file measured by the calling thread.
+   *
+   * @param js The expression.
+   * @return The measured expression, or null if the calling thread isn't measuring a file.
+   */
+  static Expression beginExpression(String js) {
+    ThreadState state = threadStates.get();
+    if (state == null) {
+      return null;
+    }
+    Listener listener = state.file.run.listener;
+    return new Expression(state.file, js, listener == null ? null : listener.beginExpression());
+  }
+
+  /**
+   * Records how a measured expression was renamed.
+   *
+   * @param expression The measured expression. Can be null.
+   * @param outcome The outcome, which is PARSED unless recorded otherwise.
+   */
+  static void setOutcome(Expression expression, ExpressionOutcome outcome) {
+    if (expression != null) {
+      expression.outcome = outcome;
+    }
+  }
+
+  /**
+   * Ends measuring an expression.
+   *
+   * @param expression The measured expression. Can be null.
+   */
+  static void endExpression(Expression expression) {
+    if (expression == null) {
+      return;
+    }
+    long nanos = System.nanoTime() - expression.startNanos;
+    FileMetrics file = expression.file;
+    if (expression.outcome == ExpressionOutcome.RECOGNIZED) {
+      file.counters.incrementAndGet(Counter.RECOGNIZED_EXPRESSIONS.ordinal());
+    } else if (expression.outcome == ExpressionOutcome.METHOD_PATTERN_FALLBACK) {
+      file.counters.incrementAndGet(Counter.METHOD_PATTERN_FALLBACKS.ordinal());
+    } else if (expression.outcome == ExpressionOutcome.PATH_FALLBACK) {
+      file.counters.incrementAndGet(Counter.PATH_FALLBACKS.ordinal());
+    }
+    if (expression.event != null) {
+      file.run.listener.endExpression(expression.event, expression.js, expression.outcome);
+    }
+    if (file.run.reported) {
+      file.run.recordExpression(
+          new ExpressionReport(expression.js, file.path, nanos, expression.outcome));
+    }
+  }
+
+  private synchronized void recordExpression(ExpressionReport expression) {
+    slowestExpressions.add(expression);
+    if (slowestExpressions.size() > SLOWEST_COUNT) {
+      slowestExpressions.poll();
+    }
+  }
+
+  /**
+   * Writes a JSON report of the files measured so far: the totals of the run, the phases, sizes
+   * and counts of each file, and the slowest files and expressions.
+   *
+   * @param reportFile The file to write.
+   */
+  void writeReport(Path reportFile) throws IOException {
+    Report report = new Report();
+    report.wallNanos = System.nanoTime() - startNanos;
+    report.allocationsMeasured = allocationCounter != null;
+    long[] phaseNanos = new long[Phase.values().length];
+    long[] phaseAllocatedBytes = new long[Phase.values().length];
+    long[] counters = new long[Counter.values().length];
+    List<FileReport> fileReports = new ArrayList<>();
+    for (FileMetrics file : files) {
+      report.bytesIn += file.bytesIn;
+      report.bytesOut += file.bytesOut;
+      for (int i = 0; i < phaseNanos.length; i++) {
+        phaseNanos[i] += file.phaseNanos.get(i);
+        phaseAllocatedBytes[i] += file.phaseAllocatedBytes.get(i);
+      }
+      for (int i = 0; i < counters.length; i++) {
+        counters[i] += file.counters.get(i);
+      }
+      fileReports.add(file.toReport());
+    }
+    report.fileCount = fileReports.size();
+    report.phases = getPhaseReports(phaseNanos, phaseAllocatedBytes);
+    report.counters = getCounterReports(counters);
+
+    Collections.sort(
+        fileReports,
+        new Comparator<FileReport>() {
+          @Override
+          public int compare(FileReport a, FileReport b) {
+            return Long.compare(b.nanos, a.nanos);
+          }
+        });
+    report.slowestFiles =
+        new ArrayList<>(fileReports.subList(0, Math.min(SLOWEST_COUNT, fileReports.size())));
+    synchronized (this) {
+      report.slowestExpressions = new ArrayList<>(slowestExpressions);
+    }
+    Collections.sort(
+        report.slowestExpressions, Collections.reverseOrder(new ExpressionReportComparator()));
+    Collections.sort(
+        fileReports,
+        new Comparator<FileReport>() {
+          @Override
+          public int compare(FileReport a, FileReport b) {
+            return a.path.compareTo(b.path);
+          }
+        });
+    report.files = fileReports;
+
+    Path parent = reportFile.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(reportFile, UTF_8))) {
+      writer.setIndent("  ");
+      new Gson().toJson(report, Report.class, writer);
+    }
+  }
+
+  private static Map<String, PhaseReport> getPhaseReports(long[] nanos, long[] allocatedBytes) {
+    Map<String, PhaseReport> phases = new LinkedHashMap<>();
+    for (Phase phase : Phase.values()) {
+      PhaseReport phaseReport = new PhaseReport();
+      phaseReport.nanos = nanos[phase.ordinal()];
+      phaseReport.allocatedBytes = allocatedBytes[phase.ordinal()];
+      phases.put(getReportName(phase), phaseReport);
+    }
+    return phases;
+  }
+
+  private static Map<String, Long> getCounterReports(long[] counts) {
+    Map<String, Long> counters = new LinkedHashMap<>();
+    for (Counter counter : Counter.values()) {
+      counters.put(getReportName(counter), counts[counter.ordinal()]);
+    }
+    return counters;
+  }
+
+  private static String getReportName(Enum<?> value) {
+    return CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, value.name());
+  }
+
+  /** Returns the type of a file as reported, from its name. */
+  static String getFileType(String path) {
+    if (path.endsWith("html")) {
+      return "html";
+    } else if (path.endsWith("js")) {
+      return "js";
+    }
+    return "other";
+  }
+
+  /** Returns the number of bytes of the UTF-8 encoding of a string, without encoding it. */
+  static long getUtf8Length(String content) {
+    long length = 0;
+    for (int i = 0; i < content.length(); i++) {
+      char c = content.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < content.length()
+          && Character.isLowSurrogate(content.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static long getAllocatedBytes() {
+    return allocationCounter == null
+        ? 0
+        : allocationCounter.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean getAllocationCounter() {
+    try {
+      ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean allocationCounter =
+            (com.sun.management.ThreadMXBean) threadMXBean;
+        if (allocationCounter.isThreadAllocatedMemorySupported()
+            && allocationCounter.isThreadAllocatedMemoryEnabled()) {
+          return allocationCounter;
+        }
+      }
+    } catch (LinkageError | UnsupportedOperationException e) {
+      // Not a HotSpot JVM.
+    }
+    return null;
+  }
+
+  private static Listener loadListener() {
+    try {
+      return (Listener)
+          Class.forName(FLIGHT_RECORDER_LISTENER).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+      // Either not built or the JVM has no Flight Recorder.
+      return null;
+    }
+  }
+
+  /** The measurements of a file. */
+  static final class FileMetrics {
+    private final RenameMetrics run;
+    private final String path;
+    private final long startNanos = System.nanoTime();
+    private final Object event;
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray phaseAllocatedBytes = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    /** Only written by the thread measuring the file. */
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long nanos = 0;
+
+    private FileMetrics(RenameMetrics run, String path) {
+      this.run = run;
+      this.path = path;
+      this.event = run.listener == null ? null : run.listener.beginFile();
+    }
+
+    private void end() {
+      nanos = System.nanoTime() - startNanos;
+      if (event != null) {
+        run.listener.endFile(event, path, getFileType(path), bytesIn, bytesOut);
+      }
+      if (run.reported) {
+        run.files.add(this);
+      }
+    }
+
+    private FileReport toReport() {
+      FileReport report = new FileReport();
+      report.path = path;
+      report.type = getFileType(path);
+      report.nanos = nanos;
+      report.bytesIn = bytesIn;
+      report.bytesOut = bytesOut;
+      long[] nanosByPhase = new long[Phase.values().length];
+      long[] allocatedBytesByPhase = new long[Phase.values().length];
+      for (int i = 0; i < nanosByPhase.length; i++) {
+        nanosByPhase[i] = phaseNanos.get(i);
+        allocatedBytesByPhase[i] = phaseAllocatedBytes.get(i);
+      }
+      report.phases = getPhaseReports(nanosByPhase, allocatedBytesByPhase);
+      long[] counts = new long[Counter.values().length];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = counters.get(i);
+      }
+      report.counters = getCounterReports(counts);
+      return report;
+    }
+  }
+
+  /** An expression being measured. */
+  static final class Expression {
+    private final FileMetrics file;
+    private final String js;
+    private final Object event;
+    private final long startNanos = System.nanoTime();
+    private ExpressionOutcome outcome = ExpressionOutcome.PARSED;
+
+    private Expression(FileMetrics file, String js, Object event) {
+      this.file = file;
+      this.js = js;
+      this.event = event;
+    }
+  }
+
+  /**
+   * The file a thread is measuring and the phases it is in. Closing it ends the innermost phase,
+   * so that starting a phase doesn't allocate.
+   */
+  private static final class ThreadState implements Scope {
+    private final FileMetrics file;
+    private Phase[] phases = new Phase[8];
+    private Object[] events = new Object[8];
+    private int depth = 0;
+    private long lastNanos;
+    private long lastAllocatedBytes;
+
+    private ThreadState(FileMetrics file) {
+      this.file = file;
+    }
+
+    private Scope enter(Phase phase) {
+      charge();
+      if (depth == phases.length) {
+        phases = Arrays.copyOf(phases, depth * 2);
+        events = Arrays.copyOf(events, depth * 2);
+      }
+      phases[depth] = phase;
+      events[depth] = file.run.listener == null ? null : file.run.listener.beginPhase(phase);
+      depth++;
+      return this;
+    }
+
+    @Override
+    public void close() {
+      charge();
+      depth--;
+      if (events[depth] != null) {
+        file.run.listener.endPhase(events[depth]);
+        events[depth] = null;
+      }
+    }
+
+    /** Charges the time and allocations since the last phase change to the innermost phase. */
+    private void charge() {
+      long now = System.nanoTime();
+      long allocatedBytes = getAllocatedBytes();
+      if (depth > 0) {
+        int phase = phases[depth - 1].ordinal();
+        file.phaseNanos.addAndGet(phase, now - lastNanos);
+        file.phaseAllocatedBytes.addAndGet(phase, allocatedBytes - lastAllocatedBytes);
+      }
+      lastNanos = now;
+      lastAllocatedBytes = allocatedBytes;
+    }
+  }
+
+  private static final class ExpressionReportComparator implements Comparator<ExpressionReport> {
+    @Override
+    public int compare(ExpressionReport a, ExpressionReport b) {
+      return Long.compare(a.nanos, b.nanos);
+    }
+  }
+
+  /** The JSON report of a run. */
+  private static final class Report {
+    long wallNanos;
+    boolean allocationsMeasured;
+    int fileCount;
+    long bytesIn;
+    long bytesOut;
+    Map<String, PhaseReport> phases;
+    Map<String, Long> counters;
+    List<FileReport> slowestFiles;
+    List<ExpressionReport> slowestExpressions;
+    List<FileReport> files;
+  }
+
+  private static final class PhaseReport {
+    long nanos;
+    long allocatedBytes;
+  }
+
+  private static final class FileReport {
+    String path;
+    String type;
+    long nanos;
+    long bytesIn;
+    long bytesOut;
+    Map<String, PhaseReport> phases;
+    Map<String, Long> counters;
+  }
+
+  private static final class ExpressionReport {
+    private final String expression;
+    private final String file;
+    private final long nanos;
+    private final String outcome;
+
+    private ExpressionReport(
+        String expression, String file, long nanos, ExpressionOutcome outcome) {
+      this.expression = expression;
+      this.file = file;
+      this.nanos = nanos;
+      this.outcome = getReportName(outcome);
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An on-disk cache of renamed output keyed by a SHA-256 digest of everything the output depends
+ * on: the input content, the property map content, the output options, whether the input was
+ * prefiltered and the renamer version. The cache directory may be shared by concurrent processes.
+ * Entries are written to temporary files and atomically renamed into place, and readers treat
+ * entries that disappear underneath them as misses.
+ *
+ * <p>Every entry is a file holding the renamed output, named by its key and sharded into
+ * subdirectories by the first two characters of the key. Entries that produced a sourcemap have a
+ * sibling {@code .sourcemap} file, which is written before the output file so that a visible output
+ * file always has its sourcemap. Entries stored by batches that keep an incremental index also have
+ * a sibling {@code .symbols} file listing the symbols the rename looked up, written before the
+ * output file for the same reason. Hits refresh the modification time of the output file, and the
+ * least recently used entries are evicted once the cache grows past its maximum size.
+ */
+final class ResultCache {
+
+  // Changes whenever the renamed output for the same input may change, invalidating every entry.
+  private static final String CACHE_VERSION = "PolymerRenamer result cache 2";
+
+  private static final String SOURCE_MAP_SUFFIX = ".sourcemap";
+
+  private static final String SYMBOLS_SUFFIX = ".symbols";
+
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  // Temporary files older than this were left behind by a process that died while writing.
+  private static final long ABANDONED_TEMPORARY_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private final Path cacheDir;
+  private final long maximumSize;
+  private final byte[] propertyMapDigest;
+  private final boolean prefilter;
+  private final AtomicBoolean modified = new AtomicBoolean();
+
+  private ResultCache(
+      Path cacheDir, long maximumSize, byte[] propertyMapDigest, boolean prefilter) {
+    this.cacheDir = cacheDir;
+    this.maximumSize = maximumSize;
+    this.propertyMapDigest = propertyMapDigest;
+    this.prefilter = prefilter;
+  }
+
+  /**
+   * Opens a result cache for renaming against a property map, creating the cache directory if
+   * needed.
+   *
+   * @param cacheDir The cache directory.
+   * @param maximumSize The number of bytes the cache may hold before entries are evicted.
+   * @param propertyMapDigest The SHA-256 digest of the property map content renames are performed
+   *     against, as returned by {@link RenameMap#getContentDigest}.
+   * @param prefilter Whether inputs without renamed symbols are passed through as they are, which
+   *     keeps their formatting.
+   */
+  static ResultCache open(
+      Path cacheDir, long maximumSize, byte[] propertyMapDigest, boolean prefilter)
+      throws IOException {
+    Preconditions.checkArgument(maximumSize >= 0);
+    Preconditions.checkArgument(propertyMapDigest != null, "Unknown property map content");
+    Files.createDirectories(cacheDir);
+    return new ResultCache(cacheDir, maximumSize, propertyMapDigest.clone(), prefilter);
+  }
+
+  /**
+   * Computes the key of a rename.
+   *
+   * @param inputFilename The name of the file being renamed.
+   * @param inputFileContent The content of the file being renamed.
+   * @param outputFormat The JavaScript output format options.
+   * @param htmlOutputFormat The HTML output format options.
+   * @param inputSourceMapContent The content of the input sourcemap. Can be null.
+   * @return The key, as a lowercase hex string.
+   */
+  String getKey(
+      String inputFilename,
+      String inputFileContent,
+      ImmutableSet<JsRenamer.OutputFormat> outputFormat,
+      ImmutableSet<HtmlRenamer.OutputFormat> htmlOutputFormat,
+      String inputSourceMapContent) {
+    MessageDigest digest = newSha256();
+    update(digest, CACHE_VERSION);
+    digest.update(propertyMapDigest);
+    // The renamer is picked by the file name, which otherwise only appears in sourcemaps.
+    update(digest, inputFilename.endsWith("html") ? "html" : "js");
+    update(digest, outputFormat.toString());
+    update(digest, htmlOutputFormat.toString());
+    update(digest, prefilter ? "prefilter" : "");
+    if (inputSourceMapContent != null) {
+      update(digest, inputFilename);
+      update(digest, inputSourceMapContent);
+    }
+    update(digest, inputFileContent);
+    return BaseEncoding.base16().lowerCase().encode(digest.digest());
+  }
+
+  /**
+   * Writes a cached result to its destinations, marking the entry as recently used.
+   *
+   * @param key The key returned by {@link #getKey}.
+   * @param outputFile The file to copy the renamed output to, or null to print it to {@code out}.
+   * @param out Where the renamed output is printed when {@code outputFile} is null.
+   * @param sourceMapFile The file to copy the output sourcemap to, or null if none is wanted.
+   * @return true on a hit, false if the caller needs to rename the input.
+   */
+  boolean restore(String key, Path outputFile, PrintStream out, Path sourceMapFile)
+      throws IOException {
+    Path entry = getEntry(key);
+    try {
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+      if (sourceMapFile != null) {
+        Files.copy(
+            entry.resolveSibling(key + SOURCE_MAP_SUFFIX),
+            sourceMapFile,
+            StandardCopyOption.REPLACE_EXISTING);
+      }
+      if (outputFile != null) {
+        Files.copy(entry, outputFile, StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        // Cached output is UTF-8, like renamed output printed to stdout.
+        Files.copy(entry, out);
+        out.flush();
+      }
+      return true;
+    } catch (NoSuchFileException e) {
+      // Never cached, or evicted by another process.
+      return false;
+    }
+  }
+
+  /**
+   * Reads the symbols looked up by the rename of an entry.
+   *
+   * @param key The key returned by {@link #getKey}.
+   * @return The symbols stored by {@link #putSymbols}, or null if the entry has none.
+   */
+  List<String> getSymbols(String key) throws IOException {
+    try {
+      return Files.readAllLines(getEntry(key).resolveSibling(key + SYMBOLS_SUFFIX), UTF_8);
+    } catch (NoSuchFileException e) {
+      // Stored without an incremental index, never cached, or evicted by another process.
+      return null;
+    }
+  }
+
+  /**
+   * Stores the symbols looked up by a rename, for restoring its incremental index entry along with
+   * the output. Must be called before the output is stored.
+   *
+   * @param key The key returned by {@link #getKey}.
+   * @param lookedUpSymbols The symbols looked up while renaming the input.
+   */
+  void putSymbols(String key, Iterable<String> lookedUpSymbols) throws IOException {
+    Path entry = getEntry(key);
+    Files.createDirectories(entry.getParent());
+    Path temporaryFile = newTemporaryFile(entry);
+    Files.write(temporaryFile, lookedUpSymbols, UTF_8);
+    commit(temporaryFile, entry.resolveSibling(key + SYMBOLS_SUFFIX));
+  }
+
+  /**
+   * Stores a renamed output.
+   *
+   * @param key The key returned by {@link #getKey}.
+   * @param renamed The renamed output.
+   * @param sourceMapFile The output sourcemap written by the rename, or null if there is none.
+   */
+  void put(String key, String renamed, Path sourceMapFile) throws IOException {
+    Path entry = putSourceMap(key, sourceMapFile);
+    Path temporaryFile = newTemporaryFile(entry);
+    Files.write(temporaryFile, renamed.getBytes(UTF_8));
+    commit(temporaryFile, entry);
+    modified.set(true);
+  }
+
+  /**
+   * Stores a renamed output written to a file.
+   *
+   * @param key The key returned by {@link #getKey}.
+   * @param outputFile The file the renamed output was written to.
+   * @param sourceMapFile The output sourcemap written by the rename, or null if there is none.
+   */
+  void putFile(String key, Path outputFile, Path sourceMapFile) throws IOException {
+    Path entry = putSourceMap(key, sourceMapFile);
+    Path temporaryFile = newTemporaryFile(entry);
+    Files.copy(outputFile, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+    commit(temporaryFile, entry);
+    modified.set(true);
+  }
+
+  /** Stores the output sourcemap of an entry, if any, and returns the path of the entry. */
+  private Path putSourceMap(String key, Path sourceMapFile) throws IOException {
+    Path entry = getEntry(key);
+    Files.createDirectories(entry.getParent());
+    if (sourceMapFile != null) {
+      Path temporaryFile = newTemporaryFile(entry);
+      Files.copy(sourceMapFile, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+      commit(temporaryFile, entry.resolveSibling(key + SOURCE_MAP_SUFFIX));
+    }
+    return entry;
+  }
+
+  /**
+   * Evicts the least recently used entries until the cache fits in its maximum size. Does nothing
+   * if nothing was stored since the cache was opened.
+   */
+  void trim() throws IOException {
+    if (!modified.getAndSet(false)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    final Map<String, CachedEntry> entries = new LinkedHashMap<>();
+    long size = 0;
+    try (DirectoryStream<Path> shards = Files.newDirectoryStream(cacheDir)) {
+      for (Path shard : shards) {
+        if (!Files.isDirectory(shard)) {
+          continue;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(shard)) {
+          for (Path file : files) {
+            BasicFileAttributes attributes;
+            try {
+              attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+              continue;
+            }
+            String fileName = file.getFileName().toString();
+            if (fileName.endsWith(TEMPORARY_SUFFIX)) {
+              long age = now - attributes.lastModifiedTime().toMillis();
+              if (age > ABANDONED_TEMPORARY_FILE_MILLIS) {
+                Files.deleteIfExists(file);
+              }
+              continue;
+            }
+            String key = getKeyOf(fileName);
+            CachedEntry cachedEntry = entries.get(key);
+            if (cachedEntry == null) {
+              cachedEntry = new CachedEntry(file.resolveSibling(key));
+              entries.put(key, cachedEntry);
+            }
+            cachedEntry.size += attributes.size();
+            if (key.equals(fileName)) {
+              cachedEntry.lastUsed = attributes.lastModifiedTime().toMillis();
+            }
+            size += attributes.size();
+          }
+        }
+      }
+    }
+    if (size <= maximumSize) {
+      return;
+    }
+
+    List<CachedEntry> leastRecentlyUsed = new ArrayList<>(entries.values());
+    Collections.sort(
+        leastRecentlyUsed,
+        new Comparator<CachedEntry>() {
+          @Override
+          public int compare(CachedEntry a, CachedEntry b) {
+            return Long.compare(a.lastUsed, b.lastUsed);
+          }
+        });
+    for (CachedEntry cachedEntry : leastRecentlyUsed) {
+      if (size <= maximumSize) {
+        break;
+      }
+      // The output file goes first so that the entry stops being a hit before its siblings go.
+      Files.deleteIfExists(cachedEntry.output);
+      String key = cachedEntry.output.getFileName().toString();
+      Files.deleteIfExists(cachedEntry.output.resolveSibling(key + SOURCE_MAP_SUFFIX));
+      Files.deleteIfExists(cachedEntry.output.resolveSibling(key + SYMBOLS_SUFFIX));
+      size -= cachedEntry.size;
+    }
+  }
+
+  /** The files of an entry found while trimming the cache. */
+  private static final class CachedEntry {
+    private final Path output;
+    private long size;
+    // Entries with a sourcemap or symbols but no output file are incomplete and evicted first.
+    private long lastUsed = Long.MIN_VALUE;
+
+    private CachedEntry(Path output) {
+      this.output = output;
+    }
+  }
+
+  /** Returns the key of the entry a file in the cache belongs to. */
+  private static String getKeyOf(String fileName) {
+    for (String suffix : new String[] {SOURCE_MAP_SUFFIX, SYMBOLS_SUFFIX}) {
+      if (fileName.endsWith(suffix)) {
+        return fileName.substring(0, fileName.length() - suffix.length());
+      }
+    }
+    return fileName;
+  }
+
+  private Path getEntry(String key) {
+    return cacheDir.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  private static Path newTemporaryFile(Path entry) throws IOException {
+    return Files.createTempFile(entry.getParent(), entry.getFileName() + ".", TEMPORARY_SUFFIX);
+  }
+
+  private static void commit(Path temporaryFile, Path file) throws IOException {
+    try {
+      Files.move(
+          temporaryFile,
+          file,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /** Adds a length prefixed string to a digest so that adjacent fields can't run together. */
+  private static void update(MessageDigest digest, String value) {
+    byte[] bytes = value.getBytes(UTF_8);
+    digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  private static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import java.util.Arrays;
+
+/**
+ * An Aho-Corasick automaton over the symbols of a rename map that finds whether a fragment of
+ * HTML or JavaScript could reference any of them in a single linear scan.
+ *
+ * <p>The check is conservative. Symbols and text are compared ignoring case and hyphens, so the
+ * hyphenated attribute keys that bind to camel case properties match, as do {@code *Changed}
+ * names, which contain their property. Text containing a backslash always matches since escape
+ * sequences can spell out a symbol.
+ */
+final class SymbolPrefilter {
+
+  private static final int ROOT = 0;
+
+  // Trie states are stored as parallel arrays. Children of a state form a linked list.
+  private char[] labels = new char[1024];
+  private int[] firstChildren = new int[1024];
+  private int[] nextSiblings = new int[1024];
+  private boolean[] terminals = new boolean[1024];
+  private int[] failures;
+  private int stateCount = 1;
+
+  // The children of the root, indexed by character, since every scan step may return to it.
+  private final int[] rootChildren = new int[Character.MAX_VALUE + 1];
+
+  // Whether an empty symbol, which every text references, is renamed.
+  private boolean matchesEverything = false;
+
+  private SymbolPrefilter() {}
+
+  /**
+   * Builds the automaton for a set of symbols.
+   *
+   * @param symbols The renamed symbols.
+   */
+  static SymbolPrefilter build(Iterable<String> symbols) {
+    SymbolPrefilter prefilter = new SymbolPrefilter();
+    for (String symbol : symbols) {
+      prefilter.add(symbol);
+    }
+    prefilter.computeFailures();
+    return prefilter;
+  }
+
+  /**
+   * Returns false if the text can't reference any of the symbols.
+   *
+   * @param text An HTML or JavaScript fragment.
+   */
+  boolean matches(CharSequence text) {
+    if (matchesEverything) {
+      return true;
+    }
+    int state = ROOT;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\') {
+        return true;
+      } else if (c == '-') {
+        continue;
+      }
+      c = Character.toLowerCase(c);
+      int next = getChild(state, c);
+      while (next == ROOT && state != ROOT) {
+        state = failures[state];
+        next = getChild(state, c);
+      }
+      state = next;
+      if (terminals[state]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void add(String symbol) {
+    int state = ROOT;
+    for (int i = 0; i < symbol.length(); i++) {
+      char c = symbol.charAt(i);
+      if (c == '-') {
+        continue;
+      }
+      c = Character.toLowerCase(c);
+      int next = getChild(state, c);
+      if (next == ROOT) {
+        next = newState(state, c);
+      }
+      state = next;
+    }
+    if (state == ROOT) {
+      matchesEverything = true;
+    }
+    terminals[state] = true;
+  }
+
+  private int newState(int parent, char label) {
+    if (stateCount == labels.length) {
+      int capacity = labels.length * 2;
+      labels = Arrays.copyOf(labels, capacity);
+      firstChildren = Arrays.copyOf(firstChildren, capacity);
+      nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+      terminals = Arrays.copyOf(terminals, capacity);
+    }
+    int state = stateCount++;
+    labels[state] = label;
+    if (parent == ROOT) {
+      rootChildren[label] = state;
+    } else {
+      nextSiblings[state] = firstChildren[parent];
+      firstChildren[parent] = state;
+    }
+    return state;
+  }
+
+  /** Returns the child of a state for a character, or the root if there is none. */
+  private int getChild(int state, char c) {
+    if (state == ROOT) {
+      return rootChildren[c];
+    }
+    for (int child = firstChildren[state]; child != ROOT; child = nextSiblings[child]) {
+      if (labels[child] == c) {
+        return child;
+      }
+    }
+    return ROOT;
+  }
+
+  /**
+   * Computes the failure link of every state breadth first, so that the failure of a state is
+   * known before its children are visited. A state is terminal if any suffix of it is a symbol.
+   */
+  private void computeFailures() {
+    failures = new int[stateCount];
+    int[] queue = new int[stateCount];
+    int head = 0;
+    int tail = 0;
+    for (int c = 0; c <= Character.MAX_VALUE; c++) {
+      if (rootChildren[c] != ROOT) {
+        queue[tail++] = rootChildren[c];
+      }
+    }
+    while (head < tail) {
+      int state = queue[head++];
+      for (int child = firstChildren[state]; child != ROOT; child = nextSiblings[child]) {
+        int failure = failures[state];
+        int next = getChild(failure, labels[child]);
+        while (next == ROOT && failure != ROOT) {
+          failure = failures[failure];
+          next = getChild(failure, labels[child]);
+        }
+        failures[child] = next;
+        terminals[child] |= terminals[next];
+        queue[tail++] = child;
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Long lived pools that renames split their work across. A pool is created for each parallelism
+ * on first use and never shut down, so files renamed one after another don't each start and stop
+ * threads. Pool workers are daemon threads, which don't keep the process alive.
+ */
+final class WorkerPools {
+
+  private static final ConcurrentHashMap<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+
+  private WorkerPools() {}
+
+  /**
+   * Returns the shared pool of a parallelism.
+   *
+   * @param parallelism The number of tasks the pool runs concurrently. Values below 1 are taken
+   *     as 1.
+   */
+  static ForkJoinPool get(int parallelism) {
+    Integer key = Math.max(1, parallelism);
+    ForkJoinPool pool = pools.get(key);
+    if (pool == null) {
+      ForkJoinPool newPool = new ForkJoinPool(key);
+      pool = pools.putIfAbsent(key, newPool);
+      if (pool == null) {
+        pool = newPool;
+      } else {
+        newPool.shutdown();
+      }
+    }
+    return pool;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Measures the cost of renaming a single databinding expression with the expression cache
+ * disabled, which is dominated by parsing and printing through the Closure Compiler.
+ */
+public final class ExpressionBenchmark {
+
+  private static final RenameMap RENAME_MAP =
+      RenameMap.of(
+          ImmutableMap.of(
+              "longName", "a",
+              "otherProperty", "b",
+              "computeValue", "c",
+              "items", "d"));
+
+  private static final String[] EXPRESSIONS = {
+    "longName",
+    "longName.otherProperty",
+    "computeValue(longName, otherProperty)",
+    "!longName",
+    "items.*",
+    "computeValue(items.length, 'literal', 3)",
+  };
+
+  // The number of untimed rounds that let the JIT compile the parse and print paths.
+  private static final int WARMUP_ROUNDS = 20000;
+
+  // The number of timed rounds.
+  private static final int MEASURED_ROUNDS = 50000;
+
+  private ExpressionBenchmark() {}
+
+  public static void main(String[] args) throws JavaScriptParsingException {
+    JsRenamer.setExpressionCacheSize(0);
+    runRounds(WARMUP_ROUNDS);
+    long start = System.nanoTime();
+    int renamed = runRounds(MEASURED_ROUNDS);
+    long elapsed = System.nanoTime() - start;
+    System.out.printf(
+        "%d expressions renamed, %.0f ns per expression%n",
+        renamed, (double) elapsed / renamed);
+  }
+
+  private static int runRounds(int rounds) throws JavaScriptParsingException {
+    int renamed = 0;
+    for (int i = 0; i < rounds; i++) {
+      for (String expression : EXPRESSIONS) {
+        JsRenamer.renamePolymerJsExpression(RENAME_MAP, expression);
+        renamed++;
+      }
+    }
+    return renamed;
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Measures end to end runs of the Polymer Renamer command line over synthetic Polymer 0.5 and 1.x
+ * apps from {@link SyntheticAppGenerator} and compares them with a stored baseline. Each app is
+ * renamed in batch mode by a fresh JVM several times, and the median throughput, peak heap and peak
+ * resident set size are reported. The gate fails if throughput drops, or peak memory grows, by
+ * more than the threshold.
+ */
+public final class PerfGate {
+
+  /** The command line arguments accepted by the PerfGate. */
+  static class Args {
+    @Option(name = "--workDir", usage = "The directory to generate the apps and outputs in")
+    private String workDir = "buildperf";
+
+    @Option(name = "--baseline", usage = "The baseline properties file to compare with")
+    private String baseline = "perf/baseline.properties";
+
+    @Option(name = "--threshold", usage = "The tolerated regression, as a fraction of the baseline")
+    private double threshold = 0.25;
+
+    @Option(name = "--elements", usage = "The number of custom elements of each app")
+    private int elements = 500;
+
+    @Option(name = "--mapSize", usage = "The number of generated property map symbols")
+    private int mapSize = 100000;
+
+    @Option(name = "--runs", usage = "The number of runs over each app, whose median is reported")
+    private int runs = 3;
+
+    @Option(name = "--updateBaseline", usage = "Whether to store the results as the new baseline")
+    private boolean updateBaseline = false;
+  }
+
+  /** A measured quantity and whether larger values are better. */
+  private enum Metric {
+    THROUGHPUT_BYTES_PER_SECOND("throughputBytesPerSecond", true),
+    PEAK_HEAP_BYTES("peakHeapBytes", false),
+    PEAK_RSS_BYTES("peakRssBytes", false);
+
+    private final String key;
+    private final boolean higherIsBetter;
+
+    private Metric(String key, boolean higherIsBetter) {
+      this.key = key;
+      this.higherIsBetter = higherIsBetter;
+    }
+  }
+
+  // The properties of a baseline that describe the measured apps rather than results.
+  private static final String ELEMENTS_KEY = "elements";
+  private static final String MAP_SIZE_KEY = "mapSize";
+
+  private PerfGate() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Args gateArgs = new Args();
+    CmdLineParser parser = new CmdLineParser(gateArgs);
+    try {
+      parser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println(e.getLocalizedMessage());
+      parser.printUsage(System.err);
+      System.exit(1);
+    }
+
+    Properties results = new Properties();
+    results.setProperty(ELEMENTS_KEY, Integer.toString(gateArgs.elements));
+    results.setProperty(MAP_SIZE_KEY, Integer.toString(gateArgs.mapSize));
+    for (SyntheticAppGenerator.PolymerVersion version :
+        SyntheticAppGenerator.PolymerVersion.values()) {
+      String app = version.name().toLowerCase();
+      Map<Metric, Long> metrics = measure(gateArgs, Paths.get(gateArgs.workDir, app), version);
+      for (Map.Entry<Metric, Long> metric : metrics.entrySet()) {
+        results.setProperty(app + "." + metric.getKey().key, Long.toString(metric.getValue()));
+      }
+    }
+
+    Path baselineFile = Paths.get(gateArgs.baseline);
+    if (gateArgs.updateBaseline) {
+      Files.createDirectories(baselineFile.toAbsolutePath().getParent());
+      try (Writer writer = Files.newBufferedWriter(baselineFile, UTF_8)) {
+        results.store(writer, "PerfGate baseline, recorded with --updateBaseline");
+      }
+      System.out.println("Baseline written to " + baselineFile);
+      return;
+    }
+    if (!Files.exists(baselineFile)) {
+      System.out.println("No baseline at " + baselineFile + ", nothing to compare with.");
+      return;
+    }
+    Properties baseline = new Properties();
+    try (Reader reader = Files.newBufferedReader(baselineFile, UTF_8)) {
+      baseline.load(reader);
+    }
+    if (!results.getProperty(ELEMENTS_KEY).equals(baseline.getProperty(ELEMENTS_KEY))
+        || !results.getProperty(MAP_SIZE_KEY).equals(baseline.getProperty(MAP_SIZE_KEY))) {
+      System.out.println("The baseline was recorded for different apps, nothing to compare with.");
+      return;
+    }
+    if (!compare(results, baseline, gateArgs.threshold)) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Generates an app and measures the median of several runs of the renamer over it.
+   *
+   * @param gateArgs The parsed arguments.
+   * @param appDir The directory to generate the app in.
+   * @param version The Polymer version of the app.
+   */
+  private static Map<Metric, Long> measure(
+      Args gateArgs, Path appDir, SyntheticAppGenerator.PolymerVersion version)
+      throws IOException, InterruptedException {
+    deleteRecursively(appDir);
+    SyntheticAppGenerator.generate(appDir, version, gateArgs.elements, gateArgs.mapSize, 0);
+    Path inputDir = appDir.resolve("app");
+    Path outputDir = appDir.resolve("out");
+    long inputBytes = getTotalSize(inputDir);
+
+    List<Long> throughputs = new ArrayList<>();
+    List<Long> peakHeaps = new ArrayList<>();
+    List<Long> peakRsses = new ArrayList<>();
+    for (int run = 0; run < Math.max(1, gateArgs.runs); run++) {
+      deleteRecursively(outputDir);
+      Map<String, Long> runMetrics =
+          runRenamer(
+              "--propertyMapFilename", appDir.resolve("rename.map").toString(),
+              "--inputDir", inputDir.toString(),
+              "--outputDir", outputDir.toString());
+      long elapsedMillis = Math.max(1, runMetrics.get("elapsedMillis"));
+      throughputs.add(inputBytes * 1000 / elapsedMillis);
+      peakHeaps.add(runMetrics.get("peakHeapBytes"));
+      peakRsses.add(runMetrics.get("peakRssBytes"));
+    }
+
+    Map<Metric, Long> metrics = new HashMap<>();
+    metrics.put(Metric.THROUGHPUT_BYTES_PER_SECOND, median(throughputs));
+    metrics.put(Metric.PEAK_HEAP_BYTES, median(peakHeaps));
+    metrics.put(Metric.PEAK_RSS_BYTES, median(peakRsses));
+    System.out.printf(
+        "%s: %d bytes, %d bytes/s, %d MB peak heap, %d MB peak RSS%n",
+        version,
+        inputBytes,
+        metrics.get(Metric.THROUGHPUT_BYTES_PER_SECOND),
+        metrics.get(Metric.PEAK_HEAP_BYTES) >> 20,
+        metrics.get(Metric.PEAK_RSS_BYTES) >> 20);
+    return metrics;
+  }
+
+  /** Runs the renamer in a fresh JVM through {@link PerfRun} and returns what it reported. */
+  private static Map<String, Long> runRenamer(String... renamerArgs)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(PerfRun.class.getName());
+    command.addAll(Arrays.asList(renamerArgs));
+    Process process =
+        new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+    Map<String, Long> metrics = new HashMap<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(PerfRun.METRIC_PREFIX)) {
+          String[] metric = line.substring(PerfRun.METRIC_PREFIX.length()).split("=");
+          metrics.put(metric[0], Long.parseLong(metric[1]));
+        }
+      }
+    }
+    int exitCode = process.waitFor();
+    if (exitCode != 0 || metrics.size() < 3) {
+      throw new IOException("The renamer failed with exit code " + exitCode);
+    }
+    return metrics;
+  }
+
+  /**
+   * Prints the results next to the baseline.
+   *
+   * @return false if any result regressed by more than the threshold.
+   */
+  private static boolean compare(Properties results, Properties baseline, double threshold) {
+    boolean passed = true;
+    System.out.printf("%-45s %15s %15s %8s%n", "", "Baseline", "Current", "Change");
+    List<String> keys = new ArrayList<>(results.stringPropertyNames());
+    Collections.sort(keys);
+    for (String key : keys) {
+      Metric metric = getMetric(key);
+      String baselineValue = baseline.getProperty(key);
+      if (metric == null || baselineValue == null) {
+        continue;
+      }
+      long expected = Long.parseLong(baselineValue);
+      long actual = Long.parseLong(results.getProperty(key));
+      if (expected <= 0 || actual < 0) {
+        // The OS doesn't report the metric.
+        continue;
+      }
+      double change = (double) (actual - expected) / expected;
+      boolean regressed = metric.higherIsBetter ? change < -threshold : change > threshold;
+      System.out.printf(
+          "%-45s %15d %15d %+7.1f%%%s%n",
+          key, expected, actual, change * 100, regressed ? "  REGRESSED" : "");
+      passed &= !regressed;
+    }
+    return passed;
+  }
+
+  private static Metric getMetric(String key) {
+    for (Metric metric : Metric.values()) {
+      if (key.endsWith("." + metric.key)) {
+        return metric;
+      }
+    }
+    return null;
+  }
+
+  private static long median(List<Long> values) {
+    List<Long> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    return sorted.get(sorted.size() / 2);
+  }
+
+  private static long getTotalSize(Path dir) throws IOException {
+    final long[] size = {0};
+    Files.walkFileTree(
+        dir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            size[0] += attributes.size();
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return size[0];
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    Files.walkFileTree(
+        dir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+              throws IOException {
+            Files.delete(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path directory, IOException e)
+              throws IOException {
+            if (e != null) {
+              throw e;
+            }
+            Files.delete(directory);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+}
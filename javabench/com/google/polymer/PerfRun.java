@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs the Polymer Renamer command line in a fresh JVM for {@link PerfGate}, then reports the
+ * time the run took and the peak memory of the process on stdout as {@code perf.<name>=<value>}
+ * lines.
+ */
+public final class PerfRun {
+
+  // The prefix of the lines PerfGate reads.
+  static final String METRIC_PREFIX = "perf.";
+
+  private PerfRun() {}
+
+  /** @param args The command line arguments of the Polymer Renamer. */
+  public static void main(String[] args) throws IOException {
+    long start = System.nanoTime();
+    PolymerRenamer.main(args);
+    long elapsedNanos = System.nanoTime() - start;
+
+    long peakHeapBytes = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peakHeapBytes += pool.getPeakUsage().getUsed();
+      }
+    }
+    System.out.println(METRIC_PREFIX + "elapsedMillis=" + elapsedNanos / 1000000);
+    System.out.println(METRIC_PREFIX + "peakHeapBytes=" + peakHeapBytes);
+    System.out.println(METRIC_PREFIX + "peakRssBytes=" + getPeakRssBytes());
+  }
+
+  /** Returns the peak resident set size of this process, or -1 if the OS doesn't report it. */
+  private static long getPeakRssBytes() throws IOException {
+    Path status = Paths.get("/proc/self/status");
+    if (!Files.isReadable(status)) {
+      return -1;
+    }
+    for (String line : Files.readAllLines(status, UTF_8)) {
+      // The high water mark of the resident set, in kB.
+      if (line.startsWith("VmHWM:")) {
+        return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim()) * 1024;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Measures loading text property maps of 10k, 100k and 1M symbols with the line by line Scanner
+ * loader the renamer used to have and with RenameMapParser.
+ */
+public final class RenameMapLoaderBenchmark {
+
+  private static final int[] SIZES = {10000, 100000, 1000000};
+
+  // The number of untimed loads that let the JIT compile both loaders.
+  private static final int WARMUP_ROUNDS = 3;
+
+  // The number of timed loads, of which the fastest is reported.
+  private static final int MEASURED_ROUNDS = 5;
+
+  private RenameMapLoaderBenchmark() {}
+
+  public static void main(String[] args) throws IOException {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    for (int size : SIZES) {
+      Path path = Files.createTempFile("rename", ".map");
+      try {
+        writePropertyMap(path, size);
+        long scannerNanos = Long.MAX_VALUE;
+        long parserNanos = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+          long start = System.nanoTime();
+          int scannerSize = parseWithScanner(path.toFile()).size();
+          long scannerEnd = System.nanoTime();
+          int parserSize = RenameMapParser.parse(path, parallelism).size();
+          long parserEnd = System.nanoTime();
+          if (scannerSize != size || parserSize != size) {
+            throw new IllegalStateException("Loaders disagree on the property map");
+          }
+          if (round >= WARMUP_ROUNDS) {
+            scannerNanos = Math.min(scannerNanos, scannerEnd - start);
+            parserNanos = Math.min(parserNanos, parserEnd - scannerEnd);
+          }
+        }
+        System.out.printf(
+            "%,9d symbols: Scanner %7.1f ms, RenameMapParser %7.1f ms%n",
+            size, scannerNanos / 1e6, parserNanos / 1e6);
+      } finally {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private static void writePropertyMap(Path path, int size) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(path, UTF_8)) {
+      for (int i = 0; i < size; i++) {
+        writer.write("polymerPropertyName" + i + ":" + Integer.toString(i, 36) + "\n");
+      }
+    }
+  }
+
+  /** The loader PolymerRenamer used before RenameMapParser. */
+  private static Map<String, String> parseWithScanner(File file) throws IOException {
+    try (Scanner s = new Scanner(file)) {
+      ImmutableMap.Builder<String, String> renameMapBuilder = ImmutableMap.builder();
+      while (s.hasNextLine()) {
+        String line = s.nextLine();
+        String[] components = line.split(":");
+        if (components.length == 2) {
+          renameMapBuilder.put(components[0], components[1]);
+        }
+      }
+      return renameMapBuilder.build();
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.CaseFormat;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a synthetic Polymer app and its property map for end to end measurements. Each
+ * element has a template dense with databinding directives and a script with the descriptors the
+ * renamer rewrites: properties, observers, listeners and keyBindings for Polymer 1.x, and
+ * published attributes and *Changed methods for Polymer 0.5. The test data inputs of the same
+ * Polymer version are copied into the app as seeds, and their property map entries are merged.
+ *
+ * <p>The output for a seed is always the same, so runs over it can be compared.
+ */
+public final class SyntheticAppGenerator {
+
+  /** The Polymer version of the generated elements. */
+  enum PolymerVersion {
+    POLYMER_0_5,
+    POLYMER_1,
+  }
+
+  // The test data files generated apps start from.
+  private static final Path TEST_DATA_DIR = Paths.get("javatests/com/google/polymer/testdata");
+  private static final String[] POLYMER_0_5_SEEDS = {"source.html", "polymer_legacy_call.js"};
+  private static final String[] POLYMER_1_SEEDS = {
+    "polymer_v0.8.html", "polymer_call.js", "polymer_optimized_observers.js"
+  };
+
+  // Words that symbols are made of, so that they look like real property names.
+  private static final String[] SYMBOL_PREFIXES = {
+    "item", "user", "selected", "active", "display", "current", "pending", "cached"
+  };
+  private static final String[] SYMBOL_SUFFIXES = {
+    "Name", "Value", "Count", "Index", "State", "Items", "Label", "Mode"
+  };
+
+  // The characters of renamed symbols.
+  private static final String RENAMED_SYMBOL_CHARACTERS =
+      "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+  // The number of renamed properties each element declares.
+  private static final int PROPERTIES_PER_ELEMENT = 6;
+
+  // One JS behavior file is generated for every this many elements.
+  private static final int ELEMENTS_PER_BEHAVIOR = 10;
+
+  private final PolymerVersion version;
+  private final Random random;
+  private final List<String> symbols = new ArrayList<>();
+  private final Map<String, String> renameMap = new LinkedHashMap<>();
+
+  private SyntheticAppGenerator(PolymerVersion version, int mapSize, long seed) {
+    this.version = version;
+    this.random = new Random(seed);
+    for (int i = 0; i < mapSize; i++) {
+      String symbol =
+          SYMBOL_PREFIXES[i % SYMBOL_PREFIXES.length]
+              + SYMBOL_SUFFIXES[(i / SYMBOL_PREFIXES.length) % SYMBOL_SUFFIXES.length]
+              + i;
+      symbols.add(symbol);
+      renameMap.put(symbol, getRenamedSymbol(i));
+    }
+  }
+
+  /**
+   * Generates an app.
+   *
+   * @param outputDir The directory to write the app to. The property map is written to {@code
+   *     rename.map} and the app's files under {@code app}.
+   * @param version The Polymer version of the generated elements.
+   * @param elementCount The number of custom elements of the app.
+   * @param mapSize The number of generated symbols of the property map.
+   * @param seed The seed that picks the symbols each element references.
+   * @return The number of files generated.
+   */
+  static int generate(
+      Path outputDir, PolymerVersion version, int elementCount, int mapSize, long seed)
+      throws IOException {
+    return new SyntheticAppGenerator(version, Math.max(1, mapSize), seed)
+        .write(outputDir, elementCount);
+  }
+
+  private int write(Path outputDir, int elementCount) throws IOException {
+    Path appDir = outputDir.resolve("app");
+    Path elementsDir = appDir.resolve("elements");
+    Path seedsDir = appDir.resolve("seeds");
+    Files.createDirectories(elementsDir);
+    Files.createDirectories(seedsDir);
+    int fileCount = 0;
+
+    String[] seeds = version == PolymerVersion.POLYMER_0_5 ? POLYMER_0_5_SEEDS : POLYMER_1_SEEDS;
+    for (String seed : seeds) {
+      Files.copy(
+          TEST_DATA_DIR.resolve(seed),
+          seedsDir.resolve(seed),
+          StandardCopyOption.REPLACE_EXISTING);
+      fileCount++;
+    }
+    for (String line : Files.readAllLines(TEST_DATA_DIR.resolve("rename.map"), UTF_8)) {
+      String[] entry = line.split(":");
+      if (entry.length == 2) {
+        renameMap.put(entry[0], entry[1]);
+      }
+    }
+
+    for (int i = 0; i < elementCount; i++) {
+      String html =
+          version == PolymerVersion.POLYMER_0_5
+              ? newPolymer05Element(i, elementCount)
+              : newPolymer1Element(i, elementCount);
+      Files.write(elementsDir.resolve(getElementName(i) + ".html"), html.getBytes(UTF_8));
+      fileCount++;
+      if (version == PolymerVersion.POLYMER_1 && i % ELEMENTS_PER_BEHAVIOR == 0) {
+        Files.write(
+            elementsDir.resolve("behavior" + i + ".js"), newBehavior(i).getBytes(UTF_8));
+        fileCount++;
+      }
+    }
+
+    try (BufferedWriter writer = Files.newBufferedWriter(outputDir.resolve("rename.map"), UTF_8)) {
+      for (Map.Entry<String, String> entry : renameMap.entrySet()) {
+        writer.write(entry.getKey());
+        writer.write(':');
+        writer.write(entry.getValue());
+        writer.write('\n');
+      }
+    }
+    return fileCount;
+  }
+
+  /** Returns a short identifier like those the Closure Compiler renames properties to. */
+  private static String getRenamedSymbol(int index) {
+    StringBuilder renamed = new StringBuilder();
+    do {
+      renamed.append(RENAMED_SYMBOL_CHARACTERS.charAt(index % RENAMED_SYMBOL_CHARACTERS.length()));
+      index = index / RENAMED_SYMBOL_CHARACTERS.length() - 1;
+    } while (index >= 0);
+    return renamed.toString();
+  }
+
+  private static String getElementName(int index) {
+    return "x-element" + index;
+  }
+
+  private String[] pickSymbols(int count) {
+    String[] picked = new String[count];
+    for (int i = 0; i < count; i++) {
+      picked[i] = symbols.get(random.nextInt(symbols.size()));
+    }
+    return picked;
+  }
+
+  private String newPolymer1Element(int index, int elementCount) {
+    String name = getElementName(index);
+    String[] properties = pickSymbols(PROPERTIES_PER_ELEMENT);
+    String handler = pickSymbols(1)[0];
+    StringBuilder html = new StringBuilder(4096);
+    html.append("<dom-module id=\"").append(name).append("\" name=\"").append(name)
+        .append("\">\n  <template>\n");
+    appendTemplateRows(html, properties, handler, "[[", "]]");
+    if (index + 1 < elementCount) {
+      // Attribute keys of other custom elements bind to their camel case properties.
+      html.append("    <").append(getElementName(index + 1));
+      for (String property : properties) {
+        html.append(' ').append(CaseFormat.LOWER_CAMEL.to(CaseFormat.LOWER_HYPHEN, property))
+            .append("=\"{{").append(property).append("}}\"");
+      }
+      html.append("></").append(getElementName(index + 1)).append(">\n");
+    }
+    html.append("  </template>\n  <script>\n    Polymer({\n      is: '").append(name)
+        .append("',\n      properties: {\n");
+    for (int i = 0; i < properties.length; i++) {
+      html.append("        ").append(properties[i]).append(": {type: String, observer: '")
+          .append(handler).append("'");
+      if (i > 0) {
+        html.append(", computed: 'compute(").append(properties[i - 1]).append(", unrenamed")
+            .append(index).append(")'");
+      }
+      html.append("},\n");
+    }
+    html.append("        unrenamed").append(index).append(": Number\n      },\n")
+        .append("      observers: [\n")
+        .append("        '").append(handler).append("(").append(properties[0]).append(".*, ")
+        .append(properties[1]).append(")'\n      ],\n")
+        .append("      listeners: {'tap': '").append(handler).append("'},\n")
+        .append("      keyBindings: {'enter': '").append(handler).append("', 'esc': 'close'},\n")
+        .append("      ").append(handler).append(": function(value) {\n")
+        .append("        this.").append(properties[2]).append(" = value;\n")
+        .append("        this.listen(this.$.row, 'up', '").append(handler).append("');\n")
+        .append("        return this.").append(properties[3]).append(" + this.unrenamed")
+        .append(index).append(";\n")
+        .append("      }\n    });\n  </script>\n</dom-module>\n");
+    return html.toString();
+  }
+
+  private String newPolymer05Element(int index, int elementCount) {
+    String name = getElementName(index);
+    String[] properties = pickSymbols(PROPERTIES_PER_ELEMENT);
+    String handler = pickSymbols(1)[0];
+    StringBuilder html = new StringBuilder(4096);
+    html.append("<polymer-element name=\"").append(name).append("\" attributes=\"");
+    for (int i = 0; i < properties.length; i++) {
+      html.append(i == 0 ? "" : " ").append(properties[i]);
+    }
+    html.append(" unrenamed").append(index).append("\">\n  <template>\n");
+    appendTemplateRows(html, properties, handler, "{{", "}}");
+    html.append("  </template>\n  <script>\n    Polymer('").append(name).append("', {\n");
+    for (int i = 0; i < properties.length; i++) {
+      html.append("      ").append(properties[i]).append("Changed: function() {\n")
+          .append("        this.").append(properties[(i + 1) % properties.length])
+          .append(" = this.").append(properties[i]).append(";\n      },\n");
+    }
+    html.append("      ").append(handler).append(": function() {\n")
+        .append("        return this.unrenamed").append(index).append(";\n")
+        .append("      }\n    });\n  </script>\n</polymer-element>\n");
+    return html.toString();
+  }
+
+  private static void appendTemplateRows(
+      StringBuilder html, String[] properties, String handler, String open, String close) {
+    for (int i = 0; i < properties.length; i++) {
+      String property = properties[i];
+      String next = properties[(i + 1) % properties.length];
+      html.append("    <div class=\"row\" title=\"{{").append(property).append("}}\" on-tap=\"")
+          .append(handler).append("\">\n")
+          .append("      ").append(open).append(property).append(close).append(" of ")
+          .append(open).append("compute(").append(next).append(", item.unrenamed)")
+          .append(close).append("\n")
+          .append("      <span hidden$=\"[[!").append(next).append("]]\">")
+          .append(open).append(property).append(".length").append(close)
+          .append("</span>\n    </div>\n");
+    }
+  }
+
+  private String newBehavior(int index) {
+    String[] properties = pickSymbols(3);
+    return "var behavior" + index + " = {\n"
+        + "  properties: {\n"
+        + "    " + properties[0] + ": {type: String, observer: '" + properties[1] + "'}\n"
+        + "  },\n"
+        + "  observers: ['" + properties[1] + "(" + properties[0] + ", " + properties[2] + ")'],\n"
+        + "  " + properties[1] + ": function() {\n"
+        + "    this." + properties[2] + " = this." + properties[0] + ";\n"
+        + "  }\n"
+        + "};\n";
+  }
+
+  /**
+   * Generates an app from the command line.
+   *
+   * @param args The output directory, the Polymer version ("0.5" or "1"), the number of elements,
+   *     the property map size and optionally the seed.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 4) {
+      System.err.println(
+          "Usage: SyntheticAppGenerator <Output Dir> <0.5|1> <Elements> <Map Size> [Seed]");
+      System.exit(1);
+    }
+    PolymerVersion version =
+        args[1].equals("0.5") ? PolymerVersion.POLYMER_0_5 : PolymerVersion.POLYMER_1;
+    long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+    int fileCount =
+        generate(
+            Paths.get(args[0]),
+            version,
+            Integer.parseInt(args[2]),
+            Integer.parseInt(args[3]),
+            seed);
+    System.out.printf("%d files generated in %s%n", fileCount, args[0]);
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Records the files, phases and expressions measured by {@link RenameMetrics} as Java Flight
+ * Recorder events, so that renamer phases can be lined up with garbage collections and
+ * allocations in a recording. Runs are only measured while a recording is running.
+ *
+ * <p>This class needs the jdk.jfr API of Java 11, so it is built separately from the renamer and
+ * loaded by name. Without it, or on an older JVM, no events are recorded.
+ */
+final class JfrRenameEvents implements RenameMetrics.Listener, FlightRecorderListener {
+
+  // The category all renamer events are listed under.
+  private static final String CATEGORY = "Polymer Renamer";
+
+  /** An HTML or JS file renamed. */
+  @Name("com.google.polymer.FileRenamed")
+  @Label("File Renamed")
+  @Category(CATEGORY)
+  @Description("An HTML or JS file read, renamed and written")
+  static final class FileEvent extends Event {
+    @Label("Path")
+    String path;
+
+    @Label("Type")
+    String type;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    @Label("Renamed Size")
+    @DataAmount
+    long renamedSize;
+  }
+
+  /** A phase of renaming a file, including the phases it contains. */
+  @Category(CATEGORY)
+  abstract static class PhaseEvent extends Event {}
+
+  @Name("com.google.polymer.Read")
+  @Label("Read")
+  static final class ReadEvent extends PhaseEvent {}
+
+  @Name("com.google.polymer.HtmlParse")
+  @Label("HTML Parse")
+  static final class HtmlParseEvent extends PhaseEvent {}
+
+  @Name("com.google.polymer.JsParse")
+  @Label("JS Parse")
+  static final class JsParseEvent extends PhaseEvent {}
+
+  @Name("com.google.polymer.Rename")
+  @Label("Rename Pass")
+  static final class RenameEvent extends PhaseEvent {}
+
+  @Name("com.google.polymer.Print")
+  @Label("Code Print")
+  static final class PrintEvent extends PhaseEvent {}
+
+  @Name("com.google.polymer.SourceMapWrite")
+  @Label("Sourcemap Write")
+  static final class SourceMapEvent extends PhaseEvent {}
+
+  @Name("com.google.polymer.Write")
+  @Label("Write")
+  static final class WriteEvent extends PhaseEvent {}
+
+  /** A databinding or descriptor expression renamed without the expression cache. */
+  @Name("com.google.polymer.ExpressionRenamed")
+  @Label("Expression Renamed")
+  @Category(CATEGORY)
+  @Description("A Polymer JavaScript-like expression renamed without the expression cache")
+  static final class ExpressionEvent extends Event {
+    @Label("Expression")
+    String expression;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Method Pattern Fallback")
+    @Description("Whether the expression failed to parse and was renamed as a method call")
+    boolean methodPatternFallback;
+  }
+
+  private volatile boolean recording = false;
+
+  JfrRenameEvents() {
+    FlightRecorder.addListener(this);
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return recording;
+  }
+
+  @Override
+  public Object beginFile() {
+    return begin(new FileEvent());
+  }
+
+  @Override
+  public void endFile(Object file, String path, String type, long bytesIn, long bytesOut) {
+    FileEvent event = (FileEvent) file;
+    event.end();
+    if (event.shouldCommit()) {
+      event.path = path;
+      event.type = type;
+      event.size = bytesIn;
+      event.renamedSize = bytesOut;
+      event.commit();
+    }
+  }
+
+  @Override
+  public Object beginPhase(RenameMetrics.Phase phase) {
+    switch (phase) {
+      case READ:
+        return begin(new ReadEvent());
+      case HTML_PARSE:
+        return begin(new HtmlParseEvent());
+      case JS_PARSE:
+        return begin(new JsParseEvent());
+      case RENAME:
+        return begin(new RenameEvent());
+      case PRINT:
+        return begin(new PrintEvent());
+      case SOURCEMAP:
+        return begin(new SourceMapEvent());
+      case WRITE:
+        return begin(new WriteEvent());
+    }
+    return null;
+  }
+
+  @Override
+  public void endPhase(Object phase) {
+    ((Event) phase).commit();
+  }
+
+  @Override
+  public Object beginExpression() {
+    return begin(new ExpressionEvent());
+  }
+
+  @Override
+  public void endExpression(
+      Object expression, String js, RenameMetrics.ExpressionOutcome outcome) {
+    ExpressionEvent event = (ExpressionEvent) expression;
+    event.end();
+    if (event.shouldCommit()) {
+      event.expression = js;
+      event.outcome = outcome.name();
+      event.methodPatternFallback =
+          outcome == RenameMetrics.ExpressionOutcome.METHOD_PATTERN_FALLBACK;
+      event.commit();
+    }
+  }
+
+  private static Event begin(Event event) {
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void recorderInitialized(FlightRecorder recorder) {
+    updateRecording(recorder);
+  }
+
+  @Override
+  public void recordingStateChanged(Recording changed) {
+    updateRecording(FlightRecorder.getFlightRecorder());
+  }
+
+  private void updateRecording(FlightRecorder recorder) {
+    boolean running = false;
+    for (Recording recording : recorder.getRecordings()) {
+      running |= recording.getState() == RecordingState.RUNNING;
+    }
+    recording = running;
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.debugging.sourcemap.FilePosition;
+import com.google.debugging.sourcemap.SourceMapGeneratorV3;
+import java.io.IOException;
+
+/**
+ * Generates the synthetic property maps and Polymer sources the JMH benchmarks rename. Inputs are
+ * made of repeated Polymer elements, each of which references a few symbols of the property map
+ * and a few symbols that aren't renamed, so renames scale with the input size.
+ */
+final class BenchmarkInputs {
+
+  private BenchmarkInputs() {}
+
+  /** Returns the symbol of the property map at {@code index}. */
+  static String getSymbol(int index) {
+    return "property" + index;
+  }
+
+  /**
+   * Returns a property map of {@code size} symbols.
+   *
+   * @param size The number of symbols.
+   */
+  static ImmutableMap<String, String> newPropertyMap(int size) {
+    ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+    for (int i = 0; i < size; i++) {
+      builder.put(getSymbol(i), Integer.toString(i, Character.MAX_RADIX));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the content of a text property map of {@code size} symbols.
+   *
+   * @param size The number of symbols.
+   */
+  static String newPropertyMapText(int size) {
+    StringBuilder text = new StringBuilder(size * 16);
+    for (int i = 0; i < size; i++) {
+      text.append(getSymbol(i)).append(':').append(Integer.toString(i, Character.MAX_RADIX));
+      text.append('\n');
+    }
+    return text.toString();
+  }
+
+  /**
+   * Returns the text of an HTML template, made of databinding directives and plain text.
+   *
+   * @param elementCount The number of elements of the template.
+   * @param mapSize The number of symbols of the property map the template references.
+   */
+  static String newTemplateText(int elementCount, int mapSize) {
+    StringBuilder text = new StringBuilder(elementCount * 64);
+    for (int i = 0; i < elementCount; i++) {
+      text.append("Text [[").append(getSymbol(i % mapSize)).append("]] and {{compute(")
+          .append(getSymbol((i * 7) % mapSize)).append(", unrenamed").append(i).append(")}} ");
+    }
+    return text.toString();
+  }
+
+  /**
+   * Returns a Polymer 1.0 HTML document of {@code elementCount} dom-modules, each with bindings,
+   * an event listener and an inline script.
+   *
+   * @param elementCount The number of custom elements the document defines.
+   * @param mapSize The number of symbols of the property map the document references.
+   */
+  static String newHtml(int elementCount, int mapSize) {
+    StringBuilder html = new StringBuilder(elementCount * 512);
+    html.append("<!DOCTYPE html>\n<html>\n<body>\n");
+    for (int i = 0; i < elementCount; i++) {
+      String property = getSymbol(i % mapSize);
+      String other = getSymbol((i * 7) % mapSize);
+      html.append("<dom-module id=\"x-element").append(i).append("\">\n")
+          .append("  <template>\n")
+          .append("    <div class=\"item\" title=\"{{").append(property).append("}}\" on-tap=\"")
+          .append(other).append("\">\n")
+          .append("      [[compute(").append(property).append(", unrenamed").append(i)
+          .append(")]]\n")
+          .append("    </div>\n")
+          .append("    <x-child ").append(other).append("=\"[[").append(property)
+          .append(".length]]\"></x-child>\n")
+          .append("  </template>\n")
+          .append("  <script>\n")
+          .append(newPolymerCall(i, mapSize))
+          .append("  </script>\n")
+          .append("</dom-module>\n");
+    }
+    html.append("</body>\n</html>\n");
+    return html.toString();
+  }
+
+  /**
+   * Returns a script of {@code elementCount} Polymer calls.
+   *
+   * @param elementCount The number of custom elements the script defines.
+   * @param mapSize The number of symbols of the property map the script references.
+   */
+  static String newJs(int elementCount, int mapSize) {
+    StringBuilder js = new StringBuilder(elementCount * 384);
+    for (int i = 0; i < elementCount; i++) {
+      js.append(newPolymerCall(i, mapSize));
+    }
+    return js.toString();
+  }
+
+  /**
+   * Returns an identity sourcemap of a script, mapping every line to itself.
+   *
+   * @param js The script.
+   * @param fileName The name of the script.
+   */
+  static String newIdentitySourceMap(String js, String fileName) throws IOException {
+    SourceMapGeneratorV3 generator = new SourceMapGeneratorV3();
+    int line = 0;
+    int lineStart = 0;
+    for (int i = 0; i <= js.length(); i++) {
+      if (i == js.length() || js.charAt(i) == '\n') {
+        if (i > lineStart) {
+          generator.addMapping(
+              fileName,
+              null,
+              new FilePosition(line, 0),
+              new FilePosition(line, 0),
+              new FilePosition(line, i - lineStart));
+        }
+        line++;
+        lineStart = i + 1;
+      }
+    }
+    StringBuilder sourceMap = new StringBuilder();
+    generator.appendTo(sourceMap, fileName);
+    return sourceMap.toString();
+  }
+
+  /**
+   * Returns Polymer JavaScript-like expressions such as those found in databinding directives.
+   *
+   * @param count The number of expressions.
+   * @param mapSize The number of symbols of the property map the expressions reference.
+   */
+  static String[] newExpressions(int count, int mapSize) {
+    String[] expressions = new String[count];
+    for (int i = 0; i < count; i++) {
+      String property = getSymbol(i % mapSize);
+      switch (i % 4) {
+        case 0:
+          expressions[i] = property;
+          break;
+        case 1:
+          expressions[i] = property + ".unrenamed" + i;
+          break;
+        case 2:
+          expressions[i] = "compute(" + property + ", " + getSymbol((i * 7) % mapSize) + ")";
+          break;
+        default:
+          expressions[i] = "!" + property + ".*";
+          break;
+      }
+    }
+    return expressions;
+  }
+
+  private static String newPolymerCall(int index, int mapSize) {
+    String property = getSymbol(index % mapSize);
+    String other = getSymbol((index * 7) % mapSize);
+    return "Polymer({\n"
+        + "  is: 'x-element" + index + "',\n"
+        + "  properties: {\n"
+        + "    " + property + ": {type: String, observer: '" + other + "'},\n"
+        + "    unrenamed" + index + ": Number\n"
+        + "  },\n"
+        + "  observers: ['" + other + "(" + property + ".*)'],\n"
+        + "  listeners: {'tap': '" + other + "'},\n"
+        + "  " + other + ": function(value) {\n"
+        + "    this." + property + " = value + this.unrenamed" + index + ";\n"
+        + "  }\n"
+        + "});\n";
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures renaming Polymer HTML documents with the expression cache disabled, both by
+ * serializing the parsed document and by preserving the source.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class HtmlRenameBenchmark {
+
+  // The number of Polymer elements of the input.
+  @Param({"10", "100", "1000"})
+  public int inputSize;
+
+  // The number of symbols of the property map.
+  @Param({"100", "10000", "1000000"})
+  public int mapSize;
+
+  private RenameMap renameMap;
+  private String html;
+
+  @Setup
+  public void setUp() {
+    JsRenamer.setExpressionCacheSize(0);
+    renameMap = RenameMap.of(BenchmarkInputs.newPropertyMap(mapSize));
+    html = BenchmarkInputs.newHtml(inputSize, mapSize);
+  }
+
+  @Benchmark
+  public String rename() {
+    return HtmlRenamer.rename(renameMap, html);
+  }
+
+  @Benchmark
+  public String renamePreserveSource() {
+    return HtmlRenamer.rename(
+        renameMap, html, ImmutableSet.of(HtmlRenamer.OutputFormat.PRESERVE_SOURCE));
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures renaming Polymer JavaScript files, with and without input sourcemaps, and the
+ * expression and property renames HTML documents use, with the expression cache disabled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class JsRenameBenchmark {
+
+  private static final String INPUT_FILE_NAME = "input.js";
+
+  // The number of Polymer elements of the input.
+  @Param({"10", "100", "1000"})
+  public int inputSize;
+
+  // The number of symbols of the property map.
+  @Param({"100", "10000", "1000000"})
+  public int mapSize;
+
+  private RenameMap renameMap;
+  private String js;
+  private String inputSourceMap;
+  private Path outputSourceMap;
+  private String[] expressions;
+
+  @Setup
+  public void setUp() throws IOException {
+    JsRenamer.setExpressionCacheSize(0);
+    renameMap = RenameMap.of(BenchmarkInputs.newPropertyMap(mapSize));
+    js = BenchmarkInputs.newJs(inputSize, mapSize);
+    inputSourceMap = BenchmarkInputs.newIdentitySourceMap(js, INPUT_FILE_NAME);
+    outputSourceMap = Files.createTempFile("JsRenameBenchmark", ".sourcemap");
+    expressions = BenchmarkInputs.newExpressions(inputSize, mapSize);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.delete(outputSourceMap);
+  }
+
+  @Benchmark
+  public String rename() throws JavaScriptParsingException {
+    return JsRenamer.rename(
+        renameMap,
+        js,
+        ImmutableSet.<JsRenamer.OutputFormat>of(),
+        INPUT_FILE_NAME,
+        null,
+        null);
+  }
+
+  @Benchmark
+  public String renameWithSourceMap() throws JavaScriptParsingException {
+    return JsRenamer.rename(
+        renameMap,
+        js,
+        ImmutableSet.<JsRenamer.OutputFormat>of(),
+        INPUT_FILE_NAME,
+        inputSourceMap,
+        outputSourceMap.toString());
+  }
+
+  @Benchmark
+  public String renamePreserveSource() throws JavaScriptParsingException {
+    return JsRenamer.rename(
+        renameMap,
+        js,
+        ImmutableSet.of(JsRenamer.OutputFormat.PRESERVE_SOURCE),
+        INPUT_FILE_NAME,
+        null,
+        null);
+  }
+
+  @Benchmark
+  public String renameProperties() throws JavaScriptParsingException {
+    return JsRenamer.renameProperties(renameMap, js);
+  }
+
+  @Benchmark
+  public int renamePolymerJsExpression() throws JavaScriptParsingException {
+    int length = 0;
+    for (String expression : expressions) {
+      length += JsRenamer.renamePolymerJsExpression(renameMap, expression).length();
+    }
+    return length;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import com.google.polymer.PolymerDatabindingLexer.TokenHandler;
+import com.google.polymer.PolymerDatabindingLexer.TokenType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures lexing HTML template text into databinding tokens. The lexer doesn't consult the
+ * property map, so only the input size is varied.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class LexerBenchmark {
+
+  // The number of elements of the lexed template text.
+  @Param({"10", "100", "1000"})
+  public int inputSize;
+
+  private String text;
+
+  @Setup
+  public void setUp() {
+    text = BenchmarkInputs.newTemplateText(inputSize, inputSize);
+  }
+
+  @Benchmark
+  public PolymerDatabindingLexer.Token[] lexTokens() {
+    return PolymerDatabindingLexer.lex(text);
+  }
+
+  @Benchmark
+  public int lexRanges() {
+    final int[] tokenCount = {0};
+    PolymerDatabindingLexer.lex(
+        text,
+        new TokenHandler() {
+          @Override
+          public void token(TokenType type, int start, int end) {
+            tokenCount[0]++;
+          }
+        });
+    return tokenCount[0];
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading text and binary property maps with PolymerRenamer.getRenameMap. The property
+ * map file is the whole input, so only its size is varied.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class RenameMapBenchmark {
+
+  // The number of symbols of the property map.
+  @Param({"100", "10000", "1000000"})
+  public int mapSize;
+
+  private Path textMap;
+  private Path binaryMap;
+
+  @Setup
+  public void setUp() throws IOException {
+    textMap = Files.createTempFile("RenameMapBenchmark", ".map");
+    Files.write(textMap, BenchmarkInputs.newPropertyMapText(mapSize).getBytes("UTF-8"));
+    binaryMap = Files.createTempFile("RenameMapBenchmark", ".bin");
+    BinaryRenameMap.write(BenchmarkInputs.newPropertyMap(mapSize), binaryMap);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.delete(textMap);
+    Files.delete(binaryMap);
+  }
+
+  @Benchmark
+  public RenameMap getTextRenameMap() throws IOException {
+    return PolymerRenamer.getRenameMap(textMap.toString());
+  }
+
+  @Benchmark
+  public RenameMap getBinaryRenameMap() throws IOException {
+    return PolymerRenamer.getRenameMap(binaryMap.toString());
+  }
+}
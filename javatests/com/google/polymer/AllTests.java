@@ -17,6 +17,23 @@ import org.junit.runners.Suite.SuiteClasses;
  * Suite to run all of the tests annotated with @RunWith in this package and all subpackages.
  */
 @RunWith(Suite.class)
-@SuiteClasses({PolymerRenamerTest.class, JsRenamerTest.class})
+@SuiteClasses({
+  PolymerRenamerTest.class,
+  JsRenamerTest.class,
+  PersistentWorkerTest.class,
+  PolymerDatabindingLexerTest.class,
+  HtmlRenamerTest.class,
+  BinaryRenameMapTest.class,
+  RenameMapParserTest.class,
+  ResultCacheTest.class,
+  IncrementalIndexTest.class,
+  SymbolPrefilterTest.class,
+  PolymerExpressionRenamerTest.class,
+  OutputWriterTest.class,
+  InputFilesTest.class,
+  JsSegmenterTest.class,
+  RenameMapTest.class,
+  InputWatcherTest.class
+})
 public final class AllTests {
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for BinaryRenameMap.
+ */
+@RunWith(JUnit4.class)
+public class BinaryRenameMapTest {
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+    Random random = new Random(0);
+    for (int i = 0; i < 5000; i++) {
+      builder.put("symbol" + i + "_" + random.nextInt(), Integer.toString(i, 36));
+    }
+    builder.put("\u00FCmlaut", "\uD83D\uDE00");
+    builder.put("", "empty");
+    ImmutableMap<String, String> renameMap = builder.build();
+
+    Path path = tmpFolder.newFile("rename.bin").toPath();
+    BinaryRenameMap.write(renameMap, path);
+    assertTrue(BinaryRenameMap.isBinaryRenameMap(path));
+    BinaryRenameMap binaryRenameMap = BinaryRenameMap.open(path);
+
+    assertEquals(renameMap.size(), binaryRenameMap.size());
+    for (Map.Entry<String, String> entry : renameMap.entrySet()) {
+      assertEquals(entry.getValue(), binaryRenameMap.get(entry.getKey()));
+    }
+    assertNull(binaryRenameMap.get("symbol"));
+    assertNull(binaryRenameMap.get("notRenamed"));
+    assertFalse(binaryRenameMap.containsKey("\u00FCmlau"));
+    assertArrayEquals(
+        Hashing.sha256().hashBytes(Files.readAllBytes(path)).asBytes(),
+        binaryRenameMap.getContentDigest());
+  }
+
+  @Test
+  public void testGetSlice() throws IOException {
+    Path path = tmpFolder.newFile("rename.bin").toPath();
+    BinaryRenameMap.write(
+        ImmutableMap.of("longName", "a", "\u00FCmlaut", "\uD83D\uDE00"), path);
+    BinaryRenameMap binaryRenameMap = BinaryRenameMap.open(path);
+
+    String text = "this.longNameChanged + \u00FCmlautChanged";
+    assertEquals("a", binaryRenameMap.get(text, 5, 13));
+    assertEquals("aChanged", binaryRenameMap.getChanged(text, 5, 20));
+    assertEquals("\uD83D\uDE00", binaryRenameMap.get(new StringBuilder(text), 23, 29));
+    assertEquals("\uD83D\uDE00Changed", binaryRenameMap.getChanged(text, 23, 36));
+    assertNull(binaryRenameMap.get(text, 5, 12));
+    assertNull(binaryRenameMap.get(text, 23, 28));
+    assertNull(binaryRenameMap.getChanged(text, 5, 13));
+    assertEquals("a", binaryRenameMap.getAttributeKey("long-name"));
+    assertNull(binaryRenameMap.getAttributeKey("other-name"));
+  }
+
+  @Test
+  public void testEmptyMap() throws IOException {
+    Path path = tmpFolder.newFile("empty.bin").toPath();
+    BinaryRenameMap.write(ImmutableMap.<String, String>of(), path);
+    BinaryRenameMap binaryRenameMap = BinaryRenameMap.open(path);
+    assertEquals(0, binaryRenameMap.size());
+    assertNull(binaryRenameMap.get("anything"));
+  }
+
+  @Test
+  public void testTextMapIsNotBinary() throws IOException {
+    Path path = tmpFolder.newFile("rename.map").toPath();
+    assertFalse(BinaryRenameMap.isBinaryRenameMap(path));
+    Files.write(path, Arrays.asList("symbolA:ab", "coolSymbolName:b"), UTF_8);
+    assertFalse(BinaryRenameMap.isBinaryRenameMap(path));
+    try {
+      BinaryRenameMap.open(path);
+      fail();
+    } catch (IOException expected) {
+      // A text map is rejected.
+    }
+  }
+
+  @Test
+  public void testGetRenameMapDetectsFormat() throws IOException {
+    File textMap = tmpFolder.newFile("rename.map");
+    Files.write(textMap.toPath(), Arrays.asList("symbolA:ab", "coolSymbolName:b"), UTF_8);
+    File binaryMap = tmpFolder.newFile("rename.bin");
+    BinaryRenameMap.write(PolymerRenamer.parseRenameMap(textMap.getPath()), binaryMap.toPath());
+
+    RenameMap renameMap = PolymerRenamer.getRenameMap(binaryMap.getPath());
+    assertTrue(renameMap instanceof BinaryRenameMap);
+    assertEquals("ab", renameMap.get("symbolA"));
+    assertEquals("b", renameMap.get("coolSymbolName"));
+    assertEquals("ab", PolymerRenamer.getRenameMap(textMap.getPath()).get("symbolA"));
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.IOException;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Entities.EscapeMode;
+import org.jsoup.parser.Parser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for HtmlRenamer.
+ */
+@RunWith(JUnit4.class)
+public class HtmlRenamerTest {
+
+  private static final RenameMap RENAME_MAP =
+      RenameMap.of(
+          ImmutableMap.of(
+              "longName", "a",
+              "otherProperty", "b",
+              "handleTap", "c",
+              "fooBar", "bazQux"));
+
+  private static final ImmutableSet<HtmlRenamer.OutputFormat> PRESERVE_SOURCE =
+      ImmutableSet.of(HtmlRenamer.OutputFormat.PRESERVE_SOURCE);
+
+  @Test
+  public void testPreserveSourceMatchesSerializedRename() throws IOException {
+    RenameMap renameMap =
+        PolymerRenamer.getRenameMap(getFilePathFromTestData("rename.map"));
+    for (String filename : new String[] {"source.html", "polymer_v0.8.html"}) {
+      String html = PolymerRenamer.getFileContent(getFilePathFromTestData(filename));
+      assertEquals(
+          filename,
+          HtmlRenamer.rename(renameMap, html),
+          serialize(HtmlRenamer.rename(renameMap, html, PRESERVE_SOURCE)));
+    }
+  }
+
+  @Test
+  public void testPreserveSourceOnlyReplacesRenamedRanges() {
+    String html =
+        "<!DOCTYPE html>\n"
+            + "<DOM-MODULE id='x-foo' name=\"x-foo\">\n"
+            + "  <template>\n"
+            + "    <!-- {{longName}} stays in comments -->\n"
+            + "    <DIV  Class = 'a' title='{{ longName }} and [[otherProperty]]'>"
+            + "Hi, {{longName}}!<br>\n"
+            + "    <button on-tap=handleTap  disabled>Tap</button>\n"
+            + "    <textarea>{{longName}}</textarea>\n"
+            + "  </template>\n"
+            + "</dom-module>\n"
+            + "<x-foo long-name=\"1\" Foo-Bar=2 on-long-name=\"3\"></x-foo>\n"
+            + "<p>{{longName}} outside of a dom-module</p>\n";
+    String expected =
+        "<!DOCTYPE html>\n"
+            + "<DOM-MODULE id='x-foo' name=\"x-foo\">\n"
+            + "  <template>\n"
+            + "    <!-- {{longName}} stays in comments -->\n"
+            + "    <DIV  Class = 'a' title='{{a}} and [[b]]'>"
+            + "Hi, {{a}}!<br>\n"
+            + "    <button on-tap=c  disabled>Tap</button>\n"
+            + "    <textarea>{{a}}</textarea>\n"
+            + "  </template>\n"
+            + "</dom-module>\n"
+            + "<x-foo a=\"1\" baz-qux=2 on-long-name=\"3\"></x-foo>\n"
+            + "<p>{{longName}} outside of a dom-module</p>\n";
+    assertEquals(expected, HtmlRenamer.rename(RENAME_MAP, html, PRESERVE_SOURCE));
+  }
+
+  @Test
+  public void testPreserveSourceEscapesReplacedValues() {
+    String html =
+        "<dom-module name=\"x-foo\"><template>"
+            + "<span title=\"{{f(longName)}} &amp; more\">{{g(longName)}} &lt;</span>"
+            + "<span title='{{h(longName, \"c\")}}'></span>"
+            + "<span title={{k(longName,otherProperty)}}></span>"
+            + "</template></dom-module>";
+    String expected =
+        "<dom-module name=\"x-foo\"><template>"
+            + "<span title=\"{{f(a)}} &amp; more\">{{g(a)}} &lt;</span>"
+            + "<span title='{{h(a,&#39;c&#39;)}}'></span>"
+            + "<span title={{k(a,b)}}></span>"
+            + "</template></dom-module>";
+    assertEquals(expected, HtmlRenamer.rename(RENAME_MAP, html, PRESERVE_SOURCE));
+  }
+
+  @Test
+  public void testPreserveSourceRenamesInlineScripts() {
+    String html =
+        "<dom-module name=\"x-foo\">\n"
+            + "  <script type=\"text/javascript\">\n"
+            + "    Polymer({is: 'x-foo', properties: {longName: String}});\n"
+            + "  </script>\n"
+            + "  <style>.longName { color: red; }</style>\n"
+            + "</dom-module>\n";
+    String expected =
+        "<dom-module name=\"x-foo\">\n"
+            + "  <script type=\"text/javascript\">"
+            + "Polymer({is:\"x-foo\",properties:{a:String}});"
+            + "</script>\n"
+            + "  <style>.longName { color: red; }</style>\n"
+            + "</dom-module>\n";
+    assertEquals(expected, HtmlRenamer.rename(RENAME_MAP, html, PRESERVE_SOURCE));
+  }
+
+  @Test
+  public void testPreserveSourceWithoutRenamesReturnsInput() {
+    String html = "<dom-module name='x-foo'><template><p a=b>{{unknown}}</p>\n</template>";
+    assertEquals(html, HtmlRenamer.rename(RENAME_MAP, html, PRESERVE_SOURCE));
+  }
+
+  @Test
+  public void testRenameImmutableMap() {
+    String html = "<dom-module name=\"x-foo\"><template>{{longName}}</template></dom-module>";
+    assertEquals(
+        HtmlRenamer.rename(RENAME_MAP, html),
+        HtmlRenamer.rename(ImmutableMap.of("longName", "a"), html));
+  }
+
+  @Test
+  public void testRenamesAttributeKeysOfElementsUsedBeforeTheirDeclaration() {
+    String html =
+        "<x-foo long-name=\"1\" foo-bar=\"2\" other-name=\"3\"></x-foo>\n"
+            + "<x-bar long-name=\"4\"></x-bar>\n"
+            + "<dom-module name=\"x-foo\"><template>{{longName}}</template></dom-module>\n"
+            + "<dom-module name=\"X-Foo \"><template></template></dom-module>\n"
+            + "<x-foo long-name=\"5\"></x-foo>";
+    String expected =
+        "<x-foo a=\"1\" baz-qux=\"2\" other-name=\"3\"></x-foo>\n"
+            + "<x-bar long-name=\"4\"></x-bar>\n"
+            + "<dom-module name=\"x-foo\"><template>{{a}}</template></dom-module>\n"
+            + "<dom-module name=\"X-Foo \"><template></template></dom-module>\n"
+            + "<x-foo a=\"5\"></x-foo>";
+    assertEquals(serialize(expected), HtmlRenamer.rename(RENAME_MAP, html));
+  }
+
+  /** Serializes an HTML document the way HtmlRenamer does without PRESERVE_SOURCE. */
+  @Test
+  public void testConcurrentRenameMatchesSerialRename() throws IOException {
+    RenameMap renameMap =
+        PolymerRenamer.getRenameMap(getFilePathFromTestData("rename.map"));
+    for (String filename : new String[] {"source.html", "polymer_v0.8.html"}) {
+      String html = PolymerRenamer.getFileContent(getFilePathFromTestData(filename));
+      assertEquals(
+          filename,
+          HtmlRenamer.rename(renameMap, html),
+          HtmlRenamer.renameDocument(renameMap, HtmlRenamer.parseDocument(html), 4));
+    }
+  }
+
+  private static String serialize(String html) {
+    Document document = Parser.parse(html, "");
+    document.outputSettings().prettyPrint(false);
+    document.outputSettings().escapeMode(EscapeMode.extended);
+    return document.toString();
+  }
+
+  private static String getFilePathFromTestData(String filename) {
+    return new File("javatests/com/google/polymer/testdata", filename).getAbsolutePath();
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for IncrementalIndex and RecordingRenameMap.
+ */
+@RunWith(JUnit4.class)
+public class IncrementalIndexTest {
+
+  private static final RenameMap RENAME_MAP =
+      RenameMap.of(ImmutableMap.of("symbolA", "a", "symbolB", "b"));
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private Path indexFile;
+  private Path outputFile;
+  private String inputDigest;
+
+  @Before
+  public void setUp() throws IOException {
+    indexFile = tmpFolder.getRoot().toPath().resolve("index.json");
+    outputFile = tmpFolder.newFile("output.js").toPath();
+    inputDigest = IncrementalIndex.getInputDigest("input");
+
+    IncrementalIndex index = IncrementalIndex.load(indexFile, "format");
+    RecordingRenameMap recordingRenameMap = new RecordingRenameMap(RENAME_MAP);
+    assertEquals("a", recordingRenameMap.get("symbolA"));
+    assertFalse(recordingRenameMap.containsKey("symbolC"));
+    assertEquals(ImmutableSet.of("symbolA", "symbolC"), recordingRenameMap.getLookedUpSymbols());
+    index.record(outputFile, inputDigest, recordingRenameMap);
+    index.save();
+  }
+
+  @Test
+  public void testUnchangedOutputIsCurrent() throws IOException {
+    IncrementalIndex index = IncrementalIndex.load(indexFile, "format");
+    assertTrue(index.isCurrent(outputFile, inputDigest, RENAME_MAP));
+    assertTrue(
+        index.isCurrent(
+            outputFile,
+            inputDigest,
+            RenameMap.of(ImmutableMap.of("symbolA", "a", "symbolB", "changed"))));
+    index.save();
+    // Carried over entries survive another batch.
+    assertTrue(
+        IncrementalIndex.load(indexFile, "format").isCurrent(outputFile, inputDigest, RENAME_MAP));
+  }
+
+  @Test
+  public void testChangesMakeOutputStale() throws IOException {
+    IncrementalIndex index = IncrementalIndex.load(indexFile, "format");
+    assertFalse(
+        index.isCurrent(outputFile, IncrementalIndex.getInputDigest("changed"), RENAME_MAP));
+    assertFalse(
+        index.isCurrent(
+            outputFile, inputDigest, RenameMap.of(ImmutableMap.of("symbolA", "changed"))));
+    assertFalse(
+        index.isCurrent(
+            outputFile,
+            inputDigest,
+            RenameMap.of(ImmutableMap.of("symbolA", "a", "symbolC", "c"))));
+    assertFalse(
+        IncrementalIndex.load(indexFile, "other").isCurrent(outputFile, inputDigest, RENAME_MAP));
+    Files.delete(outputFile);
+    assertFalse(index.isCurrent(outputFile, inputDigest, RENAME_MAP));
+  }
+
+  @Test
+  public void testUnreadableIndexIsEmpty() throws IOException {
+    Files.write(indexFile, "{not json".getBytes(UTF_8));
+    assertFalse(
+        IncrementalIndex.load(indexFile, "format").isCurrent(outputFile, inputDigest, RENAME_MAP));
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for InputFiles.
+ */
+@RunWith(JUnit4.class)
+public class InputFilesTest {
+
+  private static final String CONTENT = "Polymer({is: 'x-\u00e9l\u00e9ment', \ud83d\ude00: 0});\n";
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private String read(byte[] content) throws IOException {
+    Path file = tmpFolder.newFile().toPath();
+    Files.write(file, content);
+    return InputFiles.read(file);
+  }
+
+  private static byte[] withByteOrderMark(byte[] byteOrderMark, byte[] content) {
+    byte[] bytes = Arrays.copyOf(byteOrderMark, byteOrderMark.length + content.length);
+    System.arraycopy(content, 0, bytes, byteOrderMark.length, content.length);
+    return bytes;
+  }
+
+  @Test
+  public void testReadUtf8() throws IOException {
+    assertEquals(CONTENT, read(CONTENT.getBytes(UTF_8)));
+    assertEquals("", read(new byte[0]));
+  }
+
+  @Test
+  public void testReadDropsByteOrderMark() throws IOException {
+    assertEquals(
+        CONTENT,
+        read(
+            withByteOrderMark(
+                new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, CONTENT.getBytes(UTF_8))));
+    assertEquals(
+        CONTENT,
+        read(withByteOrderMark(new byte[] {(byte) 0xFE, (byte) 0xFF}, CONTENT.getBytes(UTF_16BE))));
+    assertEquals(
+        CONTENT,
+        read(withByteOrderMark(new byte[] {(byte) 0xFF, (byte) 0xFE}, CONTENT.getBytes(UTF_16LE))));
+  }
+
+  @Test
+  public void testReadReplacesMalformedInput() throws IOException {
+    assertEquals("a\ufffdb", read(new byte[] {'a', (byte) 0xC3, 'b'}));
+  }
+}
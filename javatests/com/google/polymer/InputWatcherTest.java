@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for InputWatcher.
+ */
+@RunWith(JUnit4.class)
+public class InputWatcherTest {
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testWatchTree() throws IOException, InterruptedException {
+    Path root = tmpFolder.getRoot().toPath().toRealPath();
+    Path inputDir = Files.createDirectories(root.resolve("input/nested"));
+    Path outputDir = Files.createDirectories(root.resolve("input/output"));
+    try (InputWatcher watcher = new InputWatcher(50)) {
+      watcher.ignore(outputDir);
+      watcher.watchTree(root.resolve("input"));
+
+      Path a = write(inputDir.resolve("a.js"), "a();");
+      write(outputDir.resolve("a.js"), "a();");
+      write(a, "b();");
+      assertEquals(ImmutableSet.of(a), awaitChanges(watcher, 1));
+
+      // Files created along with a directory are included.
+      Path created = Files.createDirectories(root.resolve("input/created/deep"));
+      Path b = write(created.resolve("b.html"), "");
+      Path c = write(created.resolve("c.js"), "");
+      assertEquals(ImmutableSet.of(b, c), awaitChanges(watcher, 2));
+
+      Files.delete(a);
+      assertEquals(ImmutableSet.of(a), awaitChanges(watcher, 1));
+    }
+  }
+
+  @Test
+  public void testWatchFile() throws IOException, InterruptedException {
+    Path root = tmpFolder.getRoot().toPath().toRealPath();
+    Path propertyMap = root.resolve("rename.map");
+    try (InputWatcher watcher = new InputWatcher(50)) {
+      watcher.watchFile(propertyMap);
+      write(root.resolve("other.map"), "ignored");
+      write(propertyMap, "symbolA:a");
+      assertEquals(ImmutableSet.of(propertyMap), awaitChanges(watcher, 1));
+    }
+  }
+
+  @Test
+  public void testClose() throws IOException, InterruptedException {
+    InputWatcher watcher = new InputWatcher(50);
+    watcher.watchTree(tmpFolder.getRoot().toPath());
+    watcher.close();
+    assertNull(watcher.awaitChanges());
+  }
+
+  /**
+   * Waits for changes until at least a number of files changed. Changes may settle before all of
+   * the files written by a test are seen.
+   */
+  private static Set<Path> awaitChanges(InputWatcher watcher, int count)
+      throws InterruptedException {
+    Set<Path> changes = new HashSet<>();
+    while (changes.size() < count) {
+      changes.addAll(watcher.awaitChanges());
+    }
+    return changes;
+  }
+
+  private static Path write(Path file, String content) throws IOException {
+    return Files.write(file, content.getBytes(UTF_8));
+  }
+}
@@ -9,11 +9,25 @@
 
 package com.google.polymer;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.debugging.sourcemap.FilePosition;
+import com.google.debugging.sourcemap.SourceMapConsumerV3;
+import com.google.debugging.sourcemap.SourceMapGeneratorV3;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -22,13 +36,17 @@ import org.junit.runners.JUnit4;
  */
 @RunWith(JUnit4.class)
 public class JsRenamerTest {
-  private static final ImmutableMap<String, String> emptyMap = ImmutableMap.of();
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
 
-  private static final ImmutableMap<String, String> testMap =
-      ImmutableMap.of(
-          "a", "renamedA",
-          "longName", "rb",
-          "three", "renamed3");
+  private static final RenameMap emptyMap = RenameMap.of(ImmutableMap.<String, String>of());
+
+  private static final RenameMap testMap =
+      RenameMap.of(
+          ImmutableMap.of(
+              "a", "renamedA",
+              "longName", "rb",
+              "three", "renamed3"));
 
   @Test
   public void testRenamePropertiesEmptyMap() throws Exception {
@@ -39,6 +57,20 @@ public class JsRenamerTest {
     assertEquals("no.renames.here();", JsRenamer.renameProperties(emptyMap, "no.renames.here();"));
   }
 
+  @Test
+  public void testRenameImmutableMap() throws Exception {
+    String js = "Polymer({is: 'x-a', properties: {longName: String}});";
+    ImmutableSet<JsRenamer.OutputFormat> outputFormat = ImmutableSet.of();
+    assertEquals(
+        JsRenamer.rename(testMap, js, outputFormat, "a.js", null, null),
+        JsRenamer.rename(
+            ImmutableMap.of("longName", "rb"), js, outputFormat, "a.js", null, null));
+
+    ImmutableMap<String, String> renameMap = ImmutableMap.of("longName", "rb");
+    assertEquals("exp.rb;", JsRenamer.renameProperties(renameMap, "exp.longName;"));
+    assertEquals("rb.x", JsRenamer.renamePolymerJsExpression(renameMap, "longName.x"));
+  }
+
   @Test
   public void testRenamePropertiesSingleRename() throws Exception {
     assertEquals("longName;", JsRenamer.renameProperties(testMap, "longName;"));
@@ -142,4 +174,258 @@ public class JsRenamerTest {
   public void testError() throws Exception {
     JsRenamer.renamePolymerJsExpression(testMap, "InvalidJs)a,b,c(");
   }
+
+  @Test
+  public void testErrorSourceContext() throws Exception {
+    try {
+      JsRenamer.renameProperties(testMap, "a;\r\nb;\nvar = ;\n\n");
+      fail("Expected a JavaScriptParsingException");
+    } catch (JavaScriptParsingException e) {
+      String separator = System.lineSeparator();
+      assertEquals(
+          "ERROR: (3:4) 'identifier' expected" + separator
+              + "       var = ;" + separator
+              + "          ^" + separator,
+          e.toString());
+    }
+  }
+
+  @Test
+  public void testRenamePolymerJsExpressionCache() throws Exception {
+    RenameMap otherTestMap = RenameMap.of(ImmutableMap.of("a", "otherA"));
+    CacheStats before = JsRenamer.getExpressionCacheStats();
+    assertEquals("renamedA(rb)", JsRenamer.renamePolymerJsExpression(testMap, "a(longName)"));
+    assertEquals("renamedA(rb)", JsRenamer.renamePolymerJsExpression(testMap, "a(longName)"));
+    assertEquals("otherA(longName)",
+        JsRenamer.renamePolymerJsExpression(otherTestMap, "a(longName)"));
+    assertEquals("rb(renamedA.*)", JsRenamer.renamePolymerJsExpression(testMap, "longName(a.*)"));
+    assertEquals("rb(renamedA.*)", JsRenamer.renamePolymerJsExpression(testMap, "longName(a.*)"));
+    CacheStats delta = JsRenamer.getExpressionCacheStats().minus(before);
+    assertEquals(2, delta.hitCount());
+    assertEquals(3, delta.missCount());
+  }
+
+  @Test
+  public void testRenamePolymerJsExpressionCacheSharedByRecordingRenameMaps() throws Exception {
+    RenameMap renameMap = RenameMap.of(ImmutableMap.of("a", "renamedA", "b", "renamedB"));
+    RecordingRenameMap first = new RecordingRenameMap(renameMap);
+    RecordingRenameMap second = new RecordingRenameMap(renameMap);
+    CacheStats before = JsRenamer.getExpressionCacheStats();
+    assertEquals("renamedA(renamedB,c)", JsRenamer.renamePolymerJsExpression(first, "a(b, c)"));
+    assertEquals("renamedA(renamedB,c)", JsRenamer.renamePolymerJsExpression(second, "a(b, c)"));
+    CacheStats delta = JsRenamer.getExpressionCacheStats().minus(before);
+    assertEquals(1, delta.hitCount());
+    assertEquals(1, delta.missCount());
+    assertEquals(ImmutableSet.of("a", "b", "c"), first.getLookedUpSymbols());
+    assertEquals(ImmutableSet.of("a", "b", "c"), second.getLookedUpSymbols());
+
+    // Expressions renamed without recording are renamed again for recording rename maps.
+    assertEquals("renamedA.d", JsRenamer.renamePolymerJsExpression(renameMap, "a.d"));
+    assertEquals("renamedA.d", JsRenamer.renamePolymerJsExpression(first, "a.d"));
+    assertTrue(first.getLookedUpSymbols().containsAll(ImmutableSet.of("a", "d")));
+  }
+
+  @Test
+  public void testRenamePolymerJsExpressionCachedError() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      try {
+        JsRenamer.renamePolymerJsExpression(testMap, "InvalidJs)a,b,c(");
+        fail();
+      } catch (JavaScriptParsingException e) {
+        assertTrue(e.toString().contains("ERROR"));
+      }
+    }
+  }
+
+  @Test
+  public void testRenamePolymer05PropertiesBeforePolymerCall() throws Exception {
+    assertEquals("x.rb;Polymer(\"x-a\",{rb:1,renamedA:function(){this.rb=2}});",
+        JsRenamer.rename(
+            testMap,
+            "x.longName; Polymer('x-a', {longName: 1, a: function() { this.longName = 2; }});",
+            ImmutableSet.<JsRenamer.OutputFormat>of(),
+            "input.js",
+            null,
+            null));
+  }
+
+  @Test
+  public void testRenameRepeatedObjectLiteralKeys() throws Exception {
+    assertEquals("Polymer({is:\"x-a\",observers:[\"a(longName)\"],observers:[\"rb(renamedA)\"]});",
+        JsRenamer.rename(
+            testMap,
+            "Polymer({is: 'x-a', observers: ['a(longName)'], observers: ['longName(a)']});",
+            ImmutableSet.<JsRenamer.OutputFormat>of(),
+            "input.js",
+            null,
+            null));
+  }
+
+  @Test
+  public void testPreserveSource() throws Exception {
+    assertEquals(
+        "x.rb; // Comment.\n"
+            + "Polymer('x-a', {\n  rb: 1,\n  renamedA: function() { this.rb = 2; }\n});\n",
+        JsRenamer.rename(
+            testMap,
+            "x.longName; // Comment.\n"
+                + "Polymer('x-a', {\n  longName: 1,\n  a: function() { this.longName = 2; }\n});\n",
+            ImmutableSet.of(JsRenamer.OutputFormat.PRESERVE_SOURCE),
+            "input.js",
+            null,
+            null));
+    assertEquals(
+        "Polymer({is: 'x-a', observers: ['renamed3(renamedA)'], listeners: {'tap': 'renamed3'}});",
+        JsRenamer.rename(
+            testMap,
+            "Polymer({is: 'x-a', observers: ['three(a)'], listeners: {'tap': 'three'}});",
+            ImmutableSet.of(JsRenamer.OutputFormat.PRESERVE_SOURCE),
+            "input.js",
+            null,
+            null));
+  }
+
+  @Test
+  public void testPreserveSourceObjectLiteralKeys() throws Exception {
+    assertEquals(
+        "Polymer('x-a', {\"rb\": 1, 'renamedA': 2, renamed3: three, 0x10: 3});",
+        JsRenamer.rename(
+            testMap,
+            "Polymer('x-a', {\"longName\": 1, 'a': 2, three, 0x10: 3});",
+            ImmutableSet.of(JsRenamer.OutputFormat.PRESERVE_SOURCE),
+            "input.js",
+            null,
+            null));
+    RenameMap quotingMap =
+        RenameMap.of(ImmutableMap.of("a", "it's", "longName", "not-an-identifier"));
+    assertEquals(
+        "Polymer('x-a', {'it\\'s': 1, \"not-an-identifier\": 2});",
+        JsRenamer.rename(
+            quotingMap,
+            "Polymer('x-a', {'a': 1, longName: 2});",
+            ImmutableSet.of(JsRenamer.OutputFormat.PRESERVE_SOURCE),
+            "input.js",
+            null,
+            null));
+  }
+
+  @Test
+  public void testPreserveSourceSourceMap() throws Exception {
+    SourceMapGeneratorV3 inputGenerator = new SourceMapGeneratorV3();
+    // Maps "Polymer('x-a', {a: 1});" to the first line of original.js and "y;" to the second.
+    inputGenerator.addMapping(
+        "original.js", null, new FilePosition(0, 0), new FilePosition(0, 0),
+        new FilePosition(0, 23));
+    inputGenerator.addMapping(
+        "original.js", "y", new FilePosition(1, 0), new FilePosition(0, 24),
+        new FilePosition(0, 26));
+    StringBuilder inputSourceMap = new StringBuilder();
+    inputGenerator.appendTo(inputSourceMap, "input.js");
+
+    File outputSourceMap = tmpFolder.newFile("output.sourcemap");
+    assertEquals(
+        "Polymer('x-a', {renamedA: 1}); y;",
+        JsRenamer.rename(
+            testMap,
+            "Polymer('x-a', {a: 1}); y;",
+            ImmutableSet.of(JsRenamer.OutputFormat.PRESERVE_SOURCE),
+            "input.js",
+            inputSourceMap.toString(),
+            outputSourceMap.getPath()));
+
+    SourceMapConsumerV3 consumer = new SourceMapConsumerV3();
+    consumer.parse(new String(Files.readAllBytes(outputSourceMap.toPath()), UTF_8));
+    // Original mappings are one based.
+    assertEquals(1, consumer.getMappingForLine(1, 1).getLineNumber());
+    assertEquals("y", consumer.getMappingForLine(1, 32).getIdentifier());
+    assertEquals(2, consumer.getMappingForLine(1, 32).getLineNumber());
+  }
+
+  /** Renames a script split into segments of single statements. */
+  private static String renameSegments(
+      RenameMap renameMap,
+      String js,
+      ImmutableSet<JsRenamer.OutputFormat> outputFormat,
+      String inputSourceMap,
+      String sourceMapOutputFileName)
+      throws Exception {
+    StringBuilder output = new StringBuilder();
+    JsRenamer.renameScriptSegments(
+        renameMap,
+        JsRenamer.parseScriptSegments(js, "input.js", JsSegmenter.split(js, 1), 2),
+        outputFormat,
+        "input.js",
+        inputSourceMap,
+        sourceMapOutputFileName,
+        2,
+        output);
+    return output.toString();
+  }
+
+  @Test
+  public void testRenameSegments() throws Exception {
+    String js =
+        "'use strict';\n"
+            + "Polymer({is: 'x-a', properties: {a: {observer: 'three'}}});\n"
+            + "x.a = 1;\n"
+            + "if (x) { y(); } else { z(); }";
+    ImmutableSet<JsRenamer.OutputFormat> pretty = ImmutableSet.of(JsRenamer.OutputFormat.PRETTY);
+    assertEquals(
+        JsRenamer.rename(testMap, js, pretty, "input.js", null, null),
+        renameSegments(testMap, js, pretty, null, null));
+  }
+
+  @Test
+  public void testRenameSegmentsPolymer05() throws Exception {
+    // The Polymer 0.5 style call renames properties in the segments before and after it.
+    String js = "x.a = 1;\nPolymer('x-a', {longName: 2});\ny.three = 3;";
+    ImmutableSet<JsRenamer.OutputFormat> outputFormat = ImmutableSet.of();
+    assertEquals(
+        "x.renamedA=1;Polymer(\"x-a\",{rb:2});y.renamed3=3;",
+        JsRenamer.rename(testMap, js, outputFormat, "input.js", null, null));
+    assertEquals(
+        "x.renamedA=1;Polymer(\"x-a\",{rb:2});y.renamed3=3;",
+        renameSegments(testMap, js, outputFormat, null, null));
+    assertEquals(
+        "x.a=1;y.three=3;", renameSegments(testMap, "x.a=1;y.three=3;", outputFormat, null, null));
+  }
+
+  @Test
+  public void testParseSegmentsReportsMisplacedBoundary() throws Exception {
+    String js = "do x(); while (y);";
+    try {
+      JsRenamer.parseScriptSegments(js, "input.js", ImmutableList.of(0, 7), 1);
+      fail("Expected JavaScriptParsingException");
+    } catch (JavaScriptParsingException expected) {
+    }
+  }
+
+  @Test
+  public void testRenameSegmentsSourceMap() throws Exception {
+    String testdata = "javatests/com/google/polymer/testdata/";
+    String js = new String(Files.readAllBytes(Paths.get(testdata + "compiled_source.js")), UTF_8);
+    String inputSourceMap =
+        new String(Files.readAllBytes(Paths.get(testdata + "compiled_source.sourcemap")), UTF_8);
+    ImmutableSet<JsRenamer.OutputFormat> pretty = ImmutableSet.of(JsRenamer.OutputFormat.PRETTY);
+    File wholeSourceMap = tmpFolder.newFile("whole.sourcemap");
+    File segmentsSourceMap = tmpFolder.newFile("segments.sourcemap");
+    String output =
+        JsRenamer.rename(testMap, js, pretty, "input.js", inputSourceMap, wholeSourceMap.getPath());
+    assertEquals(
+        output, renameSegments(testMap, js, pretty, inputSourceMap, segmentsSourceMap.getPath()));
+
+    SourceMapConsumerV3 whole = new SourceMapConsumerV3();
+    whole.parse(new String(Files.readAllBytes(wholeSourceMap.toPath()), UTF_8));
+    SourceMapConsumerV3 segments = new SourceMapConsumerV3();
+    segments.parse(new String(Files.readAllBytes(segmentsSourceMap.toPath()), UTF_8));
+    String[] lines = output.split("\n");
+    for (int line = 0; line < lines.length; line++) {
+      for (int column = 0; column < lines[line].length(); column++) {
+        // Mappings are looked up by one based lines and columns.
+        assertEquals(
+            String.valueOf(whole.getMappingForLine(line + 1, column + 1)),
+            String.valueOf(segments.getMappingForLine(line + 1, column + 1)));
+      }
+    }
+  }
 }
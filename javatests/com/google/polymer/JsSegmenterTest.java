@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for JsSegmenter.
+ */
+@RunWith(JUnit4.class)
+public class JsSegmenterTest {
+
+  /** Splits a script into segments of at least one character and returns their code. */
+  private static List<String> split(String js) {
+    List<Integer> segmentStarts = JsSegmenter.split(js, 1);
+    List<String> segments = new ArrayList<>();
+    for (int i = 0; i < segmentStarts.size(); i++) {
+      int end = i + 1 < segmentStarts.size() ? segmentStarts.get(i + 1) : js.length();
+      segments.add(js.substring(segmentStarts.get(i), end));
+    }
+    return segments;
+  }
+
+  @Test
+  public void testSplitAfterStatements() {
+    assertEquals(ImmutableList.of("a();", "b();", " c();"), split("a();b(); c();"));
+    assertEquals(ImmutableList.of("a();", "\nb();"), split("a();\nb();"));
+    assertEquals(ImmutableList.of("a();", "\n// b();\nc();"), split("a();\n// b();\nc();"));
+  }
+
+  @Test
+  public void testSplitOnlyLargeSegments() {
+    assertEquals(ImmutableList.of(0), JsSegmenter.split("a();b();", 8));
+    assertEquals(ImmutableList.of(0, 8), JsSegmenter.split("a();b();c();", 5));
+  }
+
+  @Test
+  public void testSplitSkipsNestedStatements() {
+    assertEquals(
+        ImmutableList.of("Polymer({f: function() {a(); b();}});", "c();"),
+        split("Polymer({f: function() {a(); b();}});c();"));
+    assertEquals(
+        ImmutableList.of("for (a(); b(); c()) d();", "e();"),
+        split("for (a(); b(); c()) d();e();"));
+    assertEquals(
+        ImmutableList.of("if (a) b(); /* ; */ else c();", "d();"),
+        split("if (a) b(); /* ; */ else c();d();"));
+    assertEquals(ImmutableList.of("do a(); while (b);", "c();"), split("do a(); while (b);c();"));
+  }
+
+  @Test
+  public void testSplitSkipsStringsCommentsAndRegularExpressions() {
+    assertEquals(ImmutableList.of("a(';', \"}\");", "b();"), split("a(';', \"}\");b();"));
+    assertEquals(ImmutableList.of("a(/* ; { */);", "b();"), split("a(/* ; { */);b();"));
+    assertEquals(
+        ImmutableList.of("a(/[;}]/g, /\\/{/);", "b();"), split("a(/[;}]/g, /\\/{/);b();"));
+    assertEquals(
+        ImmutableList.of("a = b / c / {d: 1};", "e();"), split("a = b / c / {d: 1};e();"));
+    assertEquals(
+        ImmutableList.of("a(`;${{b: `}${c}`}};`);", "d();"), split("a(`;${{b: `}${c}`}};`);d();"));
+  }
+}
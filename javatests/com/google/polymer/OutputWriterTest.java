@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for OutputWriter.
+ */
+@RunWith(JUnit4.class)
+public class OutputWriterTest {
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  /** Returns output larger than the buffers of the writer, with characters split between them. */
+  private static String newLargeOutput() {
+    StringBuilder output = new StringBuilder();
+    while (output.length() < 1024 * 1024) {
+      output.append("Polymer({is: 'x-\u00e9l\u00e9ment', \ud83d\ude00: 0});\n");
+    }
+    return output.toString();
+  }
+
+  @Test
+  public void testCommitReplacesFile() throws IOException {
+    Path file = tmpFolder.newFile("renamed.js").toPath();
+    Files.write(file, "previous".getBytes(UTF_8));
+    String output = newLargeOutput();
+    try (OutputWriter writer = OutputWriter.create(file)) {
+      writer.append(new StringBuilder(output), 0, 100);
+      writer.write(output, 100, output.length() - 100);
+      writer.commit();
+      assertEquals(output.getBytes(UTF_8).length, writer.size());
+    }
+    assertArrayEquals(output.getBytes(UTF_8), Files.readAllBytes(file));
+    assertArrayEquals(new String[] {"renamed.js"}, tmpFolder.getRoot().list());
+  }
+
+  @Test
+  public void testCloseWithoutCommitKeepsFile() throws IOException {
+    Path file = tmpFolder.newFile("renamed.js").toPath();
+    Files.write(file, "previous".getBytes(UTF_8));
+    try (OutputWriter writer = OutputWriter.create(file)) {
+      writer.write(newLargeOutput());
+    }
+    assertEquals("previous", new String(Files.readAllBytes(file), UTF_8));
+    assertArrayEquals(new String[] {"renamed.js"}, tmpFolder.getRoot().list());
+  }
+
+  @Test
+  public void testCommitCreatesFile() throws IOException {
+    Path file = new File(tmpFolder.getRoot(), "renamed.html").toPath();
+    try (OutputWriter writer = OutputWriter.create(file)) {
+      writer.write("<dom-module id=\"x-\u00e9\"></dom-module>");
+      writer.commit();
+    }
+    assertEquals(
+        "<dom-module id=\"x-\u00e9\"></dom-module>", new String(Files.readAllBytes(file), UTF_8));
+  }
+
+  @Test
+  public void testWrapEncodesUtf8() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    String output = newLargeOutput() + "\ud83d";
+    OutputWriter writer = OutputWriter.wrap(out);
+    writer.write(output);
+    writer.close();
+    // Unpaired surrogates are replaced, as by String.getBytes.
+    assertArrayEquals(output.getBytes(UTF_8), out.toByteArray());
+    assertEquals(out.size(), writer.size());
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for PersistentWorker.
+ */
+@RunWith(JUnit4.class)
+public class PersistentWorkerTest {
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private final Gson gson = new Gson();
+
+  @Test
+  public void testInlineContent() throws IOException {
+    File renameMap = tmpFolder.newFile("rename.map");
+    Files.write(renameMap.toPath(), Arrays.asList("longName:rb"), UTF_8);
+
+    List<PersistentWorker.WorkResponse> responses =
+        serve(
+            "{\"requestId\": 3, \"arguments\": [\"--propertyMapFilename\", \""
+                + renameMap.getAbsolutePath()
+                + "\", \"--inputFilename\", \"inline.js\"],"
+                + " \"inputContent\": \"Polymer({is: 'x-a', observers: ['a(longName)']});\"}");
+
+    assertEquals(1, responses.size());
+    PersistentWorker.WorkResponse response = responses.get(0);
+    assertEquals(3, response.requestId);
+    assertEquals(0, response.exitCode);
+    assertEquals("", response.output);
+    assertEquals(
+        "Polymer({is:\"x-a\",observers:[\"a(rb)\"]});", response.renamedContent);
+  }
+
+  @Test
+  public void testOutputFileAndRenameMapReload() throws IOException {
+    File renameMap = tmpFolder.newFile("rename.map");
+    File argumentsFile = tmpFolder.newFile("arguments");
+    File outputFile = new File(tmpFolder.getRoot(), "output.js");
+    Files.write(
+        argumentsFile.toPath(),
+        Arrays.asList(
+            "--propertyMapFilename",
+            renameMap.getAbsolutePath(),
+            "--inputFilename",
+            "inline.js",
+            "--outputFilename",
+            outputFile.getAbsolutePath()),
+        UTF_8);
+    String request =
+        "{\"requestId\": 0, \"arguments\": [\"@"
+            + argumentsFile.getAbsolutePath()
+            + "\"], \"inputContent\": \"Polymer({is: 'x-a', observers: ['a(b)']});\"}\n";
+
+    Files.write(renameMap.toPath(), Arrays.asList("a:c"), UTF_8);
+    PersistentWorker worker = new PersistentWorker();
+    PersistentWorker.WorkResponse response = serve(worker, request).get(0);
+    assertEquals(0, response.exitCode);
+    assertNull(response.renamedContent);
+    assertEquals(
+        "Polymer({is:\"x-a\",observers:[\"c(b)\"]});",
+        new String(Files.readAllBytes(outputFile.toPath()), UTF_8));
+
+    Files.write(renameMap.toPath(), Arrays.asList("a:c", "b:d"), UTF_8);
+    response = serve(worker, request).get(0);
+    assertEquals(0, response.exitCode);
+    assertEquals(
+        "Polymer({is:\"x-a\",observers:[\"c(d)\"]});",
+        new String(Files.readAllBytes(outputFile.toPath()), UTF_8));
+  }
+
+  @Test
+  public void testFailuresAreReported() throws IOException {
+    List<PersistentWorker.WorkResponse> responses =
+        serve(
+            "{\"requestId\": 1, \"arguments\": [\"--inputFilename\", \"a.js\"]}"
+                + "{\"requestId\": 2, \"arguments\": [\"--propertyMapFilename\", \"missing.map\","
+                + " \"--inputFilename\", \"a.js\"]}");
+
+    assertEquals(2, responses.size());
+    assertEquals(1, responses.get(0).requestId);
+    assertEquals(1, responses.get(0).exitCode);
+    assertTrue(responses.get(0).output.contains("--propertyMapFilename"));
+    assertEquals(2, responses.get(1).requestId);
+    assertEquals(1, responses.get(1).exitCode);
+    assertTrue(responses.get(1).output.contains("missing.map"));
+  }
+
+  @Test
+  public void testFileFailuresAreDiagnostics() throws IOException {
+    File renameMap = tmpFolder.newFile("rename.map");
+    File inputDir = tmpFolder.newFolder("input");
+    File outputDir = tmpFolder.newFolder("output");
+    File diagnosticsOutput = new File(tmpFolder.getRoot(), "diagnostics.json");
+    File inputFile = new File(inputDir, "a.js");
+    Files.write(renameMap.toPath(), Arrays.asList("longName:rb"), UTF_8);
+    Files.write(inputFile.toPath(), "var = ;".getBytes(UTF_8));
+
+    PersistentWorker.WorkResponse response =
+        serve(
+                "{\"requestId\": 4, \"arguments\": [\"--propertyMapFilename\", \""
+                    + renameMap.getAbsolutePath()
+                    + "\", \"--inputDir\", \""
+                    + inputDir.getAbsolutePath()
+                    + "\", \"--outputDir\", \""
+                    + outputDir.getAbsolutePath()
+                    + "\", \"--diagnosticsOutput\", \""
+                    + diagnosticsOutput.getAbsolutePath()
+                    + "\"]}")
+            .get(0);
+    assertEquals(1, response.exitCode);
+    assertEquals("", response.output);
+
+    List<String> lines = Files.readAllLines(diagnosticsOutput.toPath(), UTF_8);
+    assertEquals(1, lines.size());
+    JsonObject diagnostic = gson.fromJson(lines.get(0), JsonObject.class);
+    assertEquals("fileParseError", diagnostic.get("category").getAsString());
+    assertEquals("error", diagnostic.get("severity").getAsString());
+    assertEquals(inputFile.getAbsolutePath(), diagnostic.get("file").getAsString());
+    assertTrue(diagnostic.get("message").getAsString().startsWith("Error encountered parsing"));
+  }
+
+  private List<PersistentWorker.WorkResponse> serve(String requests) throws IOException {
+    return serve(new PersistentWorker(), requests);
+  }
+
+  private List<PersistentWorker.WorkResponse> serve(PersistentWorker worker, String requests)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    worker.serve(new ByteArrayInputStream(requests.getBytes(UTF_8)), new PrintStream(out));
+    List<PersistentWorker.WorkResponse> responses = new ArrayList<>();
+    for (String line : new String(out.toByteArray(), UTF_8).split("\n")) {
+      if (!line.isEmpty()) {
+        responses.add(gson.fromJson(line, PersistentWorker.WorkResponse.class));
+      }
+    }
+    return responses;
+  }
+}
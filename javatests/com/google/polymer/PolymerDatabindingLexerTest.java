@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.polymer.PolymerDatabindingLexer.Token;
+import com.google.polymer.PolymerDatabindingLexer.TokenType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for PolymerDatabindingLexer.
+ */
+@RunWith(JUnit4.class)
+public class PolymerDatabindingLexerTest {
+
+  // The regular expression the lexer was originally written with, used as the reference output.
+  private static final Pattern REFERENCE_PATTERN =
+      Pattern.compile(
+          "(?<OPENCURLYBRACES>\\{\\{)|(?<CLOSECURLYBRACES>\\}\\})|(?<OPENSQUAREBRACES>\\[\\[)"
+              + "|(?<CLOSESQUAREBRACES>\\]\\])|(?<CHARACTER>.)",
+          Pattern.DOTALL);
+
+  private static final String[] INPUTS = {
+    "",
+    "no delimiters here",
+    "{",
+    "{{",
+    "{{{",
+    "{{{{",
+    "}}}",
+    "[[[",
+    "]]]]]",
+    "{{a}}",
+    "[[a]]",
+    "x{{a.b}}y[[c]]z",
+    "{{a}}{{b}}",
+    "{[{[",
+    "{{ multi\nline\r\nexpression }}",
+    "{{f(a, 'b}')}}",
+    "[[item.name]] of {{items.length}}",
+    "text with \uD83D\uDE00 emoji {{a}}",
+    "}}{{",
+    "{{a]]",
+  };
+
+  @Test
+  public void testMatchesReferenceLexer() {
+    for (String input : INPUTS) {
+      assertEquals(
+          input, describe(referenceLex(input)), describe(PolymerDatabindingLexer.lex(input)));
+    }
+  }
+
+  @Test
+  public void testContainsDelimiter() {
+    for (String input : INPUTS) {
+      Token[] tokens = referenceLex(input);
+      boolean hasDelimiter = false;
+      for (Token token : tokens) {
+        hasDelimiter |= token.type != TokenType.STRING;
+      }
+      assertEquals(input, hasDelimiter, PolymerDatabindingLexer.containsDelimiter(input));
+    }
+    assertFalse(PolymerDatabindingLexer.containsDelimiter("{a}[b]"));
+    assertTrue(PolymerDatabindingLexer.containsDelimiter("a]]"));
+  }
+
+  @Test
+  public void testTokenRanges() {
+    final StringBuilder ranges = new StringBuilder();
+    PolymerDatabindingLexer.lex(
+        "ab{{c}}",
+        new PolymerDatabindingLexer.TokenHandler() {
+          @Override
+          public void token(TokenType type, int start, int end) {
+            ranges.append(type).append(':').append(start).append('-').append(end).append(' ');
+          }
+        });
+    assertEquals("STRING:0-2 OPENCURLYBRACES:2-4 STRING:4-5 CLOSECURLYBRACES:5-7 ",
+        ranges.toString());
+  }
+
+  private static String describe(Token[] tokens) {
+    StringBuilder sb = new StringBuilder();
+    for (Token token : tokens) {
+      sb.append(token.type).append('(').append(token.value).append(')');
+    }
+    return sb.toString();
+  }
+
+  private static Token[] referenceLex(String input) {
+    List<Token> tokens = new ArrayList<>();
+    Matcher matcher = REFERENCE_PATTERN.matcher(input);
+    StringBuilder currentString = new StringBuilder();
+    while (matcher.find()) {
+      if (matcher.group("CHARACTER") != null) {
+        currentString.append(matcher.group("CHARACTER"));
+        continue;
+      }
+      if (currentString.length() > 0) {
+        tokens.add(new Token(TokenType.STRING, currentString.toString()));
+        currentString.setLength(0);
+      }
+      for (TokenType type : TokenType.values()) {
+        if (type != TokenType.STRING && matcher.group(type.name()) != null) {
+          tokens.add(new Token(type, matcher.group(type.name())));
+        }
+      }
+    }
+    if (currentString.length() > 0) {
+      tokens.add(new Token(TokenType.STRING, currentString.toString()));
+    }
+    return tokens.toArray(new Token[tokens.size()]);
+  }
+}
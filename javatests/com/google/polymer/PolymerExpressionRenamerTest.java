@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static com.google.polymer.PolymerExpressionRenamer.Kind.JAVASCRIPT;
+import static com.google.polymer.PolymerExpressionRenamer.Kind.POLYMER_PATH;
+import static com.google.polymer.PolymerExpressionRenamer.Kind.UNRECOGNIZED;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for PolymerExpressionRenamer.
+ */
+@RunWith(JUnit4.class)
+public class PolymerExpressionRenamerTest {
+  private static final RenameMap testMap =
+      RenameMap.of(
+          ImmutableMap.of(
+              "user", "u",
+              "name", "n",
+              "opened", "o",
+              "_compute", "c",
+              "splices", "s"));
+
+  @Test
+  public void testClassifyJavaScript() {
+    assertEquals(JAVASCRIPT, PolymerExpressionRenamer.classify("user.profile.name"));
+    assertEquals(JAVASCRIPT, PolymerExpressionRenamer.classify("!opened"));
+    assertEquals(JAVASCRIPT, PolymerExpressionRenamer.classify(" ! ! opened "));
+    assertEquals(JAVASCRIPT, PolymerExpressionRenamer.classify("items.splices"));
+    assertEquals(JAVASCRIPT, PolymerExpressionRenamer.classify("_compute(a, b.c, 'lit', 12)"));
+    assertEquals(JAVASCRIPT, PolymerExpressionRenamer.classify("$._compute ()"));
+  }
+
+  @Test
+  public void testClassifyPolymerPath() {
+    assertEquals(POLYMER_PATH, PolymerExpressionRenamer.classify("user.*"));
+    assertEquals(POLYMER_PATH, PolymerExpressionRenamer.classify("items.0.name"));
+    assertEquals(POLYMER_PATH, PolymerExpressionRenamer.classify("_compute(a.*, b)"));
+    assertEquals(POLYMER_PATH, PolymerExpressionRenamer.classify("!items.1"));
+  }
+
+  @Test
+  public void testClassifyUnrecognized() {
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify(""));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("a + b"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("a['b']"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("this.a"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(true)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(a)(b)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(a,)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(!a)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("a.*(b)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("a.*.b"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("a.0b"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("caf\u00e9"));
+  }
+
+  @Test
+  public void testClassifyLiteralsPrintedDifferently() {
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(1000)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(007)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(1.5)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(-1)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(1234567890123456)"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f('a<b')"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f(\"it's\")"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f('\\n')"));
+    assertEquals(UNRECOGNIZED, PolymerExpressionRenamer.classify("f('\u00e9')"));
+  }
+
+  @Test
+  public void testRename() {
+    assertEquals("u.profile.n", PolymerExpressionRenamer.rename(testMap, "user.profile.name"));
+    assertEquals("!!o", PolymerExpressionRenamer.rename(testMap, " ! ! opened "));
+    assertEquals("items.s", PolymerExpressionRenamer.rename(testMap, "items.splices"));
+    assertEquals("u.oChanged", PolymerExpressionRenamer.rename(testMap, "user.openedChanged"));
+    assertEquals(
+        "c(u,n.first,'lit',12,'')",
+        PolymerExpressionRenamer.rename(testMap, "_compute(user, name.first, \"lit\", 12, '')"));
+    assertEquals("c()", PolymerExpressionRenamer.rename(testMap, "_compute ( )"));
+    assertEquals("!c(o)", PolymerExpressionRenamer.rename(testMap, "!_compute(opened)"));
+  }
+
+  @Test
+  public void testRenameMatchesClosureCompiler() throws Exception {
+    // Expressions renamed with and without the Closure Compiler print the same way.
+    assertEquals(
+        "c(u,n.first,'lit',100)",
+        JsRenamer.renamePolymerJsExpression(testMap, "_compute(user, name.first, 'lit', 100)"));
+    assertEquals(
+        "c(u,n.first,'lit',1E3)",
+        JsRenamer.renamePolymerJsExpression(testMap, "_compute(user, name.first, 'lit', 1000)"));
+    assertEquals(
+        "c(u.*,n)", JsRenamer.renamePolymerJsExpression(testMap, "_compute(user.*, name)"));
+    assertEquals("u.0.n", JsRenamer.renamePolymerJsExpression(testMap, "user.0.name"));
+  }
+
+  @Test
+  public void testRenameLongIntegersMatchesClosureCompiler() throws Exception {
+    String[] integers = {
+      "100000000001", "111111111111", "281474976710", "999999999999", "1111111111111",
+      "4398046511103", "11111111111111", "17592186044415", "111111111111111", "281474976710655",
+      "999999999999999"
+    };
+    for (String integer : integers) {
+      String expression = "_compute(user, " + integer + ")";
+      // Parentheses keep the expression out of the grammar, so the Closure Compiler prints it.
+      assertEquals(
+          integer,
+          JsRenamer.renamePolymerJsExpression(testMap, "(" + expression + ")"),
+          JsRenamer.renamePolymerJsExpression(testMap, expression));
+    }
+    assertEquals(
+        JAVASCRIPT, PolymerExpressionRenamer.classify("_compute(user, 999999999999)"));
+    assertEquals(
+        UNRECOGNIZED, PolymerExpressionRenamer.classify("_compute(user, 1111111111111)"));
+  }
+}
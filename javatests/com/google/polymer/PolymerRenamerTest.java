@@ -9,15 +9,27 @@
 
 package com.google.polymer;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import org.junit.After;
 import org.junit.Before;
@@ -190,6 +202,529 @@ public class PolymerRenamerTest {
     }
   }
 
+  @Test
+  public void testBatchRename() throws IOException {
+    File inputDir = tmpFolder.newFolder("input");
+    File outputDir = tmpFolder.newFolder("output");
+    new File(inputDir, "nested").mkdir();
+    copyTestData("polymer_v0.8.html", new File(inputDir, "polymer_v0.8.html"));
+    copyTestData("polymer_call.js", new File(inputDir, "nested/polymer_call.js"));
+    copyTestData("rename.map", new File(inputDir, "rename.map"));
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          getFilePathFromTestData("rename.map"),
+          "--inputDir",
+          inputDir.getAbsolutePath(),
+          "--outputDir",
+          outputDir.getAbsolutePath()
+        });
+    assertEquals("", errStream.toString());
+    assertEquals("", outStream.toString());
+    assertEquals(
+        getFileContent(getFilePathFromTestData("polymer_v0.8_expected.html")),
+        getFileContent(new File(outputDir, "polymer_v0.8.html").getAbsolutePath()));
+    assertEquals(
+        getFileContent(getFilePathFromTestData("polymer_call_expected.js")),
+        getFileContent(new File(outputDir, "nested/polymer_call.js").getAbsolutePath()));
+    assertFalse(new File(outputDir, "rename.map").exists());
+  }
+
+  @Test
+  public void testBatchRenameManifest() throws IOException {
+    File outputDir = tmpFolder.newFolder("output");
+    File manifest = tmpFolder.newFile("manifest.txt");
+    Files.write(
+        manifest.toPath(), Arrays.asList("source.html", "", "polymer_legacy_call.js"), UTF_8);
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          getFilePathFromTestData("rename.map"),
+          "--inputDir",
+          getFilePathFromTestData(""),
+          "--inputManifest",
+          manifest.getAbsolutePath(),
+          "--outputDir",
+          outputDir.getAbsolutePath()
+        });
+    assertEquals("", errStream.toString());
+    assertEquals(
+        getFileContent(getFilePathFromTestData("source_expected.html")),
+        getFileContent(new File(outputDir, "source.html").getAbsolutePath()));
+    assertEquals(
+        getFileContent(getFilePathFromTestData("polymer_legacy_call_expected.js")),
+        getFileContent(new File(outputDir, "polymer_legacy_call.js").getAbsolutePath()));
+  }
+
+  @Test
+  public void testCompilePropertyMap() throws IOException {
+    File binaryMap = tmpFolder.newFile("rename.bin");
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          getFilePathFromTestData("rename.map"),
+          "--compilePropertyMap",
+          binaryMap.getAbsolutePath()
+        });
+    assertEquals("", errStream.toString());
+    assertEquals("", outStream.toString());
+
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          binaryMap.getAbsolutePath(),
+          "--inputFilename",
+          getFilePathFromTestData("polymer_v0.8.html")
+        });
+    assertEquals("", errStream.toString());
+    assertEquals(
+        getFileContent(getFilePathFromTestData("polymer_v0.8_expected.html")),
+        outStream.toString());
+  }
+
+  @Test
+  public void testResultCache() throws IOException {
+    File cacheDir = tmpFolder.newFolder("cache");
+    File outputFile = tmpFolder.newFile("output.html");
+    String[] args =
+        new String[] {
+          "--propertyMapFilename",
+          getFilePathFromTestData("rename.map"),
+          "--inputFilename",
+          getFilePathFromTestData("polymer_v0.8.html"),
+          "--outputFilename",
+          outputFile.getAbsolutePath(),
+          "--cacheDir",
+          cacheDir.getAbsolutePath()
+        };
+    PolymerRenamer.main(args);
+    assertEquals("", errStream.toString());
+    String expected = getFileContent(getFilePathFromTestData("polymer_v0.8_expected.html"));
+    assertEquals(expected, getFileContent(outputFile.getAbsolutePath()));
+
+    // A hit is copied from the cache without renaming the input again.
+    File[] shards = cacheDir.listFiles();
+    assertEquals(1, shards.length);
+    File[] entries = shards[0].listFiles();
+    assertEquals(1, entries.length);
+    Files.write(entries[0].toPath(), "cached".getBytes(UTF_8));
+    Files.delete(outputFile.toPath());
+    PolymerRenamer.main(args);
+    assertEquals("", errStream.toString());
+    assertEquals("cached", getFileContent(outputFile.getAbsolutePath()));
+  }
+
+  @Test
+  public void testResultCacheKeepsPrefilteredOutputApart() throws IOException {
+    File cacheDir = tmpFolder.newFolder("cache");
+    File inputFile = tmpFolder.newFile("input.js");
+    File propertyMap = tmpFolder.newFile("rename.map");
+    File outputFile = new File(tmpFolder.getRoot(), "output.js");
+    Files.write(inputFile.toPath(), "var   x = 1 ;".getBytes(UTF_8));
+    Files.write(propertyMap.toPath(), Arrays.asList("symbolA:a"), UTF_8);
+    String[] args =
+        new String[] {
+          "--propertyMapFilename",
+          propertyMap.getAbsolutePath(),
+          "--inputFilename",
+          inputFile.getAbsolutePath(),
+          "--outputFilename",
+          outputFile.getAbsolutePath(),
+          "--cacheDir",
+          cacheDir.getAbsolutePath()
+        };
+    PolymerRenamer.main(args);
+    assertEquals("", errStream.toString());
+    assertEquals("var x=1;", getFileContent(outputFile.getAbsolutePath()));
+
+    // A prefiltered rename passes the input through rather than restoring the reprinted output.
+    String[] prefilterArgs = Arrays.copyOf(args, args.length + 1);
+    prefilterArgs[args.length] = "--prefilter";
+    PolymerRenamer.main(prefilterArgs);
+    assertEquals("", errStream.toString());
+    assertEquals("var   x = 1 ;", getFileContent(outputFile.getAbsolutePath()));
+
+    PolymerRenamer.main(args);
+    assertEquals("var x=1;", getFileContent(outputFile.getAbsolutePath()));
+  }
+
+  @Test
+  public void testReadByteOrderMarkAndEmptyInputs() throws IOException {
+    File inputFile = tmpFolder.newFile("input.js");
+    File emptyFile = tmpFolder.newFile("empty.js");
+    File propertyMap = tmpFolder.newFile("rename.map");
+    File outputFile = new File(tmpFolder.getRoot(), "output.js");
+    Files.write(
+        inputFile.toPath(),
+        ("\ufeffPolymer({properties: {symbolA: String}});\r\n").getBytes(UTF_8));
+    Files.write(propertyMap.toPath(), Arrays.asList("symbolA:a"), UTF_8);
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          propertyMap.getAbsolutePath(),
+          "--inputFilename",
+          inputFile.getAbsolutePath(),
+          "--outputFilename",
+          outputFile.getAbsolutePath(),
+          "--jsPreserveSource"
+        });
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          propertyMap.getAbsolutePath(),
+          "--inputFilename",
+          emptyFile.getAbsolutePath()
+        });
+    assertEquals("", errStream.toString());
+    assertEquals(
+        "Polymer({properties: {a: String}});",
+        new String(Files.readAllBytes(outputFile.toPath()), UTF_8));
+    assertEquals("", outStream.toString());
+  }
+
+  @Test
+  public void testIncrementalBatchRename() throws IOException {
+    File inputDir = tmpFolder.newFolder("input");
+    File outputDir = tmpFolder.newFolder("output");
+    File propertyMap = tmpFolder.newFile("rename.map");
+    File index = new File(tmpFolder.getRoot(), "index.json");
+    Files.write(
+        new File(inputDir, "a.js").toPath(),
+        "Polymer({properties: {symbolA: String}});".getBytes(UTF_8));
+    Files.write(
+        new File(inputDir, "b.js").toPath(),
+        "Polymer({properties: {symbolB: String}});".getBytes(UTF_8));
+    Files.write(propertyMap.toPath(), Arrays.asList("symbolA:a", "symbolB:b"), UTF_8);
+    String[] args =
+        new String[] {
+          "--propertyMapFilename",
+          propertyMap.getAbsolutePath(),
+          "--inputDir",
+          inputDir.getAbsolutePath(),
+          "--outputDir",
+          outputDir.getAbsolutePath(),
+          "--incrementalIndex",
+          index.getAbsolutePath()
+        };
+    PolymerRenamer.main(args);
+    assertEquals("", errStream.toString());
+    assertEquals(
+        "Polymer({properties:{b:String}});",
+        getFileContent(new File(outputDir, "b.js").getAbsolutePath()));
+
+    // Only outputs referencing a changed symbol are renamed again.
+    Files.write(new File(outputDir, "a.js").toPath(), "kept".getBytes(UTF_8));
+    Files.write(new File(outputDir, "b.js").toPath(), "kept".getBytes(UTF_8));
+    Files.write(propertyMap.toPath(), Arrays.asList("symbolA:a", "symbolB:c"), UTF_8);
+    PolymerRenamer.main(args);
+    assertEquals("", errStream.toString());
+    assertEquals("kept", getFileContent(new File(outputDir, "a.js").getAbsolutePath()));
+    assertEquals(
+        "Polymer({properties:{c:String}});",
+        getFileContent(new File(outputDir, "b.js").getAbsolutePath()));
+
+    // Changed inputs are renamed again.
+    Files.write(
+        new File(inputDir, "a.js").toPath(),
+        "Polymer({properties: {symbolA: Number}});".getBytes(UTF_8));
+    PolymerRenamer.main(args);
+    assertEquals("", errStream.toString());
+    assertEquals(
+        "Polymer({properties:{a:Number}});",
+        getFileContent(new File(outputDir, "a.js").getAbsolutePath()));
+  }
+
+  @Test
+  public void testIncrementalBatchRenameFromResultCache() throws IOException {
+    File inputDir = tmpFolder.newFolder("input");
+    File outputDir = tmpFolder.newFolder("output");
+    File cacheDir = tmpFolder.newFolder("cache");
+    File propertyMap = tmpFolder.newFile("rename.map");
+    File index = new File(tmpFolder.getRoot(), "index.json");
+    Files.write(
+        new File(inputDir, "a.js").toPath(),
+        "Polymer({properties: {symbolA: String}});".getBytes(UTF_8));
+    Files.write(
+        new File(inputDir, "b.js").toPath(),
+        "Polymer({properties: {symbolB: String}});".getBytes(UTF_8));
+    Files.write(propertyMap.toPath(), Arrays.asList("symbolA:a", "symbolB:b"), UTF_8);
+    String[] args =
+        new String[] {
+          "--propertyMapFilename",
+          propertyMap.getAbsolutePath(),
+          "--inputDir",
+          inputDir.getAbsolutePath(),
+          "--outputDir",
+          outputDir.getAbsolutePath(),
+          "--incrementalIndex",
+          index.getAbsolutePath(),
+          "--cacheDir",
+          cacheDir.getAbsolutePath()
+        };
+    PolymerRenamer.main(args);
+    assertEquals("", errStream.toString());
+
+    // Without an index, every output is restored from the cache and indexed again.
+    assertTrue(index.delete());
+    Files.write(new File(outputDir, "a.js").toPath(), "stale".getBytes(UTF_8));
+    Files.write(new File(outputDir, "b.js").toPath(), "stale".getBytes(UTF_8));
+    PolymerRenamer.main(args);
+    assertEquals("", errStream.toString());
+    assertEquals(
+        "Polymer({properties:{a:String}});",
+        getFileContent(new File(outputDir, "a.js").getAbsolutePath()));
+    assertEquals(
+        "Polymer({properties:{b:String}});",
+        getFileContent(new File(outputDir, "b.js").getAbsolutePath()));
+
+    // The restored outputs are current unless they reference a changed symbol.
+    Files.write(new File(outputDir, "a.js").toPath(), "kept".getBytes(UTF_8));
+    Files.write(propertyMap.toPath(), Arrays.asList("symbolA:a", "symbolB:c"), UTF_8);
+    PolymerRenamer.main(args);
+    assertEquals("", errStream.toString());
+    assertEquals("kept", getFileContent(new File(outputDir, "a.js").getAbsolutePath()));
+    assertEquals(
+        "Polymer({properties:{c:String}});",
+        getFileContent(new File(outputDir, "b.js").getAbsolutePath()));
+  }
+
+  @Test
+  public void testMetricsOutput() throws IOException {
+    File inputFile = tmpFolder.newFile("input.html");
+    File propertyMap = tmpFolder.newFile("rename.map");
+    File metrics = new File(tmpFolder.getRoot(), "metrics/metrics.json");
+    String input =
+        "<dom-module id=\"x-a\"><template>"
+            + "<div title=\"{{symbolA}}\">[[format(symbolA.*, -1)]]</div>"
+            + "</template></dom-module>";
+    Files.write(inputFile.toPath(), input.getBytes(UTF_8));
+    Files.write(propertyMap.toPath(), Arrays.asList("symbolA:a"), UTF_8);
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          propertyMap.getAbsolutePath(),
+          "--inputFilename",
+          inputFile.getAbsolutePath(),
+          "--metricsOutput",
+          metrics.getAbsolutePath()
+        });
+    assertEquals("", errStream.toString());
+    assertTrue(outStream.toString().contains("[[format(a.*,-1)]]"));
+
+    JsonObject report =
+        new Gson().fromJson(getFileContent(metrics.getAbsolutePath()), JsonObject.class);
+    assertEquals(1, report.get("fileCount").getAsInt());
+    assertEquals(input.length(), report.get("bytesIn").getAsLong());
+    assertEquals(outStream.size(), report.get("bytesOut").getAsLong());
+    assertTrue(
+        report.getAsJsonObject("phases").getAsJsonObject("htmlParse").get("nanos").getAsLong()
+            > 0);
+    JsonObject counters = report.getAsJsonObject("counters");
+    assertEquals(2, counters.get("bindingRenames").getAsInt());
+    assertEquals(1, counters.get("recognizedExpressions").getAsInt());
+    assertEquals(1, counters.get("parseFailures").getAsInt());
+    assertEquals(1, counters.get("methodPatternFallbacks").getAsInt());
+    assertEquals(
+        inputFile.getAbsolutePath(),
+        report.getAsJsonArray("files").get(0).getAsJsonObject().get("path").getAsString());
+    boolean fallbackReported = false;
+    for (JsonElement expression : report.getAsJsonArray("slowestExpressions")) {
+      JsonObject slowExpression = expression.getAsJsonObject();
+      if (slowExpression.get("expression").getAsString().equals("format(symbolA.*, -1)")) {
+        assertEquals("methodPatternFallback", slowExpression.get("outcome").getAsString());
+        fallbackReported = true;
+      }
+    }
+    assertTrue(fallbackReported);
+  }
+
+  @Test
+  public void testDiagnosticsMergedByFile() throws IOException {
+    File inputDir = tmpFolder.newFolder("input");
+    File outputDir = tmpFolder.newFolder("output");
+    for (String name : new String[] {"c", "a", "b"}) {
+      Files.write(
+          new File(inputDir, name + ".html").toPath(),
+          ("<dom-module id=\"x-" + name + "\"><script>var " + name + "Script = ;</script>"
+                  + "</dom-module>")
+              .getBytes(UTF_8));
+    }
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          getFilePathFromTestData("rename.map"),
+          "--inputDir",
+          inputDir.getAbsolutePath(),
+          "--outputDir",
+          outputDir.getAbsolutePath(),
+          "--threads",
+          "3"
+        });
+    String diagnostics = errStream.toString();
+    assertTrue(diagnostics.indexOf("aScript") >= 0);
+    assertTrue(diagnostics.indexOf("aScript") < diagnostics.indexOf("bScript"));
+    assertTrue(diagnostics.indexOf("bScript") < diagnostics.indexOf("cScript"));
+  }
+
+  @Test
+  public void testDiagnosticsOutput() throws IOException {
+    File inputDir = tmpFolder.newFolder("input");
+    File outputDir = tmpFolder.newFolder("output");
+    File diagnosticsOutput = new File(tmpFolder.getRoot(), "diagnostics/diagnostics.json");
+    for (String name : new String[] {"a", "b"}) {
+      Files.write(
+          new File(inputDir, name + ".html").toPath(),
+          ("<dom-module id=\"x-" + name + "\"><template><div title=\"{{invalid expression}}\">"
+                  + "</div></template><script>var = ;</script></dom-module>")
+              .getBytes(UTF_8));
+    }
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          getFilePathFromTestData("rename.map"),
+          "--inputDir",
+          inputDir.getAbsolutePath(),
+          "--outputDir",
+          outputDir.getAbsolutePath(),
+          "--diagnosticsOutput",
+          diagnosticsOutput.getAbsolutePath(),
+          "--maxDiagnosticsPerCategory",
+          "1"
+        });
+    assertEquals("", errStream.toString());
+
+    Map<String, Integer> reported = new HashMap<>();
+    Map<String, Integer> suppressed = new HashMap<>();
+    for (String line : Files.readAllLines(diagnosticsOutput.toPath(), UTF_8)) {
+      JsonObject diagnostic = new Gson().fromJson(line, JsonObject.class);
+      String category = diagnostic.get("category").getAsString();
+      if (diagnostic.has("suppressed")) {
+        suppressed.put(category, diagnostic.get("suppressed").getAsInt());
+      } else {
+        assertEquals("error", diagnostic.get("severity").getAsString());
+        assertTrue(diagnostic.get("file").getAsString().startsWith(inputDir.getAbsolutePath()));
+        assertTrue(diagnostic.get("message").getAsString().contains("ERROR"));
+        reported.put(category, reported.containsKey(category) ? reported.get(category) + 1 : 1);
+      }
+    }
+    assertEquals(ImmutableMap.of("scriptParseError", 1, "expressionParseError", 1), reported);
+    assertEquals(ImmutableMap.of("scriptParseError", 1, "expressionParseError", 1), suppressed);
+  }
+
+  @Test
+  public void testUnreadableIncrementalIndexDiagnostic() throws IOException {
+    File inputDir = tmpFolder.newFolder("input");
+    File outputDir = tmpFolder.newFolder("output");
+    File index = tmpFolder.newFile("index.json");
+    File diagnosticsOutput = new File(tmpFolder.getRoot(), "diagnostics.json");
+    Files.write(new File(inputDir, "a.js").toPath(), "x.longName;".getBytes(UTF_8));
+    Files.write(index.toPath(), "{unreadable".getBytes(UTF_8));
+    PolymerRenamer.main(
+        new String[] {
+          "--propertyMapFilename",
+          getFilePathFromTestData("rename.map"),
+          "--inputDir",
+          inputDir.getAbsolutePath(),
+          "--outputDir",
+          outputDir.getAbsolutePath(),
+          "--incrementalIndex",
+          index.getAbsolutePath(),
+          "--diagnosticsOutput",
+          diagnosticsOutput.getAbsolutePath()
+        });
+    assertEquals("", errStream.toString());
+
+    List<String> lines = Files.readAllLines(diagnosticsOutput.toPath(), UTF_8);
+    JsonObject diagnostic = new Gson().fromJson(lines.get(0), JsonObject.class);
+    assertEquals("unreadableIncrementalIndex", diagnostic.get("category").getAsString());
+    assertEquals("warning", diagnostic.get("severity").getAsString());
+    assertEquals(index.getAbsolutePath(), diagnostic.get("file").getAsString());
+    assertTrue(new File(outputDir, "a.js").exists());
+  }
+
+  @Test
+  public void testWatch() throws Exception {
+    File inputDir = tmpFolder.newFolder("input");
+    File outputDir = tmpFolder.newFolder("output");
+    File propertyMap = tmpFolder.newFile("rename.map");
+    Files.write(
+        new File(inputDir, "a.js").toPath(),
+        "Polymer({properties: {symbolA: String}});".getBytes(UTF_8));
+    Files.write(
+        new File(inputDir, "b.js").toPath(),
+        "Polymer({properties: {symbolB: String}});".getBytes(UTF_8));
+    Files.write(propertyMap.toPath(), Arrays.asList("symbolA:a", "symbolB:b"), UTF_8);
+    final String[] args =
+        new String[] {
+          "--propertyMapFilename",
+          propertyMap.getAbsolutePath(),
+          "--inputDir",
+          inputDir.getAbsolutePath(),
+          "--outputDir",
+          outputDir.getAbsolutePath(),
+          "--watch",
+          "--watchDelay",
+          "20"
+        };
+    Thread watcher =
+        new Thread() {
+          @Override
+          public void run() {
+            PolymerRenamer.main(args);
+          }
+        };
+    watcher.start();
+    try {
+      File outputA = new File(outputDir, "a.js");
+      File outputB = new File(outputDir, "b.js");
+      awaitFileContent(outputA, "Polymer({properties:{a:String}});");
+      awaitFileContent(outputB, "Polymer({properties:{b:String}});");
+
+      // Only changed inputs are renamed again.
+      Files.write(outputA.toPath(), "kept".getBytes(UTF_8));
+      Files.write(
+          new File(inputDir, "b.js").toPath(),
+          "Polymer({properties: {symbolB: Number}});".getBytes(UTF_8));
+      awaitFileContent(outputB, "Polymer({properties:{b:Number}});");
+      assertEquals("kept", getFileContent(outputA.getAbsolutePath()));
+
+      // A changed property map renames every input again.
+      Files.write(propertyMap.toPath(), Arrays.asList("symbolA:a", "symbolB:c"), UTF_8);
+      awaitFileContent(outputB, "Polymer({properties:{c:Number}});");
+      awaitFileContent(outputA, "Polymer({properties:{a:String}});");
+
+      // Inputs in new directories are renamed.
+      File subdirectory = new File(inputDir, "sub");
+      assertTrue(subdirectory.mkdir());
+      Files.write(
+          new File(subdirectory, "c.js").toPath(),
+          "Polymer({properties: {symbolA: Object}});".getBytes(UTF_8));
+      awaitFileContent(new File(outputDir, "sub/c.js"), "Polymer({properties:{a:Object}});");
+    } finally {
+      watcher.interrupt();
+      watcher.join();
+    }
+    assertEquals("", errStream.toString());
+  }
+
+  /** Waits for a file renamed in --watch mode to have the expected content. */
+  private static void awaitFileContent(File file, String expected)
+      throws IOException, InterruptedException {
+    String content = null;
+    for (int i = 0; i < 500; i++) {
+      content = file.exists() ? new String(Files.readAllBytes(file.toPath()), UTF_8) : null;
+      if (expected.equals(content)) {
+        return;
+      }
+      Thread.sleep(20);
+    }
+    assertEquals(expected, content);
+  }
+
+  private static void copyTestData(String filename, File destination) throws IOException {
+    Files.copy(Paths.get(getFilePathFromTestData(filename)), destination.toPath());
+  }
+
   private static String getFilePathFromTestData(String filename) {
     return "javatests/com/google/polymer/testdata/" + filename;
   }
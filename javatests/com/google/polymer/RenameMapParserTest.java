@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for RenameMapParser.
+ */
+@RunWith(JUnit4.class)
+public class RenameMapParserTest {
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private Map<String, String> parse(String content, int parallelism) throws IOException {
+    Path path = tmpFolder.newFile().toPath();
+    Files.write(path, content.getBytes(UTF_8));
+    return RenameMapParser.parse(path, parallelism);
+  }
+
+  @Test
+  public void testParse() throws IOException {
+    assertEquals(
+        ImmutableMap.of("symbolA", "ab", "coolSymbolName", "b", "\u00FCmlaut", "c"),
+        parse("symbolA:ab\ncoolSymbolName:b\n\u00FCmlaut:c", 1));
+    assertEquals(ImmutableMap.of(), parse("", 1));
+  }
+
+  @Test
+  public void testParseLineTerminators() throws IOException {
+    assertEquals(
+        ImmutableMap.of("a", "b", "c", "d", "e", "f", "g", "h"),
+        parse("a:b\r\nc:d\re:f\n\ng:h\r\n", 1));
+  }
+
+  @Test
+  public void testParseMatchesSplit() throws IOException {
+    // Lines are kept when line.split(":") has exactly two fields.
+    assertEquals(
+        ImmutableMap.of("a", "b", "", "c", "d", "e"),
+        parse("a:b::\n:c\nd:e\nf:\ng:h:i\nj\n:\n::k\n", 1));
+  }
+
+  @Test
+  public void testParseRepeatedSymbol() throws IOException {
+    try {
+      parse("a:b\nc:d\na:e\n", 1);
+      fail();
+    } catch (IOException expected) {
+      // Repeated symbols are rejected.
+    }
+  }
+
+  @Test
+  public void testParseInPartitions() throws IOException {
+    StringBuilder content = new StringBuilder();
+    ImmutableMap.Builder<String, String> expected = ImmutableMap.builder();
+    for (int i = 0; i < 400000; i++) {
+      String symbol = "symbolNumber" + i;
+      String renamed = Integer.toString(i, 36);
+      content.append(symbol).append(':').append(renamed).append(i % 2 == 0 ? "\r\n" : "\n");
+      expected.put(symbol, renamed);
+    }
+    assertEquals(expected.build(), parse(content.toString(), 4));
+  }
+}
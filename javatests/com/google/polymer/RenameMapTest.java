@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for RenameMap.
+ */
+@RunWith(JUnit4.class)
+public class RenameMapTest {
+
+  private static final RenameMap RENAME_MAP =
+      RenameMap.of(
+          ImmutableMap.of(
+              "longName", "a",
+              "fooBar", "bazQux",
+              "\u00FCmlaut", "u",
+              "", "empty"));
+
+  @Test
+  public void testGet() {
+    for (RenameMap renameMap : new RenameMap[] {RENAME_MAP, RENAME_MAP.withPrefilter()}) {
+      assertEquals("a", renameMap.get("longName"));
+      assertEquals("u", renameMap.get("\u00FCmlaut"));
+      assertEquals("empty", renameMap.get(""));
+      assertNull(renameMap.get("longNam"));
+      assertNull(renameMap.get("a"));
+      assertEquals(4, renameMap.size());
+      assertEquals(
+          ImmutableSet.of("longName", "fooBar", "\u00FCmlaut", ""),
+          ImmutableSet.copyOf(renameMap.symbols()));
+    }
+  }
+
+  @Test
+  public void testGetSlice() {
+    String text = "this.longName.fooBar + \u00FCmlaut";
+    for (RenameMap renameMap : new RenameMap[] {RENAME_MAP, RENAME_MAP.withPrefilter()}) {
+      assertSame(renameMap.get("longName"), renameMap.get(text, 5, 13));
+      assertEquals("bazQux", renameMap.get(text, 14, 20));
+      assertEquals("u", renameMap.get(new StringBuilder(text), 23, 29));
+      assertEquals("empty", renameMap.get(text, 5, 5));
+      assertNull(renameMap.get(text, 5, 12));
+      assertNull(renameMap.get(text, 0, 4));
+    }
+  }
+
+  @Test
+  public void testGetChanged() {
+    String text = "longNameChanged fooBarChanged otherChanged Changed";
+    for (RenameMap renameMap : new RenameMap[] {RENAME_MAP, RENAME_MAP.withPrefilter()}) {
+      assertEquals("aChanged", renameMap.getChanged(text, 0, 15));
+      assertSame(renameMap.getChanged(text, 0, 15), renameMap.getChanged(text, 0, 15));
+      assertEquals("bazQuxChanged", renameMap.getChanged(text, 16, 29));
+      assertEquals("emptyChanged", renameMap.getChanged(text, 43, 50));
+      assertNull(renameMap.getChanged(text, 30, 42));
+      assertNull(renameMap.getChanged(text, 0, 8));
+      assertNull(renameMap.getChanged(text, 0, 14));
+    }
+  }
+
+  @Test
+  public void testGetAttributeKey() {
+    for (RenameMap renameMap : new RenameMap[] {RENAME_MAP, RENAME_MAP.withPrefilter()}) {
+      assertEquals("a", renameMap.getAttributeKey("long-name"));
+      assertEquals("baz-qux", renameMap.getAttributeKey("foo-bar"));
+      assertEquals("baz-qux", renameMap.getAttributeKey("foo-bar"));
+      assertNull(renameMap.getAttributeKey("other-property"));
+      assertNull(renameMap.getAttributeKey("other-property"));
+    }
+  }
+
+  @Test
+  public void testOfReturnsTheSameRenameMapForTheSameMap() {
+    ImmutableMap<String, String> renameMap = ImmutableMap.of("longName", "a");
+    assertSame(RenameMap.of(renameMap), RenameMap.of(renameMap));
+  }
+
+  @Test
+  public void testManyEntries() {
+    Map<String, String> entries = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      entries.put("symbol" + i, Integer.toString(i, 36));
+    }
+    RenameMap renameMap = RenameMap.ofUnmodifiable(entries);
+    assertEquals(1000, renameMap.size());
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      String text = "." + entry.getKey() + ".";
+      assertEquals(entry.getValue(), renameMap.get(entry.getKey()));
+      assertEquals(entry.getValue(), renameMap.get(text, 1, text.length() - 1));
+    }
+    assertNull(renameMap.get("symbol1000"));
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for ResultCache.
+ */
+@RunWith(JUnit4.class)
+public class ResultCacheTest {
+
+  private static final ImmutableSet<JsRenamer.OutputFormat> NO_JS_OUTPUT_FORMAT =
+      ImmutableSet.of();
+  private static final ImmutableSet<HtmlRenamer.OutputFormat> NO_HTML_OUTPUT_FORMAT =
+      ImmutableSet.of();
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private Path cacheDir;
+  private Path propertyMap;
+  private byte[] propertyMapDigest;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = tmpFolder.newFolder("cache").toPath();
+    propertyMap = tmpFolder.newFile("rename.map").toPath();
+    propertyMapDigest = loadPropertyMapDigest("symbolA:a\n");
+  }
+
+  /** Writes the property map and returns the digest of the rename map loaded from it. */
+  private byte[] loadPropertyMapDigest(String content) throws IOException {
+    Files.write(propertyMap, content.getBytes(UTF_8));
+    return PolymerRenamer.getRenameMap(propertyMap.toString()).getContentDigest();
+  }
+
+  private String getKey(ResultCache resultCache, String inputFilename, String content) {
+    return resultCache.getKey(
+        inputFilename, content, NO_JS_OUTPUT_FORMAT, NO_HTML_OUTPUT_FORMAT, null);
+  }
+
+  @Test
+  public void testKeys() throws IOException {
+    ResultCache resultCache = ResultCache.open(cacheDir, 1 << 20, propertyMapDigest, false);
+    String key = getKey(resultCache, "a.js", "symbolA;");
+    assertEquals(key, getKey(resultCache, "b/c.js", "symbolA;"));
+    assertNotEquals(key, getKey(resultCache, "a.html", "symbolA;"));
+    assertNotEquals(key, getKey(resultCache, "a.js", "symbolA ;"));
+    assertNotEquals(
+        key,
+        resultCache.getKey(
+            "a.js",
+            "symbolA;",
+            ImmutableSet.of(JsRenamer.OutputFormat.PRETTY),
+            NO_HTML_OUTPUT_FORMAT,
+            null));
+    assertNotEquals(
+        key,
+        getKey(ResultCache.open(cacheDir, 1 << 20, propertyMapDigest, true), "a.js", "symbolA;"));
+    assertNotEquals(
+        key,
+        getKey(
+            ResultCache.open(cacheDir, 1 << 20, loadPropertyMapDigest("symbolA:b\n"), false),
+            "a.js",
+            "symbolA;"));
+  }
+
+  @Test
+  public void testKeysFollowTheLoadedPropertyMap() throws IOException {
+    RenameMap renameMap = PolymerRenamer.getRenameMap(propertyMap.toString());
+    String key =
+        getKey(
+            ResultCache.open(cacheDir, 1 << 20, renameMap.getContentDigest(), false),
+            "a.js",
+            "symbolA;");
+
+    // Results renamed with the loaded map keep its key after the file changes underneath it.
+    Files.write(propertyMap, "symbolA:b\n".getBytes(UTF_8));
+    assertEquals(
+        key,
+        getKey(
+            ResultCache.open(cacheDir, 1 << 20, renameMap.getContentDigest(), false),
+            "a.js",
+            "symbolA;"));
+    assertEquals(
+        key,
+        getKey(
+            ResultCache.open(
+                cacheDir, 1 << 20, renameMap.withPrefilter().getContentDigest(), false),
+            "a.js",
+            "symbolA;"));
+  }
+
+  @Test
+  public void testPutAndRestore() throws IOException {
+    ResultCache resultCache = ResultCache.open(cacheDir, 1 << 20, propertyMapDigest, false);
+    String key = getKey(resultCache, "a.js", "symbolA;");
+    Path outputFile = tmpFolder.getRoot().toPath().resolve("output.js");
+    assertFalse(resultCache.restore(key, outputFile, null, null));
+    assertFalse(Files.exists(outputFile));
+
+    Path sourceMapFile = tmpFolder.newFile("renamed.sourcemap").toPath();
+    Files.write(sourceMapFile, "{}".getBytes(UTF_8));
+    resultCache.put(key, "a;", sourceMapFile);
+    Files.delete(sourceMapFile);
+    assertTrue(resultCache.restore(key, outputFile, null, sourceMapFile));
+    assertEquals("a;", new String(Files.readAllBytes(outputFile), UTF_8));
+    assertEquals("{}", new String(Files.readAllBytes(sourceMapFile), UTF_8));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(resultCache.restore(key, null, new PrintStream(out, true, "UTF-8"), null));
+    assertEquals("a;", new String(out.toByteArray(), UTF_8));
+
+    assertNull(resultCache.getSymbols(key));
+    resultCache.putSymbols(key, Arrays.asList("symbolA", "symbolB"));
+    assertEquals(Arrays.asList("symbolA", "symbolB"), resultCache.getSymbols(key));
+  }
+
+  @Test
+  public void testTrimEvictsLeastRecentlyUsed() throws IOException {
+    ResultCache resultCache = ResultCache.open(cacheDir, 10, propertyMapDigest, false);
+    String oldKey = getKey(resultCache, "a.js", "old");
+    String newKey = getKey(resultCache, "a.js", "new");
+    resultCache.putSymbols(oldKey, Arrays.asList("symbolA"));
+    resultCache.put(oldKey, "0123456789", null);
+    Files.setLastModifiedTime(
+        cacheDir.resolve(oldKey.substring(0, 2)).resolve(oldKey), FileTime.fromMillis(0));
+    resultCache.put(newKey, "0123456789", null);
+    resultCache.trim();
+
+    Path outputFile = tmpFolder.getRoot().toPath().resolve("output.js");
+    assertFalse(resultCache.restore(oldKey, outputFile, null, null));
+    assertNull(resultCache.getSymbols(oldKey));
+    assertTrue(resultCache.restore(newKey, outputFile, null, null));
+  }
+}
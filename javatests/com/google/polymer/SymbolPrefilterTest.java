@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 The Polymer Project Authors. All rights reserved.
+ * This code may only be used under the BSD style license found at http://polymer.github.io/LICENSE
+ * The complete set of authors may be found at http://polymer.github.io/AUTHORS
+ * The complete set of contributors may be found at http://polymer.github.io/CONTRIBUTORS
+ * Code distributed by Google as part of the polymer project is also
+ * subject to an additional IP rights grant found at http://polymer.github.io/PATENTS
+ */
+
+package com.google.polymer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for SymbolPrefilter.
+ */
+@RunWith(JUnit4.class)
+public class SymbolPrefilterTest {
+
+  private static final SymbolPrefilter PREFILTER =
+      SymbolPrefilter.build(ImmutableList.of("coolSymbolName", "symbolA", "he", "she", "hers"));
+
+  @Test
+  public void testMatches() {
+    assertTrue(PREFILTER.matches("this.coolSymbolName = 1;"));
+    assertTrue(PREFILTER.matches("{{symbolA}}"));
+    assertTrue(PREFILTER.matches("ushers"));
+    assertTrue(PREFILTER.matches("xshx he"));
+    assertFalse(PREFILTER.matches("symbol A, coolSymbol, s-y"));
+    assertFalse(PREFILTER.matches(""));
+  }
+
+  @Test
+  public void testMatchesVariants() {
+    // Hyphenated attribute keys, *Changed names and differently cased text all match.
+    assertTrue(PREFILTER.matches("<x-foo cool-symbol-name=\"1\">"));
+    assertTrue(PREFILTER.matches("<x-foo COOL-SYMBOL-NAME=\"1\">"));
+    assertTrue(PREFILTER.matches("symbolAChanged: function() {}"));
+    // Escapes can spell out any symbol.
+    assertTrue(PREFILTER.matches("'\\u0073ymbolA'"));
+  }
+
+  @Test
+  public void testEmptySymbolMatchesEverything() {
+    assertTrue(SymbolPrefilter.build(ImmutableList.of("")).matches("anything"));
+    assertFalse(SymbolPrefilter.build(ImmutableList.<String>of()).matches("anything"));
+  }
+
+  @Test
+  public void testPrefilteredRename() {
+    RenameMap renameMap =
+        RenameMap.of(ImmutableMap.of("longName", "a", "otherProperty", "b")).withPrefilter();
+    String html =
+        "<dom-module id=\"x-foo\"><template><div title=\"{{ other }}\">{{ longName }}</div>"
+            + "</template><script>var  unrelated  =  1;</script></dom-module>";
+    assertEquals(
+        "<dom-module id=\"x-foo\"><template><div title=\"{{ other }}\">{{a}}</div>"
+            + "</template><script>var  unrelated  =  1;</script></dom-module>",
+        HtmlRenamer.rename(
+            renameMap, html, ImmutableSet.of(HtmlRenamer.OutputFormat.PRESERVE_SOURCE)));
+    assertEquals(renameMap, renameMap.withPrefilter());
+  }
+}